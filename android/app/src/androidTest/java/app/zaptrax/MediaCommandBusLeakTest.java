@@ -0,0 +1,88 @@
+package app.zaptrax;
+
+import static org.junit.Assert.*;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Instrumented test, which will execute on an Android device.
+ *
+ * Verifies that routing Android Auto commands through {@link MediaCommandBus} does not keep
+ * destroyed activities (and their WebViews) alive.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaCommandBusLeakTest {
+
+    private static final long GC_TIMEOUT_MS = 10_000;
+
+    @Test
+    public void recreatedActivityIsCollected() throws Exception {
+        AtomicReference<WeakReference<MainActivity>> firstActivity = new AtomicReference<>();
+
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> firstActivity.set(new WeakReference<>(activity)));
+
+            scenario.recreate();
+
+            scenario.onActivity(activity -> {
+                assertNotSame(firstActivity.get().get(), activity);
+                assertTrue(MediaCommandBus.get().hasListener());
+            });
+
+            assertTrue("Recreated activity was not garbage collected", awaitCollected(firstActivity.get()));
+        }
+    }
+
+    @Test
+    public void commandsAreQueuedWithBoundedDepthWhileNoActivityIsAttached() throws Exception {
+        AtomicReference<WeakReference<MainActivity>> activityRef = new AtomicReference<>();
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> activityRef.set(new WeakReference<>(activity)));
+        }
+
+        assertFalse(MediaCommandBus.get().hasListener());
+        for (int i = 0; i < MediaCommandBus.MAX_PENDING_COMMANDS * 2; i++) {
+            MediaCommandBus.get().post(listener -> listener.onPause());
+        }
+        assertEquals(MediaCommandBus.MAX_PENDING_COMMANDS, MediaCommandBus.get().pendingCount());
+
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> {
+                // Delivered once the WebView listens, which the test doesn't wait for
+                MediaCommandBus.get().markReady();
+                assertEquals(0, MediaCommandBus.get().pendingCount());
+            });
+        }
+
+        assertTrue("Destroyed activity was not garbage collected", awaitCollected(activityRef.get()));
+    }
+
+    @Test
+    public void staleCommandsAreDropped() throws Exception {
+        // Leaves no activity attached
+        ActivityScenario.launch(MainActivity.class).close();
+
+        assertFalse(MediaCommandBus.get().hasListener());
+        MediaCommandBus.get().post(listener -> listener.onPause());
+        Thread.sleep(MediaCommandBus.PENDING_COMMAND_TTL_MS + 100);
+        MediaCommandBus.get().post(listener -> listener.onPlay());
+        assertEquals(1, MediaCommandBus.get().pendingCount());
+    }
+
+    private static boolean awaitCollected(WeakReference<?> ref) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + GC_TIMEOUT_MS;
+        while (ref.get() != null && System.currentTimeMillis() < deadline) {
+            Runtime.getRuntime().gc();
+            System.runFinalization();
+            Thread.sleep(100);
+        }
+        return ref.get() == null;
+    }
+}
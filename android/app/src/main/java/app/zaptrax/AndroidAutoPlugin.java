@@ -1,14 +1,23 @@
 package app.zaptrax;
 
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import androidx.media.MediaBrowserServiceCompat;
+
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -29,14 +38,9 @@ public class AndroidAutoPlugin extends Plugin {
 
         Log.d(TAG, "updateMetadata: " + title + " by " + artist);
 
-        ZaptraxMediaBrowserService service = ZaptraxMediaBrowserService.getInstance();
-        if (service != null) {
-            service.updateMetadata(title, artist, album, artworkUrl, duration);
-            call.resolve();
-        } else {
-            Log.w(TAG, "MediaBrowserService not available");
-            call.resolve(); // Don't fail if service isn't running
-        }
+        // Not needed for tracks of the queue, their metadata is published when they play
+        PlaybackCoordinator.get().setMetadata(title, artist, album, artworkUrl, duration);
+        call.resolve();
     }
 
     @PluginMethod
@@ -47,20 +51,16 @@ public class AndroidAutoPlugin extends Plugin {
 
         Log.d(TAG, "updatePlaybackState: playing=" + playing + ", position=" + position);
 
-        ZaptraxMediaBrowserService service = ZaptraxMediaBrowserService.getInstance();
-        if (service != null) {
-            service.updatePlaybackState(playing, (long)(position * 1000), (float)speed);
-            call.resolve();
-        } else {
-            Log.w(TAG, "MediaBrowserService not available");
-            call.resolve();
-        }
+        PlaybackCoordinator.get().setLocalPlaybackState(playing, (long)(position * 1000), (float)speed);
+        call.resolve();
     }
 
     @PluginMethod
     public void updateQueue(PluginCall call) {
         JSArray tracksArray = call.getArray("tracks");
         int currentIndex = call.getInt("currentIndex", -1);
+        // chrome.cast.media.RepeatMode, a cast session continues the queue with it
+        String repeatMode = call.getString("repeatMode", "REPEAT_OFF");
 
         if (tracksArray == null) {
             call.resolve();
@@ -68,6 +68,8 @@ public class AndroidAutoPlugin extends Plugin {
         }
 
         List<ZaptraxMediaBrowserService.TrackInfo> tracks = new ArrayList<>();
+        // The tracks as chrome.cast.media.QueueItems, for a cast session to continue the queue
+        JSONArray castItems = new JSONArray();
 
         try {
             for (int i = 0; i < tracksArray.length(); i++) {
@@ -81,6 +83,12 @@ public class AndroidAutoPlugin extends Plugin {
                     trackObj.optLong("duration", 0) * 1000L
                 );
                 tracks.add(track);
+                JSONObject castItem = trackObj.optJSONObject("cast");
+                if (castItems != null && castItem != null) {
+                    castItems.put(castItem);
+                } else {
+                    castItems = null;
+                }
             }
         } catch (JSONException e) {
             Log.e(TAG, "Failed to parse queue: " + e.getMessage());
@@ -90,20 +98,55 @@ public class AndroidAutoPlugin extends Plugin {
 
         Log.d(TAG, "updateQueue: " + tracks.size() + " tracks, index=" + currentIndex);
 
-        ZaptraxMediaBrowserService service = ZaptraxMediaBrowserService.getInstance();
-        if (service != null) {
-            service.updateQueue(tracks, currentIndex);
-            call.resolve();
-        } else {
-            Log.w(TAG, "MediaBrowserService not available");
-            call.resolve();
-        }
+        PlaybackCoordinator.get().setQueue(tracks, currentIndex, castItems, repeatMode);
+        // useAndroidAuto sends its queue once it listens for commands
+        MediaCommandBus.get().markReady();
+        call.resolve();
     }
 
     @PluginMethod
-    public void isAvailable(PluginCall call) {
+    public void updateQueueIndex(PluginCall call) {
+        int currentIndex = call.getInt("currentIndex", -1);
+
+        Log.d(TAG, "updateQueueIndex: " + currentIndex);
+
+        PlaybackCoordinator.get().setQueueIndex(currentIndex);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void skipToIndex(PluginCall call) {
+        int index = call.getInt("index", -1);
+
+        Log.d(TAG, "skipToIndex: " + index);
+
+        // The same routing as skips from the car
         JSObject result = new JSObject();
-        result.put("available", ZaptraxMediaBrowserService.getInstance() != null);
+        result.put("skipped", PlaybackCoordinator.get().skipToIndex(index));
         call.resolve(result);
     }
+
+    @PluginMethod
+    public void isAvailable(PluginCall call) {
+        // Binder calls, made on the plugin's thread
+        Context context = getContext();
+        boolean playServices = GoogleApiAvailability.getInstance()
+                .isGooglePlayServicesAvailable(context) == ConnectionResult.SUCCESS;
+        Intent browserIntent = new Intent(MediaBrowserServiceCompat.SERVICE_INTERFACE)
+                .setPackage(context.getPackageName());
+        boolean declared = !context.getPackageManager().queryIntentServices(browserIntent, 0).isEmpty();
+
+        // The service is created and destroyed on the main thread, so it is read there in one go
+        new Handler(Looper.getMainLooper()).post(() -> {
+            ZaptraxMediaBrowserService service = ZaptraxMediaBrowserService.getInstance();
+
+            JSObject result = new JSObject();
+            // The service is created on demand, so it is available even when not running yet
+            result.put("available", playServices && declared);
+            result.put("playServices", playServices);
+            result.put("running", service != null);
+            result.put("initialized", service != null && service.isSessionActive());
+            call.resolve(result);
+        });
+    }
 }
@@ -0,0 +1,24 @@
+package app.zaptrax;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+@CapacitorPlugin(name = "DeepLinkPrefetch")
+public class DeepLinkPrefetchPlugin extends Plugin {
+
+    @PluginMethod
+    public void consume(PluginCall call) {
+        DeepLinkPrefetcher prefetcher = DeepLinkPrefetcher.current();
+        if (prefetcher == null) {
+            JSObject result = new JSObject();
+            result.put("found", false);
+            call.resolve(result);
+            return;
+        }
+        // Resolves immediately if the fetch already finished, otherwise when it does
+        prefetcher.consume(call.getString("url"), call);
+    }
+}
@@ -0,0 +1,258 @@
+package app.zaptrax;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts fetching the Wavlake entity referenced by a zaptrax.app deep link as soon as the
+ * activity is created, in parallel with WebView and bridge startup.
+ *
+ * The entity JSON is handed to JS through {@link DeepLinkPrefetchPlugin}, so the page can
+ * render without its own request. The artwork is downloaded as well and served to the
+ * WebView from memory by {@link PrefetchingWebViewClient} when the page asks for it.
+ *
+ * Nostr links (tracks, playlists, profiles) need a relay connection that only exists in JS,
+ * so they are not prefetched.
+ */
+final class DeepLinkPrefetcher {
+    private static final String TAG = "DeepLinkPrefetcher";
+
+    private static final String DEEP_LINK_HOST = "zaptrax.app";
+    private static final String WAVLAKE_API_BASE = "https://wavlake.com/api/v1";
+    private static final int TIMEOUT_MS = 10_000;
+    private static final int MAX_RESPONSE_BYTES = 2 * 1024 * 1024;
+
+    private static volatile DeepLinkPrefetcher current;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "zaptrax-deeplink");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** A prefetched artwork image. */
+    static final class Artwork {
+        final String url;
+        final String mimeType;
+        final byte[] bytes;
+
+        Artwork(String url, String mimeType, byte[] bytes) {
+            this.url = url;
+            this.mimeType = mimeType;
+            this.bytes = bytes;
+        }
+    }
+
+    private final String url;
+    private final String type;
+    private final String id;
+
+    private boolean done = false;
+    private JSONObject data;
+    private String error;
+    private Artwork artwork;
+    private final List<PluginCall> waitingCalls = new ArrayList<>();
+
+    private DeepLinkPrefetcher(String url, String type, String id) {
+        this.url = url;
+        this.type = type;
+        this.id = id;
+    }
+
+    /**
+     * Parses the intent and, if it is a supported deep link, starts prefetching it.
+     * @param intent the launch or new intent
+     */
+    static void prefetch(@Nullable Intent intent) {
+        if (intent == null || !Intent.ACTION_VIEW.equals(intent.getAction()) || intent.getData() == null) {
+            return;
+        }
+        Uri uri = intent.getData();
+        if (!"https".equals(uri.getScheme()) || !DEEP_LINK_HOST.equals(uri.getHost())) {
+            return;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2) {
+            return;
+        }
+        String type = segments.get(0);
+        if (!"album".equals(type) && !"artist".equals(type)) {
+            return;
+        }
+
+        DeepLinkPrefetcher prefetcher = new DeepLinkPrefetcher(uri.toString(), type, segments.get(1));
+        current = prefetcher;
+        executor.execute(prefetcher::run);
+    }
+
+    /**
+     * @return the prefetcher for the most recent deep link, or null
+     */
+    @Nullable
+    static DeepLinkPrefetcher current() {
+        return current;
+    }
+
+    /**
+     * Resolves the call with the prefetched entity once it is available. Resolves with
+     * {@code found: false} if the URL doesn't match the prefetched deep link.
+     * @param requestedUrl the deep link URL JS is about to handle
+     * @param call the plugin call to resolve
+     */
+    void consume(String requestedUrl, PluginCall call) {
+        if (requestedUrl == null || !Uri.parse(requestedUrl).normalizeScheme().equals(Uri.parse(url).normalizeScheme())) {
+            call.resolve(new JSObject().put("found", false));
+            return;
+        }
+        synchronized (this) {
+            if (!done) {
+                waitingCalls.add(call);
+                return;
+            }
+        }
+        call.resolve(createResult());
+    }
+
+    /**
+     * @param artworkUrl the requested URL
+     * @return the prefetched artwork if it matches the URL, otherwise null
+     */
+    @Nullable
+    synchronized Artwork getArtwork(String artworkUrl) {
+        if (artwork != null && artwork.url.equals(artworkUrl)) {
+            return artwork;
+        }
+        return null;
+    }
+
+    private void run() {
+        long start = System.currentTimeMillis();
+        JSONObject entity = null;
+        String failure = null;
+        try {
+            entity = new JSONObject(new String(fetch(WAVLAKE_API_BASE + "/content/" + type + "/" + Uri.encode(id)), "UTF-8"));
+        } catch (IOException | JSONException e) {
+            failure = e.getMessage();
+            Log.w(TAG, "Failed to prefetch " + url + ": " + failure);
+        }
+
+        List<PluginCall> calls;
+        synchronized (this) {
+            data = entity;
+            error = failure;
+            done = true;
+            calls = new ArrayList<>(waitingCalls);
+            waitingCalls.clear();
+        }
+        Log.d(TAG, "Prefetched " + type + " " + id + " in " + (System.currentTimeMillis() - start) + "ms");
+
+        JSObject result = createResult();
+        for (PluginCall call : calls) {
+            call.resolve(result);
+        }
+
+        if (entity != null) {
+            prefetchArtwork(entity.optString("album".equals(type) ? "albumArtUrl" : "artistArtUrl", ""));
+        }
+    }
+
+    private void prefetchArtwork(String artworkUrl) {
+        if (artworkUrl.isEmpty()) {
+            return;
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = open(artworkUrl);
+            String mimeType = connection.getContentType();
+            byte[] bytes = readBody(connection);
+            if (bytes != null) {
+                synchronized (this) {
+                    artwork = new Artwork(artworkUrl, mimeType != null ? mimeType.split(";")[0] : "image/jpeg", bytes);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to prefetch artwork: " + e.getMessage());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private synchronized JSObject createResult() {
+        JSObject result = new JSObject();
+        result.put("found", data != null);
+        result.put("type", type);
+        result.put("id", id);
+        if (data != null) {
+            try {
+                result.put("data", JSObject.fromJSONObject(data));
+            } catch (JSONException e) {
+                result.put("found", false);
+            }
+        }
+        if (error != null) {
+            result.put("error", error);
+        }
+        return result;
+    }
+
+    private static byte[] fetch(String requestUrl) throws IOException {
+        HttpURLConnection connection = open(requestUrl);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            byte[] body = readBody(connection);
+            if (body == null) {
+                throw new IOException("Response too large");
+            }
+            return body;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(String requestUrl) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(requestUrl).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestProperty("Accept", "application/json, image/*");
+        return connection;
+    }
+
+    @Nullable
+    private static byte[] readBody(HttpURLConnection connection) throws IOException {
+        try (InputStream input = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (out.size() + read > MAX_RESPONSE_BYTES) {
+                    return null;
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.KeyEvent;
+import android.webkit.WebView;
 
 import com.getcapacitor.BridgeActivity;
 import com.getcapacitor.JSObject;
@@ -17,35 +18,168 @@ import java.util.List;
 public class MainActivity extends BridgeActivity {
 
     private static final String TAG = "ZaptraxMainActivity";
+    private static final String STEP_PLAY_SERVICES = "playServices";
+    private static final String STEP_CAST_CONTEXT = "castContext";
+
     private Object castContext; // Use Object to avoid class loading issues
-    private boolean castAvailable = false;
+    private volatile boolean castAvailable = false;
+    private StartupOrchestrator startup;
+    private WebViewHibernator hibernator;
+
+    /**
+     * Forwards Android Auto commands and receiver playback to the WebView. MediaCommandBus only holds this weakly
+     * and drops it when the activity is destroyed, so the field keeps it alive for our lifetime.
+     */
+    private final ZaptraxMediaBrowserService.MediaCommandListener mediaCommandListener = new ZaptraxMediaBrowserService.MediaCommandListener() {
+        @Override
+        public void onPlay() {
+            Log.d(TAG, "Android Auto: onPlay");
+            evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'play' } }));");
+        }
+
+        @Override
+        public void onPause() {
+            Log.d(TAG, "Android Auto: onPause");
+            evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'pause' } }));");
+        }
+
+        @Override
+        public void onSkipToNext() {
+            Log.d(TAG, "Android Auto: onSkipToNext");
+            evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'nexttrack' } }));");
+        }
+
+        @Override
+        public void onSkipToPrevious() {
+            Log.d(TAG, "Android Auto: onSkipToPrevious");
+            evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'previoustrack' } }));");
+        }
+
+        @Override
+        public void onSeekTo(long position) {
+            Log.d(TAG, "Android Auto: onSeekTo " + position);
+            evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'seekto', seekTime: " + (position / 1000.0) + " } }));");
+        }
+
+        @Override
+        public void onPlayFromMediaId(String mediaId) {
+            Log.d(TAG, "Android Auto: onPlayFromMediaId " + mediaId);
+            evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'playFromMediaId', mediaId: '" + mediaId + "' } }));");
+        }
+
+        @Override
+        public void onStop() {
+            Log.d(TAG, "Android Auto: onStop");
+            evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'stop' } }));");
+        }
+
+        @Override
+        public void onCastPlaybackChanged(int index, long position, boolean playing) {
+            Log.d(TAG, "Cast: index=" + index + ", playing=" + playing);
+            // Not worth waking a hibernating WebView, it gets a snapshot when the activity starts
+            runOnUiThread(() -> {
+                if (hibernator == null || !hibernator.isBackgrounded()) {
+                    evaluateJavascript("window.dispatchEvent(new CustomEvent('nativePlaybackState', { detail: { output: 'cast', index: " + index + ", position: " + (position / 1000.0) + ", playing: " + playing + " } }));");
+                }
+            });
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        startup = new StartupOrchestrator();
+
+        // Start fetching deep-linked content right away so it is ready when React boots
+        DeepLinkPrefetcher.prefetch(getIntent());
+
         // Register plugins before calling super.onCreate
         registerPlugin(AndroidAutoPlugin.class);
+        registerPlugin(DeepLinkPrefetchPlugin.class);
 
         super.onCreate(savedInstanceState);
+        startup.mark("bridgeCreated");
+        traceFirstWebViewPaint();
 
-        // Initialize CastContext for volume control (only if Google Play Services available)
-        initializeCastIfAvailable();
+        // Serve prefetched deep-link artwork to the WebView from memory
+        if (getBridge() != null) {
+            getBridge().setWebViewClient(new PrefetchingWebViewClient(getBridge()));
+            hibernator = new WebViewHibernator(getBridge().getWebView());
+        }
 
-        // Start the MediaBrowserService for Android Auto
-        startMediaBrowserService();
+        // Route Android Auto commands to this activity until it is destroyed
+        MediaCommandBus.get().register(this, mediaCommandListener);
+        // The media session follows the receiver while one plays
+        PlaybackCoordinator.get().attach(this);
+
+        // Everything below is optional and must not delay the first WebView frame:
+        // - the Play Services check is a binder call, so it runs in the background
+        // - CastContext must be created on the main thread, so it is posted after the check
+        // - the MediaBrowserService is not started here at all; it is created when Android Auto
+        //   binds or playback starts
+        startup
+            .background(STEP_PLAY_SERVICES, this::checkGooglePlayServices)
+            .mainThread(STEP_CAST_CONTEXT, this::initializeCast, STEP_PLAY_SERVICES)
+            .start();
     }
 
-    private void initializeCastIfAvailable() {
-        try {
-            // Check if Google Play Services is available
-            GoogleApiAvailability apiAvailability = GoogleApiAvailability.getInstance();
-            int resultCode = apiAvailability.isGooglePlayServicesAvailable(this);
-
-            if (resultCode != ConnectionResult.SUCCESS) {
-                Log.i(TAG, "Google Play Services not available, Cast disabled");
-                castAvailable = false;
-                return;
+    @Override
+    public void onStart() {
+        super.onStart();
+        if (hibernator != null) {
+            hibernator.exitBackground();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        if (hibernator != null) {
+            hibernator.enterBackground();
+        }
+        super.onStop();
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        DeepLinkPrefetcher.prefetch(intent);
+        super.onNewIntent(intent);
+    }
+
+    @Override
+    public void onDestroy() {
+        if (startup != null) {
+            startup.shutdown();
+        }
+        super.onDestroy();
+    }
+
+    private void traceFirstWebViewPaint() {
+        if (getBridge() == null || getBridge().getWebView() == null) {
+            return;
+        }
+        getBridge().getWebView().postVisualStateCallback(0, new WebView.VisualStateCallback() {
+            @Override
+            public void onComplete(long requestId) {
+                startup.mark("firstWebViewPaint");
             }
+        });
+    }
+
+    private void checkGooglePlayServices() {
+        GoogleApiAvailability apiAvailability = GoogleApiAvailability.getInstance();
+        int resultCode = apiAvailability.isGooglePlayServicesAvailable(this);
+
+        if (resultCode != ConnectionResult.SUCCESS) {
+            Log.i(TAG, "Google Play Services not available, Cast disabled");
+            throw new IllegalStateException("Google Play Services unavailable (" + resultCode + ")");
+        }
+    }
 
+    /**
+     * Initialize CastContext for volume control. Runs on the main thread once Google Play
+     * Services is known to be available.
+     */
+    private void initializeCast() throws Exception {
+        try {
             // Try to initialize Cast - use reflection to avoid class loading crash
             Class<?> castContextClass = Class.forName("com.google.android.gms.cast.framework.CastContext");
             java.lang.reflect.Method getSharedInstance = castContextClass.getMethod("getSharedInstance", android.content.Context.class);
@@ -55,71 +189,21 @@ public class MainActivity extends BridgeActivity {
         } catch (Exception e) {
             Log.i(TAG, "Cast not available: " + e.getMessage());
             castAvailable = false;
+            throw e;
         } catch (Throwable t) {
             // Catch any other errors (NoClassDefFoundError, etc.)
             Log.i(TAG, "Cast framework not available: " + t.getMessage());
             castAvailable = false;
-        }
-    }
-
-    private void startMediaBrowserService() {
-        try {
-            Intent serviceIntent = new Intent(this, ZaptraxMediaBrowserService.class);
-            startService(serviceIntent);
-
-            // Set up command listener to forward Android Auto commands to WebView
-            ZaptraxMediaBrowserService.setCommandListener(new ZaptraxMediaBrowserService.MediaCommandListener() {
-                @Override
-                public void onPlay() {
-                    Log.d(TAG, "Android Auto: onPlay");
-                    evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'play' } }));");
-                }
-
-                @Override
-                public void onPause() {
-                    Log.d(TAG, "Android Auto: onPause");
-                    evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'pause' } }));");
-                }
-
-                @Override
-                public void onSkipToNext() {
-                    Log.d(TAG, "Android Auto: onSkipToNext");
-                    evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'nexttrack' } }));");
-                }
-
-                @Override
-                public void onSkipToPrevious() {
-                    Log.d(TAG, "Android Auto: onSkipToPrevious");
-                    evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'previoustrack' } }));");
-                }
-
-                @Override
-                public void onSeekTo(long position) {
-                    Log.d(TAG, "Android Auto: onSeekTo " + position);
-                    evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'seekto', seekTime: " + (position / 1000.0) + " } }));");
-                }
-
-                @Override
-                public void onPlayFromMediaId(String mediaId) {
-                    Log.d(TAG, "Android Auto: onPlayFromMediaId " + mediaId);
-                    evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'playFromMediaId', mediaId: '" + mediaId + "' } }));");
-                }
-
-                @Override
-                public void onStop() {
-                    Log.d(TAG, "Android Auto: onStop");
-                    evaluateJavascript("window.dispatchEvent(new CustomEvent('androidAutoCommand', { detail: { action: 'stop' } }));");
-                }
-            });
-
-            Log.d(TAG, "MediaBrowserService started for Android Auto");
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to start MediaBrowserService: " + e.getMessage());
+            throw new IllegalStateException(t);
         }
     }
 
     private void evaluateJavascript(final String script) {
         runOnUiThread(() -> {
+            if (hibernator != null) {
+                // Commands can arrive from the car while the WebView is hibernating
+                hibernator.wake();
+            }
             if (getBridge() != null && getBridge().getWebView() != null) {
                 getBridge().getWebView().evaluateJavascript(script, null);
             }
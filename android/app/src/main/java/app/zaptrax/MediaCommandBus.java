@@ -0,0 +1,185 @@
+package app.zaptrax;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routes transport commands for the local player from {@link PlaybackCoordinator} to the UI
+ * without the service ever holding a strong reference to an activity.
+ *
+ * The listener is registered together with its {@link LifecycleOwner}, held weakly, and
+ * dropped automatically when the owner is destroyed. While no listener is attached (e.g.
+ * during activity recreation), or a new one isn't {@link #markReady() ready} yet because its
+ * WebView is still loading, commands are queued, up to {@link #MAX_PENDING_COMMANDS}, oldest
+ * first out. Once the listener is ready, the commands that are at most
+ * {@link #PENDING_COMMAND_TTL_MS} old are delivered; older ones are stale taps and dropped.
+ */
+final class MediaCommandBus {
+    private static final String TAG = "MediaCommandBus";
+
+    static final int MAX_PENDING_COMMANDS = 16;
+    /** How long a queued command stays worth delivering. */
+    static final long PENDING_COMMAND_TTL_MS = 5_000;
+
+    private static final MediaCommandBus INSTANCE = new MediaCommandBus();
+
+    /** A single command, replayed against whichever listener is attached. */
+    interface Command {
+        void deliver(ZaptraxMediaBrowserService.MediaCommandListener listener);
+    }
+
+    /** A queued command and when it was posted. */
+    private static final class Pending {
+        final Command command;
+        final long postedAt;
+
+        Pending(Command command, long postedAt) {
+            this.command = command;
+            this.postedAt = postedAt;
+        }
+    }
+
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private WeakReference<ZaptraxMediaBrowserService.MediaCommandListener> listenerRef;
+    private Registration registration;
+    /** Whether the attached listener can handle commands, see {@link #markReady()}. */
+    private boolean ready = false;
+
+    private MediaCommandBus() {
+    }
+
+    static MediaCommandBus get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Attaches a listener for the lifetime of {@code owner}. Replaces any previous listener.
+     * Commands keep being queued until {@link #markReady()}.
+     * Must be called from the main thread, like any other lifecycle observer registration.
+     * The caller must keep a strong reference to {@code listener}; the bus only holds it weakly.
+     * @param owner the lifecycle the registration is tied to
+     * @param listener receives the commands
+     */
+    void register(@NonNull LifecycleOwner owner, @NonNull ZaptraxMediaBrowserService.MediaCommandListener listener) {
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+        Registration newRegistration = new Registration();
+        synchronized (this) {
+            listenerRef = new WeakReference<>(listener);
+            registration = newRegistration;
+            ready = false;
+        }
+        owner.getLifecycle().addObserver(newRegistration);
+    }
+
+    /**
+     * Marks the attached listener as able to handle commands (its WebView listens for them),
+     * and delivers the queued commands that aren't stale. Does nothing without a listener.
+     */
+    void markReady() {
+        ZaptraxMediaBrowserService.MediaCommandListener listener;
+        List<Command> flush = new ArrayList<>();
+        synchronized (this) {
+            listener = listenerRef != null ? listenerRef.get() : null;
+            if (listener == null || ready) {
+                return;
+            }
+            ready = true;
+            dropExpired();
+            for (Pending command : pending) {
+                flush.add(command.command);
+            }
+            pending.clear();
+        }
+
+        if (!flush.isEmpty()) {
+            Log.d(TAG, "Delivering " + flush.size() + " queued commands");
+        }
+        for (Command command : flush) {
+            command.deliver(listener);
+        }
+    }
+
+    /**
+     * Delivers a command to the attached listener, or queues it if there is none or it isn't
+     * ready yet.
+     * @param command the command to deliver
+     */
+    void post(@NonNull Command command) {
+        ZaptraxMediaBrowserService.MediaCommandListener listener;
+        synchronized (this) {
+            listener = listenerRef != null ? listenerRef.get() : null;
+            if (listener == null || !ready) {
+                dropExpired();
+                if (pending.size() >= MAX_PENDING_COMMANDS) {
+                    pending.pollFirst();
+                }
+                pending.addLast(new Pending(command, SystemClock.elapsedRealtime()));
+                return;
+            }
+        }
+        command.deliver(listener);
+    }
+
+    /**
+     * Delivers a state update to the attached, ready listener, or drops it. Unlike
+     * commands, updates are never queued: a stale state must not reach a listener that attaches
+     * later, and newer updates would push real commands out of the queue.
+     * @param update the update to deliver
+     */
+    void postIfAttached(@NonNull Command update) {
+        ZaptraxMediaBrowserService.MediaCommandListener listener;
+        synchronized (this) {
+            listener = listenerRef != null && ready ? listenerRef.get() : null;
+        }
+        if (listener != null) {
+            update.deliver(listener);
+        }
+    }
+
+    /** @return true if a live listener is attached. Visible for tests. */
+    synchronized boolean hasListener() {
+        return listenerRef != null && listenerRef.get() != null;
+    }
+
+    /** @return the number of queued commands. Visible for tests. */
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    private synchronized void unregister(Registration expired) {
+        // A newer registration (e.g. the recreated activity) may already have replaced this one
+        if (registration == expired) {
+            registration = null;
+            listenerRef = null;
+            ready = false;
+        }
+    }
+
+    /** Drops the queued commands older than {@link #PENDING_COMMAND_TTL_MS}. */
+    private void dropExpired() {
+        long oldest = SystemClock.elapsedRealtime() - PENDING_COMMAND_TTL_MS;
+        while (!pending.isEmpty() && pending.peekFirst().postedAt < oldest) {
+            pending.pollFirst();
+        }
+    }
+
+    private final class Registration implements DefaultLifecycleObserver {
+        @Override
+        public void onDestroy(@NonNull LifecycleOwner owner) {
+            owner.getLifecycle().removeObserver(this);
+            unregister(this);
+        }
+    }
+}
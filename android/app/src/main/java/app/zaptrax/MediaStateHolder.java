@@ -0,0 +1,129 @@
+package app.zaptrax;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lightweight, process-wide copy of the playback state shown by the media session.
+ *
+ * {@link PlaybackCoordinator} always writes here, whether or not {@link ZaptraxMediaBrowserService}
+ * is running. The service is only created when a media browser (Android Auto) binds or when
+ * playback starts, and publishes whatever this holder contains when it comes up.
+ */
+final class MediaStateHolder {
+    private static final MediaStateHolder INSTANCE = new MediaStateHolder();
+
+    private String title = "";
+    private String artist = "";
+    private String album = "";
+    private String artworkUrl = "";
+    private long duration = 0;
+    private boolean hasMetadata = false;
+
+    private boolean playing = false;
+    private long position = 0;
+    private float speed = 1.0f;
+    private long playbackStateUpdatedAt = 0;
+    private boolean hasPlaybackState = false;
+
+    private List<ZaptraxMediaBrowserService.TrackInfo> queue = Collections.emptyList();
+    private int currentQueueIndex = -1;
+
+    private MediaStateHolder() {
+    }
+
+    static MediaStateHolder get() {
+        return INSTANCE;
+    }
+
+    synchronized void setMetadata(String title, String artist, String album, String artworkUrl, long duration) {
+        this.title = title != null ? title : "";
+        this.artist = artist != null ? artist : "";
+        this.album = album != null ? album : "";
+        this.artworkUrl = artworkUrl != null ? artworkUrl : "";
+        this.duration = duration;
+        this.hasMetadata = true;
+    }
+
+    synchronized void setPlaybackState(boolean playing, long position, float speed) {
+        this.playing = playing;
+        this.position = position;
+        this.speed = speed;
+        this.playbackStateUpdatedAt = SystemClock.elapsedRealtime();
+        this.hasPlaybackState = true;
+    }
+
+    synchronized void setQueue(List<ZaptraxMediaBrowserService.TrackInfo> queue, int currentIndex) {
+        this.queue = queue != null
+            ? Collections.unmodifiableList(new ArrayList<>(queue))
+            : Collections.<ZaptraxMediaBrowserService.TrackInfo>emptyList();
+        this.currentQueueIndex = currentIndex;
+    }
+
+    synchronized void setCurrentQueueIndex(int currentIndex) {
+        this.currentQueueIndex = currentIndex;
+    }
+
+    synchronized String getTitle() {
+        return title;
+    }
+
+    synchronized String getArtist() {
+        return artist;
+    }
+
+    synchronized String getAlbum() {
+        return album;
+    }
+
+    synchronized String getArtworkUrl() {
+        return artworkUrl;
+    }
+
+    synchronized long getDuration() {
+        return duration;
+    }
+
+    synchronized boolean hasMetadata() {
+        return hasMetadata;
+    }
+
+    synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the last reported position, advanced by the time spent playing since then
+     */
+    synchronized long getEstimatedPosition() {
+        if (!playing) {
+            return position;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - playbackStateUpdatedAt;
+        long estimate = position + (long) (elapsed * speed);
+        return duration > 0 ? Math.min(estimate, duration) : estimate;
+    }
+
+    synchronized float getSpeed() {
+        return speed;
+    }
+
+    synchronized boolean hasPlaybackState() {
+        return hasPlaybackState;
+    }
+
+    synchronized List<ZaptraxMediaBrowserService.TrackInfo> getQueue() {
+        return queue;
+    }
+
+    synchronized int getCurrentQueueIndex() {
+        return currentQueueIndex;
+    }
+}
@@ -0,0 +1,335 @@
+package app.zaptrax;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.gameleap.plugins.chromecast.CastPlayback;
+
+import org.json.JSONArray;
+
+import java.util.List;
+
+/**
+ * Single owner of the queue and position shown by the media session (notification, Android
+ * Auto), and the one place that decides where its transport commands go.
+ *
+ * The WebView reports its queue and local playback once, through the AndroidAuto plugin. The
+ * coordinator stores them in {@link MediaStateHolder}, publishes them to
+ * {@link ZaptraxMediaBrowserService} and hands the queue to the Chromecast plugin, which loads
+ * it on the receiver when a session starts.
+ *
+ * While the receiver plays, it is the active output: the media session follows the
+ * receiver's state ({@link CastPlayback}), skips from the car and from the WebView's own
+ * buttons ({@link #skipToIndex}) go to the receiver, and the WebView is told what the
+ * receiver plays. Reports from the local player are ignored
+ * until the receiver stops.
+ */
+final class PlaybackCoordinator implements CastPlayback.Listener {
+    private static final String TAG = "PlaybackCoordinator";
+
+    private static final PlaybackCoordinator INSTANCE = new PlaybackCoordinator();
+
+    private final MediaStateHolder state = MediaStateHolder.get();
+    /** Starts the media service, null until {@link #attach}. */
+    private Context appContext;
+    /** Whether the receiver is the active output. */
+    private boolean casting = false;
+    /** The local queue as chrome.cast.media.QueueItem[], null if the WebView sent none. */
+    private JSONArray castItems;
+    /** chrome.cast.media.RepeatMode of the local queue. */
+    private String repeatMode = "REPEAT_OFF";
+    /** Id of the track whose metadata was published last. */
+    private String publishedTrackId;
+
+    private PlaybackCoordinator() {
+    }
+
+    static PlaybackCoordinator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts following the receiver. Called once the app starts.
+     * @param context any context, only its application context is kept
+     */
+    void attach(@NonNull Context context) {
+        synchronized (this) {
+            appContext = context.getApplicationContext();
+        }
+        CastPlayback.setListener(this);
+    }
+
+    // Reports of the WebView
+
+    /**
+     * Stores the local queue, and publishes the metadata of its current track.
+     * @param tracks the queue
+     * @param index index of the current track
+     * @param castItems the queue as chrome.cast.media.QueueItem[], null if the WebView sent none
+     * @param repeatMode chrome.cast.media.RepeatMode of the queue, the receiver is loaded with it
+     */
+    void setQueue(@NonNull List<ZaptraxMediaBrowserService.TrackInfo> tracks, int index, @Nullable JSONArray castItems,
+                  @NonNull String repeatMode) {
+        boolean castActive;
+        synchronized (this) {
+            castActive = casting;
+            this.castItems = castItems;
+            this.repeatMode = repeatMode;
+        }
+        String previousTrackId = currentTrackId();
+        // While casting the receiver's item is the current one
+        state.setQueue(tracks, castActive ? state.getCurrentQueueIndex() : index);
+        if (castActive) {
+            // Still needed to match the receiver's items with the queue
+            CastPlayback.setLocalState(castItems, index, state.getEstimatedPosition(), state.isPlaying(), repeatMode);
+        } else {
+            startLocalTrack(previousTrackId, castItems, repeatMode);
+        }
+        ZaptraxMediaBrowserService service = ZaptraxMediaBrowserService.getInstance();
+        if (service != null) {
+            service.publishQueue();
+        }
+        publishCurrentTrack();
+    }
+
+    /**
+     * Moves to another track of the stored queue, ignored while the receiver plays: its index
+     * arrives through {@link #onCastPlaybackChanged} once a skip ({@link #skipToIndex}) is done.
+     * @param index index of the current track
+     */
+    void setQueueIndex(int index) {
+        JSONArray items;
+        String mode;
+        synchronized (this) {
+            if (casting) {
+                return;
+            }
+            items = castItems;
+            mode = repeatMode;
+        }
+        String previousTrackId = currentTrackId();
+        state.setCurrentQueueIndex(index);
+        startLocalTrack(previousTrackId, items, mode);
+        publishCurrentTrack();
+    }
+
+    /**
+     * Stores the metadata of a track that isn't part of the queue.
+     */
+    void setMetadata(String title, String artist, String album, String artworkUrl, long duration) {
+        synchronized (this) {
+            publishedTrackId = null;
+        }
+        state.setMetadata(title, artist, album, artworkUrl, duration);
+        ZaptraxMediaBrowserService service = ZaptraxMediaBrowserService.getInstance();
+        if (service != null) {
+            service.publishMetadata();
+        }
+    }
+
+    /**
+     * Stores the local player's state, ignored while the receiver plays.
+     * @param playing whether the local player plays
+     * @param positionMs its position
+     * @param speed its playback rate
+     */
+    void setLocalPlaybackState(boolean playing, long positionMs, float speed) {
+        JSONArray items;
+        String mode;
+        synchronized (this) {
+            if (casting) {
+                return;
+            }
+            items = castItems;
+            mode = repeatMode;
+        }
+        state.setPlaybackState(playing, positionMs, speed);
+        if (items != null) {
+            // A new session continues from here
+            CastPlayback.setLocalState(items, state.getCurrentQueueIndex(), positionMs, playing, mode);
+        }
+        publishPlaybackState(playing);
+    }
+
+    // Commands of the media session
+
+    void play() {
+        if (isCasting() && CastPlayback.play()) {
+            return;
+        }
+        MediaCommandBus.get().post(listener -> listener.onPlay());
+    }
+
+    void pause() {
+        if (isCasting() && CastPlayback.pause()) {
+            return;
+        }
+        MediaCommandBus.get().post(listener -> listener.onPause());
+    }
+
+    void stop() {
+        // Stopping the car's playback leaves the cast session to the phone
+        if (isCasting() && CastPlayback.pause()) {
+            return;
+        }
+        MediaCommandBus.get().post(listener -> listener.onStop());
+    }
+
+    void seekTo(long position) {
+        if (isCasting() && CastPlayback.seekTo(position)) {
+            return;
+        }
+        MediaCommandBus.get().post(listener -> listener.onSeekTo(position));
+    }
+
+    void skipToNext() {
+        if (skipToIndex(state.getCurrentQueueIndex() + 1)) {
+            return;
+        }
+        MediaCommandBus.get().post(listener -> listener.onSkipToNext());
+    }
+
+    void skipToPrevious() {
+        if (skipToIndex(state.getCurrentQueueIndex() - 1)) {
+            return;
+        }
+        MediaCommandBus.get().post(listener -> listener.onSkipToPrevious());
+    }
+
+    void playFromMediaId(String mediaId) {
+        if (skipToIndex(queueIndexOf(mediaId))) {
+            return;
+        }
+        MediaCommandBus.get().post(listener -> listener.onPlayFromMediaId(mediaId));
+    }
+
+    /**
+     * Plays a track of the stored queue on the receiver, if it is the active output. Skips of
+     * the media session and of the WebView both end up here.
+     * @param index index of the track
+     * @return false if the local player should play it: the receiver isn't playing, or the
+     * queue has no such track
+     */
+    boolean skipToIndex(int index) {
+        return isCasting() && index >= 0 && index < state.getQueue().size() && CastPlayback.skipToIndex(index);
+    }
+
+    // The receiver
+
+    @Override
+    public void onCastPlaybackChanged(@NonNull CastPlayback.State cast) {
+        boolean wasCasting;
+        synchronized (this) {
+            wasCasting = casting;
+            casting = cast.active;
+        }
+        if (!cast.active) {
+            if (wasCasting) {
+                Log.d(TAG, "Receiver stopped, following the local player");
+                // Paused where the receiver was, until the local player reports
+                state.setPlaybackState(false, state.getEstimatedPosition(), state.getSpeed());
+                publishPlaybackState(false);
+            }
+            return;
+        }
+        if (cast.index >= 0 && cast.index < state.getQueue().size()) {
+            state.setCurrentQueueIndex(cast.index);
+            publishCurrentTrack();
+        }
+        long position = cast.getEstimatedPosition(SystemClock.elapsedRealtime());
+        state.setPlaybackState(cast.playing, position, 1.0f);
+        publishPlaybackState(cast.playing);
+        // A UI that attaches later reads the state from MediaStateHolder
+        MediaCommandBus.get().postIfAttached(listener -> listener.onCastPlaybackChanged(cast.index, position, cast.playing));
+    }
+
+    /** @return whether the receiver is the active output */
+    synchronized boolean isCasting() {
+        return casting;
+    }
+
+    /**
+     * @return the id of the current queue track, null if there is none
+     */
+    private String currentTrackId() {
+        List<ZaptraxMediaBrowserService.TrackInfo> queue = state.getQueue();
+        int index = state.getCurrentQueueIndex();
+        return index >= 0 && index < queue.size() ? queue.get(index).id : null;
+    }
+
+    /**
+     * Hands the local state to the Chromecast plugin after the queue or its index changed. A
+     * new current track starts at 0, the position of the previous one doesn't carry over.
+     * @param previousTrackId the id of the current track before the change
+     * @param items the queue as chrome.cast.media.QueueItem[], null if the WebView sent none
+     * @param repeatMode chrome.cast.media.RepeatMode of the queue
+     */
+    private void startLocalTrack(String previousTrackId, @Nullable JSONArray items, @NonNull String repeatMode) {
+        String trackId = currentTrackId();
+        if (trackId == null || !trackId.equals(previousTrackId)) {
+            state.setPlaybackState(state.isPlaying(), 0, state.getSpeed());
+            publishPlaybackState(state.isPlaying());
+        }
+        CastPlayback.setLocalState(items, state.getCurrentQueueIndex(), state.getEstimatedPosition(), state.isPlaying(), repeatMode);
+    }
+
+    /**
+     * Publishes the metadata of the current queue track, if it changed.
+     */
+    private void publishCurrentTrack() {
+        List<ZaptraxMediaBrowserService.TrackInfo> queue = state.getQueue();
+        int index = state.getCurrentQueueIndex();
+        if (index < 0 || index >= queue.size()) {
+            return;
+        }
+        ZaptraxMediaBrowserService.TrackInfo track = queue.get(index);
+        synchronized (this) {
+            if (track.id.equals(publishedTrackId)) {
+                return;
+            }
+            publishedTrackId = track.id;
+        }
+        state.setMetadata(track.title, track.artist, track.album, track.artworkUrl, track.duration);
+        ZaptraxMediaBrowserService service = ZaptraxMediaBrowserService.getInstance();
+        if (service != null) {
+            service.publishMetadata();
+        }
+    }
+
+    private void publishPlaybackState(boolean playing) {
+        ZaptraxMediaBrowserService service = ZaptraxMediaBrowserService.getInstance();
+        if (service != null) {
+            service.publishPlaybackState();
+            return;
+        }
+        Context context;
+        synchronized (this) {
+            context = appContext;
+        }
+        if (playing && context != null) {
+            // Playback started, so the media session is needed now
+            ZaptraxMediaBrowserService.ensureStarted(context);
+        }
+    }
+
+    /**
+     * @param mediaId a media id of the queue browsed by the car, "queue_<index>_<trackId>"
+     * @return the index, -1 if mediaId is not one of the queue
+     */
+    static int queueIndexOf(String mediaId) {
+        if (mediaId == null || !mediaId.startsWith(ZaptraxMediaBrowserService.MEDIA_QUEUE_ITEM_PREFIX)) {
+            return -1;
+        }
+        int start = ZaptraxMediaBrowserService.MEDIA_QUEUE_ITEM_PREFIX.length();
+        int end = mediaId.indexOf('_', start);
+        try {
+            return Integer.parseInt(end >= 0 ? mediaId.substring(start, end) : mediaId.substring(start));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
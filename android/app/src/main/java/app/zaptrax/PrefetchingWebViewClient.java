@@ -0,0 +1,41 @@
+package app.zaptrax;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import com.getcapacitor.Bridge;
+import com.getcapacitor.BridgeWebViewClient;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+
+/**
+ * Serves artwork that {@link DeepLinkPrefetcher} already downloaded straight from memory,
+ * and otherwise behaves exactly like Capacitor's own client.
+ */
+class PrefetchingWebViewClient extends BridgeWebViewClient {
+
+    PrefetchingWebViewClient(Bridge bridge) {
+        super(bridge);
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        DeepLinkPrefetcher prefetcher = DeepLinkPrefetcher.current();
+        if (prefetcher != null && "GET".equals(request.getMethod())) {
+            DeepLinkPrefetcher.Artwork artwork = prefetcher.getArtwork(request.getUrl().toString());
+            if (artwork != null) {
+                return new WebResourceResponse(
+                    artwork.mimeType,
+                    null,
+                    200,
+                    "OK",
+                    Collections.singletonMap("Access-Control-Allow-Origin", "*"),
+                    new ByteArrayInputStream(artwork.bytes)
+                );
+            }
+        }
+        return super.shouldInterceptRequest(view, request);
+    }
+}
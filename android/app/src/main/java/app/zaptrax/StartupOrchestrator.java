@@ -0,0 +1,202 @@
+package app.zaptrax;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the non-essential parts of app startup (Play Services check, Cast, media service)
+ * off the critical path so the WebView can draw its first frame as early as possible.
+ *
+ * Steps declare their dependencies by name. A step only runs once all of its dependencies
+ * completed successfully; if a dependency fails, every step depending on it is skipped.
+ * Each step runs either on a shared background thread or, when the framework requires it
+ * (e.g. CastContext), posted to the main looper.
+ *
+ * Per-step timings go to the system trace (visible in Perfetto / systrace) and to logcat
+ * under the "ZaptraxStartup" tag, together with any milestones recorded via {@link #mark}.
+ */
+final class StartupOrchestrator {
+    private static final String TAG = "ZaptraxStartup";
+
+    /** A unit of startup work. Throwing marks the step as failed. */
+    interface Step {
+        void run() throws Exception;
+    }
+
+    private static final class Node {
+        final String name;
+        final boolean mainThread;
+        final Step step;
+        final String[] dependsOn;
+        final List<Node> dependents = new ArrayList<>();
+        int pendingDependencies;
+        boolean scheduled;
+
+        Node(String name, boolean mainThread, Step step, String[] dependsOn) {
+            this.name = name;
+            this.mainThread = mainThread;
+            this.step = step;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final long createdAt = SystemClock.elapsedRealtime();
+    private ExecutorService executor;
+    private boolean started = false;
+
+    /**
+     * Adds a step that runs on the background thread.
+     * @param name unique name of the step, used for dependencies and tracing
+     * @param step the work to run
+     * @param dependsOn names of steps that must have completed successfully first
+     * @return this orchestrator
+     */
+    StartupOrchestrator background(String name, Step step, String... dependsOn) {
+        return add(name, false, step, dependsOn);
+    }
+
+    /**
+     * Adds a step that is posted to the main looper once its dependencies completed.
+     * @param name unique name of the step, used for dependencies and tracing
+     * @param step the work to run
+     * @param dependsOn names of steps that must have completed successfully first
+     * @return this orchestrator
+     */
+    StartupOrchestrator mainThread(String name, Step step, String... dependsOn) {
+        return add(name, true, step, dependsOn);
+    }
+
+    private StartupOrchestrator add(String name, boolean mainThread, Step step, String[] dependsOn) {
+        if (started) {
+            throw new IllegalStateException("Cannot add step '" + name + "' after start()");
+        }
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate startup step: " + name);
+        }
+        nodes.put(name, new Node(name, mainThread, step, dependsOn));
+        return this;
+    }
+
+    /**
+     * Resolves dependencies and schedules every step whose dependencies are already met.
+     * Must be called from the main thread.
+     */
+    void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        for (Node node : nodes.values()) {
+            for (String dependency : node.dependsOn) {
+                Node parent = nodes.get(dependency);
+                if (parent == null) {
+                    throw new IllegalArgumentException("Startup step '" + node.name
+                            + "' depends on unknown step '" + dependency + "'");
+                }
+                parent.dependents.add(node);
+                node.pendingDependencies++;
+            }
+        }
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "zaptrax-startup");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+
+        for (Node node : nodes.values()) {
+            if (node.pendingDependencies == 0) {
+                schedule(node);
+            }
+        }
+    }
+
+    /**
+     * Records a named milestone (e.g. first WebView paint) relative to orchestrator creation.
+     * @param milestone the name of the milestone
+     */
+    void mark(String milestone) {
+        Log.i(TAG, milestone + " at +" + (SystemClock.elapsedRealtime() - createdAt) + "ms");
+    }
+
+    /**
+     * Stops the background thread. Steps that have not started yet are dropped.
+     */
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private synchronized void schedule(final Node node) {
+        if (node.scheduled) {
+            return;
+        }
+        node.scheduled = true;
+        Runnable task = () -> execute(node);
+        if (node.mainThread) {
+            mainHandler.post(task);
+        } else if (!executor.isShutdown()) {
+            executor.execute(task);
+        }
+    }
+
+    private void execute(Node node) {
+        long start = SystemClock.elapsedRealtime();
+        boolean success;
+        Trace.beginSection("startup:" + node.name);
+        try {
+            node.step.run();
+            success = true;
+        } catch (Throwable t) {
+            // Startup steps are optional features; a failure only disables what depends on it
+            Log.i(TAG, "Step '" + node.name + "' failed: " + t.getMessage());
+            success = false;
+        } finally {
+            Trace.endSection();
+        }
+        long end = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Step '" + node.name + "' " + (success ? "done" : "failed")
+                + " in " + (end - start) + "ms (+" + (end - createdAt) + "ms, "
+                + (node.mainThread ? "main" : "background") + ")");
+
+        List<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            for (Node dependent : node.dependents) {
+                if (!success) {
+                    skip(dependent);
+                } else if (--dependent.pendingDependencies == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        for (Node dependent : ready) {
+            schedule(dependent);
+        }
+    }
+
+    private void skip(Node node) {
+        if (node.scheduled) {
+            return;
+        }
+        node.scheduled = true;
+        Log.i(TAG, "Step '" + node.name + "' skipped (dependency failed)");
+        for (Node dependent : node.dependents) {
+            skip(dependent);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package app.zaptrax;
+
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+import android.webkit.WebView;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Puts the WebView into a low-cost background mode while the activity is stopped.
+ *
+ * The WebView is the audio player, so how deep it can sleep depends on the native state:
+ * <ul>
+ *   <li>Always: JS is told via the {@code nativeBackgroundMode} event, and the receiver's
+ *   playback is no longer pushed to it; the MediaSession extrapolates the position on its
+ *   own.</li>
+ *   <li>When nothing is playing locally: WebView timers are paused and the renderer's
+ *   priority is waived so the system can reclaim its memory.</li>
+ * </ul>
+ * On resume the WebView is restored and JS receives a snapshot of the native
+ * {@link MediaStateHolder} state to reconcile with. Its "output" is "cast" while the snapshot
+ * is the receiver's state, which JS applies, and "local" otherwise.
+ *
+ * The app process PSS before and after each background period is logged under the
+ * "ZaptraxHibernate" tag. It only includes the WebView renderer when that runs in process;
+ * an out-of-process renderer (the default since Android O) belongs to the WebView package and
+ * can't be measured from here, use {@code adb shell dumpsys meminfo} for its sandboxed process.
+ */
+final class WebViewHibernator {
+    private static final String TAG = "ZaptraxHibernate";
+    /** How long the WebView stays awake after {@link #wake()} before it is paused again. */
+    static final long WAKE_GRACE_MS = 10_000;
+
+    private static final ExecutorService memoryProbe = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "zaptrax-memory-probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final WebView webView;
+    private boolean backgrounded = false;
+    private boolean timersPaused = false;
+    private final Runnable rehibernate = () -> {
+        if (backgrounded && !MediaStateHolder.get().isPlaying()) {
+            pauseWebView();
+        }
+    };
+
+    WebViewHibernator(WebView webView) {
+        this.webView = webView;
+    }
+
+    /**
+     * Called from onStop. Must be called on the main thread.
+     */
+    void enterBackground() {
+        if (backgrounded) {
+            return;
+        }
+        backgrounded = true;
+        logMemory("entering background");
+
+        dispatchBackgroundMode(true);
+
+        if (!MediaStateHolder.get().isPlaying()) {
+            pauseWebView();
+        }
+    }
+
+    /**
+     * Called from onStart. Must be called on the main thread.
+     */
+    void exitBackground() {
+        if (!backgrounded) {
+            return;
+        }
+        backgrounded = false;
+        webView.removeCallbacks(rehibernate);
+        logMemory("leaving background");
+
+        resumeWebView();
+        dispatchBackgroundMode(false);
+    }
+
+    /** @return whether the activity is stopped. Must be called on the main thread. */
+    boolean isBackgrounded() {
+        return backgrounded;
+    }
+
+    /**
+     * Makes sure JS can run, e.g. before delivering an Android Auto command while the
+     * activity is stopped. Stays in background mode otherwise: unless the command started
+     * playback, the WebView is paused again after {@link #WAKE_GRACE_MS}.
+     */
+    void wake() {
+        if (!timersPaused) {
+            return;
+        }
+        resumeWebView();
+        webView.removeCallbacks(rehibernate);
+        webView.postDelayed(rehibernate, WAKE_GRACE_MS);
+    }
+
+    private void pauseWebView() {
+        if (timersPaused) {
+            return;
+        }
+        webView.onPause();
+        webView.pauseTimers();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            webView.setRendererPriorityPolicy(WebView.RENDERER_PRIORITY_WAIVED, true);
+        }
+        timersPaused = true;
+        Log.d(TAG, "WebView timers paused");
+    }
+
+    private void resumeWebView() {
+        if (!timersPaused) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            webView.setRendererPriorityPolicy(WebView.RENDERER_PRIORITY_IMPORTANT, true);
+        }
+        webView.resumeTimers();
+        webView.onResume();
+        timersPaused = false;
+        Log.d(TAG, "WebView timers resumed");
+    }
+
+    private void dispatchBackgroundMode(boolean active) {
+        JSONObject detail = new JSONObject();
+        try {
+            detail.put("active", active);
+            if (!active) {
+                MediaStateHolder state = MediaStateHolder.get();
+                JSONObject snapshot = new JSONObject();
+                snapshot.put("output", PlaybackCoordinator.get().isCasting() ? "cast" : "local");
+                snapshot.put("playing", state.isPlaying());
+                snapshot.put("position", state.getEstimatedPosition() / 1000.0);
+                snapshot.put("title", state.getTitle());
+                snapshot.put("queueIndex", state.getCurrentQueueIndex());
+                detail.put("snapshot", snapshot);
+            }
+        } catch (JSONException e) {
+            return;
+        }
+        webView.evaluateJavascript("window.dispatchEvent(new CustomEvent('nativeBackgroundMode', { detail: " + detail + " }));", null);
+    }
+
+    private void logMemory(final String phase) {
+        final String renderer;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            renderer = webView.getWebViewRenderProcess() != null ? "renderer not included" : "renderer in process";
+        } else {
+            renderer = "renderer placement unknown";
+        }
+        memoryProbe.execute(() -> Log.i(TAG, "App process PSS " + phase + ": " + Debug.getPss() + " KB (" + renderer + ")"));
+    }
+}
@@ -1,6 +1,7 @@
 package app.zaptrax;
 
 import android.app.PendingIntent;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -31,6 +32,8 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
     private static final String MEDIA_ROOT_ID = "zaptrax_root";
     private static final String MEDIA_NOW_PLAYING_ID = "now_playing";
     private static final String MEDIA_QUEUE_ID = "queue";
+    /** Media ids of the queue items are this prefix, their index, "_" and the track id. */
+    static final String MEDIA_QUEUE_ITEM_PREFIX = "queue_";
 
     private MediaSessionCompat mediaSession;
     private PlaybackStateCompat.Builder playbackStateBuilder;
@@ -39,18 +42,9 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
 
     // Static instance for communication with Capacitor
     private static ZaptraxMediaBrowserService instance;
-    private static MediaCommandListener commandListener;
-
-    // Current state
-    private static String currentTitle = "";
-    private static String currentArtist = "";
-    private static String currentAlbum = "";
-    private static String currentArtworkUrl = "";
-    private static long currentDuration = 0;
-    private static long currentPosition = 0;
-    private static boolean isPlaying = false;
-    private static List<TrackInfo> queue = new ArrayList<>();
-    private static int currentQueueIndex = -1;
+
+    // Playback state lives in MediaStateHolder so it survives while the service isn't running
+    private final MediaStateHolder state = MediaStateHolder.get();
 
     public interface MediaCommandListener {
         void onPlay();
@@ -60,6 +54,14 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
         void onSeekTo(long position);
         void onPlayFromMediaId(String mediaId);
         void onStop();
+
+        /**
+         * Not a command: the receiver's playback changed, the UI should show it.
+         * @param index index of the receiver's item in the queue, -1 if it isn't one of the queue
+         * @param position position in ms
+         * @param playing whether the receiver plays
+         */
+        void onCastPlaybackChanged(int index, long position, boolean playing);
     }
 
     public static class TrackInfo {
@@ -80,14 +82,35 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
         }
     }
 
-    public static void setCommandListener(MediaCommandListener listener) {
-        commandListener = listener;
-    }
-
     public static ZaptraxMediaBrowserService getInstance() {
         return instance;
     }
 
+    /**
+     * Starts the service if it isn't running yet. The service is otherwise only created
+     * when a media browser such as Android Auto binds to it.
+     * @param context any context
+     */
+    static void ensureStarted(Context context) {
+        if (instance != null) {
+            return;
+        }
+        try {
+            context.startService(new Intent(context, ZaptraxMediaBrowserService.class));
+        } catch (IllegalStateException e) {
+            // Background start restrictions; the next bind or foreground playback will start it
+            Log.w(TAG, "Unable to start MediaBrowserService: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Must be called on the main thread, where the service is created and destroyed.
+     * @return whether the media session is set up and active
+     */
+    boolean isSessionActive() {
+        return mediaSession != null && mediaSession.isActive();
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -132,6 +155,14 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
 
         // Activate the session
         mediaSession.setActive(true);
+
+        // Publish whatever the WebView pushed before the service existed
+        if (state.hasMetadata()) {
+            publishMetadata();
+        }
+        if (state.hasPlaybackState()) {
+            publishPlaybackState();
+        }
     }
 
     @Override
@@ -168,7 +199,7 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
             MediaDescriptionCompat.Builder nowPlayingDesc = new MediaDescriptionCompat.Builder()
                 .setMediaId(MEDIA_NOW_PLAYING_ID)
                 .setTitle("Now Playing")
-                .setSubtitle(currentTitle.isEmpty() ? "Nothing playing" : currentTitle);
+                .setSubtitle(state.getTitle().isEmpty() ? "Nothing playing" : state.getTitle());
             mediaItems.add(new MediaBrowserCompat.MediaItem(
                 nowPlayingDesc.build(),
                 MediaBrowserCompat.MediaItem.FLAG_BROWSABLE
@@ -177,7 +208,7 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
             MediaDescriptionCompat.Builder queueDesc = new MediaDescriptionCompat.Builder()
                 .setMediaId(MEDIA_QUEUE_ID)
                 .setTitle("Queue")
-                .setSubtitle(queue.size() + " tracks");
+                .setSubtitle(state.getQueue().size() + " tracks");
             mediaItems.add(new MediaBrowserCompat.MediaItem(
                 queueDesc.build(),
                 MediaBrowserCompat.MediaItem.FLAG_BROWSABLE
@@ -185,15 +216,15 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
 
         } else if (MEDIA_NOW_PLAYING_ID.equals(parentId)) {
             // Return current track info
-            if (!currentTitle.isEmpty()) {
+            if (!state.getTitle().isEmpty()) {
                 MediaDescriptionCompat.Builder desc = new MediaDescriptionCompat.Builder()
                     .setMediaId("current_track")
-                    .setTitle(currentTitle)
-                    .setSubtitle(currentArtist)
-                    .setDescription(currentAlbum);
+                    .setTitle(state.getTitle())
+                    .setSubtitle(state.getArtist())
+                    .setDescription(state.getAlbum());
 
-                if (!currentArtworkUrl.isEmpty()) {
-                    desc.setIconUri(Uri.parse(currentArtworkUrl));
+                if (!state.getArtworkUrl().isEmpty()) {
+                    desc.setIconUri(Uri.parse(state.getArtworkUrl()));
                 }
 
                 mediaItems.add(new MediaBrowserCompat.MediaItem(
@@ -204,10 +235,11 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
 
         } else if (MEDIA_QUEUE_ID.equals(parentId)) {
             // Return queue items
+            List<TrackInfo> queue = state.getQueue();
             for (int i = 0; i < queue.size(); i++) {
                 TrackInfo track = queue.get(i);
                 MediaDescriptionCompat.Builder desc = new MediaDescriptionCompat.Builder()
-                    .setMediaId("queue_" + i + "_" + track.id)
+                    .setMediaId(MEDIA_QUEUE_ITEM_PREFIX + i + "_" + track.id)
                     .setTitle(track.title)
                     .setSubtitle(track.artist)
                     .setDescription(track.album);
@@ -226,26 +258,22 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
         result.sendResult(mediaItems);
     }
 
-    // Public methods to update state from Capacitor plugin
-    public void updateMetadata(String title, String artist, String album, String artworkUrl, long duration) {
-        currentTitle = title != null ? title : "";
-        currentArtist = artist != null ? artist : "";
-        currentAlbum = album != null ? album : "";
-        currentArtworkUrl = artworkUrl != null ? artworkUrl : "";
-        currentDuration = duration;
+    // Public methods to publish the MediaStateHolder contents, called by PlaybackCoordinator
+    public void publishMetadata() {
+        String artworkUrl = state.getArtworkUrl();
 
-        Log.d(TAG, "updateMetadata: " + title + " by " + artist);
+        Log.d(TAG, "publishMetadata: " + state.getTitle() + " by " + state.getArtist());
 
         metadataBuilder = new MediaMetadataCompat.Builder()
-            .putString(MediaMetadataCompat.METADATA_KEY_TITLE, currentTitle)
-            .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, currentArtist)
-            .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, currentAlbum)
-            .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, currentDuration);
+            .putString(MediaMetadataCompat.METADATA_KEY_TITLE, state.getTitle())
+            .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, state.getArtist())
+            .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, state.getAlbum())
+            .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, state.getDuration());
 
-        if (!currentArtworkUrl.isEmpty()) {
-            metadataBuilder.putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, currentArtworkUrl);
+        if (!artworkUrl.isEmpty()) {
+            metadataBuilder.putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, artworkUrl);
             // Load artwork in background
-            loadArtwork(currentArtworkUrl);
+            loadArtwork(artworkUrl);
         }
 
         mediaSession.setMetadata(metadataBuilder.build());
@@ -255,21 +283,15 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
         notifyChildrenChanged(MEDIA_NOW_PLAYING_ID);
     }
 
-    public void updatePlaybackState(boolean playing, long position, float speed) {
-        isPlaying = playing;
-        currentPosition = position;
-
-        int state = playing ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED;
+    public void publishPlaybackState() {
+        int playbackState = state.isPlaying() ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED;
 
-        playbackStateBuilder.setState(state, position, speed);
+        playbackStateBuilder.setState(playbackState, state.getPosition(), state.getSpeed());
         mediaSession.setPlaybackState(playbackStateBuilder.build());
     }
 
-    public void updateQueue(List<TrackInfo> newQueue, int currentIndex) {
-        queue = newQueue != null ? newQueue : new ArrayList<>();
-        currentQueueIndex = currentIndex;
-
-        Log.d(TAG, "updateQueue: " + queue.size() + " tracks, current index: " + currentIndex);
+    public void publishQueue() {
+        Log.d(TAG, "publishQueue: " + state.getQueue().size() + " tracks, current index: " + state.getCurrentQueueIndex());
 
         // Notify that queue children have changed
         notifyChildrenChanged(MEDIA_QUEUE_ID);
@@ -295,61 +317,48 @@ public class ZaptraxMediaBrowserService extends MediaBrowserServiceCompat {
         });
     }
 
+    /** Hands the commands to {@link PlaybackCoordinator}, which sends them to the active output. */
     private class MediaSessionCallback extends MediaSessionCompat.Callback {
         @Override
         public void onPlay() {
             Log.d(TAG, "MediaSession onPlay");
-            if (commandListener != null) {
-                commandListener.onPlay();
-            }
+            PlaybackCoordinator.get().play();
         }
 
         @Override
         public void onPause() {
             Log.d(TAG, "MediaSession onPause");
-            if (commandListener != null) {
-                commandListener.onPause();
-            }
+            PlaybackCoordinator.get().pause();
         }
 
         @Override
         public void onSkipToNext() {
             Log.d(TAG, "MediaSession onSkipToNext");
-            if (commandListener != null) {
-                commandListener.onSkipToNext();
-            }
+            PlaybackCoordinator.get().skipToNext();
         }
 
         @Override
         public void onSkipToPrevious() {
             Log.d(TAG, "MediaSession onSkipToPrevious");
-            if (commandListener != null) {
-                commandListener.onSkipToPrevious();
-            }
+            PlaybackCoordinator.get().skipToPrevious();
         }
 
         @Override
         public void onSeekTo(long pos) {
             Log.d(TAG, "MediaSession onSeekTo: " + pos);
-            if (commandListener != null) {
-                commandListener.onSeekTo(pos);
-            }
+            PlaybackCoordinator.get().seekTo(pos);
         }
 
         @Override
         public void onPlayFromMediaId(String mediaId, Bundle extras) {
             Log.d(TAG, "MediaSession onPlayFromMediaId: " + mediaId);
-            if (commandListener != null) {
-                commandListener.onPlayFromMediaId(mediaId);
-            }
+            PlaybackCoordinator.get().playFromMediaId(mediaId);
         }
 
         @Override
         public void onStop() {
             Log.d(TAG, "MediaSession onStop");
-            if (commandListener != null) {
-                commandListener.onStop();
-            }
+            PlaybackCoordinator.get().stop();
         }
     }
 }
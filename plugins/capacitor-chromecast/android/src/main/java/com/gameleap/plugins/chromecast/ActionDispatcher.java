@@ -0,0 +1,177 @@
+package com.gameleap.plugins.chromecast;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatch table for the cordova style {@code execute(action, args, callbackContext)} entry point.
+ *
+ * The public methods of a class are scanned once and grouped by action name and arity
+ * (the trailing CallbackContext is not counted). Each call then only has to pick between the
+ * few overloads with the right arity (eg. setReceiverVolumeLevel(Integer|Double)), and the
+ * winner for a given argument-type signature is cached, so repeated calls are a map lookup
+ * plus one invoke.
+ */
+final class ActionDispatcher {
+    /** One dispatch table per class. */
+    private static final Map<Class<?>, ActionDispatcher> TABLES = new ConcurrentHashMap<>();
+
+    /** Placeholder type used in signatures for null / JSONObject.NULL arguments. */
+    private static final String NULL_TYPE = "null";
+
+    /** action + "/" + arity -> candidate methods. */
+    private final Map<String, Invoker[]> byArity;
+    /** action + "/" + arity + "/" + argument types -> resolved method. */
+    private final Map<String, Invoker> bySignature = new ConcurrentHashMap<>();
+
+    /** A pre-resolved target method. */
+    static final class Invoker {
+        /** The method to call. */
+        private final Method method;
+        /** The parameter types without the trailing CallbackContext. */
+        private final Class<?>[] argTypes;
+        /** Whether the method's boolean return value should be forwarded. */
+        private final boolean returnsBoolean;
+
+        Invoker(Method method) {
+            Class<?>[] params = method.getParameterTypes();
+            this.method = method;
+            this.argTypes = new Class<?>[params.length - 1];
+            System.arraycopy(params, 0, argTypes, 0, argTypes.length);
+            this.returnsBoolean = method.getReturnType() == boolean.class;
+            method.setAccessible(true);
+        }
+
+        /**
+         * @param args the raw arguments
+         * @return true if every non-null argument exactly matches the declared type
+         */
+        boolean accepts(Object[] args) {
+            for (int i = 0; i < argTypes.length; i++) {
+                if (args[i] != null && args[i].getClass() != argTypes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean invoke(Object target, Object[] args, CallbackContext cbContext)
+                throws InvocationTargetException, IllegalAccessException {
+            Object[] variableArgs = new Object[argTypes.length + 1];
+            System.arraycopy(args, 0, variableArgs, 0, argTypes.length);
+            variableArgs[argTypes.length] = cbContext;
+            Object result = method.invoke(target, variableArgs);
+            return !returnsBoolean || (Boolean) result;
+        }
+    }
+
+    private ActionDispatcher(Class<?> clazz) {
+        Map<String, List<Invoker>> grouped = new HashMap<>();
+        for (Method method : clazz.getMethods()) {
+            Class<?>[] params = method.getParameterTypes();
+            if (Modifier.isStatic(method.getModifiers())
+                    || params.length == 0
+                    || params[params.length - 1] != CallbackContext.class) {
+                continue;
+            }
+            String key = method.getName() + "/" + (params.length - 1);
+            List<Invoker> candidates = grouped.get(key);
+            if (candidates == null) {
+                candidates = new ArrayList<>();
+                grouped.put(key, candidates);
+            }
+            candidates.add(new Invoker(method));
+        }
+        byArity = new HashMap<>();
+        for (Map.Entry<String, List<Invoker>> entry : grouped.entrySet()) {
+            byArity.put(entry.getKey(), entry.getValue().toArray(new Invoker[0]));
+        }
+    }
+
+    /**
+     * @param clazz the class whose public methods handle the actions
+     * @return the dispatch table for that class, built on first use
+     */
+    static ActionDispatcher forClass(Class<?> clazz) {
+        ActionDispatcher table = TABLES.get(clazz);
+        if (table == null) {
+            table = new ActionDispatcher(clazz);
+            TABLES.put(clazz, table);
+        }
+        return table;
+    }
+
+    /**
+     * @param action the action name
+     * @return true if any method handles this action, whatever the arity
+     */
+    boolean hasAction(String action) {
+        String prefix = action + "/";
+        for (String key : byArity.keySet()) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the method for the action and argument types.
+     * @param action the action name
+     * @param args the unwrapped arguments (JSONObject.NULL already translated to null)
+     * @return the matching invoker, or null if no overload accepts the arguments
+     */
+    Invoker resolve(String action, Object[] args) {
+        String arityKey = action + "/" + args.length;
+        Invoker[] candidates = byArity.get(arityKey);
+        if (candidates == null) {
+            return null;
+        }
+        if (candidates.length == 1) {
+            return candidates[0].accepts(args) ? candidates[0] : null;
+        }
+
+        StringBuilder signature = new StringBuilder(arityKey).append('/');
+        for (Object arg : args) {
+            signature.append(arg == null ? NULL_TYPE : arg.getClass().getName()).append(',');
+        }
+        String signatureKey = signature.toString();
+        Invoker invoker = bySignature.get(signatureKey);
+        if (invoker != null) {
+            return invoker;
+        }
+        for (Invoker candidate : candidates) {
+            if (candidate.accepts(args)) {
+                bySignature.put(signatureKey, candidate);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts the JSON arguments into an Object array, translating JSONObject.NULL to null.
+     * @param args the JSON arguments
+     * @return the arguments
+     * @throws JSONException if the array can't be read
+     */
+    static Object[] unwrap(JSONArray args) throws JSONException {
+        Object[] out = new Object[args.length()];
+        for (int i = 0; i < out.length; i++) {
+            Object arg = args.get(i);
+            out[i] = JSONObject.NULL.equals(arg) ? null : arg;
+        }
+        return out;
+    }
+}
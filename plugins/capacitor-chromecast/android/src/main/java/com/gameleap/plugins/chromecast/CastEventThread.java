@@ -0,0 +1,46 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * The serial background thread that turns Cast status into JSON and notifies the JS listeners.
+ *
+ * SDK callbacks run on the main thread, where the Cast framework needs them. They only take a
+ * {@link CastStatusSnapshot} and hand it here; writing the JSON, throttling and the plugin's
+ * notifyListeners fan-out run on this thread, in the order they were submitted.
+ */
+final class CastEventThread {
+    private static Handler handler;
+
+    private CastEventThread() {
+        //not called
+    }
+
+    /**
+     * @return a handler of the thread, started on first use
+     */
+    static synchronized Handler handler() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread("CastEvents", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    /**
+     * Runs the task on the thread, right away if called on it (keeping the order of the tasks
+     * that are running and have been submitted).
+     */
+    static void execute(Runnable task) {
+        Handler h = handler();
+        if (Looper.myLooper() == h.getLooper()) {
+            task.run();
+        } else {
+            h.post(task);
+        }
+    }
+}
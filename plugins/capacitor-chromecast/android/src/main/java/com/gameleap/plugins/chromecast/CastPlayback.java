@@ -0,0 +1,243 @@
+package com.gameleap.plugins.chromecast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * What the receiver plays and its transport controls, for native code of the host app (eg. a
+ * MediaSession that should follow cast playback), so that code doesn't need the JS side to
+ * relay the receiver's state.
+ *
+ * The local player's queue can be handed in here too ({@link #setLocalState}), the receiver
+ * is loaded with it when a session starts, like with the setLocalPlaybackState plugin method.
+ *
+ * No Cast SDK types are used, so this can be called on devices without Google Play Services:
+ * until the plugin is initialized there are no controls and the state is {@link State#INACTIVE}.
+ * The listener is only called when the state changes noticeably (see {@link State#differsFrom}),
+ * on the main thread.
+ */
+public final class CastPlayback {
+    /** How far the receiver's position may drift from the last reported one before it is reported again. */
+    static final long POSITION_TOLERANCE_MS = 1000;
+
+    /** The receiver's playback. */
+    public static final class State {
+        public static final State INACTIVE = new State(false, -1, 0, 0, false, 0);
+
+        /** Whether the receiver plays (or has paused) media, and no handoff is running. */
+        public final boolean active;
+        /** Index of the item in the local queue, -1 if the receiver plays an item the local queue doesn't have. */
+        public final int index;
+        public final long positionMs;
+        /** 0 if unknown. */
+        public final long durationMs;
+        /** Whether the position advances. */
+        public final boolean playing;
+        /** SystemClock.elapsedRealtime() at which the receiver was at positionMs. */
+        public final long reportedAt;
+
+        State(boolean active, int index, long positionMs, long durationMs, boolean playing, long reportedAt) {
+            this.active = active;
+            this.index = index;
+            this.positionMs = positionMs;
+            this.durationMs = durationMs;
+            this.playing = playing;
+            this.reportedAt = reportedAt;
+        }
+
+        /**
+         * @param now SystemClock.elapsedRealtime()
+         * @return the position the receiver has reached by now
+         */
+        public long getEstimatedPosition(long now) {
+            if (!playing) {
+                return positionMs;
+            }
+            long estimate = positionMs + Math.max(0, now - reportedAt);
+            return durationMs > 0 ? Math.min(estimate, durationMs) : estimate;
+        }
+
+        /**
+         * @param previous the state reported before
+         * @return whether this state is worth reporting after previous: the receiver started or
+         * stopped, changed item, played or paused, or isn't where previous said it would be
+         */
+        boolean differsFrom(@NonNull State previous) {
+            if (active != previous.active) {
+                return true;
+            }
+            if (!active) {
+                return false;
+            }
+            if (index != previous.index || playing != previous.playing || durationMs != previous.durationMs) {
+                return true;
+            }
+            return Math.abs(positionMs - previous.getEstimatedPosition(reportedAt)) > POSITION_TOLERANCE_MS;
+        }
+    }
+
+    /** Receives the receiver's state. */
+    public interface Listener {
+        void onCastPlaybackChanged(@NonNull State state);
+    }
+
+    /** The transport controls of the current session, implemented by {@link ChromecastSession}. */
+    interface Controls {
+        /** @return false if there is no session */
+        boolean play();
+        boolean pause();
+        boolean seekTo(long positionMs);
+        boolean skipToIndex(int index);
+        void setLocalState(@Nullable JSONArray items, int index, long positionMs, boolean playing, @NonNull String repeatMode);
+    }
+
+    private static WeakReference<Controls> controlsRef;
+    private static Listener listener;
+    private static State state = State.INACTIVE;
+
+    /** The last local state, handed to controls attached later. */
+    private static JSONArray localItems;
+    private static int localIndex;
+    private static long localPositionMs;
+    private static boolean localPlaying;
+    private static String localRepeatMode = "REPEAT_OFF";
+
+    private CastPlayback() {
+        //not called
+    }
+
+    /**
+     * @param newListener receives the receiver's state, replaces the previous listener; null to remove it
+     */
+    public static synchronized void setListener(@Nullable Listener newListener) {
+        listener = newListener;
+    }
+
+    /**
+     * @return the last reported state
+     */
+    @NonNull
+    public static synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Stores what the local player is playing, to hand it over when a session starts.
+     * @param items chrome.cast.media.QueueItem[], null if the local player has nothing loaded
+     * @param index index of the current item
+     * @param positionMs position in the current item
+     * @param playing whether the local player is playing
+     * @param repeatMode chrome.cast.media.RepeatMode of the local queue
+     */
+    public static void setLocalState(@Nullable JSONArray items, int index, long positionMs, boolean playing, @NonNull String repeatMode) {
+        Controls controls;
+        synchronized (CastPlayback.class) {
+            localItems = items;
+            localIndex = index;
+            localPositionMs = positionMs;
+            localPlaying = playing;
+            localRepeatMode = repeatMode;
+            controls = controls();
+        }
+        if (controls != null) {
+            controls.setLocalState(items, index, positionMs, playing, repeatMode);
+        }
+    }
+
+    /**
+     * @return false if the receiver plays nothing
+     */
+    public static boolean play() {
+        Controls controls = activeControls();
+        return controls != null && controls.play();
+    }
+
+    /**
+     * @return false if the receiver plays nothing
+     */
+    public static boolean pause() {
+        Controls controls = activeControls();
+        return controls != null && controls.pause();
+    }
+
+    /**
+     * @return false if the receiver plays nothing
+     */
+    public static boolean seekTo(long positionMs) {
+        Controls controls = activeControls();
+        return controls != null && controls.seekTo(positionMs);
+    }
+
+    /**
+     * Plays an item of the local queue, from the receiver's queue if it has the item, else the
+     * receiver is loaded with the local queue.
+     * @param index index of the item in the local queue
+     * @return false if the receiver plays nothing or the local queue has no such item
+     */
+    public static boolean skipToIndex(int index) {
+        Controls controls;
+        synchronized (CastPlayback.class) {
+            if (localItems == null || index < 0 || index >= localItems.length()) {
+                return false;
+            }
+            controls = activeControls();
+        }
+        return controls != null && controls.skipToIndex(index);
+    }
+
+    /**
+     * Sets the controls of the initialized plugin, and hands them the last local state.
+     * @param controls held weakly
+     */
+    static void attach(@NonNull Controls controls) {
+        JSONArray items;
+        int index;
+        long positionMs;
+        boolean playing;
+        String repeatMode;
+        synchronized (CastPlayback.class) {
+            controlsRef = new WeakReference<>(controls);
+            items = localItems;
+            index = localIndex;
+            positionMs = localPositionMs;
+            playing = localPlaying;
+            repeatMode = localRepeatMode;
+        }
+        if (items != null) {
+            controls.setLocalState(items, index, positionMs, playing, repeatMode);
+        }
+    }
+
+    /**
+     * Reports the receiver's state to the listener, if it changed noticeably. Must be called
+     * on the main thread.
+     * @param next the receiver's state
+     */
+    static void update(@NonNull State next) {
+        Listener current;
+        synchronized (CastPlayback.class) {
+            if (!next.differsFrom(state)) {
+                return;
+            }
+            state = next;
+            current = listener;
+        }
+        if (current != null) {
+            current.onCastPlaybackChanged(next);
+        }
+    }
+
+    @Nullable
+    private static synchronized Controls controls() {
+        return controlsRef != null ? controlsRef.get() : null;
+    }
+
+    @Nullable
+    private static synchronized Controls activeControls() {
+        return state.active ? controls() : null;
+    }
+}
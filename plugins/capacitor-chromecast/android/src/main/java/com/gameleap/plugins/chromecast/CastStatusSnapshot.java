@@ -0,0 +1,141 @@
+package com.gameleap.plugins.chromecast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.cast.ApplicationMetadata;
+import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaQueueData;
+import com.google.android.gms.cast.MediaStatus;
+import com.google.android.gms.cast.framework.CastSession;
+import com.google.android.gms.cast.framework.media.RemoteMediaClient;
+import com.google.android.gms.common.images.WebImage;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable copies of the session and media status fields the JS side gets, taken on the main
+ * thread so they can be written to JSON on the {@link CastEventThread}.
+ *
+ * The SDK updates a MediaStatus in place, so its fields are copied. MediaInfo objects (and
+ * their metadata and tracks) are replaced rather than updated, so they are kept by reference.
+ */
+final class CastStatusSnapshot {
+    private CastStatusSnapshot() {
+        //not called
+    }
+
+    /** The media status of a session. */
+    static final class Media {
+        final String sessionId;
+        final int currentItemId;
+        final long streamPositionMs;
+        final JSONObject customData;
+        final int playerState;
+        final int idleReason;
+        final int loadingItemId;
+        final int preloadedItemId;
+        @Nullable final MediaInfo mediaInfo;
+        final double playbackRate;
+        final int repeatMode;
+        final boolean hasQueueData;
+        final int queueRepeatMode;
+        final int queueStartIndex;
+        final double volume;
+        final boolean muted;
+        @Nullable final long[] activeTrackIds;
+        /** The current queue items (replaced, never modified, by the queue controller). */
+        @Nullable final JSONArray items;
+
+        private Media(CastSession session, RemoteMediaClient client, MediaStatus status, @Nullable JSONArray items) {
+            sessionId = session.getSessionId();
+            currentItemId = status.getCurrentItemId();
+            streamPositionMs = status.getStreamPosition();
+            customData = status.getCustomData();
+            playerState = status.getPlayerState();
+            idleReason = status.getIdleReason();
+            loadingItemId = status.getLoadingItemId();
+            preloadedItemId = status.getPreloadedItemId();
+            mediaInfo = client.getMediaInfo();
+            playbackRate = status.getPlaybackRate();
+            repeatMode = status.getQueueRepeatMode();
+            MediaQueueData queueData = status.getQueueData();
+            hasQueueData = queueData != null;
+            queueRepeatMode = queueData != null ? queueData.getRepeatMode() : 0;
+            queueStartIndex = queueData != null ? queueData.getStartIndex() : 0;
+            volume = status.getStreamVolume();
+            muted = status.isMute();
+            long[] trackIds = status.getActiveTrackIds();
+            activeTrackIds = trackIds != null ? trackIds.clone() : null;
+            this.items = items;
+        }
+
+        /**
+         * @param session the session
+         * @param items the queue items to include, may be null
+         * @return the media status, or null if there is none
+         */
+        @Nullable
+        static Media of(@NonNull CastSession session, @Nullable JSONArray items) {
+            RemoteMediaClient client = session.getRemoteMediaClient();
+            MediaStatus status = client != null ? client.getMediaStatus() : null;
+            return status != null ? new Media(session, client, status, items) : null;
+        }
+    }
+
+    /** A session, with its media status. */
+    static final class Session {
+        @Nullable final String appId;
+        @Nullable final List<WebImage> appImages;
+        @Nullable final String displayName;
+        @Nullable final Media media;
+        @Nullable final String friendlyName;
+        @Nullable final String deviceId;
+        final double volume;
+        final boolean muted;
+        @Nullable final String sessionId;
+
+        private Session(CastSession session, @Nullable Media media) {
+            ApplicationMetadata metadata = null;
+            try {
+                metadata = session.getApplicationMetadata();
+            } catch (IllegalStateException e) {
+                // Not connected
+            }
+            appId = metadata != null ? metadata.getApplicationId() : null;
+            List<WebImage> images = metadata != null ? metadata.getImages() : null;
+            appImages = images != null ? Collections.unmodifiableList(new ArrayList<>(images)) : null;
+            displayName = metadata != null ? metadata.getName() : null;
+            this.media = media;
+            CastDevice device = session.getCastDevice();
+            friendlyName = device != null ? device.getFriendlyName() : null;
+            deviceId = device != null ? device.getDeviceId() : null;
+            double level = 0;
+            boolean mute = false;
+            try {
+                level = session.getVolume();
+                mute = session.isMute();
+            } catch (IllegalStateException e) {
+                // Not connected
+            }
+            volume = level;
+            muted = mute;
+            sessionId = session.getSessionId();
+        }
+
+        /**
+         * @param session the session
+         * @param items the queue items to include in its media status, may be null
+         * @return the session
+         */
+        static Session of(@NonNull CastSession session, @Nullable JSONArray items) {
+            return new Session(session, Media.of(session, items));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.gameleap.plugins.chromecast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaMetadata;
+import com.google.android.gms.cast.MediaQueueItem;
+import com.google.android.gms.cast.MediaStatus;
+import com.google.android.gms.cast.MediaTrack;
+import com.google.android.gms.cast.TextTrackStyle;
+import com.google.android.gms.common.images.WebImage;
+
+import org.json.JSONArray;
+
+import java.util.List;
+
+/**
+ * Writes the Cast SDK status objects (MediaStatus, MediaInfo, MediaMetadata, MediaQueueItem)
+ * in the shape the JS side expects. Session and media statuses are written from a
+ * {@link CastStatusSnapshot}, so this can run off the main thread.
+ *
+ * Everything is written in a single pass straight into the {@link JSObject} tree that crosses
+ * the bridge, so the result can be resolved or notified without a
+ * {@link JSObject#fromJSONObject} deep copy (see {@link ChromecastUtilities#toJSObject}).
+ * JSObject's put methods don't throw, so a bad value (eg. NaN) only drops that one field
+ * instead of the rest of the object.
+ */
+final class CastStatusWriter {
+    private CastStatusWriter() {
+        //not called
+    }
+
+    /**
+     * @param media the media status, may be null
+     * @return the media status, or null if there is no media status
+     */
+    @Nullable
+    static JSObject writeMediaStatus(@Nullable CastStatusSnapshot.Media media) {
+        if (media == null) {
+            return null;
+        }
+        JSObject out = new JSObject();
+
+        // TODO: Missing attributes are commented out.
+        //  These are returned by the chromecast desktop SDK, we should probbaly return them too
+        //out.put("breakStatus",);
+        out.put("currentItemId", media.currentItemId);
+        out.put("currentTime", media.streamPositionMs / 1000.0);
+        out.put("customData", media.customData);
+        //out.put("extendedStatus",);
+        String idleReason = ChromecastUtilities.getMediaIdleReason(media.idleReason);
+        if (idleReason != null) {
+            out.put("idleReason", idleReason);
+        }
+        out.put("items", media.items);
+        out.put("isAlive", media.playerState != MediaStatus.PLAYER_STATE_IDLE);
+        //out.put("liveSeekableRange",);
+        out.put("loadingItemId", media.loadingItemId);
+        out.put("media", writeMediaInfo(media.mediaInfo));
+        out.put("mediaSessionId", 1);
+        out.put("playbackRate", media.playbackRate);
+        out.put("playerState", ChromecastUtilities.getMediaPlayerState(media.playerState));
+        out.put("preloadedItemId", media.preloadedItemId);
+        out.put("queueData", writeQueueData(media));
+        out.put("repeatMode", ChromecastUtilities.getRepeatMode(media.repeatMode));
+        out.put("sessionId", media.sessionId);
+        //out.put("supportedMediaCommands", );
+        //out.put("videoInfo", );
+
+        JSObject volume = new JSObject();
+        volume.put("level", media.volume);
+        volume.put("muted", media.muted);
+        out.put("volume", volume);
+        out.put("activeTrackIds", writeActiveTrackIds(media.activeTrackIds));
+        return out;
+    }
+
+    /**
+     * @param session the session
+     * @return the session, empty if the session has no application (yet)
+     */
+    static JSObject writeSession(@NonNull CastStatusSnapshot.Session session) {
+        JSObject out = new JSObject();
+        if (session.appId == null) {
+            return out;
+        }
+        out.put("appId", session.appId);
+        if (session.appImages != null) {
+            out.put("appImages", writeImages(session.appImages));
+        }
+        out.put("displayName", session.displayName);
+        JSONArray media = new JSONArray();
+        JSObject mediaStatus = writeMediaStatus(session.media);
+        if (mediaStatus != null) {
+            media.put(mediaStatus);
+        }
+        out.put("media", media);
+        JSObject receiver = new JSObject();
+        if (session.friendlyName != null) {
+            receiver.put("friendlyName", session.friendlyName);
+            receiver.put("label", session.deviceId);
+            JSObject volume = new JSObject();
+            volume.put("level", session.volume);
+            volume.put("muted", session.muted);
+            receiver.put("volume", volume);
+        }
+        out.put("receiver", receiver);
+        out.put("sessionId", session.sessionId);
+        return out;
+    }
+
+    /**
+     * @param item the queue item
+     * @param orderId the position of the item in the queue
+     * @return the queue item
+     */
+    static JSObject writeQueueItem(@NonNull MediaQueueItem item, int orderId) {
+        JSObject out = new JSObject();
+        out.put("activeTrackIds", writeActiveTrackIds(item.getActiveTrackIds()));
+        out.put("autoplay", item.getAutoplay());
+        out.put("customData", item.getCustomData());
+        out.put("itemId", item.getItemId());
+        out.put("media", writeMediaInfo(item.getMedia()));
+        out.put("orderId", orderId);
+        double playbackDuration = item.getPlaybackDuration();
+        if (!Double.isInfinite(playbackDuration)) {
+            out.put("playbackDuration", playbackDuration);
+        }
+        out.put("preloadTime", item.getPreloadTime());
+        double startTime = item.getStartTime();
+        if (!Double.isNaN(startTime)) {
+            out.put("startTime", startTime);
+        }
+        return out;
+    }
+
+    /**
+     * @param mediaInfo the media info
+     * @return the media info, empty if mediaInfo is null
+     */
+    static JSObject writeMediaInfo(@Nullable MediaInfo mediaInfo) {
+        JSObject out = new JSObject();
+        if (mediaInfo == null) {
+            return out;
+        }
+        // TODO: Missing attributes are commented out.
+        //  These are returned by the chromecast desktop SDK, we should probably return them too
+        //out.put("breakClips",);
+        //out.put("breaks",);
+        out.put("contentId", mediaInfo.getContentId());
+        out.put("contentType", mediaInfo.getContentType());
+        out.put("customData", mediaInfo.getCustomData());
+        out.put("duration", mediaInfo.getStreamDuration() / 1000.0);
+        //out.put("mediaCategory",);
+        out.put("metadata", writeMetadata(mediaInfo.getMetadata()));
+        out.put("streamType", ChromecastUtilities.getMediaInfoStreamType(mediaInfo));
+        out.put("tracks", writeTracks(mediaInfo.getMediaTracks()));
+        out.put("textTrackStyle", writeTextTrackStyle(mediaInfo.getTextTrackStyle()));
+        return out;
+    }
+
+    /**
+     * @param metadata the metadata
+     * @return the metadata, empty if metadata is null
+     * @see MetadataCodec
+     */
+    static JSObject writeMetadata(@Nullable MediaMetadata metadata) {
+        return MetadataCodec.fromMediaMetadata(metadata, new JSObject());
+    }
+
+    static JSONArray writeImages(@NonNull List<WebImage> images) {
+        JSONArray out = new JSONArray();
+        for (WebImage image : images) {
+            out.put(new JSObject().put("url", image.getUrl().toString()));
+        }
+        return out;
+    }
+
+    @Nullable
+    private static JSONArray writeActiveTrackIds(@Nullable long[] activeTrackIds) {
+        if (activeTrackIds == null || activeTrackIds.length == 0) {
+            return null;
+        }
+        JSONArray out = new JSONArray();
+        for (long id : activeTrackIds) {
+            out.put(id);
+        }
+        return out;
+    }
+
+    @Nullable
+    private static JSObject writeQueueData(CastStatusSnapshot.Media media) {
+        if (!media.hasQueueData) {
+            return null;
+        }
+        JSObject out = new JSObject();
+        out.put("repeatMode", ChromecastUtilities.getRepeatMode(media.queueRepeatMode));
+        out.put("shuffle", media.queueRepeatMode == MediaStatus.REPEAT_MODE_REPEAT_ALL_AND_SHUFFLE);
+        out.put("startIndex", media.queueStartIndex);
+        return out;
+    }
+
+    private static JSONArray writeTracks(@Nullable List<MediaTrack> tracks) {
+        JSONArray out = new JSONArray();
+        if (tracks == null) {
+            return out;
+        }
+        for (MediaTrack track : tracks) {
+            // TODO: Missing attributes are commented out.
+            //  These are returned by the chromecast desktop SDK, we should probbaly return them too
+            JSObject jsonTrack = new JSObject();
+            jsonTrack.put("trackId", track.getId());
+            jsonTrack.put("customData", track.getCustomData());
+            jsonTrack.put("language", track.getLanguage());
+            jsonTrack.put("name", track.getName());
+            jsonTrack.put("subtype", ChromecastUtilities.getTrackSubtype(track));
+            jsonTrack.put("trackContentId", track.getContentId());
+            jsonTrack.put("trackContentType", track.getContentType());
+            jsonTrack.put("type", ChromecastUtilities.getTrackType(track));
+            out.put(jsonTrack);
+        }
+        return out;
+    }
+
+    @Nullable
+    private static JSObject writeTextTrackStyle(@Nullable TextTrackStyle textTrackStyle) {
+        if (textTrackStyle == null) {
+            return null;
+        }
+        JSObject out = new JSObject();
+        out.put("backgroundColor", ChromecastUtilities.getHexColor(textTrackStyle.getBackgroundColor()));
+        out.put("customData", textTrackStyle.getCustomData());
+        out.put("edgeColor", ChromecastUtilities.getHexColor(textTrackStyle.getEdgeColor()));
+        out.put("edgeType", ChromecastUtilities.getEdgeType(textTrackStyle));
+        out.put("fontFamily", textTrackStyle.getFontFamily());
+        out.put("fontGenericFamily", ChromecastUtilities.getFontGenericFamily(textTrackStyle));
+        out.put("fontScale", textTrackStyle.getFontScale());
+        out.put("fontStyle", ChromecastUtilities.getFontStyle(textTrackStyle));
+        out.put("foregroundColor", ChromecastUtilities.getHexColor(textTrackStyle.getForegroundColor()));
+        out.put("windowColor", ChromecastUtilities.getHexColor(textTrackStyle.getWindowColor()));
+        out.put("windowRoundedCornerRadius", textTrackStyle.getWindowCornerRadius());
+        out.put("windowType", ChromecastUtilities.getWindowType(textTrackStyle));
+        return out;
+    }
+}
@@ -11,6 +11,7 @@ import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.MediaQueueItem;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.LOG;
@@ -21,8 +22,7 @@ import org.json.JSONObject;
 import org.json.JSONStringer;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
 
 @CapacitorPlugin()
@@ -31,6 +31,11 @@ public class Chromecast extends Plugin {
      * Tag for logging.
      */
     private static final String TAG = "Chromecast";
+    /**
+     * Default and maximum number of items returned by getQueueItems.
+     */
+    private static final int DEFAULT_QUEUE_PAGE_SIZE = 50;
+    private static final int MAX_QUEUE_PAGE_SIZE = 200;
     /**
      * Object to control the connection to the chromecast.
      */
@@ -44,9 +49,13 @@ public class Chromecast extends Plugin {
      */
     private ChromecastConnection.ScanCallback clientScan;
     /**
-     * Holds the reference to the current client initiated scan callback.
+     * Diffs the routes of the current client initiated scan, null when no scan is running.
+     */
+    private RouteTracker routeTracker;
+    /**
+     * Recently seen devices, shown before a scan rediscovers them.
      */
-    private PluginCall scanPluginCall;
+    private DeviceCache deviceCache;
     /**
      * Client's event listener callback.
      */
@@ -55,60 +64,62 @@ public class Chromecast extends Plugin {
      * In the case that chromecast can't be used.
      **/
     private String noChromecastError;
+    /**
+     * Emits MEDIA_UPDATE as throttled patches against the last emitted media state.
+     */
+    private final ThrottledStateEmitter mediaUpdates = new ThrottledStateEmitter(
+            new ThrottledStateEmitter.Sink() {
+                @Override
+                public void emit(JSONObject patch) {
+                    sendEvent("MEDIA_UPDATE", patch);
+                }
+            },
+            new ThrottledStateEmitter.ImmediatePredicate() {
+                @Override
+                public boolean isImmediate(JSONObject previous, JSONObject next) {
+                    // Play/pause/idle and item changes are never delayed
+                    return !previous.optString("playerState").equals(next.optString("playerState"))
+                            || !previous.optString("idleReason").equals(next.optString("idleReason"))
+                            || previous.optLong("currentItemId") != next.optLong("currentItemId");
+                }
+            });
+    /**
+     * Emits SESSION_UPDATE as throttled patches against the last emitted session state.
+     */
+    private final ThrottledStateEmitter sessionUpdates = new ThrottledStateEmitter(
+            new ThrottledStateEmitter.Sink() {
+                @Override
+                public void emit(JSONObject patch) {
+                    sendEvent("SESSION_UPDATE", patch);
+                }
+            },
+            new ThrottledStateEmitter.ImmediatePredicate() {
+                @Override
+                public boolean isImmediate(JSONObject previous, JSONObject next) {
+                    return !previous.optString("sessionId").equals(next.optString("sessionId"))
+                            || !previous.optString("status").equals(next.optString("status"));
+                }
+            });
 
     public boolean execute(String action, JSONArray args, CallbackContext cbContext) throws JSONException {
         if (noChromecastError != null) {
             cbContext.error(ChromecastUtilities.createError("api_not_initialized", noChromecastError));
             return true;
         }
-        try {
-            Method[] list = this.getClass().getMethods();
-            Method methodToExecute = null;
-            for (Method method : list) {
-                if (method.getName().equals(action)) {
-                    Type[] types = method.getGenericParameterTypes();
-                    // +1 is the cbContext
-                    if (args.length() + 1 == types.length) {
-                        boolean isValid = true;
-                        for (int i = 0; i < args.length(); i++) {
-                            // Handle null/undefined arguments
-                            if (JSONObject.NULL.equals(args.get(i))) {
-                                continue;
-                            }
-                            Class arg = args.get(i).getClass();
-                            if (types[i] != arg) {
-                                isValid = false;
-                                break;
-                            }
-                        }
-                        if (isValid) {
-                            methodToExecute = method;
-                            break;
-                        }
-                    }
-                }
-            }
-            if (methodToExecute != null) {
-                Type[] types = methodToExecute.getGenericParameterTypes();
-                Object[] variableArgs = new Object[types.length];
-                for (int i = 0; i < args.length(); i++) {
-                    variableArgs[i] = args.get(i);
-                    // Translate null JSONObject to null
-                    if (JSONObject.NULL.equals(variableArgs[i])) {
-                        variableArgs[i] = null;
-                    }
-                }
-                variableArgs[variableArgs.length - 1] = cbContext;
-                Class<?> r = methodToExecute.getReturnType();
-                if (r == boolean.class) {
-                    return (Boolean) methodToExecute.invoke(this, variableArgs);
-                } else {
-                    methodToExecute.invoke(this, variableArgs);
-                    return true;
-                }
+        ActionDispatcher dispatcher = ActionDispatcher.forClass(this.getClass());
+        Object[] callArgs = ActionDispatcher.unwrap(args);
+        ActionDispatcher.Invoker invoker = dispatcher.resolve(action, callArgs);
+        if (invoker == null) {
+            if (dispatcher.hasAction(action)) {
+                cbContext.error(ChromecastUtilities.createError("invalid_parameter",
+                        "No overload of " + action + " accepts arguments " + args));
             } else {
-                return false;
+                cbContext.error(ChromecastUtilities.createError("invalid_action", "Unknown action: " + action));
             }
+            return false;
+        }
+        try {
+            return invoker.invoke(this, callArgs, cbContext);
         } catch (IllegalAccessException e) {
             e.printStackTrace();
             return false;
@@ -143,23 +154,40 @@ public class Chromecast extends Plugin {
             this.connection = new ChromecastConnection(getActivity(), new ChromecastConnection.Listener() {
                 @Override
                 public void onSessionRejoin(JSONObject jsonSession) {
-                    try {
-                        sendEvent("SESSION_LISTENER", JSObject.fromJSONObject(jsonSession));
-                    } catch (JSONException e) {
+                    sessionUpdates.setBaseline(jsonSession);
+                    mediaUpdates.reset();
+                    sendEvent("SESSION_LISTENER", jsonSession);
+                }
+
+                @Override
+                public void onSessionRestore(JSONObject jsonSession, JSONObject jsonMedia) {
+                    // Updates of the live session and media are sent as patches against these
+                    sessionUpdates.setBaseline(jsonSession);
+                    if (jsonMedia != null) {
+                        mediaUpdates.setBaseline(jsonMedia);
+                    } else {
+                        mediaUpdates.reset();
                     }
+                    // Sent during initialize, kept until the client listens
+                    sendEvent("SESSION_LISTENER", jsonSession, true);
+                }
+
+                @Override
+                public void onConnectMetrics(JSONObject metrics) {
+                    sendEvent("SESSION_CONNECT_METRICS", metrics);
                 }
 
                 @Override
                 public void onSessionUpdate(JSONObject jsonSession) {
-                    try {
-                        sendEvent("SESSION_UPDATE", JSObject.fromJSONObject(jsonSession));
-                    } catch (JSONException e) {
-                    }
+                    sessionUpdates.submit(jsonSession);
                 }
 
                 @Override
                 public void onSessionEnd(JSONObject jsonSession) {
                     onSessionUpdate(jsonSession);
+                    // The next session starts from scratch
+                    sessionUpdates.reset();
+                    mediaUpdates.reset();
                 }
 
                 @Override
@@ -169,24 +197,61 @@ public class Chromecast extends Plugin {
 
                 @Override
                 public void onMediaLoaded(JSONObject jsonMedia) {
-                    try {
-                        sendEvent("MEDIA_LOAD", JSObject.fromJSONObject(jsonMedia));
-                    } catch (JSONException e) {
-                    }
+                    // MEDIA_LOAD carries the full state, following updates are patches against it
+                    mediaUpdates.setBaseline(jsonMedia);
+                    sendEvent("MEDIA_LOAD", jsonMedia);
                 }
 
                 @Override
                 public void onMediaUpdate(JSONObject jsonMedia) {
-//                    JSONArray out = new JSONArray();
+                    // Null when there is no media status (eg. no media loaded yet)
+                    mediaUpdates.submit(jsonMedia);
+                }
 
+                @Override
+                public void onMediaProgress(long progressMs, long durationMs) {
+                    sendEvent("MEDIA_PROGRESS", new JSObject()
+                            .put("currentTime", progressMs / 1000.0)
+                            .put("duration", durationMs / 1000.0));
+                }
 
-                    // TODO: Fix null pointer exception
-                    try {
-                        if (jsonMedia != null) {
-                            sendEvent("MEDIA_UPDATE", JSObject.fromJSONObject(jsonMedia));
-                        }
-                    } catch (JSONException e) {
+                @Override
+                public void onQueueLoadProgress(int loaded, int total, String error) {
+                    JSObject progress = new JSObject()
+                            .put("loaded", loaded)
+                            .put("total", total)
+                            .put("complete", loaded == total);
+                    if (error != null) {
+                        progress.put("error", error);
                     }
+                    sendEvent("QUEUE_LOAD_PROGRESS", progress);
+                }
+
+                @Override
+                public void onPreloadedItemChanged(int preloadedItemId) {
+                    sendEvent("MEDIA_PRELOADED", new JSObject().put("preloadedItemId", preloadedItemId));
+                }
+
+                @Override
+                public void onItemTransition(int previousItemId, int itemId, long gapMs, boolean preloaded, long bufferLatencyMs) {
+                    sendEvent("MEDIA_ITEM_TRANSITION", new JSObject()
+                            .put("previousItemId", previousItemId)
+                            .put("itemId", itemId)
+                            .put("gap", gapMs / 1000.0)
+                            .put("preloaded", preloaded)
+                            .put("bufferLatency", bufferLatencyMs / 1000.0));
+                }
+
+                @Override
+                public void onMessageBackpressure(boolean paused, int queued) {
+                    sendEvent("MESSAGE_BACKPRESSURE", new JSObject()
+                            .put("paused", paused)
+                            .put("queued", queued));
+                }
+
+                @Override
+                public void onHandoff(JSONObject event) {
+                    sendEvent("HANDOFF", event);
                 }
 
                 @Override
@@ -231,7 +296,7 @@ public class Chromecast extends Plugin {
             public void onJoin(JSONObject jsonSession) {
                 android.util.Log.d("Chromecast", "requestSession: onJoin called");
                 try {
-                    pluginCall.resolve(JSObject.fromJSONObject(jsonSession));
+                    pluginCall.resolve(ChromecastUtilities.toJSObject(jsonSession));
                 } catch (JSONException e) {
                     android.util.Log.e("Chromecast", "requestSession: JSON error", e);
                     pluginCall.reject("json_parse_error", e);
@@ -267,7 +332,7 @@ public class Chromecast extends Plugin {
             @Override
             public void onJoin(JSONObject jsonSession) {
                 try {
-                    pluginCall.resolve(JSObject.fromJSONObject(jsonSession));
+                    pluginCall.resolve(ChromecastUtilities.toJSObject(jsonSession));
                 } catch (JSONException e) {
                     pluginCall.reject("json_parse_error", e);
                 }
@@ -276,7 +341,7 @@ public class Chromecast extends Plugin {
             @Override
             public void onError(JSONObject message) {
                 try {
-                    pluginCall.resolve(JSObject.fromJSONObject(message));
+                    pluginCall.resolve(ChromecastUtilities.toJSObject(message));
                 } catch (JSONException e) {
                     pluginCall.reject("json_parse_error", e);
                 }
@@ -346,6 +411,52 @@ public class Chromecast extends Plugin {
         return true;
     }
 
+    /**
+     * Sends a custom message to the receiver (Capacitor version).
+     * Messages are batched with other messages sent within a few milliseconds. While
+     * MESSAGE_BACKPRESSURE says paused, new messages may be rejected with "backpressure".
+     *
+     * @param pluginCall with namespace, message, and optionally coalesce (default false):
+     *                   whether the message replaces an unsent message of the same namespace,
+     *                   for high frequency state like a playback position
+     */
+    @PluginMethod
+    public void sendMessage(final PluginCall pluginCall) {
+        String namespace = pluginCall.getString("namespace");
+        String message = pluginCall.getString("message");
+        if (namespace == null || message == null) {
+            pluginCall.reject("invalid_parameter");
+            return;
+        }
+        this.media.sendMessage(namespace, message, pluginCall.getBoolean("coalesce", false), new MessageChannel.SendListener() {
+            @Override
+            public void onResult(String error) {
+                if (error == null) {
+                    pluginCall.resolve();
+                } else {
+                    pluginCall.reject(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Listens for receiver messages on a namespace (Capacitor version).
+     * Messages are delivered as RECEIVER_MESSAGE events.
+     *
+     * @param pluginCall with namespace
+     */
+    @PluginMethod
+    public void addMessageListener(PluginCall pluginCall) {
+        String namespace = pluginCall.getString("namespace");
+        if (namespace == null) {
+            pluginCall.reject("invalid_parameter");
+            return;
+        }
+        this.media.addMessageListener(namespace);
+        pluginCall.resolve();
+    }
+
     /**
      * Simple method to launch media on Chromecast with just a URL.
      * This wraps loadMedia with sensible defaults.
@@ -576,6 +687,9 @@ public class Chromecast extends Plugin {
 
     /**
      * Loads a queue of media to the Chromecast.
+     * Long queues are loaded in chunks: the callback succeeds once the items around startIndex
+     * are loaded, the rest are appended in the background and reported with
+     * QUEUE_LOAD_PROGRESS events ({loaded, total, complete, error}).
      *
      * @param queueLoadRequest chrome.cast.media.QueueLoadRequest
      * @param callbackContext  called with .success or .error depending on the result
@@ -614,6 +728,184 @@ public class Chromecast extends Plugin {
         }
     }
 
+    /**
+     * Inserts items into the queue without reloading it.
+     * Edits made within a short window are sent as one request.
+     *
+     * @param pluginCall with items (chrome.cast.media.QueueItem[]) and optionally
+     *                   insertBeforeItemId (default: append)
+     */
+    @PluginMethod
+    public void queueInsertItems(PluginCall pluginCall) {
+        JSArray items = pluginCall.getArray("items");
+        if (items == null) {
+            pluginCall.reject("invalid_parameter");
+            return;
+        }
+        this.media.queueInsertItems(items, pluginCall.getInt("insertBeforeItemId", MediaQueueItem.INVALID_ITEM_ID), pluginCall);
+    }
+
+    /**
+     * Removes items from the queue.
+     *
+     * @param pluginCall with itemIds
+     */
+    @PluginMethod
+    public void queueRemoveItems(PluginCall pluginCall) {
+        int[] itemIds = getItemIds(pluginCall);
+        if (itemIds != null) {
+            this.media.queueRemoveItems(itemIds, pluginCall);
+        }
+    }
+
+    /**
+     * Moves items within the queue.
+     *
+     * @param pluginCall with itemIds (in their new order) and optionally insertBeforeItemId
+     *                   (default: move to the end)
+     */
+    @PluginMethod
+    public void queueReorderItems(PluginCall pluginCall) {
+        int[] itemIds = getItemIds(pluginCall);
+        if (itemIds != null) {
+            this.media.queueReorderItems(itemIds, pluginCall.getInt("insertBeforeItemId", MediaQueueItem.INVALID_ITEM_ID), pluginCall);
+        }
+    }
+
+    /**
+     * Changes autoplay, preloadTime, startTime, playbackDuration, activeTrackIds or customData
+     * of queued items.
+     *
+     * @param pluginCall with items, each with its itemId and the fields to change
+     */
+    @PluginMethod
+    public void queueUpdateItems(PluginCall pluginCall) {
+        JSArray items = pluginCall.getArray("items");
+        if (items == null) {
+            pluginCall.reject("invalid_parameter");
+            return;
+        }
+        this.media.queueUpdateItems(items, pluginCall);
+    }
+
+    /**
+     * Edits the queue until it matches the given items, sending only the removes, moves and
+     * inserts needed. Items are matched by media contentId.
+     *
+     * @param pluginCall with items (chrome.cast.media.QueueItem[]) in the desired order
+     */
+    @PluginMethod
+    public void queueReconcile(PluginCall pluginCall) {
+        JSArray items = pluginCall.getArray("items");
+        if (items == null) {
+            pluginCall.reject("invalid_parameter");
+            return;
+        }
+        this.media.queueReconcile(items, pluginCall);
+    }
+
+    /**
+     * @param pluginCall the call with an itemIds array
+     * @return the item IDs, or null if the call was rejected because they are missing or invalid
+     */
+    private static int[] getItemIds(PluginCall pluginCall) {
+        JSArray itemIds = pluginCall.getArray("itemIds");
+        if (itemIds == null) {
+            pluginCall.reject("invalid_parameter");
+            return null;
+        }
+        try {
+            int[] out = new int[itemIds.length()];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = itemIds.getInt(i);
+            }
+            return out;
+        } catch (JSONException e) {
+            pluginCall.reject("invalid_parameter: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a page of the cast queue, for UIs that show the whole queue.
+     * Pass offset and limit (default 0 and 50).
+     *
+     * @param pluginCall resolved with {offset, totalCount, complete, items}
+     */
+    @PluginMethod
+    public void getQueueItems(PluginCall pluginCall) {
+        Integer offset = pluginCall.getInt("offset", 0);
+        Integer limit = pluginCall.getInt("limit", DEFAULT_QUEUE_PAGE_SIZE);
+        if (offset < 0 || limit <= 0 || limit > MAX_QUEUE_PAGE_SIZE) {
+            pluginCall.reject("invalid_parameter");
+            return;
+        }
+        this.media.getQueueItems(offset, limit, pluginCall);
+    }
+
+    /**
+     * Main thread time spent per media status update (JSON is written and listeners notified
+     * off the main thread, this is what remains).
+     *
+     * @param pluginCall resolved with {updates, averageMs, maxMs, slowUpdates}
+     */
+    @PluginMethod
+    public void getStatusUpdateStats(PluginCall pluginCall) {
+        pluginCall.resolve(this.media.getStatusUpdateStats());
+    }
+
+    /**
+     * Reports what the local player is playing, so a new session continues it on the receiver.
+     * The receiver is loaded at the local position, local audio should keep playing until the
+     * HANDOFF event {direction: "toCast", state: "complete"}.
+     *
+     * @param pluginCall {items: chrome.cast.media.QueueItem[], index, position (seconds), playing,
+     *                   repeatMode}; without items the local player has nothing to hand over
+     */
+    @PluginMethod
+    public void setLocalPlaybackState(PluginCall pluginCall) {
+        JSArray items = pluginCall.getArray("items", null);
+        Double position = pluginCall.getDouble("position", 0.0);
+        this.media.setLocalPlaybackState(items, pluginCall.getInt("index", 0), (long) (position * 1000),
+                pluginCall.getBoolean("playing", false), pluginCall.getString("repeatMode", "REPEAT_OFF"));
+        pluginCall.resolve();
+    }
+
+    /**
+     * Plays an item of the local queue (see setLocalPlaybackState) on the receiver: it jumps
+     * to the item if its queue has it, else it is loaded with the local queue from that item.
+     *
+     * @param pluginCall with index; resolved with {skipped}, false if the receiver plays
+     *                   nothing or the local queue has no such item
+     */
+    @PluginMethod
+    public void skipToIndex(PluginCall pluginCall) {
+        boolean skipped = CastPlayback.skipToIndex(pluginCall.getInt("index", -1));
+        pluginCall.resolve(new JSObject().put("skipped", skipped));
+    }
+
+    /**
+     * Starts handing the receiver's item over to the local player. The local player should
+     * start at the event's index and position, then call completeHandoff to stop the receiver.
+     *
+     * @param pluginCall resolved with the HANDOFF event {direction: "toLocal", state: "started",
+     *                   index, position, playing, contentId}
+     */
+    @PluginMethod
+    public void handoffToLocal(PluginCall pluginCall) {
+        this.media.handoffToLocal(pluginCall);
+    }
+
+    /**
+     * Completes a handoff to the local player once it plays, ending the session.
+     *
+     * @param pluginCall resolved once the session ended
+     */
+    @PluginMethod
+    public void completeHandoff(PluginCall pluginCall) {
+        connection.completeHandoffToLocal(pluginCall);
+    }
+
     /**
      * Stops the session.
      *
@@ -639,56 +931,70 @@ public class Chromecast extends Plugin {
     }
 
     /**
-     * Will actively scan for routes and send a json array to the client.
-     * It is super important that client calls "stopRouteScan", otherwise the
-     * battery could drain quickly.
+     * Scans for routes. Resolves right away with the recently seen devices ({routes}, flagged
+     * cached: true), then sends ROUTE_UPDATE events ({added, removed, changed}, keyed by deviceId)
+     * as routes are found, lost or confirmed. The active scan only runs until the cached devices
+     * are confirmed (or for a few seconds without cached devices), discovery then continues
+     * passively until "stopRouteScan".
      *
-     * @param pluginCall called with .success or .error depending on the result
+     * @param pluginCall resolved with {routes}
      * @return true for cordova
      */
     @PluginMethod
-    public boolean startRouteScan(PluginCall pluginCall) {
-        if (scanPluginCall != null) {
-
-            scanPluginCall.reject("Started a new route scan before stopping previous one.");
-//            scanPluginCall.error(ChromecastUtilities.createError("cancel", "Started a new route scan before stopping previous one."));
-        }
-        scanPluginCall = pluginCall;
-        Runnable startScan = new Runnable() {
+    public boolean startRouteScan(final PluginCall pluginCall) {
+        getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                clientScan = new ChromecastConnection.ScanCallback() {
+                if (routeTracker != null) {
+                    routeTracker.stop();
+                }
+                if (deviceCache == null) {
+                    deviceCache = new DeviceCache(getContext());
+                }
+                final RouteTracker tracker = new RouteTracker(deviceCache, new RouteTracker.Listener() {
                     @Override
-                    void onRouteUpdate(List<MediaRouter.RouteInfo> routes) {
-                        if (scanPluginCall != null) {
-                            PluginResult pluginResult = new PluginResult(PluginResult.Status.OK,
-                                    ChromecastUtilities.createRoutesArray(routes));
-                            pluginResult.setKeepCallback(true);
+                    public void onRoutesChanged(JSArray added, JSArray removed, JSArray changed) {
+                        sendEvent("ROUTE_UPDATE", new JSObject()
+                                .put("added", added)
+                                .put("removed", removed)
+                                .put("changed", changed));
+                    }
 
-                            JSObject ret = new JSObject();
-                            JSArray retArr = new JSArray();
+                    @Override
+                    public void onActiveScanDone() {
+                        if (clientScan != null) {
+                            connection.setActiveScan(clientScan, false);
+                        }
+                    }
+                });
+                routeTracker = tracker;
+                pluginCall.resolve(new JSObject().put("routes", tracker.start()));
 
-                            for (int i = 0; i < routes.size(); i++) {
-                                retArr.put(routes.get(i));
+                Runnable startScan = new Runnable() {
+                    @Override
+                    public void run() {
+                        clientScan = new ChromecastConnection.ScanCallback(RouteTracker.DEBOUNCE_MS) {
+                            @Override
+                            void onRouteUpdate(List<MediaRouter.RouteInfo> routes) {
+                                if (routeTracker == tracker) {
+                                    tracker.update(routes);
+                                } else {
+                                    // Try to get the scan to stop because the scan was stopped or replaced
+                                    connection.stopRouteScan(this, null);
+                                }
                             }
-                            ret.put("routes", retArr);
-
-                            scanPluginCall.resolve(ret);
-                        } else {
-                            // Try to get the scan to stop because we already ended the scanCallback
-                            connection.stopRouteScan(clientScan, null);
-                        }
+                        };
+                        connection.startRouteScan(null, clientScan, null);
                     }
                 };
-                connection.startRouteScan(null, clientScan, null);
+                if (clientScan != null) {
+                    // Stop any other existing clientScan
+                    connection.stopRouteScan(clientScan, startScan);
+                } else {
+                    startScan.run();
+                }
             }
-        };
-        if (clientScan != null) {
-            // Stop any other existing clientScan
-            connection.stopRouteScan(clientScan, startScan);
-        } else {
-            startScan.run();
-        }
+        });
         return true;
     }
 
@@ -704,16 +1010,20 @@ public class Chromecast extends Plugin {
         connection.stopRouteScan(clientScan, new Runnable() {
             @Override
             public void run() {
-                if (scanPluginCall != null) {
-                    scanPluginCall.reject("Scan stopped.");
-                    scanPluginCall = null;
-                }
+                stopRouteTracker();
                 pluginCall.resolve();
             }
         });
         return true;
     }
 
+    private void stopRouteTracker() {
+        if (routeTracker != null) {
+            routeTracker.stop();
+            routeTracker = null;
+        }
+    }
+
     /**
      * Do everything you need to for "setup" - calling back sets the isAvailable and lets every function on the
      * javascript side actually do stuff.
@@ -725,10 +1035,7 @@ public class Chromecast extends Plugin {
             connection.stopRouteScan(clientScan, new Runnable() {
                 @Override
                 public void run() {
-                    if (scanPluginCall != null) {
-                        scanPluginCall.reject("Scan stopped because setup triggered.");
-                        scanPluginCall = null;
-                    }
+                    stopRouteTracker();
                     sendEvent("SETUP", new JSObject());
                 }
             });
@@ -738,12 +1045,112 @@ public class Chromecast extends Plugin {
     }
 
     /**
-     * This triggers an event on the JS-side.
+     * Sets the maximum rate of MEDIA_UPDATE and SESSION_UPDATE events.
+     * Player state and item changes are always delivered immediately.
+     *
+     * @param pluginCall with maxUpdatesPerSecond, 0 disables throttling
+     */
+    @PluginMethod
+    public void setEventThrottle(PluginCall pluginCall) {
+        Double maxUpdatesPerSecond = pluginCall.getDouble("maxUpdatesPerSecond", ThrottledStateEmitter.DEFAULT_MAX_RATE);
+        mediaUpdates.setMaxRate(maxUpdatesPerSecond);
+        sessionUpdates.setMaxRate(maxUpdatesPerSecond);
+        pluginCall.resolve();
+    }
+
+    /**
+     * Sets how often MEDIA_PROGRESS events are sent while media is loaded.
+     * No progress events are sent while the app is in the background.
+     *
+     * @param pluginCall with intervalMs, 0 disables progress events
+     */
+    @PluginMethod
+    public void setProgressInterval(PluginCall pluginCall) {
+        if (media == null) {
+            pluginCall.reject("Chromecast is not initialized");
+            return;
+        }
+        Long intervalMs = pluginCall.getLong("intervalMs", ChromecastSession.DEFAULT_PROGRESS_INTERVAL_MS);
+        media.setProgressInterval(intervalMs);
+        pluginCall.resolve();
+    }
+
+    /**
+     * Follows the redirects of media URLs, so the local player can load the final URLs.
+     * Final URLs are cached and shared with the cast session's loads.
+     *
+     * @param pluginCall with urls, and waitMs (default 0): how long to wait for URLs that are not
+     *                   cached yet; they are resolved in the background either way (eg. to
+     *                   prefetch the upcoming tracks). Resolved with urls, in the same order.
+     */
+    @PluginMethod
+    public void resolveMediaUrls(final PluginCall pluginCall) {
+        JSArray urls = pluginCall.getArray("urls");
+        if (urls == null) {
+            pluginCall.reject("invalid_parameter");
+            return;
+        }
+        List<String> list = new ArrayList<>(urls.length());
+        for (int i = 0; i < urls.length(); i++) {
+            list.add(urls.optString(i, null));
+        }
+        MediaUrlResolver.shared().resolveAll(list, pluginCall.getLong("waitMs", 0L), new MediaUrlResolver.Callback() {
+            @Override
+            public void onResolved(List<String> resolved) {
+                JSObject ret = new JSObject();
+                ret.put("urls", new JSArray(resolved));
+                pluginCall.resolve(ret);
+            }
+        });
+    }
+
+    @Override
+    protected void handleOnPause() {
+        super.handleOnPause();
+        if (media != null) {
+            media.setProgressPaused(true);
+        }
+        if (connection != null) {
+            // The app may be killed in the background
+            connection.saveSessionState();
+        }
+    }
+
+    @Override
+    protected void handleOnResume() {
+        super.handleOnResume();
+        if (media != null) {
+            media.setProgressPaused(false);
+        }
+    }
+
+    /**
+     * This triggers an event on the JS-side. The listeners are notified on the
+     * {@link CastEventThread}, in the order the events were sent.
      *
      * @param eventName - The name of the JS event to trigger
-     * @param args      - The arguments to pass the JS event
+     * @param args      - The arguments to pass the JS event, ignored if null
      */
-    private void sendEvent(String eventName, JSObject args) {
-        notifyListeners(eventName, args);
+    private void sendEvent(final String eventName, final JSONObject args) {
+        sendEvent(eventName, args, false);
+    }
+
+    /**
+     * @param eventName - The name of the JS event to trigger
+     * @param args      - The arguments to pass the JS event, ignored if null
+     * @param retain    - whether the event is kept until a listener is added, if there is none
+     */
+    private void sendEvent(final String eventName, final JSONObject args, final boolean retain) {
+        if (args == null) {
+            return;
+        }
+        CastEventThread.execute(new Runnable() {
+            public void run() {
+                try {
+                    notifyListeners(eventName, ChromecastUtilities.toJSObject(args), retain);
+                } catch (JSONException e) {
+                }
+            }
+        });
     }
 }
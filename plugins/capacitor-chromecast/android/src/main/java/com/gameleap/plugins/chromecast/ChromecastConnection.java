@@ -6,6 +6,7 @@ import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 
 import androidx.arch.core.util.Function;
 import androidx.mediarouter.app.MediaRouteChooserDialog;
@@ -17,6 +18,7 @@ import com.gameleap.plugins.chromecast.lib.CastOptionsProvider;
 import com.getcapacitor.PluginCall;
 import com.google.android.gms.cast.CastDevice;
 import com.google.android.gms.cast.CastMediaControlIntent;
+import com.google.android.gms.cast.CastStatusCodes;
 import com.google.android.gms.cast.framework.CastContext;
 import com.google.android.gms.cast.framework.CastSession;
 import com.google.android.gms.cast.framework.CastState;
@@ -27,6 +29,7 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
 import org.apache.cordova.CallbackContext;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
@@ -40,9 +43,23 @@ public class ChromecastConnection {
     private SharedPreferences settings;
     /** Controls the media. */
     private ChromecastSession media;
+    /** The last session, to restore after the app restarted. */
+    private SessionStore sessionStore;
+
+    /** How long to wait for the session after a route was picked. */
+    private static final long SESSION_JOIN_TIMEOUT_MS = 15000;
+    /** How long to look for the restored session on its route. */
+    private static final long SESSION_RESUME_SCAN_MS = 8000;
+    /** Route extra with the id of the session running on the route. */
+    private static final String EXTRA_SESSION_ID = "com.google.android.gms.cast.EXTRA_SESSION_ID";
 
     /** Lifetime variable. */
     private SessionListener newConnectionListener;
+    /** Timing of the current / last attempt to join a session. */
+    private ConnectMetrics connectMetrics = new ConnectMetrics();
+    /** Fails the pending join, posted once a route was picked. */
+    private Runnable joinTimeout;
+    private final Handler handler = new Handler(Looper.getMainLooper());
     /** The Listener callback. */
     private Listener listener;
 
@@ -68,7 +85,8 @@ public class ChromecastConnection {
                 settings = activity.getSharedPreferences("CORDOVA-PLUGIN-CHROMECAST_ChromecastConnection", 0);
                 appId = settings.getString("appId", CastMediaControlIntent.DEFAULT_MEDIA_RECEIVER_APPLICATION_ID);
                 listener = connectionListener;
-                media = new ChromecastSession(activity, listener);
+                sessionStore = new SessionStore(settings);
+                media = new ChromecastSession(activity, listener, sessionStore);
 
                 // Check if Google Play Services is available before initializing Cast
                 if (!isGooglePlayServicesAvailable()) {
@@ -182,6 +200,9 @@ public class ChromecastConnection {
                 // Tell the client that initialization was a success
                 pluginCall.resolve();
 
+                // Show the session from before the app restarted right away
+                restoreSession();
+
                 // Check if there is any available receivers for 5 seconds
                 startRouteScan(5000L, new ScanCallback() {
                     @Override
@@ -195,8 +216,8 @@ public class ChromecastConnection {
                             listener.onReceiverAvailableUpdate(true);
                             // Since we have a receiver we may also have an active session
                             CastSession session = getSessionManager().getCurrentCastSession();
-                            // If we do have a session
-                            if (session != null) {
+                            // If we do have a session (that wasn't restored already)
+                            if (session != null && !media.isCurrentSession(session)) {
                                 // Let the client know
                                 media.setSession(session);
                                 listener.onSessionRejoin(ChromecastUtilities.createSessionObject(session));
@@ -208,6 +229,105 @@ public class ChromecastConnection {
         });
     }
 
+    /**
+     * Sends the session persisted before the app restarted to the client, and resumes it if
+     * its route still shows it running. The live session then replaces the restored one,
+     * or the restored one is reported stopped.
+     * Must be called from the main thread.
+     */
+    private void restoreSession() {
+        final SessionStore.Saved saved = sessionStore.load(appId);
+        if (saved == null) {
+            return;
+        }
+        CastSession current = getSession();
+        if (current != null && current.isConnected()) {
+            // Resumed by the framework already, the route scan reports it
+            return;
+        }
+        try {
+            saved.session.put("cached", true);
+        } catch (JSONException e) {
+        }
+        listener.onSessionRestore(saved.session, saved.media);
+        resumeSession(saved, new SelectRouteCallback() {
+            @Override
+            public void onJoin(JSONObject jsonSession) {
+                // Sent as an update, so the client gets what changed since the restored state
+                listener.onSessionUpdate(jsonSession);
+            }
+            @Override
+            public void onError(JSONObject message) {
+                CastSession session = getSession();
+                if (session != null && session.isConnected()) {
+                    // The framework resumed it first, the route scan reports it
+                    return;
+                }
+                sessionStore.clear();
+                try {
+                    listener.onSessionEnd(saved.session.put("status", "stopped"));
+                } catch (JSONException e) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Selects the route of a restored session once a route shows the session running.
+     * A route without the session is not selected, that would launch the receiver application.
+     * @param saved the restored session
+     * @param callback calls callback.onJoin when we have joined the session,
+     *                 or callback.onError if it isn't running or joining it failed
+     */
+    private void resumeSession(final SessionStore.Saved saved, final SelectRouteCallback callback) {
+        final boolean[] found = {false};
+        final ScanCallback scan = new ScanCallback() {
+            @Override
+            void onRouteUpdate(List<RouteInfo> routes) {
+                // The routes running a session are filtered out of routes
+                if (found[0] || !isSessionRunning(saved.sessionId)) {
+                    return;
+                }
+                found[0] = true;
+                stopRouteScan(this, null);
+                selectRoute(saved.routeId, callback);
+            }
+        };
+        startRouteScan(SESSION_RESUME_SCAN_MS, scan, new Runnable() {
+            @Override
+            public void run() {
+                if (!found[0]) {
+                    found[0] = true;
+                    callback.onError(ChromecastUtilities.createError("timeout",
+                            "Session " + saved.sessionId + " is no longer running."));
+                }
+            }
+        });
+    }
+
+    /**
+     * @param sessionId a session
+     * @return whether a known route shows the session running on it
+     */
+    private boolean isSessionRunning(String sessionId) {
+        for (RouteInfo route : getMediaRouter().getRoutes()) {
+            Bundle extras = route.getExtras();
+            if (extras != null && sessionId.equals(extras.getString(EXTRA_SESSION_ID))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the state of the current session now (eg. before the app may be killed).
+     */
+    void saveSessionState() {
+        if (sessionStore != null) {
+            sessionStore.flush();
+        }
+    }
+
     private MediaRouter getMediaRouter() {
         return MediaRouter.getInstance(activity);
     }
@@ -255,37 +375,6 @@ public class ChromecastConnection {
         return sm != null ? sm.getCurrentCastSession() : null;
     }
 
-    /**
-     * Polls for a Cast session to connect.
-     * @param callback the callback to call when connected
-     * @param attempt current attempt number
-     */
-    private void pollForSession(final RequestSessionCallback callback, final int attempt) {
-        android.util.Log.d("Chromecast", "pollForSession: attempt " + attempt + ", CastState=" + getContext().getCastState());
-
-        CastSession session = getSessionManager().getCurrentCastSession();
-        if (session != null && session.isConnected()) {
-            android.util.Log.d("Chromecast", "pollForSession: session connected!");
-            media.setSession(session);
-            callback.onJoin(ChromecastUtilities.createSessionObject(session));
-            return;
-        }
-
-        if (attempt >= 20) { // Max 10 seconds (20 * 500ms)
-            android.util.Log.e("Chromecast", "pollForSession: timeout after " + attempt + " attempts");
-            callback.onError(7); // Timeout error
-            return;
-        }
-
-        // Poll again after 500ms
-        new android.os.Handler().postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                pollForSession(callback, attempt + 1);
-            }
-        }, 500);
-    }
-
     private void setAppId(String applicationId) {
         this.appId = applicationId;
         this.settings.edit().putString("appId", appId).apply();
@@ -361,6 +450,9 @@ public class ChromecastConnection {
                                 // https://github.com/jellyfin/cordova-plugin-chromecast/issues/48
                                 try {
                                     // Try selecting the route!
+                                    if (retries[0] == 0) {
+                                        connectMetrics.onRouteSelected();
+                                    }
                                     getMediaRouter().selectRoute(route);
                                 } catch (NullPointerException e) {
                                     // Let it try to find the route again
@@ -431,6 +523,9 @@ public class ChromecastConnection {
                 startRouteScan(15000L, scan, new Runnable() {
                     @Override
                     public void run() {
+                        if (!sentResult[0]) {
+                            finishConnection(ConnectMetrics.TIMEOUT, CastStatusCodes.TIMEOUT);
+                        }
                         sendErrorResult.apply(ChromecastUtilities.createError("timeout",
                                 "Failed to join route (" + routeId + ") after 15s and " + (retries[0] + 1) + " tries."));
                     }
@@ -470,6 +565,7 @@ public class ChromecastConnection {
 
                     // Add the connection listener callback
                     listenForConnection(callback);
+                    final boolean[] cancelled = {false};
 
                     // Create the dialog
                     // TODO accept theme as a config.xml option
@@ -482,7 +578,8 @@ public class ChromecastConnection {
                         @Override
                         public void onCancel(DialogInterface dialog) {
                             android.util.Log.d("Chromecast", "requestSession: dialog cancelled");
-                            getSessionManager().removeSessionManagerListener(newConnectionListener, CastSession.class);
+                            cancelled[0] = true;
+                            stopListeningForConnection();
                             callback.onCancel();
                         }
                     });
@@ -490,11 +587,21 @@ public class ChromecastConnection {
                         @Override
                         public void onDismiss(DialogInterface dialog) {
                             android.util.Log.d("Chromecast", "requestSession: dialog dismissed");
-                            // The session should already be starting - the listenForConnection callback
-                            // we set up before showing the dialog will handle the session start
+                            if (cancelled[0]) {
+                                return;
+                            }
                             final RouteInfo selectedRoute = getMediaRouter().getSelectedRoute();
                             android.util.Log.d("Chromecast", "requestSession: selected route = " + selectedRoute.getName() + ", isDefault=" + selectedRoute.isDefault());
-                            android.util.Log.d("Chromecast", "requestSession: session should be starting, waiting for callback...");
+                            if (selectedRoute.isDefault()) {
+                                // Closed without picking a route
+                                stopListeningForConnection();
+                                callback.onCancel();
+                                return;
+                            }
+                            // The session is starting, the listenForConnection callback we set up
+                            // before showing the dialog handles the result, or the timeout fires
+                            connectMetrics.onRouteSelected();
+                            startJoinTimeout(callback);
                         }
                     });
                     builder.show();
@@ -524,37 +631,55 @@ public class ChromecastConnection {
     }
 
     /**
+     * Waits for the session manager to report the session started (or resumed, when the route
+     * still had our session) instead of polling for it.
      * Must be called from the main thread.
      * @param callback calls callback.success when we have joined, or callback.error if an error occurred
      */
     private void listenForConnection(final ConnectionCallback callback) {
         android.util.Log.d("Chromecast", "listenForConnection: setting up listener");
         // We should only ever have one of these listeners active at a time, so remove previous
-        getSessionManager().removeSessionManagerListener(newConnectionListener, CastSession.class);
+        stopListeningForConnection();
+        connectMetrics = new ConnectMetrics();
         newConnectionListener = new SessionListener() {
             @Override
             public void onSessionStarting(CastSession castSession) {
                 android.util.Log.d("Chromecast", "SessionListener: onSessionStarting");
+                connectMetrics.onSessionStarting();
             }
             @Override
             public void onSessionStarted(CastSession castSession, String sessionId) {
                 android.util.Log.d("Chromecast", "SessionListener: onSessionStarted, sessionId=" + sessionId);
-                getSessionManager().removeSessionManagerListener(this, CastSession.class);
-                media.setSession(castSession);
-                callback.onJoin(ChromecastUtilities.createSessionObject(castSession));
+                join(castSession, false, callback);
+            }
+            @Override
+            public void onSessionResuming(CastSession castSession, String sessionId) {
+                connectMetrics.onSessionStarting();
+            }
+            @Override
+            public void onSessionResumed(CastSession castSession, boolean wasSuspended) {
+                android.util.Log.d("Chromecast", "SessionListener: onSessionResumed");
+                join(castSession, true, callback);
             }
             @Override
             public void onSessionStartFailed(CastSession castSession, int errCode) {
                 android.util.Log.e("Chromecast", "SessionListener: onSessionStartFailed, errCode=" + errCode);
                 if (callback.onSessionStartFailed(errCode)) {
-                    getSessionManager().removeSessionManagerListener(this, CastSession.class);
+                    finishConnection(ConnectMetrics.FAILED, errCode);
+                }
+            }
+            @Override
+            public void onSessionResumeFailed(CastSession castSession, int errCode) {
+                android.util.Log.e("Chromecast", "SessionListener: onSessionResumeFailed, errCode=" + errCode);
+                if (callback.onSessionStartFailed(errCode)) {
+                    finishConnection(ConnectMetrics.FAILED, errCode);
                 }
             }
             @Override
             public void onSessionEnded(CastSession castSession, int errCode) {
                 android.util.Log.d("Chromecast", "SessionListener: onSessionEnded, errCode=" + errCode);
                 if (callback.onSessionEndedBeforeStart(errCode)) {
-                    getSessionManager().removeSessionManagerListener(this, CastSession.class);
+                    finishConnection(ConnectMetrics.FAILED, errCode);
                 }
             }
         };
@@ -562,6 +687,68 @@ public class ChromecastConnection {
         android.util.Log.d("Chromecast", "listenForConnection: listener added");
     }
 
+    /**
+     * Hands the started session to the media controls and the callback, or fails the callback
+     * if the receiver app doesn't support media.
+     */
+    private void join(CastSession castSession, boolean resumed, ConnectionCallback callback) {
+        if (castSession.getRemoteMediaClient() == null) {
+            // The receiver app has no media namespace. The client never shows up later (started
+            // and resumed fire once per session), so fail now instead of at the timeout
+            android.util.Log.e("Chromecast", "join: the receiver app doesn't support media");
+            finishConnection(ConnectMetrics.FAILED, CastStatusCodes.INVALID_REQUEST);
+            callback.onSessionStartFailed(CastStatusCodes.INVALID_REQUEST);
+            return;
+        }
+        connectMetrics.onJoined(resumed);
+        finishConnection(ConnectMetrics.JOINED, 0);
+        media.setSession(castSession);
+        if (!resumed) {
+            // Continue what the local player is playing on the receiver
+            media.handoffToCast();
+        }
+        JSONObject jsonSession = ChromecastUtilities.createSessionObject(castSession);
+        sessionStore.onJoined(appId, castSession.getSessionId(), getMediaRouter().getSelectedRoute().getId(), jsonSession);
+        callback.onJoin(jsonSession);
+    }
+
+    /**
+     * Fails the join if no session started within {@link #SESSION_JOIN_TIMEOUT_MS}.
+     */
+    private void startJoinTimeout(final ConnectionCallback callback) {
+        if (newConnectionListener == null) {
+            // Already joined or failed
+            return;
+        }
+        handler.removeCallbacks(joinTimeout);
+        joinTimeout = new Runnable() {
+            @Override
+            public void run() {
+                android.util.Log.e("Chromecast", "listenForConnection: timeout");
+                finishConnection(ConnectMetrics.TIMEOUT, CastStatusCodes.TIMEOUT);
+                callback.onSessionStartFailed(CastStatusCodes.TIMEOUT);
+            }
+        };
+        handler.postDelayed(joinTimeout, SESSION_JOIN_TIMEOUT_MS);
+    }
+
+    /**
+     * Stops listening for the session and reports the connect metrics.
+     */
+    private void finishConnection(String outcome, int errorCode) {
+        stopListeningForConnection();
+        listener.onConnectMetrics(connectMetrics.toJSObject(outcome, errorCode));
+    }
+
+    private void stopListeningForConnection() {
+        handler.removeCallbacks(joinTimeout);
+        joinTimeout = null;
+        if (newConnectionListener != null) {
+            getSessionManager().removeSessionManagerListener(newConnectionListener, CastSession.class);
+            newConnectionListener = null;
+        }
+    }
+
     /**
      * Starts listening for receiver updates.
      * Must call stopRouteScan(callback) or the battery will drain with non-stop active scanning.
@@ -614,6 +801,27 @@ public class ChromecastConnection {
         });
     }
 
+    /**
+     * Switches a running scan between active scanning and passive discovery.
+     * @param callback the callback of the scan
+     * @param active false to stop actively scanning, routes are still reported as they change
+     */
+    public void setActiveScan(final ScanCallback callback, final boolean active) {
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                if (callback.stopped) {
+                    return;
+                }
+                // Adding a registered callback again only updates its flags
+                getMediaRouter().addCallback(new MediaRouteSelector.Builder()
+                        .addControlCategory(CastMediaControlIntent.categoryForCast(appId))
+                        .build(),
+                        callback,
+                        active ? MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN : 0);
+            }
+        });
+    }
+
     /**
      * Call to stop the active scan if any exist.
      * @param callback the callback to stop and remove
@@ -660,6 +868,25 @@ public class ChromecastConnection {
         });
     }
 
+    /**
+     * Completes a handoff to the local player once it plays: the receiver application is
+     * stopped, unless the session is gone already.
+     * @param pluginCall resolved once the session ended
+     */
+    void completeHandoffToLocal(final PluginCall pluginCall) {
+        media.completeHandoffToLocal();
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                SessionManager sessionManager = getSessionManager();
+                if (sessionManager == null || sessionManager.getCurrentCastSession() == null) {
+                    pluginCall.resolve();
+                    return;
+                }
+                endSession(true, pluginCall);
+            }
+        });
+    }
+
     /**
      * Create this empty class so that we don't have to override every function
      * each time we need a SessionManagerListener.
@@ -742,6 +969,28 @@ public class ChromecastConnection {
         private boolean stopped = false;
         /** Global mediaRouter object. */
         private MediaRouter mediaRouter;
+        /** How long route events are collected before onRouteUpdate, 0 to call it right away. */
+        private final long debounceMs;
+        private Handler debounceHandler;
+        private boolean updatePending = false;
+        private final Runnable debouncedUpdate = new Runnable() {
+            @Override
+            public void run() {
+                updatePending = false;
+                onFilteredRouteUpdate();
+            }
+        };
+
+        public ScanCallback() {
+            this(0);
+        }
+
+        /**
+         * @param debounceMs how long bursts of route events are collected into one onRouteUpdate
+         */
+        public ScanCallback(long debounceMs) {
+            this.debounceMs = debounceMs;
+        }
 
         /**
          * Sets the mediaRouter object.
@@ -758,6 +1007,24 @@ public class ChromecastConnection {
          */
         void stop() {
             stopped = true;
+            if (debounceHandler != null) {
+                debounceHandler.removeCallbacks(debouncedUpdate);
+                updatePending = false;
+            }
+        }
+        private void onRouteEvent() {
+            if (debounceMs == 0) {
+                onFilteredRouteUpdate();
+                return;
+            }
+            if (debounceHandler == null) {
+                debounceHandler = new Handler(Looper.getMainLooper());
+            }
+            // The first event of a burst schedules the update, the following ones join it
+            if (!updatePending) {
+                updatePending = true;
+                debounceHandler.postDelayed(debouncedUpdate, debounceMs);
+            }
         }
         private void onFilteredRouteUpdate() {
             if (stopped || mediaRouter == null) {
@@ -771,7 +1038,7 @@ public class ChromecastConnection {
                 Bundle extras = route.getExtras();
                 if (extras != null) {
                     CastDevice.getFromBundle(extras);
-                    if (extras.getString("com.google.android.gms.cast.EXTRA_SESSION_ID") != null) {
+                    if (extras.getString(EXTRA_SESSION_ID) != null) {
                         continue;
                     }
                 }
@@ -786,21 +1053,28 @@ public class ChromecastConnection {
         }
         @Override
         public final void onRouteAdded(MediaRouter router, RouteInfo route) {
-            onFilteredRouteUpdate();
+            onRouteEvent();
         }
         @Override
         public final void onRouteChanged(MediaRouter router, RouteInfo route) {
-            onFilteredRouteUpdate();
+            onRouteEvent();
         }
         @Override
         public final void onRouteRemoved(MediaRouter router, RouteInfo route) {
-            onFilteredRouteUpdate();
+            onRouteEvent();
         }
     }
 
     abstract static class Listener implements CastStateListener, ChromecastSession.Listener {
         abstract void onReceiverAvailableUpdate(boolean available);
         abstract void onSessionRejoin(JSONObject jsonSession);
+        /**
+         * The session from before the app restarted, it may not be running anymore.
+         * @param jsonSession the persisted session, with cached: true
+         * @param jsonMedia its persisted media, null if nothing was loaded
+         */
+        abstract void onSessionRestore(JSONObject jsonSession, JSONObject jsonMedia);
+        abstract void onConnectMetrics(JSONObject metrics);
 
         /** CastStateListener functions. */
         @Override
@@ -2,6 +2,10 @@ package com.gameleap.plugins.chromecast;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.cordova.CallbackContext;
 import org.json.JSONArray;
@@ -22,7 +26,6 @@ import com.google.android.gms.cast.framework.media.MediaQueue;
 import com.google.android.gms.cast.framework.media.RemoteMediaClient;
 import com.google.android.gms.cast.framework.media.RemoteMediaClient.MediaChannelResult;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.common.api.Status;
 
 import android.app.Activity;
 
@@ -42,21 +45,130 @@ public class ChromecastSession {
     private RemoteMediaClient client;
     /** Indicates whether we are requesting media or not. **/
     private boolean requestingMedia = false;
+    /** The listeners registered for the current session, null when detached. **/
+    private SessionListeners sessionListeners;
     /** Handles and used to trigger queue updates. **/
     private MediaQueueController mediaQueueCallback;
+    /** Serves paged reads of the whole queue. **/
+    private QueuePager queuePager;
+    /** Coalesces queue edits into as few receiver requests as possible. **/
+    private QueueEditBatcher queueEditBatcher;
+    /** Sets preloadTimes and measures the gaps between queue items. **/
+    private PreloadScheduler preloadScheduler;
+    /** Appends the rest of a long queue after its first window is loaded. **/
+    private ChunkedQueueLoader chunkedQueueLoader;
+    /** Serves local media files to the receiver. **/
+    private final LocalMediaUrls localMediaUrls = new LocalMediaUrls();
+    /** Batches custom messages to the receiver, null without a session. **/
+    private MessageChannel messageChannel;
+    /** Namespaces the client listens on, kept across sessions. **/
+    private final Set<String> messageNamespaces = new LinkedHashSet<>();
+    /** Follows media URL redirects ahead of time, shared with the local player. **/
+    private final MediaUrlResolver urlResolver = MediaUrlResolver.shared();
+    /** How long loads wait for the redirects of the first items to be resolved. **/
+    private static final long RESOLVE_WAIT_MS = 1500;
+    /** Number of queue items (from the start index) loaded with their resolved URL. **/
+    private static final int RESOLVE_AHEAD = 2;
+    /** Hands playback over between the local player and the receiver. **/
+    private final PlaybackHandoff handoff;
     /** Stores a callback that should be called when the queue is loaded. **/
     private Runnable queueReloadCallback;
     /** Stores a callback that should be called when the queue status is updated. **/
     private Runnable queueStatusUpdatedCallback;
+    /** Default interval between progress updates. **/
+    static final long DEFAULT_PROGRESS_INTERVAL_MS = 1000;
+    /** Forwards the client's progress ticks, registered on the current client only. **/
+    private final RemoteMediaClient.ProgressListener progressListener = new RemoteMediaClient.ProgressListener() {
+        @Override
+        public void onProgressUpdated(long progressMs, long durationMs) {
+            handoff.onReceiverProgress(progressMs);
+            reportCastPlayback();
+            clientListener.onMediaProgress(progressMs, durationMs);
+        }
+    };
+    /** Interval between progress updates requested by the client, 0 disables them. **/
+    private long progressIntervalMs = DEFAULT_PROGRESS_INTERVAL_MS;
+    /** Whether progress updates are suspended (eg. while the app is in the background). **/
+    private boolean progressPaused = false;
+    /** Main thread time spent per media status update. **/
+    private final MainThreadStats statusUpdateStats = new MainThreadStats();
+    /** Persists the state of the current session for a restart of the app. **/
+    private final SessionStore sessionStore;
+    /** Transport controls of the current session for native code, see {@link CastPlayback}. **/
+    private final CastPlayback.Controls castControls = new CastPlayback.Controls() {
+        @Override
+        public boolean play() {
+            return onClient(new ClientCommand() {
+                @Override
+                public void run(RemoteMediaClient client) {
+                    client.play();
+                }
+            });
+        }
+
+        @Override
+        public boolean pause() {
+            return onClient(new ClientCommand() {
+                @Override
+                public void run(RemoteMediaClient client) {
+                    client.pause();
+                }
+            });
+        }
+
+        @Override
+        public boolean seekTo(final long positionMs) {
+            return onClient(new ClientCommand() {
+                @Override
+                public void run(RemoteMediaClient client) {
+                    client.seek(new MediaSeekOptions.Builder().setPosition(positionMs).build());
+                }
+            });
+        }
+
+        @Override
+        public boolean skipToIndex(final int index) {
+            return onClient(new ClientCommand() {
+                @Override
+                public void run(RemoteMediaClient client) {
+                    playLocalItem(client, index);
+                }
+            });
+        }
+
+        @Override
+        public void setLocalState(JSONArray items, int index, long positionMs, boolean playing, String repeatMode) {
+            setLocalPlaybackState(items, index, positionMs, playing, repeatMode);
+        }
+    };
 
     /**
      * ChromecastSession constructor.
      * @param act the current activity
      * @param listener callback that will notify of certain events
+     * @param store persists the session and media objects sent to the listener
      */
-    public ChromecastSession(Activity act, @NonNull Listener listener) {
+    public ChromecastSession(Activity act, @NonNull Listener listener, @NonNull SessionStore store) {
         this.activity = act;
         this.clientListener = listener;
+        this.sessionStore = store;
+        this.handoff = new PlaybackHandoff(new PlaybackHandoff.Listener() {
+            @Override
+            public void onHandoff(JSONObject event) {
+                // The receiver's playback is only reported while no handoff runs
+                reportCastPlayback();
+                clientListener.onHandoff(event);
+            }
+
+            @Override
+            public void onToCastTimeout() {
+                // The local player keeps playing, don't let the receiver start late
+                if (client != null) {
+                    client.stop();
+                }
+            }
+        });
+        CastPlayback.attach(castControls);
     }
 
     /**
@@ -67,112 +179,208 @@ public class ChromecastSession {
         activity.runOnUiThread(new Runnable() {
             public void run() {
                 if (castSession == null) {
-                    client = null;
+                    detachSession();
+                    sessionStore.clear();
+                    handoff.onSessionEnded(localMediaUrls);
+                    reportCastPlayback();
+                    localMediaUrls.stop();
                     return;
                 }
-                if (castSession.equals(session)) {
-                    // Don't client and listeners if session did not change
+                if (castSession.equals(session) && sessionListeners != null) {
+                    // Still attached to this session
                     return;
                 }
+                detachSession();
                 session = castSession;
-                client = session.getRemoteMediaClient();
-                if (client == null) {
+                localMediaUrls.newSession();
+                attachSession();
+            }
+        });
+    }
+
+    /**
+     * Registers the listeners for the current session, the ones of the previous session must
+     * have been detached. Must be called on the main thread.
+     */
+    private void attachSession() {
+        final CastSession attachedSession = session;
+        final SessionListeners listeners = new SessionListeners();
+        sessionListeners = listeners;
+        listeners.add(new SessionListeners.Registration() {
+            @Override
+            public void attach() {
+                openMessageChannel();
+            }
+            @Override
+            public void detach() {
+                closeMessageChannel();
+            }
+        });
+        client = attachedSession.getRemoteMediaClient();
+        if (client == null) {
+            listeners.attach();
+            return;
+        }
+        final RemoteMediaClient attachedClient = client;
+        setupQueue(listeners);
+        listeners.add(new SessionListeners.Registration() {
+            @Override
+            public void attach() {
+                applyProgressInterval();
+            }
+            @Override
+            public void detach() {
+                attachedClient.removeProgressListener(progressListener);
+            }
+        });
+        final RemoteMediaClient.Callback statusCallback = new RemoteMediaClient.Callback() {
+            private Integer prevItemId;
+            @Override
+            public void onStatusUpdated() {
+                long start = statusUpdateStats.start();
+                try {
+                    handleStatusUpdate();
+                } finally {
+                    statusUpdateStats.stop(start);
+                }
+            }
+            private void handleStatusUpdate() {
+                final MediaStatus status = attachedClient.getMediaStatus();
+                preloadScheduler.onStatusUpdated(status, queueEditBatcher);
+                handoff.onReceiverStatus(status, attachedClient.getApproximateStreamPosition());
+                reportCastPlayback();
+                if (requestingMedia
+                        || queueStatusUpdatedCallback != null
+                        || queueReloadCallback != null) {
                     return;
                 }
-                setupQueue();
-                client.registerCallback(new RemoteMediaClient.Callback() {
-                    private Integer prevItemId;
-                    @Override
-                    public void onStatusUpdated() {
-                        final MediaStatus status = client.getMediaStatus();
-                        if (requestingMedia
-                                || queueStatusUpdatedCallback != null
-                                || queueReloadCallback != null) {
-                            return;
-                        }
 
-                        if (status != null) {
-                            if (prevItemId == null) {
-                                prevItemId = status.getCurrentItemId();
-                            }
-                            boolean shouldSkipUpdate = false;
-                            if (status.getPlayerState() == MediaStatus.PLAYER_STATE_LOADING) {
-                                // It appears the queue has advanced to the next item
-                                // So send an update to indicate the previous has finished
-                                clientListener.onMediaUpdate(createMediaObject(MediaStatus.IDLE_REASON_FINISHED));
-                                shouldSkipUpdate = true;
-                            }
-                            if (prevItemId != null && prevItemId != status.getCurrentItemId() && mediaQueueCallback.getCurrentItemIndex() != -1) {
-                                // The currentItem has changed, so update the current queue items
-                                setQueueReloadCallback(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        prevItemId = status.getCurrentItemId();
-                                    }
-                                });
-                                mediaQueueCallback.refreshQueueItems();
-                                shouldSkipUpdate = true;
-                            }
-                            if (shouldSkipUpdate) {
-                                return;
-                            }
-                        }
-                        // Send update
-                        clientListener.onMediaUpdate(createMediaObject());
-                    }
-                    @Override
-                    public void onQueueStatusUpdated() {
-                        if (queueStatusUpdatedCallback != null) {
-                            queueStatusUpdatedCallback.run();
-                            setQueueStatusUpdatedCallback(null);
-                        }
-                    }
-                });
-                session.addCastListener(new Cast.Listener() {
-                    @Override
-                    public void onApplicationStatusChanged() {
-                        clientListener.onSessionUpdate(createSessionObject());
+                if (status != null) {
+                    if (prevItemId == null) {
+                        prevItemId = status.getCurrentItemId();
                     }
-                    @Override
-                    public void onApplicationMetadataChanged(ApplicationMetadata appMetadata) {
-                        clientListener.onSessionUpdate(createSessionObject());
-                    }
-                    @Override
-                    public void onApplicationDisconnected(int i) {
-                        clientListener.onSessionEnd(
-                                ChromecastUtilities.createSessionObject(session, "stopped"));
+                    boolean shouldSkipUpdate = false;
+                    if (status.getPlayerState() == MediaStatus.PLAYER_STATE_LOADING) {
+                        // It appears the queue has advanced to the next item
+                        // So send an update to indicate the previous has finished
+                        emitMediaUpdate(MediaStatus.IDLE_REASON_FINISHED);
+                        shouldSkipUpdate = true;
                     }
-                    @Override
-                    public void onActiveInputStateChanged(int i) {
-                        clientListener.onSessionUpdate(createSessionObject());
+                    if (prevItemId != null && prevItemId != status.getCurrentItemId() && mediaQueueCallback.getCurrentItemIndex() != -1) {
+                        // The currentItem has changed, so update the current queue items
+                        setQueueReloadCallback(new Runnable() {
+                            @Override
+                            public void run() {
+                                prevItemId = status.getCurrentItemId();
+                            }
+                        });
+                        mediaQueueCallback.refreshQueueItems();
+                        shouldSkipUpdate = true;
                     }
-                    @Override
-                    public void onStandbyStateChanged(int i) {
-                        clientListener.onSessionUpdate(createSessionObject());
+                    if (shouldSkipUpdate) {
+                        return;
                     }
-                    @Override
-                    public void onVolumeChanged() {
-                        clientListener.onSessionUpdate(createSessionObject());
+                }
+                // Send update
+                emitMediaUpdate(null);
+            }
+            @Override
+            public void onQueueStatusUpdated() {
+                if (queueStatusUpdatedCallback != null) {
+                    queueStatusUpdatedCallback.run();
+                    setQueueStatusUpdatedCallback(null);
+                }
+            }
+        };
+        listeners.add(new SessionListeners.Registration() {
+            @Override
+            public void attach() {
+                attachedClient.registerCallback(statusCallback);
+            }
+            @Override
+            public void detach() {
+                attachedClient.unregisterCallback(statusCallback);
+            }
+        });
+        final Cast.Listener castListener = new Cast.Listener() {
+            @Override
+            public void onApplicationStatusChanged() {
+                emitSessionUpdate();
+            }
+            @Override
+            public void onApplicationMetadataChanged(ApplicationMetadata appMetadata) {
+                emitSessionUpdate();
+            }
+            @Override
+            public void onApplicationDisconnected(int i) {
+                sessionStore.clear();
+                handoff.onSessionEnded(localMediaUrls);
+                reportCastPlayback();
+                final CastStatusSnapshot.Session snapshot = snapshotSession();
+                CastEventThread.execute(new Runnable() {
+                    public void run() {
+                        clientListener.onSessionEnd(ChromecastUtilities.createSessionObject(snapshot, "stopped"));
                     }
                 });
             }
+            @Override
+            public void onActiveInputStateChanged(int i) {
+                emitSessionUpdate();
+            }
+            @Override
+            public void onStandbyStateChanged(int i) {
+                emitSessionUpdate();
+            }
+            @Override
+            public void onVolumeChanged() {
+                emitSessionUpdate();
+            }
+        };
+        listeners.add(new SessionListeners.Registration() {
+            @Override
+            public void attach() {
+                attachedSession.addCastListener(castListener);
+            }
+            @Override
+            public void detach() {
+                attachedSession.removeCastListener(castListener);
+            }
         });
+        listeners.attach();
+    }
+
+    /**
+     * Unregisters the listeners of the current session, if any, and drops its client.
+     * Must be called on the main thread.
+     */
+    private void detachSession() {
+        if (sessionListeners != null) {
+            sessionListeners.detach();
+            sessionListeners = null;
+        }
+        client = null;
+    }
+
+    /**
+     * Must be called on the main thread.
+     * @param castSession a session
+     * @return whether the session is the current one and has been set up
+     */
+    boolean isCurrentSession(CastSession castSession) {
+        return castSession.equals(session) && client != null;
     }
 
     /**
      * Adds a message listener if one does not already exist.
+     * The namespace is listened on in this and all following sessions.
      * @param namespace namespace
      */
     public void addMessageListener(final String namespace) {
-        if (client == null || session == null) {
-            return;
-        }
         activity.runOnUiThread(new Runnable() {
             public void run() {
-                try {
-                    session.setMessageReceivedCallbacks(namespace, clientListener);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                messageNamespaces.add(namespace);
+                if (messageChannel != null) {
+                    messageChannel.addNamespace(namespace);
                 }
             }
         });
@@ -185,27 +393,286 @@ public class ChromecastSession {
      * @param callback called with success or error
      */
     public void sendMessage(final String namespace, final String message, final CallbackContext callback) {
+        sendMessage(namespace, message, false, new MessageChannel.SendListener() {
+            @Override
+            public void onResult(String error) {
+                if (error == null) {
+                    callback.success();
+                } else {
+                    callback.error(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends a message to a specified namespace through the {@link MessageChannel}.
+     * @param namespace namespace
+     * @param message the message to send
+     * @param coalesce whether the message replaces an unsent message of the same namespace
+     * @param listener notified once the receiver got the message or it failed
+     */
+    public void sendMessage(final String namespace, final String message, final boolean coalesce, final MessageChannel.SendListener listener) {
         if (client == null || session == null) {
-            callback.error("session_error");
+            listener.onResult("session_error");
             return;
         }
         activity.runOnUiThread(new Runnable() {
             public void run() {
-                session.sendMessage(namespace, message).setResultCallback(new ResultCallback<Status>() {
+                if (messageChannel == null) {
+                    listener.onResult("session_error");
+                    return;
+                }
+                messageChannel.send(namespace, message, coalesce, listener);
+            }
+        });
+    }
+
+    private void openMessageChannel() {
+        closeMessageChannel();
+        messageChannel = new MessageChannel(session, new MessageChannel.Listener() {
+            @Override
+            public void onMessage(String namespace, String message) {
+                clientListener.onMessageReceived(session.getCastDevice(), namespace, message);
+            }
+
+            @Override
+            public void onBackpressure(boolean paused, int queued) {
+                clientListener.onMessageBackpressure(paused, queued);
+            }
+        });
+        messageChannel.open();
+        for (String namespace : messageNamespaces) {
+            messageChannel.addNamespace(namespace);
+        }
+    }
+
+    private void closeMessageChannel() {
+        if (messageChannel != null) {
+            messageChannel.close();
+            messageChannel = null;
+        }
+    }
+
+    /**
+     * Stores what the local player is playing, to hand it over when a session starts.
+     * @param items chrome.cast.media.QueueItem[], null if the local player has nothing loaded
+     * @param index index of the current item
+     * @param positionMs position in the current item
+     * @param playing whether the local player is playing
+     * @param repeatMode chrome.cast.media.RepeatMode of the local queue
+     */
+    public void setLocalPlaybackState(final JSONArray items, final int index, final long positionMs, final boolean playing, final String repeatMode) {
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                handoff.setLocalState(items, index, positionMs, playing, repeatMode);
+            }
+        });
+    }
+
+    /**
+     * Loads the local player's queue at its current position, if the receiver of the new
+     * session plays nothing. Local audio should keep playing until the handoff completes.
+     */
+    void handoffToCast() {
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                if (client == null || !handoff.hasLocalState() || handoff.isPending()) {
+                    return;
+                }
+                MediaStatus status = client.getMediaStatus();
+                if (status != null && status.getPlayerState() != MediaStatus.PLAYER_STATE_IDLE) {
+                    // Another sender's media is playing, leave it
+                    return;
+                }
+                JSONObject queueLoadRequest;
+                try {
+                    queueLoadRequest = handoff.startToCast(preloadScheduler.getBufferLatencyMs());
+                } catch (JSONException e) {
+                    return;
+                }
+                if (queueLoadRequest == null) {
+                    return;
+                }
+                queueLoad(queueLoadRequest, new QueueLoadCallback() {
                     @Override
-                    public void onResult(Status result) {
-                        if (!result.isSuccess()) {
-                            callback.success();
-                        } else {
-                            callback.error(result.toString());
-                        }
+                    public void onLoaded(JSONObject jsonMedia) {
+                        clientListener.onMediaLoaded(jsonMedia);
+                        handoff.onCastLoaded();
+                    }
+
+                    @Override
+                    public void onError(String code, String message) {
+                        handoff.onCastLoadFailed(code);
                     }
                 });
+            }
+        });
+    }
+
+    /**
+     * Starts handing the receiver's item over to the local player. The receiver keeps
+     * playing until {@link #completeHandoffToLocal()}.
+     * @param callback resolved with the started handoff event
+     */
+    public void handoffToLocal(final PluginCall callback) {
+        if (client == null || session == null) {
+            callback.reject("session_error");
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                JSONObject event = handoff.startToLocal(localMediaUrls);
+                if (event == null) {
+                    callback.reject("no_media");
+                    return;
+                }
+                try {
+                    callback.resolve(ChromecastUtilities.toJSObject(event));
+                } catch (JSONException e) {
+                    callback.reject(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Completes a handoff to the local player, which is playing now. The caller stops the
+     * receiver.
+     */
+    void completeHandoffToLocal() {
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                handoff.completeToLocal();
+            }
+        });
+    }
+
+    /** A command for the current client, see {@link #onClient}. */
+    private interface ClientCommand {
+        void run(RemoteMediaClient client);
+    }
+
+    /**
+     * Runs a command on the main thread with the current client.
+     * @return false if there is no client
+     */
+    private boolean onClient(final ClientCommand command) {
+        if (client == null || session == null) {
+            return false;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                if (client != null) {
+                    command.run(client);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Plays an item of the local queue: jumps to it if the receiver's queue has it, else the
+     * receiver is loaded with the local queue from that item. Must be called on the main thread.
+     * @param index index of the item in the local queue
+     */
+    private void playLocalItem(RemoteMediaClient client, int index) {
+        String contentId = handoff.localContentId(index);
+        if (contentId == null) {
+            return;
+        }
+        MediaStatus status = client.getMediaStatus();
+        List<MediaQueueItem> receiverItems = status != null ? status.getQueueItems() : null;
+        if (receiverItems != null) {
+            for (MediaQueueItem item : receiverItems) {
+                MediaInfo media = item.getMedia();
+                if (media != null && localMediaUrls.isReceiverUrlOf(media.getContentId(), contentId)) {
+                    setQueueStatusUpdatedCallback(new Runnable() {
+                        @Override
+                        public void run() {
+                            emitMediaUpdate(MediaStatus.IDLE_REASON_INTERRUPTED);
+                        }
+                    });
+                    client.queueJumpToItem(item.getItemId(), null);
+                    return;
+                }
+            }
+        }
+        JSONObject queueLoadRequest;
+        try {
+            queueLoadRequest = handoff.localQueueLoadRequest(index, 0, true);
+        } catch (JSONException e) {
+            return;
+        }
+        if (queueLoadRequest == null) {
+            return;
+        }
+        queueLoad(queueLoadRequest, new QueueLoadCallback() {
+            @Override
+            public void onLoaded(JSONObject jsonMedia) {
+                clientListener.onMediaLoaded(jsonMedia);
+            }
+
+            @Override
+            public void onError(String code, String message) {
+            }
+        });
+    }
+
+    /**
+     * Reports the receiver's playback to {@link CastPlayback}. Must be called on the main thread.
+     */
+    private void reportCastPlayback() {
+        CastPlayback.update(handoff.castPlayback(localMediaUrls));
+    }
+
+    /**
+     * @return main thread time spent per media status update, {updates, averageMs, maxMs, slowUpdates}
+     */
+    public JSObject getStatusUpdateStats() {
+        return statusUpdateStats.toJSObject();
+    }
 
+    /**
+     * Sets how often {@link Listener#onMediaProgress} is called while media is loaded.
+     * @param intervalMs the interval, 0 disables progress updates
+     */
+    public void setProgressInterval(final long intervalMs) {
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                progressIntervalMs = Math.max(0, intervalMs);
+                applyProgressInterval();
             }
         });
     }
 
+    /**
+     * Suspends or resumes progress updates without changing the requested interval.
+     * @param paused true to suspend (eg. when the app goes to the background)
+     */
+    public void setProgressPaused(final boolean paused) {
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                progressPaused = paused;
+                applyProgressInterval();
+            }
+        });
+    }
+
+    /**
+     * (Re)registers the progress listener on the current client with the current interval.
+     * Must be called on the UI thread.
+     */
+    private void applyProgressInterval() {
+        if (client == null) {
+            return;
+        }
+        client.removeProgressListener(progressListener);
+        if (!progressPaused && progressIntervalMs > 0) {
+            client.addProgressListener(progressListener, progressIntervalMs);
+        }
+    }
+
 /* ------------------------------------   MEDIA FNs   ------------------------------------------- */
 
     /**
@@ -221,39 +688,64 @@ public class ChromecastSession {
      * @param textTrackStyle - The text track style
      * @param callback called with success or error
      */
-    public void loadMedia(final String contentId, final JSONObject customData, final String contentType, final long duration, final String streamType, final boolean autoPlay, final double currentTime, final JSONObject metadata, final JSONObject textTrackStyle, final PluginCall callback) {
+    public void loadMedia(String contentId, final JSONObject customData, final String contentType, final long duration, final String streamType, final boolean autoPlay, final double currentTime, JSONObject metadata, final JSONObject textTrackStyle, final PluginCall callback) {
         if (client == null || session == null) {
             callback.reject("session_error");
             return;
         }
-        activity.runOnUiThread(new Runnable() {
-            public void run() {
-                MediaInfo mediaInfo = ChromecastUtilities.createMediaInfo(contentId, customData, contentType, duration, streamType, metadata, textTrackStyle);
-                MediaLoadRequestData loadRequest = new MediaLoadRequestData.Builder()
-                        .setMediaInfo(mediaInfo)
-                        .setAutoplay(autoPlay)
-                        .setCurrentTime((long) currentTime * 1000)
-                        .build();
-
-                requestingMedia = true;
-                setQueueReloadCallback(new Runnable() {
-                    @Override
+        final String receiverContentId = localMediaUrls.toReceiverUrl(contentId, contentType);
+        final JSONObject receiverMetadata;
+        try {
+            receiverMetadata = metadata != null ? localMediaUrls.rewriteMetadata(metadata) : null;
+        } catch (JSONException e) {
+            callback.reject("invalid_parameter: " + e.getMessage());
+            return;
+        }
+        // Wait briefly for the redirects so the receiver loads the final URL directly
+        urlResolver.resolveAll(Collections.singletonList(receiverContentId), RESOLVE_WAIT_MS, new MediaUrlResolver.Callback() {
+            @Override
+            public void onResolved(List<String> urls) {
+                final String contentUrl = urls.get(0).equals(receiverContentId) ? null : urls.get(0);
+                activity.runOnUiThread(new Runnable() {
                     public void run() {
-                        try {
-                            callback.resolve(JSObject.fromJSONObject(createMediaObject()));
-                        } catch (JSONException e) {
-                            callback.reject(e.getMessage(), e);
-                        }
-                    }
-                });
-                client.load(loadRequest).setResultCallback(new ResultCallback<MediaChannelResult>() {
-                    @Override
-                    public void onResult(@NonNull MediaChannelResult result) {
-                        requestingMedia = false;
-                        if (!result.getStatus().isSuccess()) {
+                        if (client == null) {
                             callback.reject("session_error");
-                            setQueueReloadCallback(null);
+                            return;
                         }
+                        cancelChunkedQueueLoad();
+                        MediaInfo mediaInfo = ChromecastUtilities.createMediaInfo(receiverContentId, contentUrl, customData, contentType, duration, streamType, receiverMetadata, textTrackStyle);
+                        MediaLoadRequestData loadRequest = new MediaLoadRequestData.Builder()
+                                .setMediaInfo(mediaInfo)
+                                .setAutoplay(autoPlay)
+                                .setCurrentTime((long) currentTime * 1000)
+                                .build();
+
+                        requestingMedia = true;
+                        setQueueReloadCallback(new Runnable() {
+                            @Override
+                            public void run() {
+                                writeMediaObject(null, new MediaObjectCallback() {
+                                    @Override
+                                    public void onMediaObject(JSONObject jsonMedia) {
+                                        try {
+                                            callback.resolve(ChromecastUtilities.toJSObject(jsonMedia));
+                                        } catch (JSONException e) {
+                                            callback.reject(e.getMessage(), e);
+                                        }
+                                    }
+                                });
+                            }
+                        });
+                        client.load(loadRequest).setResultCallback(new ResultCallback<MediaChannelResult>() {
+                            @Override
+                            public void onResult(@NonNull MediaChannelResult result) {
+                                requestingMedia = false;
+                                if (!result.getStatus().isSuccess()) {
+                                    callback.reject("session_error");
+                                    setQueueReloadCallback(null);
+                                }
+                            }
+                        });
                     }
                 });
             }
@@ -448,12 +940,71 @@ public class ChromecastSession {
 
     /**
      * Sets up the objects and listeners required for queue functionality.
+     * @param listeners the listeners of the session, the queue callbacks are added to them
      */
-    private void setupQueue() {
-        MediaQueue queue = client.getMediaQueue();
+    private void setupQueue(SessionListeners listeners) {
+        final MediaQueue queue = client.getMediaQueue();
         setQueueReloadCallback(null);
-        mediaQueueCallback = new MediaQueueController(queue);
-        queue.registerCallback(mediaQueueCallback);
+        final MediaQueueController controller = new MediaQueueController(queue);
+        final QueuePager pager = new QueuePager(queue);
+        mediaQueueCallback = controller;
+        queuePager = pager;
+        preloadScheduler = new PreloadScheduler(queue, new PreloadScheduler.Listener() {
+            @Override
+            public void onPreloadedItemChanged(int preloadedItemId) {
+                clientListener.onPreloadedItemChanged(preloadedItemId);
+            }
+
+            @Override
+            public void onItemTransition(int previousItemId, int itemId, long gapMs, boolean preloaded, long bufferLatencyMs) {
+                clientListener.onItemTransition(previousItemId, itemId, gapMs, preloaded, bufferLatencyMs);
+            }
+        });
+        final QueueEditBatcher batcher = new QueueEditBatcher(client, preloadScheduler);
+        queueEditBatcher = batcher;
+        listeners.add(new SessionListeners.Registration() {
+            @Override
+            public void attach() {
+                queue.registerCallback(controller);
+                queue.registerCallback(pager);
+            }
+            @Override
+            public void detach() {
+                queue.unregisterCallback(pager);
+                queue.unregisterCallback(controller);
+                pager.release();
+                batcher.release();
+                cancelChunkedQueueLoad();
+            }
+        });
+    }
+
+    /**
+     * Stops appending the rest of a long queue, eg. because other media is loaded.
+     */
+    private void cancelChunkedQueueLoad() {
+        if (chunkedQueueLoader != null) {
+            chunkedQueueLoader.cancel();
+            chunkedQueueLoader = null;
+        }
+    }
+
+    /**
+     * Reads a page of the queue.
+     * @param offset index of the first item
+     * @param limit maximum number of items
+     * @param callback resolved with {offset, totalCount, complete, items}
+     */
+    public void getQueueItems(final int offset, final int limit, final PluginCall callback) {
+        if (client == null || session == null) {
+            callback.reject("session_error");
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                queuePager.getItems(offset, limit, callback);
+            }
+        });
     }
 
     private class MediaQueueController extends MediaQueue.Callback {
@@ -510,7 +1061,7 @@ public class ChromecastSession {
                 // If this returns null that means the item is not in the cache, which will
                 // trigger itemsUpdatedAtIndexes, which will trigger checkLookingForIndexes again
                 if (item != null) {
-                    queueItems.put(ChromecastUtilities.createQueueItem(item, index));
+                    queueItems.put(queuePager.decode(item, index));
                 } else {
                     foundAllIndexes = false;
                 }
@@ -527,58 +1078,56 @@ public class ChromecastSession {
                 queueReloadCallback.run();
                 setQueueReloadCallback(null);
             }
-            clientListener.onMediaUpdate(createMediaObject());
+            emitMediaUpdate(null);
         }
 
+        // MediaQueue callbacks run on the main thread only, so they need no locking
         @Override
         public void itemsReloaded() {
-            synchronized (queue) {
-                int itemCount = queue.getItemCount();
-                if (itemCount == 0) {
-                    return;
-                }
-                if (queueReloadCallback == null) {
-                    setQueueReloadCallback(new Runnable() {
-                        @Override
-                        public void run() {
-                            // This was externally loaded
-                            clientListener.onMediaLoaded(createMediaObject());
-                        }
-                    });
-                }
-                refreshQueueItems();
+            int itemCount = queue.getItemCount();
+            if (itemCount == 0) {
+                return;
             }
+            if (queueReloadCallback == null) {
+                setQueueReloadCallback(new Runnable() {
+                    @Override
+                    public void run() {
+                        // This was externally loaded
+                        writeMediaObject(null, new MediaObjectCallback() {
+                            @Override
+                            public void onMediaObject(JSONObject jsonMedia) {
+                                clientListener.onMediaLoaded(jsonMedia);
+                            }
+                        });
+                    }
+                });
+            }
+            refreshQueueItems();
         }
         @Override
         public void itemsUpdatedAtIndexes(int[] ints) {
-            synchronized (queue) {
-                // Check if we were looking for all the ints
-                for (int i = 0; i < ints.length; i++) {
-                    // If we weren't looking for an ints, that means it was changed
-                    // (rather than just retrieved from the cache)
-                    if (lookingForIndexes.indexOf(ints[i]) == -1) {
-                        // So refresh the queue (the changed item might not be part
-                        // of the items we want to output anyways, so let refresh
-                        // handle it.
-                        refreshQueueItems();
-                        return;
-                    }
+            // Check if we were looking for all the ints
+            for (int i = 0; i < ints.length; i++) {
+                // If we weren't looking for an ints, that means it was changed
+                // (rather than just retrieved from the cache)
+                if (lookingForIndexes.indexOf(ints[i]) == -1) {
+                    // So refresh the queue (the changed item might not be part
+                    // of the items we want to output anyways, so let refresh
+                    // handle it.
+                    refreshQueueItems();
+                    return;
                 }
-                // Else, we got new items from the cache
-                checkLookingForIndexes();
             }
+            // Else, we got new items from the cache
+            checkLookingForIndexes();
         }
         @Override
         public void itemsInsertedInRange(int startIndex, int insertCount) {
-            synchronized (queue) {
-                refreshQueueItems();
-            }
+            refreshQueueItems();
         }
         @Override
         public void itemsRemovedAtIndexes(int[] ints) {
-            synchronized (queue) {
-                refreshQueueItems();
-            }
+            refreshQueueItems();
         }
     };
 
@@ -588,50 +1137,286 @@ public class ChromecastSession {
      * @param callback called with success or error
      */
     public void queueLoad(final JSONObject queueLoadRequest, final CallbackContext callback) {
+        queueLoad(queueLoadRequest, new QueueLoadCallback() {
+            @Override
+            public void onLoaded(JSONObject jsonMedia) {
+                callback.success(jsonMedia);
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                if (message == null) {
+                    callback.error(code);
+                } else {
+                    callback.error(ChromecastUtilities.createError(code, message));
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads a queue of media to the Chromecast.
+     * @param queueLoadRequest chrome.cast.media.QueueLoadRequest
+     * @param callback called with the loaded media or an error
+     */
+    private void queueLoad(final JSONObject queueLoadRequest, final QueueLoadCallback callback) {
         if (client == null || session == null) {
-            callback.error("session_error");
+            callback.onError("session_error", null);
             return;
         }
-        activity.runOnUiThread(new Runnable() {
-            public void run() {
+        final JSONArray qItems;
+        final int startIndex;
+        final int resolveFrom;
+        final List<String> contentIds = new ArrayList<>(RESOLVE_AHEAD);
+        try {
+            qItems = localMediaUrls.rewriteQueueItems(queueLoadRequest.getJSONArray("items"));
+            startIndex = queueLoadRequest.getInt("startIndex");
+            resolveFrom = Math.max(0, startIndex);
+            for (int i = resolveFrom; i < Math.min(qItems.length(), resolveFrom + RESOLVE_AHEAD); i++) {
+                contentIds.add(qItems.getJSONObject(i).getJSONObject("media").optString("contentId", null));
+            }
+        } catch (JSONException e) {
+            callback.onError("invalid_parameter", e.getMessage());
+            return;
+        }
+        // The current and next item play first, wait briefly for their redirects
+        urlResolver.resolveAll(contentIds, RESOLVE_WAIT_MS, new MediaUrlResolver.Callback() {
+            @Override
+            public void onResolved(List<String> urls) {
+                final JSONArray receiverItems;
                 try {
-                    JSONArray qItems = queueLoadRequest.getJSONArray("items");
-                    MediaQueueItem[] items = new MediaQueueItem[qItems.length()];
-                    for (int i = 0; i < qItems.length(); i++) {
-                        items[i] = ChromecastUtilities.createMediaQueueItem(qItems.getJSONObject(i));
-                    }
-
-                    int startIndex = queueLoadRequest.getInt("startIndex");
-                    int repeatMode = ChromecastUtilities.getAndroidRepeatMode(queueLoadRequest.getString("repeatMode"));
-                    long playPosition = Double.valueOf(items[startIndex].getStartTime() * 1000).longValue();
-                    JSONObject customData = null;
-                    try {
-                        customData = queueLoadRequest.getJSONObject("customData");
-                    } catch (JSONException e) {
-                    }
-
-                    setQueueReloadCallback(new Runnable() {
-                        @Override
+                    receiverItems = withContentUrls(qItems, resolveFrom, urls);
+                } catch (final JSONException e) {
+                    activity.runOnUiThread(new Runnable() {
                         public void run() {
-                            callback.success(createMediaObject());
+                            callback.onError("invalid_parameter", e.getMessage());
                         }
                     });
-                    client.queueLoad(items, startIndex, repeatMode, playPosition, customData).setResultCallback(new ResultCallback<MediaChannelResult>() {
-                        @Override
-                        public void onResult(@NonNull MediaChannelResult result) {
-                            if (!result.getStatus().isSuccess()) {
-                                callback.error("session_error");
-                                setQueueReloadCallback(null);
+                    return;
+                }
+                activity.runOnUiThread(new Runnable() {
+                    public void run() {
+                        if (client == null) {
+                            callback.onError("session_error", null);
+                            return;
+                        }
+                        cancelChunkedQueueLoad();
+                        try {
+                            // Long queues start with a window around startIndex, the rest is appended after
+                            final int[] window = ChunkedQueueLoader.window(receiverItems.length(), startIndex);
+                            List<MediaQueueItem> windowItems = new ArrayList<>(window[1] - window[0]);
+                            for (int i = window[0]; i < window[1]; i++) {
+                                windowItems.add(ChromecastUtilities.createMediaQueueItem(receiverItems.getJSONObject(i)));
                             }
+                            final MediaQueueItem[] items = preloadScheduler.withPreloadTimes(windowItems).toArray(new MediaQueueItem[0]);
+                            final int windowStartIndex = startIndex - window[0];
+
+                            int repeatMode = ChromecastUtilities.getAndroidRepeatMode(queueLoadRequest.getString("repeatMode"));
+                            long playPosition = Double.valueOf(items[windowStartIndex].getStartTime() * 1000).longValue();
+                            JSONObject customData = null;
+                            try {
+                                customData = queueLoadRequest.getJSONObject("customData");
+                            } catch (JSONException e) {
+                            }
+
+                            setQueueReloadCallback(new Runnable() {
+                                @Override
+                                public void run() {
+                                    writeMediaObject(null, new MediaObjectCallback() {
+                                        @Override
+                                        public void onMediaObject(final JSONObject jsonMedia) {
+                                            // Only the JSON is written off the main thread
+                                            activity.runOnUiThread(new Runnable() {
+                                                public void run() {
+                                                    callback.onLoaded(jsonMedia);
+                                                }
+                                            });
+                                        }
+                                    });
+                                    if (items.length < receiverItems.length()) {
+                                        chunkedQueueLoader = new ChunkedQueueLoader(receiverItems, window, client, queueEditBatcher,
+                                                new ChunkedQueueLoader.ProgressListener() {
+                                                    @Override
+                                                    public void onProgress(int loaded, int total, String error) {
+                                                        clientListener.onQueueLoadProgress(loaded, total, error);
+                                                    }
+                                                });
+                                        chunkedQueueLoader.start();
+                                    }
+                                }
+                            });
+                            client.queueLoad(items, windowStartIndex, repeatMode, playPosition, customData).setResultCallback(new ResultCallback<MediaChannelResult>() {
+                                @Override
+                                public void onResult(@NonNull MediaChannelResult result) {
+                                    if (!result.getStatus().isSuccess()) {
+                                        callback.onError("session_error", null);
+                                        setQueueReloadCallback(null);
+                                    }
+                                }
+                            });
+                        } catch (JSONException e) {
+                            callback.onError("invalid_parameter", e.getMessage());
                         }
-                    });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param items chrome.cast.media.QueueItem[]
+     * @param from index of the first resolved item
+     * @param urls the resolved contentIds of the items from, from + 1, ...
+     * @return items, or a copy where the items whose contentId redirects have a contentUrl
+     * @throws JSONException if an item has no media
+     */
+    private static JSONArray withContentUrls(JSONArray items, int from, List<String> urls) throws JSONException {
+        JSONArray out = null;
+        for (int i = 0; i < urls.size(); i++) {
+            JSONObject item = items.getJSONObject(from + i);
+            JSONObject media = item.getJSONObject("media");
+            String url = urls.get(i);
+            if (url == null || url.equals(media.optString("contentId"))) {
+                continue;
+            }
+            if (out == null) {
+                out = new JSONArray();
+                for (int j = 0; j < items.length(); j++) {
+                    out.put(items.get(j));
+                }
+            }
+            JSONObject resolvedMedia = new JSONObject(media.toString()).put("contentUrl", url);
+            out.put(from + i, new JSONObject(item.toString()).put("media", resolvedMedia));
+        }
+        return out != null ? out : items;
+    }
+
+    /**
+     * Inserts items into the queue.
+     * @param qItems chrome.cast.media.QueueItem[] to insert
+     * @param insertBeforeItemId the item to insert before, or 0 to append
+     * @param callback resolved once the items are inserted
+     */
+    public void queueInsertItems(JSONArray qItems, final int insertBeforeItemId, final PluginCall callback) {
+        if (client == null || session == null) {
+            callback.reject("session_error");
+            return;
+        }
+        final List<MediaQueueItem> items = new ArrayList<>(qItems.length());
+        try {
+            qItems = localMediaUrls.rewriteQueueItems(qItems);
+            for (int i = 0; i < qItems.length(); i++) {
+                items.add(ChromecastUtilities.createMediaQueueItem(qItems.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            callback.reject("invalid_parameter: " + e.getMessage());
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                queueEditBatcher.insert(items, insertBeforeItemId, resolveOnResult(callback));
+            }
+        });
+    }
+
+    /**
+     * Removes items from the queue.
+     * @param itemIds the IDs of the items to remove
+     * @param callback resolved once the items are removed
+     */
+    public void queueRemoveItems(final int[] itemIds, final PluginCall callback) {
+        if (client == null || session == null) {
+            callback.reject("session_error");
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                queueEditBatcher.remove(itemIds, resolveOnResult(callback));
+            }
+        });
+    }
+
+    /**
+     * Moves items within the queue.
+     * @param itemIds the IDs of the items to move, in their new order
+     * @param insertBeforeItemId the item to move them before, or 0 to move them to the end
+     * @param callback resolved once the items are moved
+     */
+    public void queueReorderItems(final int[] itemIds, final int insertBeforeItemId, final PluginCall callback) {
+        if (client == null || session == null) {
+            callback.reject("session_error");
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                queueEditBatcher.reorder(itemIds, insertBeforeItemId, resolveOnResult(callback));
+            }
+        });
+    }
+
+    /**
+     * Changes properties of queued items.
+     * @param updates the changed fields of each item, each with its itemId
+     * @param callback resolved once the items are updated
+     */
+    public void queueUpdateItems(final JSONArray updates, final PluginCall callback) {
+        if (client == null || session == null) {
+            callback.reject("session_error");
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                try {
+                    List<JSONObject> items = new ArrayList<>(updates.length());
+                    for (int i = 0; i < updates.length(); i++) {
+                        items.add(updates.getJSONObject(i));
+                    }
+                    queueEditBatcher.update(items, resolveOnResult(callback));
                 } catch (JSONException e) {
-                    callback.error(ChromecastUtilities.createError("invalid_parameter", e.getMessage()));
+                    callback.reject("invalid_parameter: " + e.getMessage());
                 }
             }
         });
     }
 
+    /**
+     * Edits the queue until it matches the given items, with as few edits as possible.
+     * Items are matched by media contentId, so items that are already queued keep playing.
+     * @param desiredItems chrome.cast.media.QueueItem[] in the desired order
+     * @param callback resolved once the queue matches
+     */
+    public void queueReconcile(JSONArray desiredItems, final PluginCall callback) {
+        if (client == null || session == null) {
+            callback.reject("session_error");
+            return;
+        }
+        final JSONArray receiverItems;
+        try {
+            receiverItems = localMediaUrls.rewriteQueueItems(desiredItems);
+        } catch (JSONException e) {
+            callback.reject("invalid_parameter: " + e.getMessage());
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                QueueReconciler.reconcile(receiverItems, queuePager, queueEditBatcher, resolveOnResult(callback));
+            }
+        });
+    }
+
+    private static QueueEditBatcher.ResultListener resolveOnResult(final PluginCall callback) {
+        return new QueueEditBatcher.ResultListener() {
+            @Override
+            public void onResult(String error) {
+                if (error == null) {
+                    callback.resolve();
+                } else {
+                    callback.reject(error);
+                }
+            }
+        };
+    }
+
     /**
      * Plays the item with itemId in the queue.
      * @param itemId The ID of the item to jump to.
@@ -648,7 +1433,7 @@ public class ChromecastSession {
                 setQueueStatusUpdatedCallback(new Runnable() {
                     @Override
                     public void run() {
-                        clientListener.onMediaUpdate(createMediaObject(MediaStatus.IDLE_REASON_INTERRUPTED));
+                        emitMediaUpdate(MediaStatus.IDLE_REASON_INTERRUPTED);
                     }
                 });
                 client.queueJumpToItem(itemId, null)
@@ -745,17 +1530,63 @@ public class ChromecastSession {
         };
     }
 
-    private JSONObject createSessionObject() {
-        return ChromecastUtilities.createSessionObject(session);
+    private CastStatusSnapshot.Session snapshotSession() {
+        return CastStatusSnapshot.Session.of(session, ChromecastUtilities.getQueueItems());
     }
 
-    /** Last sent media object. **/
-    private JSONObject lastMediaObject;
-    private JSONObject createMediaObject() {
-        return createMediaObject(null);
+    /**
+     * Snapshots the session and sends it to {@link Listener#onSessionUpdate} from the
+     * {@link CastEventThread}.
+     */
+    private void emitSessionUpdate() {
+        final CastStatusSnapshot.Session snapshot = snapshotSession();
+        CastEventThread.execute(new Runnable() {
+            public void run() {
+                JSONObject jsonSession = ChromecastUtilities.createSessionObject(snapshot, null);
+                sessionStore.setSession(jsonSession);
+                clientListener.onSessionUpdate(jsonSession);
+            }
+        });
     }
 
-    private JSONObject createMediaObject(Integer idleReason) {
+    /**
+     * Snapshots the media status and sends it to {@link Listener#onMediaUpdate} from the
+     * {@link CastEventThread}.
+     * @param idleReason the idle reason to report for the last sent media, or null
+     */
+    private void emitMediaUpdate(Integer idleReason) {
+        writeMediaObject(idleReason, new MediaObjectCallback() {
+            @Override
+            public void onMediaObject(JSONObject jsonMedia) {
+                clientListener.onMediaUpdate(jsonMedia);
+            }
+        });
+    }
+
+    /** Receives a media object written on the {@link CastEventThread}. */
+    private interface MediaObjectCallback {
+        void onMediaObject(JSONObject jsonMedia);
+    }
+
+    /**
+     * Snapshots the media status on the calling (main) thread and writes it on the
+     * {@link CastEventThread}.
+     * @param idleReason the idle reason to report for the last sent media, or null
+     * @param callback called on the event thread
+     */
+    private void writeMediaObject(final Integer idleReason, final MediaObjectCallback callback) {
+        final CastStatusSnapshot.Media snapshot = CastStatusSnapshot.Media.of(session, ChromecastUtilities.getQueueItems());
+        CastEventThread.execute(new Runnable() {
+            public void run() {
+                callback.onMediaObject(createMediaObject(snapshot, idleReason));
+            }
+        });
+    }
+
+    /** Last sent media object, only used on the {@link CastEventThread}. **/
+    private JSONObject lastMediaObject;
+
+    private JSONObject createMediaObject(CastStatusSnapshot.Media snapshot, Integer idleReason) {
         if (idleReason != null && lastMediaObject != null) {
             try {
                 lastMediaObject.put("playerState", ChromecastUtilities.getMediaPlayerState(MediaStatus.PLAYER_STATE_IDLE));
@@ -764,14 +1595,32 @@ public class ChromecastSession {
             } catch (JSONException e) {
             }
         }
-        JSONObject out = ChromecastUtilities.createMediaObject(session);
+        JSONObject out = CastStatusWriter.writeMediaStatus(snapshot);
         lastMediaObject = out;
+        sessionStore.setMedia(out);
         return out;
     }
 
+    /** Receives the result of a queue load, on the main thread. */
+    private interface QueueLoadCallback {
+        void onLoaded(JSONObject jsonMedia);
+
+        /**
+         * @param code the error code
+         * @param message the error message, null for plain session errors
+         */
+        void onError(String code, String message);
+    }
+
     interface Listener extends Cast.MessageReceivedCallback {
         void onMediaLoaded(JSONObject jsonMedia);
         void onMediaUpdate(JSONObject jsonMedia);
+        void onMediaProgress(long progressMs, long durationMs);
+        void onQueueLoadProgress(int loaded, int total, String error);
+        void onPreloadedItemChanged(int preloadedItemId);
+        void onItemTransition(int previousItemId, int itemId, long gapMs, boolean preloaded, long bufferLatencyMs);
+        void onMessageBackpressure(boolean paused, int queued);
+        void onHandoff(JSONObject event);
         void onSessionUpdate(JSONObject jsonSession);
         void onSessionEnd(JSONObject jsonSession);
     }
@@ -1,31 +1,25 @@
 package com.gameleap.plugins.chromecast;
 
 import android.graphics.Color;
-import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.mediarouter.media.MediaRouter;
 
-import com.google.android.gms.cast.ApplicationMetadata;
+import com.getcapacitor.JSObject;
 import com.google.android.gms.cast.CastDevice;
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaMetadata;
-import com.google.android.gms.cast.MediaQueueData;
 import com.google.android.gms.cast.MediaQueueItem;
 import com.google.android.gms.cast.MediaStatus;
 import com.google.android.gms.cast.MediaTrack;
 import com.google.android.gms.cast.TextTrackStyle;
 import com.google.android.gms.cast.framework.CastSession;
-import com.google.android.gms.common.images.WebImage;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.GregorianCalendar;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
 final class ChromecastUtilities {
     /** Stores a cache of the queueItems for building Media Objects. */
@@ -216,174 +210,6 @@ final class ChromecastUtilities {
         }
     }
 
-    static String getAndroidMetadataName(String clientName) {
-        switch (clientName) {
-            case "albumArtist":
-                return MediaMetadata.KEY_ALBUM_ARTIST;
-            case "albumName":
-                return MediaMetadata.KEY_ALBUM_TITLE;
-            case "artist":
-                return MediaMetadata.KEY_ARTIST;
-            case "bookTitle":
-                return MediaMetadata.KEY_BOOK_TITLE;
-            case "broadcastDate":
-                return MediaMetadata.KEY_BROADCAST_DATE;
-            case "chapterNumber":
-                return MediaMetadata.KEY_CHAPTER_NUMBER;
-            case "chapterTitle":
-                return MediaMetadata.KEY_CHAPTER_TITLE;
-            case "composer":
-                return MediaMetadata.KEY_COMPOSER;
-            case "creationDate":
-            case "creationDateTime":
-                return MediaMetadata.KEY_CREATION_DATE;
-            case "discNumber":
-                return MediaMetadata.KEY_DISC_NUMBER;
-            case "episode":
-                return MediaMetadata.KEY_EPISODE_NUMBER;
-            case "height":
-                return MediaMetadata.KEY_HEIGHT;
-            case "latitude":
-                return MediaMetadata.KEY_LOCATION_LATITUDE;
-            case "longitude":
-                return MediaMetadata.KEY_LOCATION_LONGITUDE;
-            case "locationName":
-                return MediaMetadata.KEY_LOCATION_NAME;
-            case "queueItemId":
-                return MediaMetadata.KEY_QUEUE_ITEM_ID;
-            case "releaseDate":
-            case "originalAirDate":
-                return MediaMetadata.KEY_RELEASE_DATE;
-            case "season":
-                return MediaMetadata.KEY_SEASON_NUMBER;
-            case "sectionDuration":
-                return MediaMetadata.KEY_SECTION_DURATION;
-            case "sectionStartAbsoluteTime":
-                return MediaMetadata.KEY_SECTION_START_ABSOLUTE_TIME;
-            case "sectionStartTimeInContainer":
-                return MediaMetadata.KEY_SECTION_START_TIME_IN_CONTAINER;
-            case "sectionStartTimeInMedia":
-                return MediaMetadata.KEY_SECTION_START_TIME_IN_MEDIA;
-            case "seriesTitle":
-                return MediaMetadata.KEY_SERIES_TITLE;
-            case "studio":
-                return MediaMetadata.KEY_STUDIO;
-            case "subtitle":
-                return MediaMetadata.KEY_SUBTITLE;
-            case "title":
-                return MediaMetadata.KEY_TITLE;
-            case "trackNumber":
-                return MediaMetadata.KEY_TRACK_NUMBER;
-            case "width":
-                return MediaMetadata.KEY_WIDTH;
-            default:
-                return clientName;
-        }
-    }
-
-    static String getClientMetadataName(String androidName) {
-        switch (androidName) {
-            case MediaMetadata.KEY_ALBUM_ARTIST:
-                return "albumArtist";
-            case MediaMetadata.KEY_ALBUM_TITLE:
-                return "albumName";
-            case MediaMetadata.KEY_ARTIST:
-                return "artist";
-            case MediaMetadata.KEY_BOOK_TITLE:
-                return "bookTitle";
-            case MediaMetadata.KEY_BROADCAST_DATE:
-                return "broadcastDate";
-            case MediaMetadata.KEY_CHAPTER_NUMBER:
-                return "chapterNumber";
-            case MediaMetadata.KEY_CHAPTER_TITLE:
-                return "chapterTitle";
-            case MediaMetadata.KEY_COMPOSER:
-                return "composer";
-            case MediaMetadata.KEY_CREATION_DATE:
-                return "creationDate";
-            case MediaMetadata.KEY_DISC_NUMBER:
-                return "discNumber";
-            case MediaMetadata.KEY_EPISODE_NUMBER:
-                return "episode";
-            case MediaMetadata.KEY_HEIGHT:
-                return "height";
-            case MediaMetadata.KEY_LOCATION_LATITUDE:
-                return "latitude";
-            case MediaMetadata.KEY_LOCATION_LONGITUDE:
-                return "longitude";
-            case MediaMetadata.KEY_LOCATION_NAME:
-                return "location";
-            case MediaMetadata.KEY_QUEUE_ITEM_ID:
-                return "queueItemId";
-            case MediaMetadata.KEY_RELEASE_DATE:
-                return "releaseDate";
-            case MediaMetadata.KEY_SEASON_NUMBER:
-                return "season";
-            case MediaMetadata.KEY_SECTION_DURATION:
-                return "sectionDuration";
-            case MediaMetadata.KEY_SECTION_START_ABSOLUTE_TIME:
-                return "sectionStartAbsoluteTime";
-            case MediaMetadata.KEY_SECTION_START_TIME_IN_CONTAINER:
-                return "sectionStartTimeInContainer";
-            case MediaMetadata.KEY_SECTION_START_TIME_IN_MEDIA:
-                return "sectionStartTimeInMedia";
-            case MediaMetadata.KEY_SERIES_TITLE:
-                return "seriesTitle";
-            case MediaMetadata.KEY_STUDIO:
-                return "studio";
-            case MediaMetadata.KEY_SUBTITLE:
-                return "subtitle";
-            case MediaMetadata.KEY_TITLE:
-                return "title";
-            case MediaMetadata.KEY_TRACK_NUMBER:
-                return "trackNumber";
-            case MediaMetadata.KEY_WIDTH:
-                return "width";
-            default:
-                return androidName;
-        }
-    }
-
-    static String getMetadataType(String androidName) {
-        switch (androidName) {
-            case MediaMetadata.KEY_ALBUM_ARTIST:
-            case MediaMetadata.KEY_ALBUM_TITLE:
-            case MediaMetadata.KEY_ARTIST:
-            case MediaMetadata.KEY_BOOK_TITLE:
-            case MediaMetadata.KEY_CHAPTER_NUMBER:
-            case MediaMetadata.KEY_CHAPTER_TITLE:
-            case MediaMetadata.KEY_COMPOSER:
-            case MediaMetadata.KEY_LOCATION_NAME:
-            case MediaMetadata.KEY_SERIES_TITLE:
-            case MediaMetadata.KEY_STUDIO:
-            case MediaMetadata.KEY_SUBTITLE:
-            case MediaMetadata.KEY_TITLE:
-                return "string"; // 1 in MediaMetadata
-            case MediaMetadata.KEY_DISC_NUMBER:
-            case MediaMetadata.KEY_EPISODE_NUMBER:
-            case MediaMetadata.KEY_HEIGHT:
-            case MediaMetadata.KEY_QUEUE_ITEM_ID:
-            case MediaMetadata.KEY_SEASON_NUMBER:
-            case MediaMetadata.KEY_TRACK_NUMBER:
-            case MediaMetadata.KEY_WIDTH:
-                return "int"; // 2 in MediaMetadata
-            case MediaMetadata.KEY_LOCATION_LATITUDE:
-            case MediaMetadata.KEY_LOCATION_LONGITUDE:
-                return "double"; // 3 in MediaMetadata
-            case MediaMetadata.KEY_BROADCAST_DATE:
-            case MediaMetadata.KEY_CREATION_DATE:
-            case MediaMetadata.KEY_RELEASE_DATE:
-                return "date"; // 4 in MediaMetadata
-            case MediaMetadata.KEY_SECTION_DURATION:
-            case MediaMetadata.KEY_SECTION_START_ABSOLUTE_TIME:
-            case MediaMetadata.KEY_SECTION_START_TIME_IN_CONTAINER:
-            case MediaMetadata.KEY_SECTION_START_TIME_IN_MEDIA:
-                return "ms"; // 5 in MediaMetadata
-            default:
-                return "custom";
-        }
-    }
-
     static TextTrackStyle parseTextTrackStyle(JSONObject textTrackSytle) {
         TextTrackStyle out = new TextTrackStyle();
 
@@ -414,75 +240,21 @@ final class ChromecastUtilities {
     }
 
     static JSONObject createSessionObject(CastSession session, String state) {
-        JSONObject s = createSessionObject(session);
-        if (state != null) {
-            try {
-                s.put("status", state);
-            } catch (JSONException e) {
-            }
-        }
-        return s;
+        return createSessionObject(CastStatusSnapshot.Session.of(session, queueItems), state);
     }
 
     static JSONObject createSessionObject(CastSession session) {
-        JSONObject out = new JSONObject();
-
-        try {
-            ApplicationMetadata metadata = session.getApplicationMetadata();
-            out.put("appId", metadata.getApplicationId());
-            try {
-                out.put("appImages", createImagesArray(metadata.getImages()));
-            } catch (NullPointerException e) {
-            }
-            out.put("displayName", metadata.getName());
-            out.put("media", createMediaArray(session));
-            out.put("receiver", createReceiverObject(session));
-            out.put("sessionId", session.getSessionId());
-
-        } catch (JSONException e) {
-        } catch (NullPointerException e) {
-        } catch (IllegalStateException e) {
-        }
-
-        return out;
-    }
-
-    private static JSONArray createImagesArray(List<WebImage> images) throws JSONException {
-        JSONArray appImages = new JSONArray();
-        JSONObject img;
-        for (WebImage o : images) {
-            img = new JSONObject();
-            img.put("url", o.getUrl().toString());
-            appImages.put(img);
-        }
-        return appImages;
-    }
-
-    private static JSONObject createReceiverObject(CastSession session) {
-        JSONObject out = new JSONObject();
-        try {
-            out.put("friendlyName", session.getCastDevice().getFriendlyName());
-            out.put("label", session.getCastDevice().getDeviceId());
-
-            JSONObject volume = new JSONObject();
-            try {
-                volume.put("level", session.getVolume());
-                volume.put("muted", session.isMute());
-            } catch (JSONException e) {
-            }
-            out.put("volume", volume);
-
-        } catch (JSONException e) {
-        } catch (NullPointerException e) {
-        }
-        return out;
+        return createSessionObject(session, null);
     }
 
-    static JSONArray createMediaArray(CastSession session) {
-        JSONArray out = new JSONArray();
-        JSONObject mediaInfoObj = createMediaObject(session);
-        if (mediaInfoObj != null) {
-            out.put(mediaInfoObj);
+    /**
+     * @param session a session snapshot, can be written on any thread
+     * @param state the status to set, or null
+     */
+    static JSONObject createSessionObject(CastStatusSnapshot.Session session, String state) {
+        JSObject out = CastStatusWriter.writeSession(session);
+        if (state != null) {
+            out.put("status", state);
         }
         return out;
     }
@@ -492,248 +264,36 @@ final class ChromecastUtilities {
     };
 
     static JSONObject createMediaObject(CastSession session, JSONArray items) {
-        JSONObject out = new JSONObject();
-
-        try {
-            MediaStatus mediaStatus = session.getRemoteMediaClient().getMediaStatus();
-
-            // TODO: Missing attributes are commented out.
-            //  These are returned by the chromecast desktop SDK, we should probbaly return them too
-            //out.put("breakStatus",);
-            out.put("currentItemId", mediaStatus.getCurrentItemId());
-            out.put("currentTime", mediaStatus.getStreamPosition() / 1000.0);
-            out.put("customData", mediaStatus.getCustomData());
-            //out.put("extendedStatus",);
-            String idleReason = ChromecastUtilities.getMediaIdleReason(mediaStatus.getIdleReason());
-            if (idleReason != null) {
-                out.put("idleReason", idleReason);
-            }
-            out.put("items", items);
-            out.put("isAlive", mediaStatus.getPlayerState() != MediaStatus.PLAYER_STATE_IDLE);
-            //out.put("liveSeekableRange",);
-            out.put("loadingItemId", mediaStatus.getLoadingItemId());
-            out.put("media", createMediaInfoObject(session.getRemoteMediaClient().getMediaInfo()));
-            out.put("mediaSessionId", 1);
-            out.put("playbackRate", mediaStatus.getPlaybackRate());
-            out.put("playerState", ChromecastUtilities.getMediaPlayerState(mediaStatus.getPlayerState()));
-            out.put("preloadedItemId", mediaStatus.getPreloadedItemId());
-            out.put("queueData", createQueueData(mediaStatus));
-            out.put("repeatMode", getRepeatMode(mediaStatus.getQueueRepeatMode()));
-            out.put("sessionId", session.getSessionId());
-            //out.put("supportedMediaCommands", );
-            //out.put("videoInfo", );
-
-            JSONObject volume = new JSONObject();
-            volume.put("level", mediaStatus.getStreamVolume());
-            volume.put("muted", mediaStatus.isMute());
-            out.put("volume", volume);
-            out.put("activeTrackIds", createActiveTrackIds(mediaStatus.getActiveTrackIds()));
-        } catch (JSONException e) {
-        } catch (NullPointerException e) {
-            return null;
-        }
-
-        return out;
+        return CastStatusWriter.writeMediaStatus(CastStatusSnapshot.Media.of(session, items));
     }
 
-    private static JSONArray createActiveTrackIds(long[] activeTrackIds) {
-        JSONArray out = new JSONArray();
-        try {
-            if (activeTrackIds.length == 0) {
-                return null;
-            }
-            for (long id : activeTrackIds) {
-                out.put(id);
-            }
-        } catch (NullPointerException e) {
-            return null;
-        }
-        return out;
-    }
-
-    static JSONObject createQueueData(MediaStatus status) {
-        JSONObject out = new JSONObject();
-        try {
-            MediaQueueData data = status.getQueueData();
-            if (data == null) {
-                return null;
-            }
-            out.put("repeatMode", ChromecastUtilities.getRepeatMode(data.getRepeatMode()));
-            out.put("shuffle", data.getRepeatMode() == MediaStatus.REPEAT_MODE_REPEAT_ALL_AND_SHUFFLE);
-            out.put("startIndex", data.getStartIndex());
-        } catch (JSONException e) {
-            e.printStackTrace();
-            throw new RuntimeException("See above stack trace for error: " + e.getMessage());
-        }
-        return out;
+    /**
+     * @return the current queue items, to include in snapshots
+     */
+    static JSONArray getQueueItems() {
+        return queueItems;
     }
 
     static JSONObject createQueueItem(@NonNull MediaQueueItem item, int orderId) {
-        JSONObject out = new JSONObject();
-        try {
-            out.put("activeTrackIds", createActiveTrackIds(item.getActiveTrackIds()));
-            out.put("autoplay", item.getAutoplay());
-            out.put("customData", item.getCustomData());
-            out.put("itemId", item.getItemId());
-            out.put("media", createMediaInfoObject(item.getMedia()));
-            out.put("orderId", orderId);
-            Double playbackDuration = item.getPlaybackDuration();
-            if (Double.isInfinite(playbackDuration)) {
-                playbackDuration = null;
-            }
-            out.put("playbackDuration", playbackDuration);
-            out.put("preloadTime", item.getPreloadTime());
-            Double startTime = item.getStartTime();
-            if (Double.isNaN(startTime)) {
-                startTime = null;
-            }
-            out.put("startTime", startTime);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            throw new RuntimeException("See above stack trace for error: " + e.getMessage());
-        }
-        return out;
-    }
-
-    private static JSONArray createMediaInfoTracks(MediaInfo mediaInfo) {
-        JSONArray out = new JSONArray();
-
-        try {
-            if (mediaInfo.getMediaTracks() == null) {
-                return out;
-            }
-
-            for (MediaTrack track : mediaInfo.getMediaTracks()) {
-                JSONObject jsonTrack = new JSONObject();
-
-
-                // TODO: Missing attributes are commented out.
-                //  These are returned by the chromecast desktop SDK, we should probbaly return them too
-
-                jsonTrack.put("trackId", track.getId());
-                jsonTrack.put("customData", track.getCustomData());
-                jsonTrack.put("language", track.getLanguage());
-                jsonTrack.put("name", track.getName());
-                jsonTrack.put("subtype", ChromecastUtilities.getTrackSubtype(track));
-                jsonTrack.put("trackContentId", track.getContentId());
-                jsonTrack.put("trackContentType", track.getContentType());
-                jsonTrack.put("type", ChromecastUtilities.getTrackType(track));
-
-                out.put(jsonTrack);
-            }
-        } catch (JSONException e) {
-        } catch (NullPointerException e) {
-        }
-
-        return out;
-    }
-
-    private static JSONObject createMediaInfoObject(MediaInfo mediaInfo) {
-        JSONObject out = new JSONObject();
-
-        try {
-            // TODO: Missing attributes are commented out.
-            //  These are returned by the chromecast desktop SDK, we should probably return them too
-            //out.put("breakClips",);
-            //out.put("breaks",);
-            out.put("contentId", mediaInfo.getContentId());
-            out.put("contentType", mediaInfo.getContentType());
-            out.put("customData", mediaInfo.getCustomData());
-            out.put("duration", mediaInfo.getStreamDuration() / 1000.0);
-            //out.put("mediaCategory",);
-            out.put("metadata", createMetadataObject(mediaInfo.getMetadata()));
-            out.put("streamType", ChromecastUtilities.getMediaInfoStreamType(mediaInfo));
-            out.put("tracks", createMediaInfoTracks(mediaInfo));
-            out.put("textTrackStyle", ChromecastUtilities.createTextTrackObject(mediaInfo.getTextTrackStyle()));
-
-        } catch (JSONException e) {
-        } catch (NullPointerException e) {
-        }
-
-        return out;
+        return CastStatusWriter.writeQueueItem(item, orderId);
     }
 
     static JSONObject createMetadataObject(MediaMetadata metadata) {
-        JSONObject out = new JSONObject();
-        if (metadata == null) {
-            return out;
-        }
-        try {
-            try {
-                // Must be in own try catch
-                out.put("images", createImagesArray(metadata.getImages()));
-            } catch (Exception e) {
-            }
-            out.put("metadataType", metadata.getMediaType());
-            out.put("type", metadata.getMediaType());
-
-            Set<String> keys = metadata.keySet();
-            String outKey;
-            // First translate and add the Android specific keys
-            for (String key : keys) {
-                outKey = ChromecastUtilities.getClientMetadataName(key);
-                if (outKey.equals(key) || outKey.equals("type")) {
-                    continue;
-                }
-                switch (ChromecastUtilities.getMetadataType(key)) {
-                    case "string":
-                        out.put(outKey, metadata.getString(key));
-                        break;
-                    case "int":
-                        out.put(outKey, metadata.getInt(key));
-                        break;
-                    case "double":
-                        out.put(outKey, metadata.getDouble(key));
-                        break;
-                    case "date":
-                        out.put(outKey, metadata.getDate(key).getTimeInMillis());
-                        break;
-                    case "ms":
-                        out.put(outKey, metadata.getTimeMillis(key));
-                        break;
-                    default:
-                }
-            }
-            // Then add the non-Android specific keys ensuring we don't overwrite existing keys
-            for (String key : keys) {
-                outKey = ChromecastUtilities.getClientMetadataName(key);
-                if (!outKey.equals(key) || out.has(outKey) || outKey.equals("type")) {
-                    continue;
-                }
-                if (outKey.startsWith("cordova-plugin-chromecast_metadata_key=")) {
-                    outKey = outKey.substring("cordova-plugin-chromecast_metadata_key=".length());
-                }
-                out.put(outKey, metadata.getString(key));
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        return out;
+        return CastStatusWriter.writeMetadata(metadata);
     }
 
-    private static JSONObject createTextTrackObject(TextTrackStyle textTrackStyle) {
-        if (textTrackStyle == null) {
-            return null;
-        }
-        JSONObject out = new JSONObject();
-        try {
-            out.put("backgroundColor", getHexColor(textTrackStyle.getBackgroundColor()));
-            out.put("customData", textTrackStyle.getCustomData());
-            out.put("edgeColor", getHexColor(textTrackStyle.getEdgeColor()));
-            out.put("edgeType", getEdgeType(textTrackStyle));
-            out.put("fontFamily", textTrackStyle.getFontFamily());
-            out.put("fontGenericFamily", getFontGenericFamily(textTrackStyle));
-            out.put("fontScale", textTrackStyle.getFontScale());
-            out.put("fontStyle", getFontStyle(textTrackStyle));
-            out.put("foregroundColor", getHexColor(textTrackStyle.getForegroundColor()));
-            out.put("windowColor", getHexColor(textTrackStyle.getWindowColor()));
-            out.put("windowRoundedCornerRadius", textTrackStyle.getWindowCornerRadius());
-            out.put("windowType", getWindowType(textTrackStyle));
-        } catch (JSONException e) {
+    /**
+     * Objects built by this class are already JSObjects, so this only copies objects that
+     * came from elsewhere.
+     * @param object the object to hand to the bridge
+     * @return object itself if it is a JSObject, otherwise a JSObject copy
+     * @throws JSONException if object can't be copied
+     */
+    static JSObject toJSObject(JSONObject object) throws JSONException {
+        if (object instanceof JSObject) {
+            return (JSObject) object;
         }
-
-        return out;
+        return JSObject.fromJSONObject(object);
     }
 
     /**
@@ -744,24 +304,31 @@ final class ChromecastUtilities {
     static JSONArray createRoutesArray(List<MediaRouter.RouteInfo> routes) {
         JSONArray routesArray = new JSONArray();
         for (MediaRouter.RouteInfo route : routes) {
-            try {
-                JSONObject obj = new JSONObject();
-                obj.put("name", route.getName());
-                obj.put("id", route.getId());
-
-                CastDevice device = CastDevice.getFromBundle(route.getExtras());
-                if (device != null) {
-                    obj.put("isNearbyDevice", !device.isOnLocalNetwork());
-                    obj.put("isCastGroup", false); // RouteGroup removed in newer MediaRouter
-                }
-
-                routesArray.put(obj);
-            } catch (JSONException e) {
-            }
+            routesArray.put(createRouteObject(route));
         }
         return routesArray;
     }
 
+    /**
+     * @param route the route to convert
+     * @return {name, id, deviceId, isNearbyDevice, isCastGroup}, deviceId falls back to the route id
+     */
+    static JSObject createRouteObject(MediaRouter.RouteInfo route) {
+        JSObject obj = new JSObject();
+        obj.put("name", route.getName());
+        obj.put("id", route.getId());
+
+        CastDevice device = CastDevice.getFromBundle(route.getExtras());
+        if (device != null) {
+            obj.put("deviceId", device.getDeviceId());
+            obj.put("isNearbyDevice", !device.isOnLocalNetwork());
+            obj.put("isCastGroup", false); // RouteGroup removed in newer MediaRouter
+        } else {
+            obj.put("deviceId", route.getId());
+        }
+        return obj;
+    }
+
     static JSONObject createError(String code, String message) {
         JSONObject out = new JSONObject();
         try {
@@ -821,6 +388,7 @@ final class ChromecastUtilities {
     static MediaInfo createMediaInfo(JSONObject mediaInfo) {
         // Set defaults
         String contentId = "";
+        String contentUrl = null;
         JSONObject customData = new JSONObject();
         String contentType = "unknown";
         long duration = 0;
@@ -833,6 +401,10 @@ final class ChromecastUtilities {
             contentId = mediaInfo.getString("contentId");
         } catch (JSONException e) {
         }
+        try {
+            contentUrl = mediaInfo.getString("contentUrl");
+        } catch (JSONException e) {
+        }
         try {
             customData = mediaInfo.getJSONObject("customData");
         } catch (JSONException e) {
@@ -858,13 +430,19 @@ final class ChromecastUtilities {
         } catch (JSONException e) {
         }
 
-        return createMediaInfo(contentId, customData, contentType, duration, streamType, metadata, textTrackStyle);
+        return createMediaInfo(contentId, contentUrl, customData, contentType, duration, streamType, metadata, textTrackStyle);
     }
 
-    static MediaInfo createMediaInfo(String contentId, JSONObject customData, String contentType, long duration, String streamType, JSONObject metadata, JSONObject textTrackStyle) {
+    /**
+     * @param contentUrl the URL the receiver loads instead of contentId, or null to load contentId
+     */
+    static MediaInfo createMediaInfo(String contentId, String contentUrl, JSONObject customData, String contentType, long duration, String streamType, JSONObject metadata, JSONObject textTrackStyle) {
         MediaInfo.Builder mediaInfoBuilder = new MediaInfo.Builder(contentId);
+        if (contentUrl != null) {
+            mediaInfoBuilder.setContentUrl(contentUrl);
+        }
 
-        mediaInfoBuilder.setMetadata(createMediaMetadata(metadata));
+        mediaInfoBuilder.setMetadata(MetadataCodec.toMediaMetadata(metadata));
 
         int intStreamType;
         switch (streamType) {
@@ -890,97 +468,5 @@ final class ChromecastUtilities {
         return mediaInfoBuilder.build();
     }
 
-    private static MediaMetadata createMediaMetadata(JSONObject metadata) {
-
-        MediaMetadata mediaMetadata;
-        try {
-            mediaMetadata = new MediaMetadata(metadata.getInt("metadataType"));
-        } catch (JSONException e) {
-            mediaMetadata = new MediaMetadata(MediaMetadata.MEDIA_TYPE_GENERIC);
-        }
-        // Add any images
-        try {
-            JSONArray images = metadata.getJSONArray("images");
-            for (int i = 0; i < images.length(); i++) {
-                JSONObject imageObj = images.getJSONObject(i);
-                try {
-                    Uri imageURI = Uri.parse(imageObj.getString("url"));
-                    mediaMetadata.addImage(new WebImage(imageURI));
-                } catch (Exception e) {
-                }
-            }
-        } catch (JSONException e) {
-        }
-
-        // Dynamically add other parameters
-        Iterator<String> keys = metadata.keys();
-        String key;
-        String convertedKey;
-        Object value;
-        while (keys.hasNext()) {
-            key = keys.next();
-            if (key.equals("metadataType")
-                    || key.equals("images")
-                    || key.equals("type")) {
-                continue;
-            }
-            try {
-                value = metadata.get(key);
-                convertedKey = ChromecastUtilities.getAndroidMetadataName(key);
-                // Try to add the translated version of the key
-                switch (ChromecastUtilities.getMetadataType(convertedKey)) {
-                    case "string":
-                        mediaMetadata.putString(convertedKey, metadata.getString(key));
-                        break;
-                    case "int":
-                        mediaMetadata.putInt(convertedKey, metadata.getInt(key));
-                        break;
-                    case "double":
-                        mediaMetadata.putDouble(convertedKey, metadata.getDouble(key));
-                        break;
-                    case "date":
-                        GregorianCalendar c = new GregorianCalendar();
-                        if (value instanceof java.lang.Integer
-                                || value instanceof java.lang.Long
-                                || value instanceof java.lang.Float
-                                || value instanceof java.lang.Double) {
-                            c.setTimeInMillis(metadata.getLong(key));
-                            mediaMetadata.putDate(convertedKey, c);
-                        } else {
-                            String stringValue;
-                            try {
-                                stringValue = " value: " + metadata.getString(key);
-                            } catch (JSONException e) {
-                                stringValue = "";
-                            }
-                            new Error("Cannot date from metadata key: " + key + stringValue
-                                    + "\n Dates must be in milliseconds from epoch UTC")
-                                    .printStackTrace();
-                        }
-                        break;
-                    case "ms":
-                        mediaMetadata.putTimeMillis(convertedKey, metadata.getLong(key));
-                        break;
-                    default:
-                }
-                // Also always add the client's version of the key because sometimes the
-                // MediaMetadata object removes some parameters.
-                // eg. If you pass metadataType == 2 == MEDIA_TYPE_TV_SHOW you will lose any
-                // subtitle added for "com.google.android.gms.cast.metadata.SUBTITLE", but this
-                // is not in-line with chrome desktop which preserves the value.
-                if (!key.equals(convertedKey)) {
-                    // It is is really stubborn and if you try to add the key "subtitle" that is
-                    // also stripped.  (Hence the "cordova-plugin-chromecast_metadata_key=" prefix
-                    convertedKey = "cordova-plugin-chromecast_metadata_key=" + key;
-                }
-                mediaMetadata.putString(convertedKey, metadata.getString(key));
-            } catch (JSONException e) {
-                e.printStackTrace();
-            } catch (IllegalArgumentException e) {
-                e.printStackTrace();
-            }
-        }
-        return  mediaMetadata;
-    }
 
 }
@@ -0,0 +1,169 @@
+package com.gameleap.plugins.chromecast;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.cast.MediaQueueItem;
+import com.google.android.gms.cast.MediaStatus;
+import com.google.android.gms.cast.framework.media.RemoteMediaClient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads long queues in chunks.
+ *
+ * Receivers struggle with very large queueLoad requests, so only a window around the start
+ * index is loaded (see {@link #window(int, int)}); playback starts as soon as it is. This class
+ * then appends the rest in batches of {@link #BATCH_SIZE}: first the items after the window
+ * (they play next), then the items before it, inserted before the first window item. Items
+ * are converted to MediaQueueItems one batch at a time.
+ *
+ * Batches are sent one after the other, and loading stops if the first window item leaves the
+ * queue (eg. another sender loaded a new queue). The queue is read from the latest media
+ * status: MediaQueue refreshes its item ids asynchronously, so right after a load it can
+ * still be empty or hold the previous queue.
+ *
+ * All methods must be called on the main thread.
+ */
+final class ChunkedQueueLoader {
+    /** Queues up to this size are loaded in one request. */
+    static final int INITIAL_WINDOW = 50;
+    /** How many of the window items come before the start index. */
+    private static final int ITEMS_BEFORE_START = 10;
+    /** Items per background insert. */
+    static final int BATCH_SIZE = 100;
+
+    /** Receives the loading progress. */
+    interface ProgressListener {
+        /**
+         * @param loaded how many items are on the receiver
+         * @param total how many items are being loaded
+         * @param error null unless loading stopped because of an error
+         */
+        void onProgress(int loaded, int total, String error);
+    }
+
+    private final JSONArray items;
+    private final int windowStart;
+    private final int windowEnd;
+    private final RemoteMediaClient client;
+    private final QueueEditBatcher batcher;
+    private final ProgressListener listener;
+    /** The first window item, later items are appended and earlier ones inserted before it. */
+    private int anchorItemId = MediaQueueItem.INVALID_ITEM_ID;
+    /** The next item to append. */
+    private int nextTail;
+    /** The next item to insert before the window. */
+    private int nextHead = 0;
+    private int loaded;
+    private boolean cancelled = false;
+
+    /**
+     * @param items all chrome.cast.media.QueueItems of the queue
+     * @param window the window that was loaded, see {@link #window(int, int)}
+     * @param client the client the window was loaded with
+     * @param batcher sends the inserts
+     * @param listener notified after every batch
+     */
+    ChunkedQueueLoader(@NonNull JSONArray items, @NonNull int[] window, @NonNull RemoteMediaClient client,
+                       @NonNull QueueEditBatcher batcher, @NonNull ProgressListener listener) {
+        this.items = items;
+        this.windowStart = window[0];
+        this.windowEnd = window[1];
+        this.client = client;
+        this.batcher = batcher;
+        this.listener = listener;
+        this.nextTail = windowEnd;
+        this.loaded = windowEnd - windowStart;
+    }
+
+    /**
+     * @param count the number of items in the queue
+     * @param startIndex the item to start playing
+     * @return [start, end) of the items to load first, containing startIndex
+     */
+    static int[] window(int count, int startIndex) {
+        int size = Math.min(count, INITIAL_WINDOW);
+        int start = Math.max(0, Math.min(startIndex - ITEMS_BEFORE_START, count - size));
+        return new int[] {start, start + size};
+    }
+
+    /**
+     * Starts appending the remaining items, call once the window is loaded.
+     */
+    void start() {
+        MediaStatus status = client.getMediaStatus();
+        Integer firstItemId = status != null ? status.getItemIdByIndex(0) : null;
+        if (firstItemId != null) {
+            anchorItemId = firstItemId;
+        }
+        listener.onProgress(loaded, items.length(), null);
+        sendNext();
+    }
+
+    /**
+     * Stops loading, eg. because another queue or media is loaded. A batch already sent
+     * still completes.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    private void sendNext() {
+        if (cancelled || loaded == items.length()) {
+            return;
+        }
+        MediaStatus status = client.getMediaStatus();
+        if (anchorItemId == MediaQueueItem.INVALID_ITEM_ID || status == null || status.getIndexById(anchorItemId) == null) {
+            fail("interrupted: the queue was replaced");
+            return;
+        }
+        final int start;
+        final int end;
+        final int insertBeforeItemId;
+        if (nextTail < items.length()) {
+            start = nextTail;
+            end = Math.min(start + BATCH_SIZE, items.length());
+            insertBeforeItemId = MediaQueueItem.INVALID_ITEM_ID;
+            nextTail = end;
+        } else {
+            start = nextHead;
+            end = Math.min(start + BATCH_SIZE, windowStart);
+            insertBeforeItemId = anchorItemId;
+            nextHead = end;
+        }
+
+        List<MediaQueueItem> batch = new ArrayList<>(end - start);
+        try {
+            for (int i = start; i < end; i++) {
+                batch.add(ChromecastUtilities.createMediaQueueItem(items.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            fail("invalid_parameter: " + e.getMessage());
+            return;
+        }
+        batcher.insert(batch, insertBeforeItemId, new QueueEditBatcher.ResultListener() {
+            @Override
+            public void onResult(String error) {
+                if (cancelled) {
+                    return;
+                }
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                loaded += end - start;
+                listener.onProgress(loaded, items.length(), null);
+                sendNext();
+            }
+        });
+    }
+
+    private void fail(String error) {
+        cancelled = true;
+        listener.onProgress(loaded, items.length(), error);
+    }
+}
@@ -0,0 +1,60 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+
+/**
+ * Timing of one attempt to join a session, from the route selection to a usable
+ * RemoteMediaClient.
+ *
+ * All times are SystemClock.elapsedRealtime() values, -1 until the step happened.
+ */
+final class ConnectMetrics {
+    static final String JOINED = "joined";
+    static final String FAILED = "failed";
+    static final String TIMEOUT = "timeout";
+
+    /** When the user picked a route (or selectRoute selected it). */
+    private long selectedAt = -1;
+    /** When the session manager reported onSessionStarting / onSessionResuming. */
+    private long startingAt = -1;
+    /** When the session was started or resumed with a RemoteMediaClient. */
+    private long joinedAt = -1;
+    private boolean resumed = false;
+
+    void onRouteSelected() {
+        selectedAt = SystemClock.elapsedRealtime();
+    }
+
+    void onSessionStarting() {
+        if (startingAt == -1) {
+            startingAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    void onJoined(boolean wasResumed) {
+        joinedAt = SystemClock.elapsedRealtime();
+        resumed = wasResumed;
+    }
+
+    /**
+     * @param outcome {@link #JOINED}, {@link #FAILED} or {@link #TIMEOUT}
+     * @param errorCode the CastStatusCodes error, or 0
+     * @return {outcome, errorCode, resumed, selectToStarting, selectToJoined, startingToJoined},
+     * the durations in ms, or -1 for steps that didn't happen
+     */
+    JSObject toJSObject(String outcome, int errorCode) {
+        return new JSObject()
+                .put("outcome", outcome)
+                .put("errorCode", errorCode)
+                .put("resumed", resumed)
+                .put("selectToStarting", between(selectedAt, startingAt))
+                .put("selectToJoined", between(selectedAt, joinedAt))
+                .put("startingToJoined", between(startingAt, joinedAt));
+    }
+
+    private static long between(long from, long to) {
+        return from == -1 || to == -1 ? -1 : to - from;
+    }
+}
@@ -0,0 +1,122 @@
+package com.gameleap.plugins.chromecast;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persisted list of the cast devices seen recently, so a route scan can show them before the
+ * MediaRouter has discovered them again.
+ *
+ * Devices are keyed by deviceId and stored as the route objects last sent to the client,
+ * most recently seen last. Only the {@link #MAX_DEVICES} most recent devices seen within
+ * {@link #MAX_AGE_MS} are kept.
+ */
+final class DeviceCache {
+    /** Maximum number of devices kept. */
+    static final int MAX_DEVICES = 20;
+    /** Devices not seen for this long are dropped. */
+    static final long MAX_AGE_MS = 14L * 24 * 60 * 60 * 1000;
+    private static final String PREFS_NAME = "CORDOVA-PLUGIN-CHROMECAST_DeviceCache";
+    private static final String KEY_DEVICES = "devices";
+    private static final String KEY_LAST_SEEN = "lastSeen";
+
+    private final SharedPreferences settings;
+    /** deviceId -> route object with lastSeen, least recently seen first. */
+    private final LinkedHashMap<String, JSONObject> devices = new LinkedHashMap<>();
+    private boolean dirty = false;
+
+    DeviceCache(Context context) {
+        settings = context.getSharedPreferences(PREFS_NAME, 0);
+        load();
+    }
+
+    /**
+     * @return copies of the cached route objects (without lastSeen), most recently seen first
+     */
+    List<JSObject> getDevices() {
+        List<JSObject> out = new ArrayList<>(devices.size());
+        for (JSONObject device : devices.values()) {
+            JSObject route = new JSObject();
+            Iterator<String> keys = device.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!KEY_LAST_SEEN.equals(key)) {
+                    route.put(key, device.opt(key));
+                }
+            }
+            out.add(0, route);
+        }
+        return out;
+    }
+
+    /**
+     * Records that a device was seen now.
+     * @param deviceId the device
+     * @param route the route object sent to the client
+     */
+    void seen(String deviceId, JSONObject route) {
+        try {
+            JSONObject device = new JSONObject(route.toString());
+            device.put(KEY_LAST_SEEN, System.currentTimeMillis());
+            devices.remove(deviceId);
+            devices.put(deviceId, device);
+            dirty = true;
+        } catch (JSONException e) {
+        }
+        trim();
+    }
+
+    /**
+     * Writes the devices if they changed since the last save.
+     */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        JSONArray out = new JSONArray();
+        for (JSONObject device : devices.values()) {
+            out.put(device);
+        }
+        settings.edit().putString(KEY_DEVICES, out.toString()).apply();
+        dirty = false;
+    }
+
+    private void load() {
+        try {
+            JSONArray stored = new JSONArray(settings.getString(KEY_DEVICES, "[]"));
+            for (int i = 0; i < stored.length(); i++) {
+                JSONObject device = stored.getJSONObject(i);
+                devices.put(device.getString("deviceId"), device);
+            }
+        } catch (JSONException e) {
+            // Unreadable cache, start over
+            devices.clear();
+            dirty = true;
+        }
+        trim();
+    }
+
+    private void trim() {
+        long oldest = System.currentTimeMillis() - MAX_AGE_MS;
+        Iterator<Map.Entry<String, JSONObject>> it = devices.entrySet().iterator();
+        while (it.hasNext()) {
+            JSONObject device = it.next().getValue();
+            if (devices.size() > MAX_DEVICES || device.optLong(KEY_LAST_SEEN) < oldest) {
+                it.remove();
+                dirty = true;
+            }
+        }
+    }
+}
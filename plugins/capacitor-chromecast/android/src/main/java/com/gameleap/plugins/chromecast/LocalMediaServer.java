@@ -0,0 +1,505 @@
+package com.gameleap.plugins.chromecast;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP server that lets the receiver play local files (downloaded / cached tracks).
+ *
+ * Only registered files are served, under {@code /<token>/<id>/<name>}, where the token is
+ * random and replaced for every cast session ({@link #newSession()}), so old URLs stop
+ * working. GET and HEAD are supported, with single byte ranges (206 / 416). File bodies are
+ * sent with {@link FileChannel#transferTo}, which lets the kernel copy straight from the file
+ * to the socket.
+ *
+ * Connections are handled by a pool of {@link #POOL_SIZE} threads with a bounded backlog;
+ * connections beyond that get a 503. Each connection serves one request.
+ *
+ * Plain Java, so it can be tested without a device.
+ */
+final class LocalMediaServer {
+    /** Threads serving requests. */
+    static final int POOL_SIZE = 4;
+    /** Accepted connections waiting for a thread before new ones are turned away. */
+    private static final int MAX_QUEUED_CONNECTIONS = 16;
+    /** How long a client may take to send its request. */
+    private static final int READ_TIMEOUT_MS = 10_000;
+    private static final int MAX_HEADER_BYTES = 8192;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    /** Path marker of files converted with Capacitor.convertFileSrc. */
+    private static final String CAPACITOR_FILE_MARKER = "/_capacitor_file_";
+
+    private static final Map<String, String> CONTENT_TYPES;
+    static {
+        Map<String, String> types = new HashMap<>();
+        types.put("mp3", "audio/mpeg");
+        types.put("m4a", "audio/mp4");
+        types.put("aac", "audio/aac");
+        types.put("flac", "audio/flac");
+        types.put("ogg", "audio/ogg");
+        types.put("oga", "audio/ogg");
+        types.put("opus", "audio/ogg");
+        types.put("wav", "audio/wav");
+        types.put("weba", "audio/webm");
+        types.put("mp4", "video/mp4");
+        types.put("m4v", "video/mp4");
+        types.put("webm", "video/webm");
+        types.put("m3u8", "application/x-mpegURL");
+        types.put("mpd", "application/dash+xml");
+        types.put("vtt", "text/vtt");
+        types.put("jpg", "image/jpeg");
+        types.put("jpeg", "image/jpeg");
+        types.put("png", "image/png");
+        types.put("webp", "image/webp");
+        CONTENT_TYPES = Collections.unmodifiableMap(types);
+    }
+
+    /** A file that can be served. */
+    private static final class Entry {
+        final File file;
+        final String contentType;
+
+        Entry(File file, String contentType) {
+            this.file = file;
+            this.contentType = contentType;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    /** id -> file. */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** canonical path -> id, so a file keeps its URL within a session. */
+    private final Map<String, String> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile String token;
+    private ServerSocketChannel server;
+    private ThreadPoolExecutor pool;
+
+    LocalMediaServer() {
+        token = newToken();
+    }
+
+    /**
+     * Starts listening on a free port, does nothing if already running.
+     * @throws IOException if the port can't be opened
+     */
+    synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.socket().bind(new InetSocketAddress(0));
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_CONNECTIONS));
+        workers.allowCoreThreadTimeOut(true);
+        server = channel;
+        pool = workers;
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept(channel, workers);
+            }
+        }, "LocalMediaServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops listening and aborts the running transfers.
+     */
+    synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+        }
+        pool.shutdownNow();
+        server = null;
+        pool = null;
+    }
+
+    /**
+     * Invalidates all URLs handed out so far, call when a new cast session starts.
+     */
+    void newSession() {
+        token = newToken();
+        entries.clear();
+        ids.clear();
+    }
+
+    /**
+     * @return the port, or -1 if not running
+     */
+    synchronized int getPort() {
+        return server != null ? server.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * Registers a file and returns its path on this server.
+     * @param file the file to serve
+     * @param contentType the content type, or null to guess it from the file name
+     * @return the path, starting with "/"
+     */
+    String getPath(File file, String contentType) {
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            key = file.getAbsolutePath();
+        }
+        String id = ids.get(key);
+        if (id == null) {
+            id = Integer.toString(nextId.incrementAndGet());
+            ids.put(key, id);
+        }
+        if (contentType == null || contentType.isEmpty() || "unknown".equals(contentType)) {
+            contentType = guessContentType(file.getName());
+        }
+        entries.put(id, new Entry(file, contentType));
+        return "/" + token + "/" + id + "/" + encode(file.getName());
+    }
+
+    /**
+     * @param file the file to serve
+     * @param contentType the content type, or null to guess it
+     * @param host the address the receiver can reach this device on
+     * @return the URL of the file
+     */
+    String getUrl(File file, String contentType, String host) {
+        return "http://" + host + ":" + getPort() + getPath(file, contentType);
+    }
+
+    /**
+     * @param url a contentId / image URL
+     * @return the local file it refers to (file://, absolute path or Capacitor file URL), or null
+     */
+    static File localFile(String url) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        String path = null;
+        if (url.startsWith("file://")) {
+            path = url.substring("file://".length());
+        } else if (url.startsWith("/")) {
+            path = url;
+        } else if (url.startsWith("http://localhost/") || url.startsWith("https://localhost/")
+                || url.startsWith("capacitor://localhost/")) {
+            int marker = url.indexOf(CAPACITOR_FILE_MARKER);
+            if (marker != -1) {
+                path = url.substring(marker + CAPACITOR_FILE_MARKER.length());
+            }
+        }
+        if (path == null) {
+            return null;
+        }
+        try {
+            return new File(URLDecoder.decode(path.replace("+", "%2B"), "UTF-8"));
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return new File(path);
+        }
+    }
+
+    /**
+     * @return the site-local IPv4 address of this device (eg. on Wi-Fi), or null
+     */
+    static String findLanAddress() {
+        try {
+            for (NetworkInterface nic : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nic.isUp() || nic.isLoopback()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(nic.getInetAddresses())) {
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                        return address.getHostAddress();
+                    }
+                }
+            }
+        } catch (IOException e) {
+        }
+        return null;
+    }
+
+    /**
+     * @param name a file name
+     * @return its content type, application/octet-stream if unknown
+     */
+    static String guessContentType(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot != -1) {
+            String type = CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (type != null) {
+                return type;
+            }
+        }
+        String type = URLConnection.guessContentTypeFromName(name);
+        return type != null ? type : "application/octet-stream";
+    }
+
+    /**
+     * @param header the Range header value
+     * @param size the size of the file
+     * @return {start, end} (inclusive), null if the whole file should be sent (no or unsupported
+     * header), or an empty array if the range can't be satisfied
+     */
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') != -1) {
+            // Multiple ranges are not supported, the full body is a valid answer
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix: the last n bytes
+                long length = Long.parseLong(last);
+                if (length == 0 || size == 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, size - length);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start >= size || start > end) {
+                return new long[0];
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void accept(ServerSocketChannel channel, ThreadPoolExecutor workers) {
+        while (channel.isOpen()) {
+            final SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (IOException e) {
+                // Closed by stop()
+                return;
+            }
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                try {
+                    writeHeaders(client, "503 Service Unavailable", null, 0, null);
+                } catch (IOException ignored) {
+                }
+                close(client);
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try {
+            Socket socket = client.socket();
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            Map<String, String> request = readRequest(socket.getInputStream());
+            if (request == null) {
+                return;
+            }
+            String method = request.get(":method");
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                writeHeaders(client, "405 Method Not Allowed", null, 0, "Allow: GET, HEAD\r\n");
+                return;
+            }
+            Entry entry = lookup(request.get(":path"));
+            if (entry == null || !entry.file.isFile()) {
+                writeHeaders(client, "404 Not Found", null, 0, null);
+                return;
+            }
+            FileChannel file = new FileInputStream(entry.file).getChannel();
+            try {
+                long size = file.size();
+                long[] range = parseRange(request.get("range"), size);
+                if (range != null && range.length == 0) {
+                    writeHeaders(client, "416 Range Not Satisfiable", null, 0, "Content-Range: bytes */" + size + "\r\n");
+                    return;
+                }
+                long start = range != null ? range[0] : 0;
+                long length = range != null ? range[1] - range[0] + 1 : size;
+                if (range != null) {
+                    writeHeaders(client, "206 Partial Content", entry.contentType, length,
+                            "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + size + "\r\n");
+                } else {
+                    writeHeaders(client, "200 OK", entry.contentType, length, null);
+                }
+                if ("GET".equals(method)) {
+                    transfer(file, start, length, client);
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            // The receiver went away (eg. it seeked and dropped the connection)
+        } finally {
+            close(client);
+        }
+    }
+
+    /**
+     * @return the entry for /token/id[/name], or null if the path is unknown or from an old session
+     */
+    private Entry lookup(String path) {
+        if (path == null) {
+            return null;
+        }
+        int query = path.indexOf('?');
+        if (query != -1) {
+            path = path.substring(0, query);
+        }
+        String[] parts = path.split("/");
+        // "", token, id, name
+        if (parts.length < 3 || !MessageDigest.isEqual(parts[1].getBytes(ASCII), token.getBytes(ASCII))) {
+            return null;
+        }
+        return entries.get(parts[2]);
+    }
+
+    /**
+     * @return the headers with lower case names, plus ":method" and ":path", or null if the
+     * request is malformed
+     */
+    private static Map<String, String> readRequest(InputStream stream) throws IOException {
+        InputStream in = new BufferedInputStream(stream);
+        Map<String, String> out = new HashMap<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int total = 0;
+        boolean first = true;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (++total > MAX_HEADER_BYTES) {
+                return null;
+            }
+            if (b != '\n') {
+                if (b != '\r') {
+                    line.write(b);
+                }
+                continue;
+            }
+            String text = new String(line.toByteArray(), ASCII);
+            line.reset();
+            if (text.isEmpty()) {
+                return first ? null : out;
+            }
+            if (first) {
+                String[] requestLine = text.split(" ");
+                if (requestLine.length < 2) {
+                    return null;
+                }
+                out.put(":method", requestLine[0]);
+                out.put(":path", requestLine[1]);
+                first = false;
+            } else {
+                int colon = text.indexOf(':');
+                if (colon > 0) {
+                    out.put(text.substring(0, colon).trim().toLowerCase(Locale.ROOT), text.substring(colon + 1).trim());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void writeHeaders(SocketChannel client, String status, String contentType, long length, String extra) throws IOException {
+        StringBuilder headers = new StringBuilder(256)
+                .append("HTTP/1.1 ").append(status).append("\r\n")
+                .append("Accept-Ranges: bytes\r\n")
+                .append("Access-Control-Allow-Origin: *\r\n")
+                .append("Cache-Control: no-cache\r\n")
+                .append("Connection: close\r\n")
+                .append("Content-Length: ").append(length).append("\r\n");
+        if (contentType != null) {
+            headers.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (extra != null) {
+            headers.append(extra);
+        }
+        headers.append("\r\n");
+        ByteBuffer buffer = ByteBuffer.wrap(headers.toString().getBytes(ASCII));
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+
+    private static void transfer(FileChannel file, long position, long count, SocketChannel client) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = file.transferTo(position, end - position, client);
+            if (sent <= 0) {
+                // The file shrank while sending
+                return;
+            }
+            position += sent;
+        }
+    }
+
+    private static void close(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder out = new StringBuilder(32);
+        for (byte b : bytes) {
+            out.append(String.format(Locale.ROOT, "%02x", b));
+        }
+        return out.toString();
+    }
+
+    static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            return "file";
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.gameleap.plugins.chromecast;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Points local media (file:// URLs, absolute paths and Capacitor file URLs) at the
+ * {@link LocalMediaServer}, so the receiver can play downloaded and cached tracks.
+ *
+ * Rewrites the contentId and metadata image URLs of media infos and queue items. Objects
+ * without local URLs are returned as they are; changed objects are copied, the caller's
+ * objects are never modified. The server is started on first use.
+ */
+final class LocalMediaUrls {
+    private static final String TAG = "LocalMediaUrls";
+
+    private final LocalMediaServer server = new LocalMediaServer();
+
+    /**
+     * Invalidates the URLs of the previous session.
+     */
+    void newSession() {
+        server.newSession();
+    }
+
+    /**
+     * Stops the server, eg. when the session ends.
+     */
+    void stop() {
+        server.stop();
+    }
+
+    /**
+     * @param url a contentId or image URL
+     * @param contentType the content type, or null to guess it from the file name
+     * @return the URL the receiver can load, url itself if it is not a local file or the
+     * server can't be used
+     */
+    String toReceiverUrl(String url, String contentType) {
+        File file = LocalMediaServer.localFile(url);
+        if (file == null) {
+            return url;
+        }
+        if (!file.isFile()) {
+            Log.w(TAG, "Local media not found: " + url);
+            return url;
+        }
+        String host = LocalMediaServer.findLanAddress();
+        if (host == null) {
+            Log.w(TAG, "No LAN address to serve local media on");
+            return url;
+        }
+        try {
+            server.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start the local media server: " + e.getMessage());
+            return url;
+        }
+        return server.getUrl(file, contentType, host);
+    }
+
+    /**
+     * @param receiverUrl a contentId the receiver plays
+     * @param url a contentId of the app
+     * @return whether receiverUrl is url, or the URL a local url was rewritten to
+     */
+    boolean isReceiverUrlOf(String receiverUrl, String url) {
+        if (receiverUrl == null || url == null) {
+            return false;
+        }
+        if (receiverUrl.equals(url)) {
+            return true;
+        }
+        File file = LocalMediaServer.localFile(url);
+        return file != null && receiverUrl.endsWith("/" + LocalMediaServer.encode(file.getName()));
+    }
+
+    /**
+     * @param items chrome.cast.media.QueueItem[]
+     * @return the items with local media URLs rewritten
+     * @throws JSONException if an item is not an object
+     */
+    JSONArray rewriteQueueItems(JSONArray items) throws JSONException {
+        JSONArray out = new JSONArray();
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            JSONObject media = item.optJSONObject("media");
+            JSONObject rewritten = media != null ? rewriteMediaInfo(media) : null;
+            if (rewritten != media) {
+                item = shallowCopy(item);
+                item.put("media", rewritten);
+            }
+            out.put(item);
+        }
+        return out;
+    }
+
+    /**
+     * @param media chrome.cast.media.MediaInfo
+     * @return media, or a copy with local media URLs rewritten
+     * @throws JSONException never in practice, org.json declares it on put
+     */
+    JSONObject rewriteMediaInfo(JSONObject media) throws JSONException {
+        String contentId = media.optString("contentId", null);
+        String url = contentId != null ? toReceiverUrl(contentId, media.optString("contentType", null)) : null;
+        JSONObject metadata = media.optJSONObject("metadata");
+        JSONObject rewrittenMetadata = metadata != null ? rewriteMetadata(metadata) : null;
+        if (url == contentId && rewrittenMetadata == metadata) {
+            return media;
+        }
+        JSONObject out = shallowCopy(media);
+        out.put("contentId", url);
+        out.put("metadata", rewrittenMetadata);
+        return out;
+    }
+
+    /**
+     * @param metadata chrome.cast.media.*MediaMetadata
+     * @return metadata, or a copy with local image URLs rewritten
+     * @throws JSONException never in practice, org.json declares it on put
+     */
+    JSONObject rewriteMetadata(JSONObject metadata) throws JSONException {
+        JSONArray images = metadata.optJSONArray("images");
+        if (images == null) {
+            return metadata;
+        }
+        JSONArray rewrittenImages = null;
+        for (int i = 0; i < images.length(); i++) {
+            JSONObject image = images.optJSONObject(i);
+            String url = image != null ? image.optString("url", null) : null;
+            String rewritten = url != null ? toReceiverUrl(url, null) : null;
+            if (rewritten == url) {
+                continue;
+            }
+            if (rewrittenImages == null) {
+                rewrittenImages = new JSONArray();
+                for (int j = 0; j < images.length(); j++) {
+                    rewrittenImages.put(images.opt(j));
+                }
+            }
+            rewrittenImages.put(i, shallowCopy(image).put("url", rewritten));
+        }
+        if (rewrittenImages == null) {
+            return metadata;
+        }
+        return shallowCopy(metadata).put("images", rewrittenImages);
+    }
+
+    private static JSONObject shallowCopy(JSONObject object) throws JSONException {
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            copy.put(key, object.opt(key));
+        }
+        return copy;
+    }
+}
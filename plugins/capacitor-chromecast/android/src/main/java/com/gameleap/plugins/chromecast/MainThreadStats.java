@@ -0,0 +1,54 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+
+/**
+ * Main thread time spent per Cast status update, to keep an eye on UI jank during status
+ * bursts.
+ *
+ * {@link #start()} and {@link #stop(long)} are called on the main thread, {@link #toJSObject()}
+ * on any thread.
+ */
+final class MainThreadStats {
+    /** Updates slower than this are counted as slow (one 60fps frame). */
+    static final long SLOW_UPDATE_NANOS = 16_000_000;
+
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long slowCount;
+
+    /**
+     * @return the start time, to pass to {@link #stop(long)}
+     */
+    long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records one status update.
+     * @param startNanos the value returned by {@link #start()}
+     */
+    synchronized void stop(long startNanos) {
+        long nanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        if (nanos > SLOW_UPDATE_NANOS) {
+            slowCount++;
+        }
+    }
+
+    /**
+     * @return {updates, averageMs, maxMs, slowUpdates}
+     */
+    synchronized JSObject toJSObject() {
+        return new JSObject()
+                .put("updates", count)
+                .put("averageMs", count > 0 ? totalNanos / (double) count / 1_000_000 : 0)
+                .put("maxMs", maxNanos / 1_000_000.0)
+                .put("slowUpdates", slowCount);
+    }
+}
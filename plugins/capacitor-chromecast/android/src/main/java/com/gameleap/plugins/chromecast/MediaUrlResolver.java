@@ -0,0 +1,414 @@
+package com.gameleap.plugins.chromecast;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Follows the redirects of media URLs ahead of time, so the receiver and the local player can
+ * load the final (CDN) URL directly instead of paying for every hop.
+ *
+ * Redirects are followed with HEAD requests (a one byte GET if HEAD fails). Final URLs
+ * are cached for as long as every redirect in the chain may be cached: the smallest
+ * Cache-Control max-age / Expires of the hops, {@link #DEFAULT_TTL_MS} for temporary redirects
+ * without either and {@link #MAX_TTL_MS} for permanent ones. URLs that fail to resolve are
+ * remembered for {@link #FAILURE_TTL_MS} and used as they are.
+ *
+ * One instance is shared by the cast session and the local player, see {@link #shared()}.
+ * Thread safe, callbacks are called on a background thread.
+ */
+final class MediaUrlResolver {
+    /** Longer redirect chains are not followed, the original URL is used. */
+    static final int MAX_REDIRECTS = 5;
+    /** Connect and read timeout of each hop. */
+    static final int TIMEOUT_MS = 5000;
+    /** TTL of temporary redirects without caching headers. */
+    static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+    /** Upper bound of any TTL, also used for permanent redirects. */
+    static final long MAX_TTL_MS = 60 * 60 * 1000;
+    /** How long a URL that failed to resolve is not tried again. */
+    static final long FAILURE_TTL_MS = 60 * 1000;
+    /** Number of cached URLs. */
+    static final int MAX_ENTRIES = 200;
+    private static final int THREADS = 3;
+    /** Loopback and LAN addresses, eg. the {@link LocalMediaServer}. */
+    private static final Pattern PRIVATE_HOST = Pattern.compile("^(127|10|192\\.168|172\\.(1[6-9]|2\\d|3[01]))\\.");
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])(s-maxage|max-age)\\s*=\\s*\"?(\\d+)");
+
+    private static final MediaUrlResolver shared = new MediaUrlResolver();
+
+    /**
+     * @return the instance shared by the cast session and the plugin methods
+     */
+    static MediaUrlResolver shared() {
+        return shared;
+    }
+
+    /** Receives resolved URLs. */
+    interface Callback {
+        /**
+         * @param urls the final URL of each requested URL, in the same order; the requested URL
+         *             itself if it has no redirects or was not resolved in time
+         */
+        void onResolved(List<String> urls);
+    }
+
+    /** The outcome of following a URL's redirects. */
+    static final class Resolution {
+        final String url;
+        final int redirects;
+        final long ttlMs;
+
+        Resolution(String url, int redirects, long ttlMs) {
+            this.url = url;
+            this.redirects = redirects;
+            this.ttlMs = ttlMs;
+        }
+    }
+
+    private static final class Entry {
+        final String url;
+        final long expiresAtNanos;
+
+        Entry(String url, long ttlMs) {
+            this.url = url;
+            this.expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - expiresAtNanos >= 0;
+        }
+    }
+
+    /** A resolveAll call waiting for its URLs. */
+    private static final class Request {
+        final List<String> urls;
+        final String[] out;
+        final Callback callback;
+        int remaining;
+        boolean done = false;
+
+        Request(List<String> urls, Callback callback) {
+            this.urls = urls;
+            this.out = urls.toArray(new String[0]);
+            this.callback = callback;
+        }
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, daemonThreads("MediaUrlResolver"));
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("MediaUrlResolver-timer"));
+    /** original URL -> final URL, least recently used first. */
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    /** URL being resolved -> the requests waiting for it. */
+    private final Map<String, List<Request>> pending = new HashMap<>();
+    /** Whether loopback and LAN URLs are resolved too (for tests against a local server). */
+    private final boolean resolvePrivateHosts;
+
+    MediaUrlResolver() {
+        this(false);
+    }
+
+    MediaUrlResolver(boolean resolvePrivateHosts) {
+        this.resolvePrivateHosts = resolvePrivateHosts;
+    }
+
+    /**
+     * Starts resolving the URLs that are not cached, without waiting for them.
+     * @param urls media URLs
+     */
+    void prefetch(List<String> urls) {
+        for (String url : urls) {
+            if (shouldResolve(url)) {
+                synchronized (this) {
+                    if (getCached(url) == null) {
+                        start(url);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves the URLs, waiting at most maxWaitMs for the ones that are not cached. URLs
+     * resolved later are still cached for next time.
+     * @param urls media URLs
+     * @param maxWaitMs how long to wait for uncached URLs
+     * @param callback called once with the final URLs
+     */
+    void resolveAll(List<String> urls, long maxWaitMs, final Callback callback) {
+        final Request request = new Request(urls, callback);
+        synchronized (this) {
+            for (int i = 0; i < urls.size(); i++) {
+                String url = urls.get(i);
+                if (!shouldResolve(url)) {
+                    continue;
+                }
+                String cached = getCached(url);
+                if (cached != null) {
+                    request.out[i] = cached;
+                } else {
+                    start(url).add(request);
+                    request.remaining++;
+                }
+            }
+            if (request.remaining > 0 && maxWaitMs > 0) {
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(request);
+                    }
+                }, maxWaitMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+            request.done = true;
+        }
+        callback.onResolved(Arrays.asList(request.out));
+    }
+
+    /**
+     * @param url a media URL
+     * @return its final URL if cached and not expired, otherwise null
+     */
+    synchronized String getCached(String url) {
+        Entry entry = cache.get(url);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            cache.remove(url);
+            return null;
+        }
+        return entry.url;
+    }
+
+    /**
+     * @param url a URL
+     * @return whether it is a remote http(s) URL (local, LAN and app URLs are not resolved)
+     */
+    static boolean isResolvable(String url) {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            return false;
+        }
+        try {
+            String host = new URL(url).getHost();
+            return !host.isEmpty() && !"localhost".equals(host) && !PRIVATE_HOST.matcher(host).find();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean shouldResolve(String url) {
+        return resolvePrivateHosts ? url != null && url.startsWith("http") : isResolvable(url);
+    }
+
+    /**
+     * Follows the redirects of a URL, blocking.
+     * @param url the URL to resolve
+     * @return the final URL and how long it may be cached
+     * @throws IOException if a hop fails, returns an error or there are too many redirects
+     */
+    static Resolution follow(String url) throws IOException {
+        String current = url;
+        long ttlMs = MAX_TTL_MS;
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            HttpURLConnection connection = open(current, "HEAD");
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                // HEAD not allowed, or the URL is signed for GET only (eg. S3)
+                connection.disconnect();
+                connection = open(current, "GET");
+                connection.setRequestProperty("Range", "bytes=0-0");
+                status = connection.getResponseCode();
+            }
+            try {
+                if (!isRedirect(status)) {
+                    if (status >= 400) {
+                        throw new IOException("HTTP " + status + " from " + current);
+                    }
+                    return new Resolution(current, redirects, ttlMs);
+                }
+                String location = connection.getHeaderField("Location");
+                if (location == null) {
+                    throw new IOException("HTTP " + status + " without Location from " + current);
+                }
+                ttlMs = Math.min(ttlMs, ttlMs(status, connection.getHeaderField("Cache-Control"),
+                        connection.getHeaderField("Expires"), connection.getHeaderField("Date"), System.currentTimeMillis()));
+                current = new URL(new URL(current), location).toString();
+                if (!current.startsWith("http://") && !current.startsWith("https://")) {
+                    throw new IOException("Redirect to unsupported URL " + current);
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+        throw new IOException("Too many redirects from " + url);
+    }
+
+    /**
+     * @param status the redirect status
+     * @param cacheControl the Cache-Control header, or null
+     * @param expires the Expires header, or null
+     * @param date the Date header, or null
+     * @param nowMs the current time, used if there is no Date header
+     * @return how long the redirect may be cached, between 0 and {@link #MAX_TTL_MS}
+     */
+    static long ttlMs(int status, String cacheControl, String expires, String date, long nowMs) {
+        long ttl = -1;
+        if (cacheControl != null) {
+            String directives = cacheControl.toLowerCase(Locale.ROOT);
+            if (directives.contains("no-store") || directives.contains("no-cache")) {
+                return 0;
+            }
+            // s-maxage wins over max-age for shared caches, take the smaller to be safe
+            Matcher matcher = MAX_AGE.matcher(directives);
+            while (matcher.find()) {
+                try {
+                    long maxAge = Long.parseLong(matcher.group(2)) * 1000;
+                    ttl = ttl < 0 ? maxAge : Math.min(ttl, maxAge);
+                } catch (NumberFormatException e) {
+                    ttl = MAX_TTL_MS;
+                }
+            }
+        }
+        if (ttl < 0 && expires != null) {
+            Long expiresMs = parseHttpDate(expires);
+            Long dateMs = date != null ? parseHttpDate(date) : null;
+            // An invalid Expires (eg. "0") means already expired
+            ttl = expiresMs != null ? expiresMs - (dateMs != null ? dateMs : nowMs) : 0;
+        }
+        if (ttl < 0) {
+            boolean permanent = status == HttpURLConnection.HTTP_MOVED_PERM || status == 308;
+            ttl = permanent ? MAX_TTL_MS : DEFAULT_TTL_MS;
+        }
+        return Math.max(0, Math.min(ttl, MAX_TTL_MS));
+    }
+
+    private static Long parseHttpDate(String value) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date parsed = format.parse(value.trim());
+            return parsed != null ? parsed.getTime() : null;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP
+                || status == HttpURLConnection.HTTP_SEE_OTHER || status == 307 || status == 308;
+    }
+
+    private static HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestMethod(method);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    /**
+     * Starts resolving a URL unless it already is. Call with the lock held.
+     * @return the requests waiting for it
+     */
+    private List<Request> start(final String url) {
+        List<Request> waiting = pending.get(url);
+        if (waiting != null) {
+            return waiting;
+        }
+        waiting = new ArrayList<>();
+        pending.put(url, waiting);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Resolution resolution;
+                try {
+                    resolution = follow(url);
+                } catch (IOException e) {
+                    resolution = new Resolution(url, 0, FAILURE_TTL_MS);
+                }
+                complete(url, resolution);
+            }
+        });
+        return waiting;
+    }
+
+    private void complete(String url, Resolution resolution) {
+        List<Request> finished = new ArrayList<>();
+        synchronized (this) {
+            if (resolution.ttlMs > 0) {
+                cache.put(url, new Entry(resolution.url, resolution.ttlMs));
+            }
+            List<Request> waiting = pending.remove(url);
+            if (waiting == null) {
+                return;
+            }
+            for (Request request : waiting) {
+                if (request.done) {
+                    continue;
+                }
+                for (int i = 0; i < request.out.length; i++) {
+                    if (url.equals(request.urls.get(i))) {
+                        request.out[i] = resolution.url;
+                    }
+                }
+                if (--request.remaining == 0) {
+                    request.done = true;
+                    finished.add(request);
+                }
+            }
+        }
+        for (Request request : finished) {
+            request.callback.onResolved(Arrays.asList(request.out));
+        }
+    }
+
+    /**
+     * Calls back with what is resolved so far, if that did not happen yet.
+     */
+    private void finish(Request request) {
+        synchronized (this) {
+            if (request.done) {
+                return;
+            }
+            request.done = true;
+        }
+        request.callback.onResolved(Arrays.asList(request.out.clone()));
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,481 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.cast.Cast;
+import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.framework.CastSession;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Custom message channel to the receiver for one cast session.
+ *
+ * App messages are packed into frames on the single {@link #NAMESPACE} namespace instead of one
+ * CastSession.sendMessage per message, and frames received on it are unpacked and dispatched by
+ * namespace through one {@link Listener}. A frame is JSON:
+ * <pre>
+ * {"seq": 12, "ack": 7, "messages": [{"ns": "urn:x-cast:com.example.lyrics", "data": "..."}]}
+ * </pre>
+ * seq numbers the frames that carry messages, per direction and starting at 1. ack is the
+ * highest seq received from the other side; a frame with only an ack is sent if there is no
+ * outgoing frame to carry it within {@link #ACK_DELAY_MS}. Both sides send {"hello": 1} when
+ * the channel opens. Until the receiver's hello arrives, every message is sent on its own
+ * namespace as before, so receivers without the channel keep working.
+ *
+ * Messages are held for {@link #FLUSH_DELAY_MS} to be batched. At most {@link #MAX_IN_FLIGHT}
+ * frames may be unacknowledged (for plain messages: without a send result); further messages
+ * wait, so a lagging receiver slows the sender down instead of its socket filling up.
+ * Coalescing messages (eg. the playback position of a lyrics view) replace the waiting message
+ * of the same namespace. When more than {@link #MAX_QUEUED} messages wait, new messages are
+ * rejected with "backpressure" and the listener is told to pause until half of them are sent.
+ *
+ * All methods must be called on the main thread.
+ */
+final class MessageChannel implements Cast.MessageReceivedCallback {
+    private static final String TAG = "MessageChannel";
+    /** The namespace frames are sent on, the receiver must listen on it too. */
+    static final String NAMESPACE = "urn:x-cast:com.gameleap.chromecast.channel";
+    static final int PROTOCOL_VERSION = 1;
+    /** How long messages are held to be sent in one frame. */
+    static final long FLUSH_DELAY_MS = 20;
+    /** How long a received frame may wait for an outgoing frame to carry its ack. */
+    static final long ACK_DELAY_MS = 100;
+    /** Unacknowledged frames after which a frame is given up on. */
+    static final long ACK_TIMEOUT_MS = 5000;
+    /** Frame size budget in characters, below the 64KB Cast message limit. */
+    static final int MAX_FRAME_CHARS = 60 * 1024;
+    /** Frames that may be unacknowledged at a time. */
+    static final int MAX_IN_FLIGHT = 4;
+    /** Waiting messages above which new messages are rejected. */
+    static final int MAX_QUEUED = 200;
+
+    /** Receives incoming messages and backpressure changes. */
+    interface Listener {
+        /**
+         * @param namespace the namespace the message was sent on
+         * @param message the message
+         */
+        void onMessage(String namespace, String message);
+
+        /**
+         * @param paused true if the sender should stop sending until called with false
+         * @param queued the number of waiting messages
+         */
+        void onBackpressure(boolean paused, int queued);
+    }
+
+    /** Receives the outcome of a sent message. */
+    interface SendListener {
+        /**
+         * @param error null once the receiver got the message (or a coalescing message was
+         *              replaced by a newer one), otherwise the error
+         */
+        void onResult(String error);
+    }
+
+    private static final class Message {
+        final String namespace;
+        final boolean coalesce;
+        String data;
+        SendListener listener;
+
+        Message(String namespace, String data, boolean coalesce, SendListener listener) {
+            this.namespace = namespace;
+            this.data = data;
+            this.coalesce = coalesce;
+            this.listener = listener;
+        }
+
+        int size() {
+            // The JSON overhead of a message in a frame is about this much
+            return namespace.length() + data.length() + 20;
+        }
+    }
+
+    private static final class Frame {
+        /** The seq sent with the frame, 0 for a message sent on its own namespace. */
+        final int seq;
+        final List<Message> messages;
+        Runnable timeout;
+
+        Frame(int seq, List<Message> messages) {
+            this.seq = seq;
+            this.messages = messages;
+        }
+    }
+
+    private final CastSession session;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** Namespaces whose messages are passed on. */
+    private final Set<String> namespaces = new LinkedHashSet<>();
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    /** namespace -> its waiting coalescing message. */
+    private final Map<String, Message> coalescing = new HashMap<>();
+    /** Frames without ack / send result, oldest first. */
+    private final List<Frame> inFlight = new ArrayList<>(MAX_IN_FLIGHT);
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+    private final Runnable ackRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (ackPending) {
+                sendFrame(null);
+            }
+        }
+    };
+    private int nextSeq = 1;
+    /** Total size of the waiting messages. */
+    private int queuedChars = 0;
+    /** Highest seq received from the receiver. */
+    private int receivedSeq = 0;
+    private boolean ackPending = false;
+    private boolean flushScheduled = false;
+    /** Whether the receiver answered the hello. */
+    private boolean framed = false;
+    private boolean paused = false;
+    private boolean closed = false;
+
+    MessageChannel(@NonNull CastSession session, @NonNull Listener listener) {
+        this.session = session;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts listening on the channel and greets the receiver.
+     */
+    void open() {
+        try {
+            session.setMessageReceivedCallbacks(NAMESPACE, this);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not listen on " + NAMESPACE + ": " + e.getMessage());
+            return;
+        }
+        JSONObject hello = new JSONObject();
+        try {
+            hello.put("hello", PROTOCOL_VERSION);
+        } catch (JSONException e) {
+        }
+        // Fails harmlessly if the receiver does not know the namespace
+        session.sendMessage(NAMESPACE, hello.toString());
+    }
+
+    /**
+     * Passes on the messages of a namespace, whether sent in frames or on the namespace itself.
+     * @param namespace the namespace
+     */
+    void addNamespace(String namespace) {
+        if (closed || !namespaces.add(namespace)) {
+            return;
+        }
+        try {
+            session.setMessageReceivedCallbacks(namespace, this);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not listen on " + namespace + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param namespace the namespace the receiver dispatches the message to
+     * @param message the message
+     * @param coalesce whether the message replaces a waiting message of the same namespace
+     * @param sendListener notified once the message is sent or failed
+     */
+    void send(String namespace, String message, boolean coalesce, @NonNull SendListener sendListener) {
+        if (closed) {
+            sendListener.onResult("session_error");
+            return;
+        }
+        if (coalesce) {
+            Message waiting = coalescing.get(namespace);
+            if (waiting != null) {
+                SendListener replaced = waiting.listener;
+                queuedChars -= waiting.size();
+                waiting.data = message;
+                queuedChars += waiting.size();
+                waiting.listener = sendListener;
+                replaced.onResult(null);
+                return;
+            }
+        }
+        if (queue.size() >= MAX_QUEUED) {
+            sendListener.onResult("backpressure");
+            return;
+        }
+        Message entry = new Message(namespace, message, coalesce, sendListener);
+        queue.add(entry);
+        queuedChars += entry.size();
+        if (coalesce) {
+            coalescing.put(namespace, entry);
+        }
+        updateBackpressure();
+        if (queuedChars >= MAX_FRAME_CHARS) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Stops listening and fails all waiting messages, call when the session ends.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        handler.removeCallbacks(flushRunnable);
+        handler.removeCallbacks(ackRunnable);
+        for (String namespace : namespaces) {
+            removeCallbacks(namespace);
+        }
+        removeCallbacks(NAMESPACE);
+        List<Frame> frames = new ArrayList<>(inFlight);
+        inFlight.clear();
+        for (Frame frame : frames) {
+            handler.removeCallbacks(frame.timeout);
+            finish(frame.messages, "session_error");
+        }
+        List<Message> waiting = new ArrayList<>(queue);
+        queue.clear();
+        queuedChars = 0;
+        coalescing.clear();
+        finish(waiting, "session_error");
+        updateBackpressure();
+    }
+
+    @Override
+    public void onMessageReceived(@NonNull CastDevice castDevice, @NonNull String namespace, @NonNull String message) {
+        if (closed) {
+            return;
+        }
+        if (!NAMESPACE.equals(namespace)) {
+            if (namespaces.contains(namespace)) {
+                listener.onMessage(namespace, message);
+            }
+            return;
+        }
+        JSONObject frame;
+        try {
+            frame = new JSONObject(message);
+        } catch (JSONException e) {
+            Log.w(TAG, "Invalid frame: " + e.getMessage());
+            return;
+        }
+        if (frame.optInt("hello") >= PROTOCOL_VERSION) {
+            // The receiver (re)started its side of the channel
+            receivedSeq = 0;
+            if (!framed) {
+                framed = true;
+                flush();
+            }
+        }
+        if (frame.has("ack")) {
+            onAck(frame.optInt("ack"));
+        }
+        int seq = frame.optInt("seq");
+        if (seq > 0) {
+            if (seq > receivedSeq) {
+                receivedSeq = seq;
+            }
+            if (!ackPending) {
+                ackPending = true;
+                handler.postDelayed(ackRunnable, ACK_DELAY_MS);
+            }
+            dispatch(frame.optJSONArray("messages"));
+        }
+    }
+
+    private void dispatch(JSONArray messages) {
+        if (messages == null) {
+            return;
+        }
+        for (int i = 0; i < messages.length(); i++) {
+            JSONObject entry = messages.optJSONObject(i);
+            if (entry == null) {
+                continue;
+            }
+            String namespace = entry.optString("ns");
+            if (namespaces.contains(namespace)) {
+                listener.onMessage(namespace, entry.optString("data"));
+            }
+        }
+    }
+
+    private void onAck(int ack) {
+        List<Frame> acked = new ArrayList<>();
+        Iterator<Frame> it = inFlight.iterator();
+        while (it.hasNext()) {
+            Frame frame = it.next();
+            if (frame.seq > 0 && frame.seq <= ack) {
+                acked.add(frame);
+                it.remove();
+            }
+        }
+        for (Frame frame : acked) {
+            handler.removeCallbacks(frame.timeout);
+            finish(frame.messages, null);
+        }
+        if (!acked.isEmpty()) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends waiting messages while the receiver keeps up.
+     */
+    private void flush() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        while (!closed && !queue.isEmpty() && inFlight.size() < MAX_IN_FLIGHT) {
+            List<Message> messages = new ArrayList<>();
+            if (framed) {
+                int size = 0;
+                while (!queue.isEmpty() && (messages.isEmpty() || size + queue.peek().size() <= MAX_FRAME_CHARS)) {
+                    Message message = take();
+                    size += message.size();
+                    messages.add(message);
+                }
+            } else {
+                messages.add(take());
+            }
+            sendFrame(messages);
+        }
+        updateBackpressure();
+    }
+
+    private Message take() {
+        Message message = queue.poll();
+        queuedChars -= message.size();
+        if (message.coalesce) {
+            coalescing.remove(message.namespace);
+        }
+        return message;
+    }
+
+    /**
+     * @param messages the messages to send, null for an ack only frame
+     */
+    private void sendFrame(List<Message> messages) {
+        if (messages == null || framed) {
+            sendFramed(messages);
+        } else {
+            sendPlain(messages);
+        }
+    }
+
+    private void sendFramed(List<Message> messages) {
+        JSONObject frame = new JSONObject();
+        final Frame pending = messages != null ? new Frame(nextSeq++, messages) : null;
+        try {
+            if (pending != null) {
+                frame.put("seq", pending.seq);
+                JSONArray entries = new JSONArray();
+                for (Message message : messages) {
+                    entries.put(new JSONObject().put("ns", message.namespace).put("data", message.data));
+                }
+                frame.put("messages", entries);
+            }
+            frame.put("ack", receivedSeq);
+        } catch (JSONException e) {
+            // Not thrown for strings and ints
+        }
+        ackPending = false;
+        handler.removeCallbacks(ackRunnable);
+        if (pending == null) {
+            session.sendMessage(NAMESPACE, frame.toString());
+            return;
+        }
+        track(pending);
+        session.sendMessage(NAMESPACE, frame.toString()).setResultCallback(new ResultCallback<Status>() {
+            @Override
+            public void onResult(@NonNull Status status) {
+                // Success only means it left the device, the frame completes with its ack
+                if (!status.isSuccess()) {
+                    complete(pending, status.toString());
+                }
+            }
+        });
+    }
+
+    private void sendPlain(List<Message> messages) {
+        final Frame pending = new Frame(0, messages);
+        Message message = messages.get(0);
+        track(pending);
+        session.sendMessage(message.namespace, message.data).setResultCallback(new ResultCallback<Status>() {
+            @Override
+            public void onResult(@NonNull Status status) {
+                complete(pending, status.isSuccess() ? null : status.toString());
+            }
+        });
+    }
+
+    private void track(final Frame frame) {
+        frame.timeout = new Runnable() {
+            @Override
+            public void run() {
+                complete(frame, "timeout");
+            }
+        };
+        inFlight.add(frame);
+        handler.postDelayed(frame.timeout, ACK_TIMEOUT_MS);
+    }
+
+    private void complete(Frame frame, String error) {
+        if (!inFlight.remove(frame)) {
+            return;
+        }
+        handler.removeCallbacks(frame.timeout);
+        finish(frame.messages, error);
+        flush();
+    }
+
+    private void updateBackpressure() {
+        int queued = queue.size();
+        if (!paused && queued >= MAX_QUEUED) {
+            paused = true;
+            listener.onBackpressure(true, queued);
+        } else if (paused && queued <= MAX_QUEUED / 2) {
+            paused = false;
+            listener.onBackpressure(false, queued);
+        }
+    }
+
+    private void removeCallbacks(String namespace) {
+        try {
+            session.removeMessageReceivedCallbacks(namespace);
+        } catch (IOException | IllegalArgumentException e) {
+        }
+    }
+
+    private static void finish(List<Message> messages, String error) {
+        for (Message message : messages) {
+            message.listener.onResult(error);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.gameleap.plugins.chromecast;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.cast.MediaMetadata;
+import com.google.android.gms.common.images.WebImage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Converts between the client's metadata objects and {@link MediaMetadata}, driven by the
+ * {@link MetadataKeys} table.
+ *
+ * Well known keys are stored once, with their proper type. A value is also stored as-is
+ * under a prefixed client key (a "spilled" value) when the MediaMetadata can't give it back
+ * exactly:
+ * <ul>
+ *     <li>the media type doesn't carry the key to the receiver (eg. the subtitle of a TV show),</li>
+ *     <li>the value doesn't fit the key's type (eg. a string trackNumber), or fits it only
+ *     after a conversion (eg. a date with milliseconds, a number as the title),</li>
+ *     <li>the client used an alias of the key (eg. originalAirDate for broadcastDate).</li>
+ * </ul>
+ * Custom keys are stored as strings, other values are spilled. String values are spilled
+ * under {@link #CLIENT_KEY_PREFIX}, other values as JSON under {@link #JSON_KEY_PREFIX}, so
+ * metadata reads back the way the client sent it, also after a round trip through the receiver.
+ *
+ * Nothing is thrown for bad values: a value that can't be stored in a key is spilled.
+ */
+final class MetadataCodec {
+    /** Prefix of the client keys whose string values are stored as-is. */
+    static final String CLIENT_KEY_PREFIX = "cordova-plugin-chromecast_metadata_key=";
+    /** Prefix of the client keys whose values are stored as JSON. */
+    static final String JSON_KEY_PREFIX = "cordova-plugin-chromecast_metadata_json=";
+    /** Custom keys must not look like well known keys, MediaMetadata checks their type. */
+    private static final String ANDROID_KEY_PREFIX = "com.google.android.gms.cast.metadata.";
+
+    /** The MediaMetadata setters used to decode client metadata. */
+    interface Target {
+        void putString(String key, String value);
+        void putInt(String key, int value);
+        void putDouble(String key, double value);
+        void putDate(String key, Calendar value);
+        void putTimeMillis(String key, long value);
+        void addImage(String url, int width, int height);
+    }
+
+    /** The MediaMetadata getters used to encode metadata for the client. */
+    interface Source {
+        int getMediaType();
+        Set<String> keySet();
+        @Nullable String getString(String key);
+        int getInt(String key);
+        double getDouble(String key);
+        @Nullable Calendar getDate(String key);
+        long getTimeMillis(String key);
+        /** @return the images as {url, width, height} */
+        JSONArray getImages();
+    }
+
+    private MetadataCodec() {
+        //not called
+    }
+
+    /**
+     * @param metadata the client's metadata, may be null
+     * @return the MediaMetadata
+     */
+    static MediaMetadata toMediaMetadata(@Nullable JSONObject metadata) {
+        int mediaType = mediaType(metadata);
+        MediaMetadata out = new MediaMetadata(mediaType);
+        if (metadata != null) {
+            decode(metadata, mediaType, new SdkMetadata(out));
+        }
+        return out;
+    }
+
+    /**
+     * Writes a MediaMetadata in the client's shape.
+     * @param metadata the metadata, may be null
+     * @param out where the metadata is written
+     * @return out
+     */
+    static <T extends JSONObject> T fromMediaMetadata(@Nullable MediaMetadata metadata, @NonNull T out) {
+        if (metadata != null) {
+            encode(new SdkMetadata(metadata), out);
+        }
+        return out;
+    }
+
+    /**
+     * @param metadata the client's metadata, may be null
+     * @return its metadataType, MEDIA_TYPE_GENERIC if it has none
+     */
+    static int mediaType(@Nullable JSONObject metadata) {
+        return metadata != null ? metadata.optInt("metadataType", MediaMetadata.MEDIA_TYPE_GENERIC) : MediaMetadata.MEDIA_TYPE_GENERIC;
+    }
+
+    /**
+     * Stores the client's metadata.
+     * @param metadata the client's metadata
+     * @param mediaType the media type of the target
+     * @param out the target
+     */
+    static void decode(@NonNull JSONObject metadata, int mediaType, @NonNull Target out) {
+        JSONArray images = metadata.optJSONArray("images");
+        if (images != null) {
+            for (int i = 0; i < images.length(); i++) {
+                JSONObject image = images.optJSONObject(i);
+                String url = image != null ? image.optString("url", null) : null;
+                if (url != null) {
+                    out.addImage(url, image.optInt("width", 0), image.optInt("height", 0));
+                }
+            }
+        }
+        Iterator<String> keys = metadata.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.equals("metadataType") || key.equals("images") || key.equals("type")) {
+                continue;
+            }
+            Object value = metadata.opt(key);
+            if (value == null || value == JSONObject.NULL) {
+                continue;
+            }
+            MetadataKeys.Key known = MetadataKeys.fromClientName(key);
+            if (known == null) {
+                if (value instanceof String && !key.startsWith(ANDROID_KEY_PREFIX)) {
+                    out.putString(key, (String) value);
+                } else {
+                    spill(out, key, value);
+                }
+                continue;
+            }
+            boolean exact = put(out, known, value);
+            if (!exact || !known.isCarriedBy(mediaType) || !known.clientName.equals(key)) {
+                spill(out, key, value);
+            }
+        }
+    }
+
+    /**
+     * Writes metadata in the client's shape.
+     * @param metadata the metadata
+     * @param out where the metadata is written
+     */
+    static void encode(@NonNull Source metadata, @NonNull JSONObject out) {
+        put(out, "images", metadata.getImages());
+        put(out, "metadataType", metadata.getMediaType());
+        put(out, "type", metadata.getMediaType());
+
+        List<String> spilled = null;
+        for (String key : metadata.keySet()) {
+            MetadataKeys.Key known = MetadataKeys.fromAndroidName(key);
+            if (known != null) {
+                try {
+                    get(metadata, known, out);
+                } catch (IllegalArgumentException e) {
+                    // Stored with an unexpected type, skip it
+                }
+            } else if (key.startsWith(CLIENT_KEY_PREFIX) || key.startsWith(JSON_KEY_PREFIX)) {
+                if (spilled == null) {
+                    spilled = new ArrayList<>();
+                }
+                spilled.add(key);
+            } else if (!key.equals("type") && !out.has(key)) {
+                // Custom keys, null if another sender stored a number
+                put(out, key, metadata.getString(key));
+            }
+        }
+        if (spilled == null) {
+            return;
+        }
+        // The client's values of well known keys: string copies only fill in keys the
+        // receiver dropped, values stored as JSON replace converted ones
+        for (String key : spilled) {
+            String value = metadata.getString(key);
+            if (value == null) {
+                continue;
+            }
+            if (key.startsWith(JSON_KEY_PREFIX)) {
+                put(out, key.substring(JSON_KEY_PREFIX.length()), parse(value));
+            } else {
+                String outKey = key.substring(CLIENT_KEY_PREFIX.length());
+                if (!outKey.equals("type") && !out.has(outKey)) {
+                    put(out, outKey, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores a value in a well known key.
+     * @return false if the value was not stored or the key can't give it back exactly
+     */
+    private static boolean put(Target out, MetadataKeys.Key key, Object value) {
+        if (key.type == MetadataKeys.TYPE_STRING) {
+            if (value instanceof String) {
+                out.putString(key.androidName, (String) value);
+                return true;
+            }
+            if (value instanceof Number || value instanceof Boolean) {
+                out.putString(key.androidName, String.valueOf(value));
+            }
+            return false;
+        }
+        if (!(value instanceof Number)) {
+            return false;
+        }
+        Number number = (Number) value;
+        double d = number.doubleValue();
+        long l = number.longValue();
+        boolean integral = l == d;
+        switch (key.type) {
+            case MetadataKeys.TYPE_INT:
+                if (integral && l == (int) l) {
+                    out.putInt(key.androidName, (int) l);
+                    return true;
+                }
+                return false;
+            case MetadataKeys.TYPE_DOUBLE:
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    return false;
+                }
+                out.putDouble(key.androidName, d);
+                return true;
+            case MetadataKeys.TYPE_DATE:
+                if (!integral) {
+                    return false;
+                }
+                GregorianCalendar date = new GregorianCalendar();
+                date.setTimeInMillis(l);
+                out.putDate(key.androidName, date);
+                // Dates are stored with a precision of seconds
+                return l % 1000 == 0;
+            case MetadataKeys.TYPE_MS:
+                if (!integral) {
+                    return false;
+                }
+                out.putTimeMillis(key.androidName, l);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes the value of a well known key.
+     * @throws IllegalArgumentException if it is stored with another type
+     */
+    private static void get(Source metadata, MetadataKeys.Key key, JSONObject out) {
+        switch (key.type) {
+            case MetadataKeys.TYPE_STRING:
+                put(out, key.clientName, metadata.getString(key.androidName));
+                break;
+            case MetadataKeys.TYPE_INT:
+                put(out, key.clientName, metadata.getInt(key.androidName));
+                break;
+            case MetadataKeys.TYPE_DOUBLE:
+                put(out, key.clientName, metadata.getDouble(key.androidName));
+                break;
+            case MetadataKeys.TYPE_DATE:
+                Calendar date = metadata.getDate(key.androidName);
+                if (date != null) {
+                    put(out, key.clientName, date.getTimeInMillis());
+                }
+                break;
+            case MetadataKeys.TYPE_MS:
+                put(out, key.clientName, metadata.getTimeMillis(key.androidName));
+                break;
+            default:
+        }
+    }
+
+    private static void spill(Target out, String key, Object value) {
+        if (value instanceof String) {
+            out.putString(CLIENT_KEY_PREFIX + key, (String) value);
+        } else {
+            out.putString(JSON_KEY_PREFIX + key, value.toString());
+        }
+    }
+
+    private static Object parse(String json) {
+        try {
+            return new JSONTokener(json).nextValue();
+        } catch (JSONException e) {
+            return json;
+        }
+    }
+
+    private static void put(JSONObject out, String key, Object value) {
+        try {
+            out.put(key, value);
+        } catch (JSONException e) {
+            // Not a valid JSON value (eg. NaN), skip it
+        }
+    }
+
+    /** {@link Target} and {@link Source} of a MediaMetadata. */
+    private static final class SdkMetadata implements Target, Source {
+        private final MediaMetadata metadata;
+
+        SdkMetadata(MediaMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            metadata.putString(key, value);
+        }
+
+        @Override
+        public void putInt(String key, int value) {
+            metadata.putInt(key, value);
+        }
+
+        @Override
+        public void putDouble(String key, double value) {
+            metadata.putDouble(key, value);
+        }
+
+        @Override
+        public void putDate(String key, Calendar value) {
+            metadata.putDate(key, value);
+        }
+
+        @Override
+        public void putTimeMillis(String key, long value) {
+            metadata.putTimeMillis(key, value);
+        }
+
+        @Override
+        public void addImage(String url, int width, int height) {
+            metadata.addImage(new WebImage(Uri.parse(url), width, height));
+        }
+
+        @Override
+        public int getMediaType() {
+            return metadata.getMediaType();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return metadata.keySet();
+        }
+
+        @Override
+        public String getString(String key) {
+            return metadata.getString(key);
+        }
+
+        @Override
+        public int getInt(String key) {
+            return metadata.getInt(key);
+        }
+
+        @Override
+        public double getDouble(String key) {
+            return metadata.getDouble(key);
+        }
+
+        @Override
+        public Calendar getDate(String key) {
+            return metadata.getDate(key);
+        }
+
+        @Override
+        public long getTimeMillis(String key) {
+            return metadata.getTimeMillis(key);
+        }
+
+        @Override
+        public JSONArray getImages() {
+            JSONArray out = new JSONArray();
+            List<WebImage> images = metadata.getImages();
+            if (images == null) {
+                return out;
+            }
+            for (WebImage image : images) {
+                JSONObject json = new JSONObject();
+                put(json, "url", image.getUrl().toString());
+                if (image.getWidth() > 0 && image.getHeight() > 0) {
+                    put(json, "width", image.getWidth());
+                    put(json, "height", image.getHeight());
+                }
+                out.put(json);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.gameleap.plugins.chromecast;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.cast.MediaMetadata;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precomputed table of the well known {@link MediaMetadata} keys, with the name the JS side
+ * uses for each one, the type it is stored as and the media types that carry it.
+ *
+ * Replaces the string switches that were evaluated for every key of every metadata object.
+ * Keys are looked up by Android name when writing metadata for the client, and by client
+ * name (or one of its aliases, or the Android name) when reading the client's metadata.
+ */
+final class MetadataKeys {
+    // The numbering follows the MediaMetadata value types
+    static final int TYPE_STRING = 1;
+    static final int TYPE_INT = 2;
+    static final int TYPE_DOUBLE = 3;
+    static final int TYPE_DATE = 4;
+    static final int TYPE_MS = 5;
+
+    // Masks of the media types whose metadata carries a key to the receiver. Keys that are
+    // not carried are dropped from the MediaMetadata sent to the receiver (eg. a subtitle of
+    // a TV show). The sets are those of the receiver's metadata classes, keys the receiver may
+    // or may not keep (eg. the section keys) are treated as not carried.
+    private static final int GENERIC = 1 << MediaMetadata.MEDIA_TYPE_GENERIC;
+    private static final int MOVIE = 1 << MediaMetadata.MEDIA_TYPE_MOVIE;
+    private static final int TV_SHOW = 1 << MediaMetadata.MEDIA_TYPE_TV_SHOW;
+    private static final int MUSIC_TRACK = 1 << MediaMetadata.MEDIA_TYPE_MUSIC_TRACK;
+    private static final int PHOTO = 1 << MediaMetadata.MEDIA_TYPE_PHOTO;
+    private static final int AUDIOBOOK_CHAPTER = 1 << MediaMetadata.MEDIA_TYPE_AUDIOBOOK_CHAPTER;
+    private static final int NONE = 0;
+
+    /** A well known key. */
+    static final class Key {
+        final String androidName;
+        final String clientName;
+        final int type;
+        /** Mask of the media types that carry the key. */
+        private final int carriedBy;
+
+        Key(String androidName, String clientName, int type, int carriedBy) {
+            this.androidName = androidName;
+            this.clientName = clientName;
+            this.type = type;
+            this.carriedBy = carriedBy;
+        }
+
+        /**
+         * @param mediaType a MediaMetadata media type
+         * @return whether metadata of the media type keeps the key on its way to the receiver
+         */
+        boolean isCarriedBy(int mediaType) {
+            return mediaType >= 0 && mediaType < Integer.SIZE && (carriedBy & (1 << mediaType)) != 0;
+        }
+    }
+
+    private static final Map<String, Key> BY_ANDROID_NAME = new HashMap<>();
+    /** Client names, their aliases and the Android names. */
+    private static final Map<String, Key> BY_CLIENT_NAME = new HashMap<>();
+
+    static {
+        add(MediaMetadata.KEY_ALBUM_ARTIST, "albumArtist", TYPE_STRING, MUSIC_TRACK);
+        add(MediaMetadata.KEY_ALBUM_TITLE, "albumName", TYPE_STRING, MUSIC_TRACK);
+        add(MediaMetadata.KEY_ARTIST, "artist", TYPE_STRING, MUSIC_TRACK | PHOTO);
+        add(MediaMetadata.KEY_BOOK_TITLE, "bookTitle", TYPE_STRING, AUDIOBOOK_CHAPTER);
+        add(MediaMetadata.KEY_BROADCAST_DATE, "broadcastDate", TYPE_DATE, TV_SHOW);
+        add(MediaMetadata.KEY_CHAPTER_NUMBER, "chapterNumber", TYPE_STRING, AUDIOBOOK_CHAPTER);
+        add(MediaMetadata.KEY_CHAPTER_TITLE, "chapterTitle", TYPE_STRING, AUDIOBOOK_CHAPTER);
+        add(MediaMetadata.KEY_COMPOSER, "composer", TYPE_STRING, MUSIC_TRACK);
+        add(MediaMetadata.KEY_CREATION_DATE, "creationDate", TYPE_DATE, PHOTO);
+        add(MediaMetadata.KEY_DISC_NUMBER, "discNumber", TYPE_INT, MUSIC_TRACK);
+        add(MediaMetadata.KEY_EPISODE_NUMBER, "episode", TYPE_INT, TV_SHOW);
+        add(MediaMetadata.KEY_HEIGHT, "height", TYPE_INT, PHOTO);
+        add(MediaMetadata.KEY_LOCATION_LATITUDE, "latitude", TYPE_DOUBLE, PHOTO);
+        add(MediaMetadata.KEY_LOCATION_LONGITUDE, "longitude", TYPE_DOUBLE, PHOTO);
+        add(MediaMetadata.KEY_LOCATION_NAME, "location", TYPE_STRING, PHOTO);
+        add(MediaMetadata.KEY_QUEUE_ITEM_ID, "queueItemId", TYPE_INT, NONE);
+        add(MediaMetadata.KEY_RELEASE_DATE, "releaseDate", TYPE_DATE, GENERIC | MOVIE | MUSIC_TRACK);
+        add(MediaMetadata.KEY_SEASON_NUMBER, "season", TYPE_INT, TV_SHOW);
+        add(MediaMetadata.KEY_SECTION_DURATION, "sectionDuration", TYPE_MS, NONE);
+        add(MediaMetadata.KEY_SECTION_START_ABSOLUTE_TIME, "sectionStartAbsoluteTime", TYPE_MS, NONE);
+        add(MediaMetadata.KEY_SECTION_START_TIME_IN_CONTAINER, "sectionStartTimeInContainer", TYPE_MS, NONE);
+        add(MediaMetadata.KEY_SECTION_START_TIME_IN_MEDIA, "sectionStartTimeInMedia", TYPE_MS, NONE);
+        add(MediaMetadata.KEY_SERIES_TITLE, "seriesTitle", TYPE_STRING, TV_SHOW);
+        add(MediaMetadata.KEY_STUDIO, "studio", TYPE_STRING, MOVIE);
+        add(MediaMetadata.KEY_SUBTITLE, "subtitle", TYPE_STRING, GENERIC | MOVIE | AUDIOBOOK_CHAPTER);
+        add(MediaMetadata.KEY_TITLE, "title", TYPE_STRING, GENERIC | MOVIE | TV_SHOW | MUSIC_TRACK | PHOTO | AUDIOBOOK_CHAPTER);
+        add(MediaMetadata.KEY_TRACK_NUMBER, "trackNumber", TYPE_INT, MUSIC_TRACK);
+        add(MediaMetadata.KEY_WIDTH, "width", TYPE_INT, PHOTO);
+        // Names of the receiver's metadata classes
+        alias("creationDateTime", MediaMetadata.KEY_CREATION_DATE);
+        alias("originalAirDate", MediaMetadata.KEY_BROADCAST_DATE);
+        alias("locationName", MediaMetadata.KEY_LOCATION_NAME);
+    }
+
+    private MetadataKeys() {
+        //not called
+    }
+
+    private static void add(String androidName, String clientName, int type, int carriedBy) {
+        Key key = new Key(androidName, clientName, type, carriedBy);
+        BY_ANDROID_NAME.put(androidName, key);
+        BY_CLIENT_NAME.put(clientName, key);
+        BY_CLIENT_NAME.put(androidName, key);
+    }
+
+    private static void alias(String clientName, String androidName) {
+        BY_CLIENT_NAME.put(clientName, BY_ANDROID_NAME.get(androidName));
+    }
+
+    /**
+     * @param androidName a MediaMetadata key
+     * @return the well known key, or null if it is a custom key
+     */
+    @Nullable
+    static Key fromAndroidName(String androidName) {
+        return BY_ANDROID_NAME.get(androidName);
+    }
+
+    /**
+     * @param clientName a key of the client's metadata
+     * @return the well known key, or null if it is a custom key
+     */
+    @Nullable
+    static Key fromClientName(String clientName) {
+        return BY_CLIENT_NAME.get(clientName);
+    }
+}
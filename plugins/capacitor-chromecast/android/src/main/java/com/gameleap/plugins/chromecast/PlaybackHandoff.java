@@ -0,0 +1,358 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaStatus;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Hands playback over between the local player (in the WebView) and the receiver.
+ *
+ * The local player reports its queue, item and position with {@link #setLocalState}. When a
+ * session starts, the receiver is loaded with that queue at the position the local player has
+ * reached by then, plus the receiver's buffer latency. Local audio keeps playing until the
+ * receiver reports PLAYING, then the handoff completes and the local player pauses.
+ *
+ * In the other direction the receiver's item and position are tracked from its status, so
+ * they are known even if the session is lost. The local player resumes from them and the
+ * receiver is only stopped once the local player has started.
+ *
+ * Progress is reported to the {@link Listener} as handoff events:
+ * {direction: "toCast" | "toLocal", state: "started" | "complete" | "failed", index, position,
+ * playing, contentId, error}, where index is the index in the local queue (-1 if the receiver
+ * plays an item the local queue doesn't have) and position is in seconds.
+ *
+ * The tracked receiver state is also what {@link CastPlayback} reports to native code.
+ *
+ * All methods must be called on the main thread.
+ */
+final class PlaybackHandoff {
+    static final String TO_CAST = "toCast";
+    static final String TO_LOCAL = "toLocal";
+    /** Longest wait for the receiver to start playing, or the local player to take over. */
+    static final long HANDOFF_TIMEOUT_MS = 20_000;
+
+    /** Receives handoff events. */
+    interface Listener {
+        void onHandoff(JSONObject event);
+
+        /**
+         * The receiver didn't start playing in time, the local player keeps playing.
+         */
+        void onToCastTimeout();
+    }
+
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /** The local queue (chrome.cast.media.QueueItem[]), null if the local player has none. */
+    private JSONArray localItems;
+    private int localIndex;
+    private String localRepeatMode;
+    private long localPositionMs;
+    private boolean localPlaying;
+    private long localReportedAt;
+
+    /** The receiver's current item, null if it has none. */
+    private String castContentId;
+    private long castPositionMs;
+    private long castDurationMs;
+    private boolean castPlaying;
+    private int castPlayerState = MediaStatus.PLAYER_STATE_UNKNOWN;
+    private long castReportedAt;
+
+    /** Direction of the running handoff, null if none. */
+    private String pending;
+    private int pendingIndex;
+    private double pendingPosition;
+    private boolean pendingPlaying;
+    private String pendingContentId;
+    /** Whether the receiver was loaded and only its PLAYING status is awaited. */
+    private boolean castLoaded;
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            if (TO_CAST.equals(pending)) {
+                fail("timeout");
+                listener.onToCastTimeout();
+            } else if (pending != null) {
+                fail("timeout");
+            }
+        }
+    };
+
+    PlaybackHandoff(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stores what the local player is playing.
+     * @param items chrome.cast.media.QueueItem[], null or empty if the local player has nothing loaded
+     * @param index index of the current item
+     * @param positionMs position in the current item
+     * @param playing whether the local player is playing (its position advances)
+     * @param repeatMode chrome.cast.media.RepeatMode of the local queue
+     */
+    void setLocalState(JSONArray items, int index, long positionMs, boolean playing, String repeatMode) {
+        if (items == null || items.length() == 0 || index < 0 || index >= items.length()) {
+            localItems = null;
+            return;
+        }
+        localItems = items;
+        localIndex = index;
+        localPositionMs = Math.max(0, positionMs);
+        localPlaying = playing;
+        localRepeatMode = repeatMode != null ? repeatMode : "REPEAT_OFF";
+        localReportedAt = SystemClock.elapsedRealtime();
+    }
+
+    boolean hasLocalState() {
+        return localItems != null;
+    }
+
+    boolean isPending() {
+        return pending != null;
+    }
+
+    /**
+     * Starts handing the local queue over to the receiver.
+     * @param bufferLatencyMs how long the receiver takes to start playing an item
+     * @return the chrome.cast.media.QueueLoadRequest to load, or null without local state
+     * @throws JSONException if a local queue item is malformed
+     */
+    JSONObject startToCast(long bufferLatencyMs) throws JSONException {
+        if (localItems == null || pending != null) {
+            return null;
+        }
+        long positionMs = localPositionMs;
+        if (localPlaying) {
+            // Where the local player will be once the receiver is playing
+            positionMs += SystemClock.elapsedRealtime() - localReportedAt + bufferLatencyMs;
+        }
+        JSONObject queueLoadRequest = localQueueLoadRequest(localIndex, positionMs, localPlaying);
+        start(TO_CAST, localIndex, positionMs, localPlaying, localContentId(localIndex));
+        return queueLoadRequest;
+    }
+
+    /**
+     * @param index index of the item to start with
+     * @param positionMs position in that item
+     * @param autoplay whether the item plays once loaded
+     * @return the chrome.cast.media.QueueLoadRequest of the local queue, or null without local
+     * state or if index is out of range
+     * @throws JSONException if a local queue item is malformed
+     */
+    JSONObject localQueueLoadRequest(int index, long positionMs, boolean autoplay) throws JSONException {
+        if (localItems == null || index < 0 || index >= localItems.length()) {
+            return null;
+        }
+        JSONObject startItem = new JSONObject(localItems.getJSONObject(index).toString())
+                .put("startTime", positionMs / 1000.0)
+                .put("autoplay", autoplay);
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < localItems.length(); i++) {
+            items.put(i == index ? startItem : localItems.get(i));
+        }
+        return new JSONObject()
+                .put("items", items)
+                .put("startIndex", index)
+                .put("repeatMode", localRepeatMode);
+    }
+
+    /**
+     * @param index index of an item of the local queue
+     * @return its contentId, null without local state or if index is out of range
+     */
+    String localContentId(int index) {
+        JSONObject item = localItems != null ? localItems.optJSONObject(index) : null;
+        JSONObject media = item != null ? item.optJSONObject("media") : null;
+        return media != null ? media.optString("contentId", null) : null;
+    }
+
+    /**
+     * @param localUrls matches rewritten local file URLs with the local queue
+     * @return what the receiver plays, inactive while it plays nothing or a handoff is running
+     */
+    CastPlayback.State castPlayback(LocalMediaUrls localUrls) {
+        if (castContentId == null || pending != null) {
+            return CastPlayback.State.INACTIVE;
+        }
+        return new CastPlayback.State(true, localIndexOf(castContentId, localUrls), castPositionMs,
+                castDurationMs, castPlaying, castReportedAt);
+    }
+
+    /**
+     * The receiver loaded the local queue. A paused handoff is complete, a playing one
+     * completes once the receiver plays.
+     */
+    void onCastLoaded() {
+        if (!TO_CAST.equals(pending)) {
+            return;
+        }
+        castLoaded = true;
+        if (castContentId != null && (!pendingPlaying || castPlayerState == MediaStatus.PLAYER_STATE_PLAYING)) {
+            complete(castPosition());
+        } else if (!pendingPlaying) {
+            complete((long) (pendingPosition * 1000));
+        }
+    }
+
+    /**
+     * Loading the local queue failed, the local player keeps playing.
+     */
+    void onCastLoadFailed(String error) {
+        if (TO_CAST.equals(pending)) {
+            fail(error);
+        }
+    }
+
+    /**
+     * Tracks the receiver's item and position.
+     * @param status the receiver's media status, null if it has none
+     * @param positionMs the approximate stream position
+     */
+    void onReceiverStatus(MediaStatus status, long positionMs) {
+        MediaInfo media = status != null ? status.getMediaInfo() : null;
+        int playerState = status != null ? status.getPlayerState() : MediaStatus.PLAYER_STATE_IDLE;
+        castPlayerState = playerState;
+        if (media == null || playerState == MediaStatus.PLAYER_STATE_IDLE
+                && status.getIdleReason() != MediaStatus.IDLE_REASON_NONE) {
+            castContentId = null;
+        } else {
+            castContentId = media.getContentId();
+            castPositionMs = positionMs;
+            castDurationMs = Math.max(0, media.getStreamDuration());
+            castPlaying = playerState != MediaStatus.PLAYER_STATE_PAUSED;
+            castReportedAt = SystemClock.elapsedRealtime();
+        }
+        if (TO_CAST.equals(pending) && castLoaded && playerState == MediaStatus.PLAYER_STATE_PLAYING) {
+            complete(positionMs);
+        }
+    }
+
+    /**
+     * Updates the receiver's position from a progress tick.
+     */
+    void onReceiverProgress(long positionMs) {
+        if (castContentId != null) {
+            castPositionMs = positionMs;
+            castReportedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Starts handing the receiver's item over to the local player.
+     * @param localUrls matches rewritten local file URLs with the local queue
+     * @return the started event, or null if the receiver plays nothing
+     */
+    JSONObject startToLocal(LocalMediaUrls localUrls) {
+        if (castContentId == null) {
+            return null;
+        }
+        if (pending != null) {
+            fail("interrupted");
+        }
+        start(TO_LOCAL, localIndexOf(castContentId, localUrls), castPosition(), castPlaying, castContentId);
+        return event("started", null);
+    }
+
+    /**
+     * The local player took over (or the receiver went away), the handoff is complete.
+     * @return whether a handoff to the local player was running
+     */
+    boolean completeToLocal() {
+        if (!TO_LOCAL.equals(pending)) {
+            return false;
+        }
+        // The receiver is stopped next, that is not a loss to hand over
+        castContentId = null;
+        complete((long) (pendingPosition * 1000));
+        return true;
+    }
+
+    /**
+     * The session ended. A handoff to the receiver fails, and if the receiver was playing
+     * without a handoff to the local player running, one is started so the local player
+     * resumes where the receiver stopped.
+     * @param localUrls matches rewritten local file URLs with the local queue
+     */
+    void onSessionEnded(LocalMediaUrls localUrls) {
+        if (TO_CAST.equals(pending)) {
+            fail("session_error");
+        }
+        if (pending == null && castContentId != null) {
+            startToLocal(localUrls);
+        }
+        castContentId = null;
+    }
+
+    private long castPosition() {
+        long positionMs = castPositionMs;
+        if (castPlaying) {
+            positionMs += SystemClock.elapsedRealtime() - castReportedAt;
+        }
+        return positionMs;
+    }
+
+    private int localIndexOf(String contentId, LocalMediaUrls localUrls) {
+        if (localItems == null) {
+            return -1;
+        }
+        for (int i = 0; i < localItems.length(); i++) {
+            if (localUrls.isReceiverUrlOf(contentId, localContentId(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void start(String direction, int index, long positionMs, boolean playing, String contentId) {
+        pending = direction;
+        pendingIndex = index;
+        pendingPosition = positionMs / 1000.0;
+        pendingPlaying = playing;
+        pendingContentId = contentId;
+        castLoaded = false;
+        handler.removeCallbacks(timeout);
+        handler.postDelayed(timeout, HANDOFF_TIMEOUT_MS);
+        listener.onHandoff(event("started", null));
+    }
+
+    private void complete(long positionMs) {
+        pendingPosition = positionMs / 1000.0;
+        finish(event("complete", null));
+    }
+
+    private void fail(String error) {
+        finish(event("failed", error));
+    }
+
+    private void finish(JSONObject event) {
+        handler.removeCallbacks(timeout);
+        pending = null;
+        listener.onHandoff(event);
+    }
+
+    private JSONObject event(String state, String error) {
+        JSONObject event = new JSONObject();
+        try {
+            event.put("direction", pending)
+                    .put("state", state)
+                    .put("index", pendingIndex)
+                    .put("position", pendingPosition)
+                    .put("playing", pendingPlaying)
+                    .put("contentId", pendingContentId);
+            if (error != null) {
+                event.put("error", error);
+            }
+        } catch (JSONException e) {
+        }
+        return event;
+    }
+}
@@ -0,0 +1,253 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaQueueItem;
+import com.google.android.gms.cast.MediaStatus;
+import com.google.android.gms.cast.framework.media.MediaQueue;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Schedules receiver-side preloading of the next queue item.
+ *
+ * The receiver only buffers an item ahead of time if it has a preloadTime (seconds before the
+ * end of the previous item to start loading it). Items without one get a preloadTime derived
+ * from the measured receiver buffer latency: when they are inserted, and when the item before
+ * them starts playing (for items queued by other senders or before the latency was known).
+ * A preloadTime sent by the app is never changed.
+ *
+ * The latency is measured from the media status as the time the receiver spends loading /
+ * buffering an item that was not preloaded, smoothed over several items. The scheduler also
+ * reports preloadedItemId changes and the gap between the end of one item and the start of
+ * the next.
+ *
+ * All methods must be called on the main thread.
+ */
+final class PreloadScheduler {
+    /** Assumed buffer latency until one is measured. */
+    static final long DEFAULT_BUFFER_LATENCY_MS = 3000;
+    /** Bounds of the automatic preloadTime, in seconds. */
+    private static final double MIN_PRELOAD_TIME = 10;
+    private static final double MAX_PRELOAD_TIME = 60;
+    /** Added to twice the latency, so slow starts still finish in time. */
+    private static final double PRELOAD_MARGIN = 5;
+    /** Weight of a new latency sample. */
+    private static final double LATENCY_SMOOTHING = 0.3;
+    /** Longer buffering is assumed to be a stall (eg. network loss), not latency. */
+    private static final long MAX_LATENCY_SAMPLE_MS = 60_000;
+
+    /** Receives preload and transition events. */
+    interface Listener {
+        /**
+         * @param preloadedItemId the item the receiver preloaded, or MediaQueueItem.INVALID_ITEM_ID
+         */
+        void onPreloadedItemChanged(int preloadedItemId);
+
+        /**
+         * @param previousItemId the item that finished
+         * @param itemId the item that started playing
+         * @param gapMs time between the end of the previous item and the start of this one
+         * @param preloaded whether the item had been preloaded
+         * @param bufferLatencyMs the current buffer latency estimate
+         */
+        void onItemTransition(int previousItemId, int itemId, long gapMs, boolean preloaded, long bufferLatencyMs);
+    }
+
+    private final MediaQueue queue;
+    private final Listener listener;
+    private double bufferLatencyMs = DEFAULT_BUFFER_LATENCY_MS;
+
+    private int currentItemId = MediaQueueItem.INVALID_ITEM_ID;
+    private int playerState = MediaStatus.PLAYER_STATE_UNKNOWN;
+    private int preloadedItemId = MediaQueueItem.INVALID_ITEM_ID;
+    /** The last item the receiver reported as preloaded. */
+    private int lastPreloadedItemId = MediaQueueItem.INVALID_ITEM_ID;
+    /** When playback stopped without a pause (eg. the item ended), or -1. */
+    private long leftPlayingAt = -1;
+    /** When the current item started loading / buffering, or -1. */
+    private long bufferingSince = -1;
+    /** The item being transitioned from, or INVALID_ITEM_ID. */
+    private int transitionFrom = MediaQueueItem.INVALID_ITEM_ID;
+    private long transitionStart;
+    private boolean transitionPreloaded;
+    /** Items that were given a preloadTime after they were queued. */
+    private final Set<Integer> scheduled = new HashSet<>();
+
+    PreloadScheduler(@NonNull MediaQueue queue, @NonNull Listener listener) {
+        this.queue = queue;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the buffer latency estimate
+     */
+    long getBufferLatencyMs() {
+        return (long) bufferLatencyMs;
+    }
+
+    /**
+     * Gives the items without a preloadTime one, based on the item before them in the list.
+     * @param items the items in queue order
+     * @return the items, rebuilt where needed
+     */
+    List<MediaQueueItem> withPreloadTimes(List<MediaQueueItem> items) {
+        List<MediaQueueItem> out = new ArrayList<>(items.size());
+        MediaQueueItem previous = null;
+        for (MediaQueueItem item : items) {
+            double preloadTime = hasPreloadTime(item) ? Double.NaN : preloadTimeAfter(previous);
+            out.add(Double.isNaN(preloadTime) ? item : new MediaQueueItem.Builder(item).setPreloadTime(preloadTime).build());
+            previous = item;
+        }
+        return out;
+    }
+
+    /**
+     * Call with every media status update.
+     * @param status the status, may be null
+     * @param batcher used to give the next item a preloadTime
+     */
+    void onStatusUpdated(MediaStatus status, QueueEditBatcher batcher) {
+        if (status == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        int itemId = status.getCurrentItemId();
+        int state = status.getPlayerState();
+
+        if (status.getPreloadedItemId() != preloadedItemId) {
+            preloadedItemId = status.getPreloadedItemId();
+            if (preloadedItemId != MediaQueueItem.INVALID_ITEM_ID) {
+                lastPreloadedItemId = preloadedItemId;
+            }
+            listener.onPreloadedItemChanged(preloadedItemId);
+        }
+
+        if (itemId != currentItemId) {
+            boolean wasPlaying = playerState == MediaStatus.PLAYER_STATE_PLAYING;
+            if (currentItemId != MediaQueueItem.INVALID_ITEM_ID && (wasPlaying || leftPlayingAt != -1)) {
+                transitionFrom = currentItemId;
+                transitionStart = wasPlaying ? now : leftPlayingAt;
+                transitionPreloaded = itemId == lastPreloadedItemId;
+            } else {
+                transitionFrom = MediaQueueItem.INVALID_ITEM_ID;
+            }
+            currentItemId = itemId;
+            bufferingSince = -1;
+            leftPlayingAt = -1;
+            scheduleNext(status, batcher);
+        }
+
+        switch (state) {
+            case MediaStatus.PLAYER_STATE_LOADING:
+            case MediaStatus.PLAYER_STATE_BUFFERING:
+                if (bufferingSince == -1) {
+                    bufferingSince = now;
+                }
+                break;
+            case MediaStatus.PLAYER_STATE_PLAYING:
+                if (bufferingSince != -1) {
+                    // A preloaded item starts without buffering, which says nothing about latency
+                    boolean preloadedStart = transitionFrom != MediaQueueItem.INVALID_ITEM_ID && transitionPreloaded;
+                    addLatencySample(now - bufferingSince, preloadedStart);
+                    bufferingSince = -1;
+                }
+                if (transitionFrom != MediaQueueItem.INVALID_ITEM_ID) {
+                    listener.onItemTransition(transitionFrom, currentItemId, now - transitionStart,
+                            transitionPreloaded, getBufferLatencyMs());
+                    transitionFrom = MediaQueueItem.INVALID_ITEM_ID;
+                }
+                break;
+            case MediaStatus.PLAYER_STATE_PAUSED:
+                // Time spent paused is not a gap
+                transitionFrom = MediaQueueItem.INVALID_ITEM_ID;
+                bufferingSince = -1;
+                break;
+            default:
+                break;
+        }
+        if (playerState == MediaStatus.PLAYER_STATE_PLAYING && state != MediaStatus.PLAYER_STATE_PLAYING) {
+            leftPlayingAt = state == MediaStatus.PLAYER_STATE_PAUSED ? -1 : now;
+        }
+        playerState = state;
+    }
+
+    private void addLatencySample(long sampleMs, boolean preloadedStart) {
+        if (preloadedStart || sampleMs > MAX_LATENCY_SAMPLE_MS) {
+            return;
+        }
+        bufferLatencyMs += LATENCY_SMOOTHING * (sampleMs - bufferLatencyMs);
+    }
+
+    /**
+     * Gives the item after the current one a preloadTime if it has none.
+     */
+    private void scheduleNext(MediaStatus status, QueueEditBatcher batcher) {
+        int index = queue.indexOfItemWithId(currentItemId);
+        if (index == -1 || index + 1 >= queue.getItemCount()) {
+            return;
+        }
+        MediaQueueItem next = queue.getItemAtIndex(index + 1, false);
+        if (next == null || hasPreloadTime(next) || !scheduled.add(next.getItemId())) {
+            return;
+        }
+        MediaQueueItem current = status.getQueueItemById(currentItemId);
+        double preloadTime = preloadTimeAfter(current);
+        if (Double.isNaN(preloadTime)) {
+            return;
+        }
+        try {
+            JSONObject update = new JSONObject()
+                    .put("itemId", next.getItemId())
+                    .put("preloadTime", preloadTime);
+            batcher.update(Collections.singletonList(update), new QueueEditBatcher.ResultListener() {
+                @Override
+                public void onResult(String error) {
+                    // Best effort, the item just plays without preloading
+                }
+            });
+        } catch (JSONException e) {
+        }
+    }
+
+    /**
+     * @param previous the item that plays before, or null if unknown
+     * @return the preloadTime for the item after previous, or NaN if it can't be preloaded
+     */
+    private double preloadTimeAfter(MediaQueueItem previous) {
+        double preloadTime = Math.max(MIN_PRELOAD_TIME,
+                Math.min(MAX_PRELOAD_TIME, 2 * bufferLatencyMs / 1000 + PRELOAD_MARGIN));
+        MediaInfo media = previous != null ? previous.getMedia() : null;
+        if (media == null) {
+            return preloadTime;
+        }
+        if (media.getStreamType() == MediaInfo.STREAM_TYPE_LIVE) {
+            // A live stream has no end to preload before
+            return Double.NaN;
+        }
+        long durationMs = media.getStreamDuration();
+        if (durationMs > 0 && durationMs / 1000.0 < preloadTime) {
+            // Shorter than the preloadTime, start preloading as soon as it plays
+            return durationMs / 1000.0;
+        }
+        return preloadTime;
+    }
+
+    /**
+     * @return true if the item has a usable preloadTime (the default is unset)
+     */
+    private static boolean hasPreloadTime(MediaQueueItem item) {
+        double preloadTime = item.getPreloadTime();
+        return preloadTime > 0 && !Double.isInfinite(preloadTime);
+    }
+}
@@ -0,0 +1,280 @@
+package com.gameleap.plugins.chromecast;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the edits that turn the current queue into the desired queue.
+ *
+ * Items are compared by key (eg. content ID, duplicates allowed). The longest common
+ * subsequence of the two queues stays where it is; it is found with the Hunt-Szymanski
+ * algorithm, which is O((n + r) log n) for r matching pairs, so large queues with few
+ * duplicate keys are cheap. Every other current item is either moved (if the desired queue
+ * still has an unmatched item with its key) or removed, and the remaining desired items are
+ * inserted.
+ *
+ * Edits are grouped so they can be sent as few queue requests as possible:
+ * <ol>
+ *     <li>one removal of all removed items,</li>
+ *     <li>one move per group of moved items that go before the same kept item,</li>
+ *     <li>one insertion per run of consecutive new items.</li>
+ * </ol>
+ * Applied in this order every anchor is an item that already exists on the receiver.
+ */
+final class QueueDiff {
+    /** Anchor value meaning "at the end of the queue". */
+    static final int END = -1;
+
+    /** Moves current items before an anchor. */
+    static final class Move {
+        /** Indexes into the current queue of the items to move, in their new order. */
+        final int[] currentIndexes;
+        /** Index into the current queue of the item to move them before, or {@link #END}. */
+        final int beforeCurrentIndex;
+
+        Move(int[] currentIndexes, int beforeCurrentIndex) {
+            this.currentIndexes = currentIndexes;
+            this.beforeCurrentIndex = beforeCurrentIndex;
+        }
+    }
+
+    /** Inserts desired items before an anchor. */
+    static final class Insert {
+        /** Indexes into the desired queue of the items to insert, in order. */
+        final int[] desiredIndexes;
+        /** Index into the current queue of the item to insert them before, or {@link #END}. */
+        final int beforeCurrentIndex;
+
+        Insert(int[] desiredIndexes, int beforeCurrentIndex) {
+            this.desiredIndexes = desiredIndexes;
+            this.beforeCurrentIndex = beforeCurrentIndex;
+        }
+    }
+
+    /** Indexes into the current queue of the items to remove. */
+    final int[] removedIndexes;
+    final List<Move> moves;
+    final List<Insert> inserts;
+
+    private QueueDiff(int[] removedIndexes, List<Move> moves, List<Insert> inserts) {
+        this.removedIndexes = removedIndexes;
+        this.moves = moves;
+        this.inserts = inserts;
+    }
+
+    /**
+     * @return true if the queues are already equal
+     */
+    boolean isEmpty() {
+        return removedIndexes.length == 0 && moves.isEmpty() && inserts.isEmpty();
+    }
+
+    /**
+     * @param current the keys of the current queue, in order
+     * @param desired the keys of the desired queue, in order
+     * @param <K> the key type, compared with equals
+     * @return the edits
+     */
+    static <K> QueueDiff compute(List<K> current, List<K> desired) {
+        int n = current.size();
+        int m = desired.size();
+        // For each desired item, the current item it maps to, or -1 if it is new
+        int[] source = new int[m];
+        Arrays.fill(source, -1);
+        // Whether a current item is part of the common subsequence (stays in place)
+        boolean[] kept = new boolean[n];
+        boolean[] used = new boolean[n];
+
+        Map<K, int[]> positions = indexPositions(current);
+        for (int[] pair : longestCommonSubsequence(desired, positions)) {
+            kept[pair[0]] = true;
+            used[pair[0]] = true;
+            source[pair[1]] = pair[0];
+        }
+
+        // Pair the remaining desired items with unused current items of the same key (moves)
+        Map<K, ArrayDeque<Integer>> unused = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (!used[i]) {
+                ArrayDeque<Integer> queue = unused.get(current.get(i));
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    unused.put(current.get(i), queue);
+                }
+                queue.add(i);
+            }
+        }
+        for (int j = 0; j < m; j++) {
+            if (source[j] != -1) {
+                continue;
+            }
+            ArrayDeque<Integer> queue = unused.get(desired.get(j));
+            if (queue != null && !queue.isEmpty()) {
+                int i = queue.poll();
+                source[j] = i;
+                used[i] = true;
+            }
+        }
+
+        int removedCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (!used[i]) {
+                removedCount++;
+            }
+        }
+        int[] removed = new int[removedCount];
+        for (int i = 0, r = 0; i < n; i++) {
+            if (!used[i]) {
+                removed[r++] = i;
+            }
+        }
+
+        // Moves: group moved items by the next kept item that follows them in the desired order
+        List<Move> moves = new ArrayList<>();
+        List<Integer> group = new ArrayList<>();
+        for (int j = 0; j <= m; j++) {
+            boolean isKept = j < m && source[j] != -1 && kept[source[j]];
+            if (j == m || isKept) {
+                if (!group.isEmpty()) {
+                    moves.add(new Move(toArray(group), j == m ? END : source[j]));
+                    group.clear();
+                }
+            } else if (source[j] != -1) {
+                group.add(source[j]);
+            }
+        }
+
+        // Inserts: one per run of new items, before the next existing item
+        List<Insert> inserts = new ArrayList<>();
+        List<Integer> run = new ArrayList<>();
+        for (int j = 0; j <= m; j++) {
+            if (j < m && source[j] == -1) {
+                run.add(j);
+            } else if (!run.isEmpty()) {
+                inserts.add(new Insert(toArray(run), j == m ? END : source[j]));
+                run.clear();
+            }
+        }
+
+        return new QueueDiff(removed, moves, inserts);
+    }
+
+    /**
+     * @return key -> ascending indexes of the items with that key
+     */
+    private static <K> Map<K, int[]> indexPositions(List<K> current) {
+        Map<K, List<Integer>> lists = new HashMap<>();
+        for (int i = 0; i < current.size(); i++) {
+            List<Integer> list = lists.get(current.get(i));
+            if (list == null) {
+                list = new ArrayList<>(1);
+                lists.put(current.get(i), list);
+            }
+            list.add(i);
+        }
+        Map<K, int[]> out = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<K, List<Integer>> entry : lists.entrySet()) {
+            out.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return out;
+    }
+
+    /**
+     * Hunt-Szymanski: a longest increasing subsequence over the matching (current, desired)
+     * index pairs, visiting the current indexes of each desired item in descending order so
+     * at most one of them is used.
+     * @return the matched [currentIndex, desiredIndex] pairs, in order
+     */
+    private static <K> List<int[]> longestCommonSubsequence(List<K> desired, Map<K, int[]> positions) {
+        // tails[k]: smallest current index that ends a common subsequence of length k + 1
+        int[] tails = new int[desired.size()];
+        // tailNodes[k]: the node of that subsequence end
+        int[] tailNodes = new int[desired.size()];
+        int length = 0;
+        // Nodes of the chains: current index, desired index, previous node
+        IntList nodeCurrent = new IntList();
+        IntList nodeDesired = new IntList();
+        IntList nodePrevious = new IntList();
+
+        for (int j = 0; j < desired.size(); j++) {
+            int[] matches = positions.get(desired.get(j));
+            if (matches == null) {
+                continue;
+            }
+            for (int p = matches.length - 1; p >= 0; p--) {
+                int i = matches[p];
+                int k = lowerBound(tails, length, i);
+                if (k < length && tails[k] == i) {
+                    continue;
+                }
+                int node = nodeCurrent.size();
+                nodeCurrent.add(i);
+                nodeDesired.add(j);
+                nodePrevious.add(k > 0 ? tailNodes[k - 1] : -1);
+                tails[k] = i;
+                tailNodes[k] = node;
+                if (k == length) {
+                    length++;
+                }
+            }
+        }
+
+        List<int[]> out = new ArrayList<>(length);
+        for (int node = length > 0 ? tailNodes[length - 1] : -1; node != -1; node = nodePrevious.get(node)) {
+            out.add(new int[] {nodeCurrent.get(node), nodeDesired.get(node)});
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    /**
+     * @return the first index k in [0, length) with values[k] >= value, or length
+     */
+    private static int lowerBound(int[] values, int length, int value) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] out = new int[list.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = list.get(i);
+        }
+        return out;
+    }
+
+    /** Growable int array, avoids boxing in the LCS inner loop. */
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
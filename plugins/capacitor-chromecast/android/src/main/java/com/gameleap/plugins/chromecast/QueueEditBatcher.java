@@ -0,0 +1,320 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.cast.MediaQueueItem;
+import com.google.android.gms.cast.framework.media.MediaQueue;
+import com.google.android.gms.cast.framework.media.RemoteMediaClient;
+import com.google.android.gms.cast.framework.media.RemoteMediaClient.MediaChannelResult;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batches queue edits (insert, remove, reorder, update) for one RemoteMediaClient.
+ *
+ * Edits are held for {@link #COALESCE_WINDOW_MS}; consecutive edits of the same kind that can be
+ * expressed as one request are merged (eg. several inserts before the same item become one
+ * queueInsertItems). The resulting requests are then sent one at a time in submission order,
+ * so edits of different kinds still apply in the order they were made.
+ *
+ * All methods must be called on the main thread.
+ */
+final class QueueEditBatcher {
+    /** How long edits are held to be merged with following edits. */
+    static final long COALESCE_WINDOW_MS = 50;
+
+    /** Receives the outcome of an edit. */
+    interface ResultListener {
+        /**
+         * @param error null if the edit was applied, otherwise the error
+         */
+        void onResult(String error);
+    }
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int REORDER = 2;
+    private static final int UPDATE = 3;
+
+    /** One receiver request, possibly made of several merged edits. */
+    private static final class Edit {
+        final int type;
+        /** The item to insert / move before (insert and reorder). */
+        final int insertBeforeItemId;
+        /** Items to insert. */
+        final List<MediaQueueItem> items = new ArrayList<>();
+        /** Items to remove or move, in order. */
+        final LinkedHashSet<Integer> itemIds = new LinkedHashSet<>();
+        /** itemId -> changed fields (update). */
+        final LinkedHashMap<Integer, JSONObject> updates = new LinkedHashMap<>();
+        final List<ResultListener> listeners = new ArrayList<>();
+
+        Edit(int type, int insertBeforeItemId) {
+            this.type = type;
+            this.insertBeforeItemId = insertBeforeItemId;
+        }
+
+        void finish(String error) {
+            for (ResultListener listener : listeners) {
+                listener.onResult(error);
+            }
+        }
+    }
+
+    private final RemoteMediaClient client;
+    /** Gives inserted items without a preloadTime one. */
+    private final PreloadScheduler preloadScheduler;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Edit> pending = new ArrayList<>();
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            sendNext();
+        }
+    };
+    /** Whether a request is in flight. */
+    private boolean sending = false;
+    private boolean released = false;
+
+    QueueEditBatcher(@NonNull RemoteMediaClient client, @NonNull PreloadScheduler preloadScheduler) {
+        this.client = client;
+        this.preloadScheduler = preloadScheduler;
+    }
+
+    /**
+     * @param items the items to insert
+     * @param insertBeforeItemId the item to insert before, or MediaQueueItem.INVALID_ITEM_ID to append
+     * @param listener notified when the items have been inserted
+     */
+    void insert(List<MediaQueueItem> items, int insertBeforeItemId, ResultListener listener) {
+        Edit edit = last(INSERT, insertBeforeItemId);
+        if (edit == null) {
+            edit = add(new Edit(INSERT, insertBeforeItemId));
+        }
+        edit.items.addAll(items);
+        edit.listeners.add(listener);
+        schedule();
+    }
+
+    /**
+     * @param itemIds the items to remove
+     * @param listener notified when the items have been removed
+     */
+    void remove(int[] itemIds, ResultListener listener) {
+        Edit edit = last(REMOVE, MediaQueueItem.INVALID_ITEM_ID);
+        if (edit == null) {
+            edit = add(new Edit(REMOVE, MediaQueueItem.INVALID_ITEM_ID));
+        }
+        for (int itemId : itemIds) {
+            edit.itemIds.add(itemId);
+        }
+        edit.listeners.add(listener);
+        schedule();
+    }
+
+    /**
+     * @param itemIds the items to move, in their new order
+     * @param insertBeforeItemId the item to move them before, or MediaQueueItem.INVALID_ITEM_ID
+     *                           to move them to the end
+     * @param listener notified when the items have been moved
+     */
+    void reorder(int[] itemIds, int insertBeforeItemId, ResultListener listener) {
+        Edit edit = last(REORDER, insertBeforeItemId);
+        // Moving [a] then [b] before X equals moving [a, b] before X, unless an item is moved twice
+        if (edit != null) {
+            for (int itemId : itemIds) {
+                if (edit.itemIds.contains(itemId)) {
+                    edit = null;
+                    break;
+                }
+            }
+        }
+        if (edit == null) {
+            edit = add(new Edit(REORDER, insertBeforeItemId));
+        }
+        for (int itemId : itemIds) {
+            edit.itemIds.add(itemId);
+        }
+        edit.listeners.add(listener);
+        schedule();
+    }
+
+    /**
+     * @param updates the changed fields of each item (autoplay, preloadTime, startTime,
+     *                playbackDuration, activeTrackIds, customData), each with its itemId
+     * @param listener notified when the items have been updated
+     * @throws JSONException if an update has no itemId
+     */
+    void update(List<JSONObject> updates, ResultListener listener) throws JSONException {
+        int[] itemIds = new int[updates.size()];
+        for (int i = 0; i < itemIds.length; i++) {
+            itemIds[i] = updates.get(i).getInt("itemId");
+        }
+        Edit edit = last(UPDATE, MediaQueueItem.INVALID_ITEM_ID);
+        if (edit == null) {
+            edit = add(new Edit(UPDATE, MediaQueueItem.INVALID_ITEM_ID));
+        }
+        for (int i = 0; i < itemIds.length; i++) {
+            JSONObject update = updates.get(i);
+            int itemId = itemIds[i];
+            JSONObject merged = edit.updates.get(itemId);
+            if (merged == null) {
+                merged = new JSONObject();
+                edit.updates.put(itemId, merged);
+            }
+            // Later changes to the same item win
+            Iterator<String> keys = update.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                merged.put(key, update.get(key));
+            }
+        }
+        edit.listeners.add(listener);
+        schedule();
+    }
+
+    /**
+     * Fails all edits that were not sent yet, eg. when the session ends.
+     */
+    void release() {
+        released = true;
+        handler.removeCallbacks(flush);
+        for (Edit edit : pending) {
+            edit.finish("session_error");
+        }
+        pending.clear();
+    }
+
+    /**
+     * @return the last pending edit if it has the type and anchor, otherwise null
+     */
+    private Edit last(int type, int insertBeforeItemId) {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        Edit edit = pending.get(pending.size() - 1);
+        return edit.type == type && edit.insertBeforeItemId == insertBeforeItemId ? edit : null;
+    }
+
+    private Edit add(Edit edit) {
+        pending.add(edit);
+        return edit;
+    }
+
+    private void schedule() {
+        if (!sending) {
+            handler.removeCallbacks(flush);
+            handler.postDelayed(flush, COALESCE_WINDOW_MS);
+        }
+    }
+
+    private void sendNext() {
+        if (released || pending.isEmpty()) {
+            sending = false;
+            return;
+        }
+        sending = true;
+        final Edit edit = pending.remove(0);
+        PendingResult<MediaChannelResult> request;
+        try {
+            request = send(edit);
+        } catch (JSONException | IllegalArgumentException e) {
+            edit.finish("invalid_parameter: " + e.getMessage());
+            sendNext();
+            return;
+        }
+        request.setResultCallback(new ResultCallback<MediaChannelResult>() {
+            @Override
+            public void onResult(@NonNull MediaChannelResult result) {
+                if (result.getStatus().isSuccess()) {
+                    edit.finish(null);
+                } else {
+                    JSONObject errorResult = result.getCustomData();
+                    edit.finish("session_error" + (errorResult != null ? "\nError details: " + errorResult : ""));
+                }
+                sendNext();
+            }
+        });
+    }
+
+    private PendingResult<MediaChannelResult> send(Edit edit) throws JSONException {
+        switch (edit.type) {
+            case INSERT:
+                List<MediaQueueItem> items = preloadScheduler.withPreloadTimes(edit.items);
+                return client.queueInsertItems(items.toArray(new MediaQueueItem[0]), edit.insertBeforeItemId, null);
+            case REMOVE:
+                return client.queueRemoveItems(toArray(edit.itemIds), null);
+            case REORDER:
+                return client.queueReorderItems(toArray(edit.itemIds), edit.insertBeforeItemId, null);
+            case UPDATE:
+            default:
+                return client.queueUpdateItems(createUpdatedItems(edit.updates), null);
+        }
+    }
+
+    /**
+     * Applies the changes to the receiver's current version of each item.
+     */
+    private MediaQueueItem[] createUpdatedItems(Map<Integer, JSONObject> updates) throws JSONException {
+        MediaQueue queue = client.getMediaQueue();
+        MediaQueueItem[] out = new MediaQueueItem[updates.size()];
+        int i = 0;
+        for (Map.Entry<Integer, JSONObject> entry : updates.entrySet()) {
+            int index = queue.indexOfItemWithId(entry.getKey());
+            MediaQueueItem current = index != -1 ? queue.getItemAtIndex(index, false) : null;
+            if (current == null) {
+                throw new JSONException("Item " + entry.getKey() + " is not in the loaded queue");
+            }
+            JSONObject changes = entry.getValue();
+            MediaQueueItem.Builder builder = new MediaQueueItem.Builder(current);
+            if (changes.has("autoplay")) {
+                builder.setAutoplay(changes.getBoolean("autoplay"));
+            }
+            if (changes.has("preloadTime")) {
+                builder.setPreloadTime(changes.getDouble("preloadTime"));
+            }
+            if (changes.has("startTime")) {
+                builder.setStartTime(changes.getDouble("startTime"));
+            }
+            if (changes.has("playbackDuration")) {
+                builder.setPlaybackDuration(changes.getDouble("playbackDuration"));
+            }
+            if (changes.has("customData")) {
+                builder.setCustomData(changes.optJSONObject("customData"));
+            }
+            if (changes.has("activeTrackIds")) {
+                JSONArray trackIds = changes.getJSONArray("activeTrackIds");
+                long[] activeTrackIds = new long[trackIds.length()];
+                for (int t = 0; t < activeTrackIds.length; t++) {
+                    activeTrackIds[t] = trackIds.getLong(t);
+                }
+                builder.setActiveTrackIds(activeTrackIds);
+            }
+            out[i++] = builder.build();
+        }
+        return out;
+    }
+
+    private static int[] toArray(LinkedHashSet<Integer> itemIds) {
+        int[] out = new int[itemIds.size()];
+        int i = 0;
+        for (int itemId : itemIds) {
+            out[i++] = itemId;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,382 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import com.google.android.gms.cast.MediaQueueItem;
+import com.google.android.gms.cast.framework.media.MediaQueue;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Paged read access to the whole cast queue.
+ *
+ * Items are read through {@link MediaQueue#getItemAtIndex(int, boolean)}, which fetches missing
+ * items from the receiver in the background; reads that are waiting for items complete when
+ * they arrive (itemsUpdatedAtIndexes). After every page the following page is requested as a
+ * prefetch hint, so scrolling forward rarely has to wait.
+ *
+ * Decoded items are cached per item ID without their position, so inserts, removes and
+ * reorders don't invalidate them; only items reported as updated are decoded again. The
+ * content ID of every item seen is kept as well (it is small), so the whole queue can be
+ * compared with the app's queue without keeping every decoded item.
+ *
+ * All methods must be called on the main thread, where MediaQueue delivers its callbacks.
+ */
+final class QueuePager extends MediaQueue.Callback {
+    /** Maximum number of decoded items kept. */
+    private static final int MAX_CACHED_ITEMS = 500;
+    /** How long a read waits for missing items before giving up. */
+    private static final long READ_TIMEOUT_MS = 10_000;
+
+    /** Receives a page of items. */
+    interface PageListener {
+        /**
+         * @param page {offset, totalCount, complete, items}
+         */
+        void onPage(JSObject page);
+
+        /**
+         * @param error why the page can't be read anymore
+         */
+        void onError(String error);
+    }
+
+    /** Receives the content IDs of the whole queue. */
+    interface ContentIdsListener {
+        /**
+         * @param itemIds the item IDs, in queue order
+         * @param contentIds the content ID of each item
+         */
+        void onContentIds(int[] itemIds, List<String> contentIds);
+
+        /**
+         * @param error why the queue can't be read
+         */
+        void onError(String error);
+    }
+
+    /** A read waiting for items to be fetched, runs as its own timeout. */
+    private abstract class PendingRead implements Runnable {
+        /**
+         * @return true if all items needed are available, missing items are requested
+         */
+        abstract boolean isReady();
+
+        /**
+         * @param complete false if the read timed out
+         */
+        abstract void complete(boolean complete);
+
+        abstract void fail(String error);
+
+        @Override
+        public void run() {
+            if (pendingReads.remove(this)) {
+                complete(false);
+            }
+        }
+    }
+
+    private final MediaQueue queue;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** itemId -> decoded item (without orderId), least recently used first. */
+    private final LinkedHashMap<Integer, JSONObject> decoded = new LinkedHashMap<Integer, JSONObject>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, JSONObject> eldest) {
+            return size() > MAX_CACHED_ITEMS;
+        }
+    };
+    /** itemId -> content ID, for every queued item seen. */
+    private final Map<Integer, String> contentIds = new HashMap<>();
+    private final List<PendingRead> pendingReads = new ArrayList<>();
+
+    QueuePager(@NonNull MediaQueue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Resolves the call with the items in [offset, offset + limit), as soon as all of them are
+     * available. Resolves with {@code complete: false} and the available items if the receiver
+     * doesn't deliver them in time.
+     * @param offset index of the first item
+     * @param limit maximum number of items
+     * @param call resolved with {offset, totalCount, complete, items}
+     */
+    void getItems(int offset, int limit, final PluginCall call) {
+        getItems(offset, limit, new PageListener() {
+            @Override
+            public void onPage(JSObject page) {
+                call.resolve(page);
+            }
+
+            @Override
+            public void onError(String error) {
+                call.reject(error);
+            }
+        });
+    }
+
+    /**
+     * @see #getItems(int, int, PluginCall)
+     */
+    void getItems(int offset, int limit, final PageListener listener) {
+        final int start = Math.max(0, offset);
+        final int count = Math.max(0, limit);
+        submit(new PendingRead() {
+            @Override
+            boolean isReady() {
+                return isPageAvailable(start, count);
+            }
+
+            @Override
+            void complete(boolean complete) {
+                listener.onPage(readPage(start, count, complete));
+            }
+
+            @Override
+            void fail(String error) {
+                listener.onError(error);
+            }
+        });
+        prefetch(start + count, count);
+    }
+
+    /**
+     * Calls the listener with the content ID of every queued item, once all of them are known.
+     * Fails with "timeout" if the receiver doesn't deliver the missing items in time.
+     * @param listener the listener
+     */
+    void getContentIds(final ContentIdsListener listener) {
+        submit(new PendingRead() {
+            @Override
+            boolean isReady() {
+                boolean ready = true;
+                int count = queue.getItemCount();
+                for (int i = 0; i < count; i++) {
+                    if (contentIds.containsKey(queue.itemIdAtIndex(i))) {
+                        continue;
+                    }
+                    MediaQueueItem item = queue.getItemAtIndex(i, true);
+                    if (item != null) {
+                        remember(item);
+                    } else {
+                        ready = false;
+                    }
+                }
+                return ready;
+            }
+
+            @Override
+            void complete(boolean complete) {
+                if (!complete) {
+                    listener.onError("timeout");
+                    return;
+                }
+                int[] itemIds = queue.getItemIds();
+                List<String> out = new ArrayList<>(itemIds.length);
+                for (int itemId : itemIds) {
+                    out.add(contentIds.get(itemId));
+                }
+                listener.onContentIds(itemIds, out);
+            }
+
+            @Override
+            void fail(String error) {
+                listener.onError(error);
+            }
+        });
+    }
+
+    /**
+     * Decodes a queue item, or returns the cached decoding.
+     * @param item the item
+     * @param index the current index of the item
+     * @return the item with its orderId
+     */
+    JSONObject decode(@NonNull MediaQueueItem item, int index) {
+        JSONObject cached = decoded.get(item.getItemId());
+        if (cached == null) {
+            cached = ChromecastUtilities.createQueueItem(item, index);
+            cached.remove("orderId");
+            decoded.put(item.getItemId(), cached);
+            remember(item);
+        }
+        return withOrderId(cached, index);
+    }
+
+    /**
+     * Drops the cache and fails pending reads, eg. when the queue is replaced.
+     */
+    void release() {
+        decoded.clear();
+        contentIds.clear();
+        for (PendingRead read : pendingReads) {
+            handler.removeCallbacks(read);
+            read.fail("session_error");
+        }
+        pendingReads.clear();
+    }
+
+    private void submit(PendingRead read) {
+        if (read.isReady()) {
+            read.complete(true);
+        } else {
+            pendingReads.add(read);
+            handler.postDelayed(read, READ_TIMEOUT_MS);
+        }
+    }
+
+    private void remember(MediaQueueItem item) {
+        contentIds.put(item.getItemId(), item.getMedia() != null ? item.getMedia().getContentId() : "");
+    }
+
+    /**
+     * @return true if every item of the page is cached here or in the MediaQueue. Missing items
+     * are requested from the receiver.
+     */
+    private boolean isPageAvailable(int offset, int limit) {
+        int end = end(offset, limit);
+        boolean available = true;
+        for (int i = offset; i < end; i++) {
+            if (decoded.containsKey(queue.itemIdAtIndex(i))) {
+                continue;
+            }
+            if (queue.getItemAtIndex(i, true) == null) {
+                available = false;
+            }
+        }
+        return available;
+    }
+
+    private JSObject readPage(int offset, int limit, boolean complete) {
+        int totalCount = queue.getItemCount();
+        int end = end(offset, limit);
+        JSArray items = new JSArray();
+        for (int i = offset; i < end; i++) {
+            JSONObject cached = decoded.get(queue.itemIdAtIndex(i));
+            if (cached != null) {
+                items.put(withOrderId(cached, i));
+                continue;
+            }
+            MediaQueueItem item = queue.getItemAtIndex(i, false);
+            if (item != null) {
+                items.put(decode(item, i));
+            }
+        }
+        JSObject out = new JSObject();
+        out.put("offset", offset);
+        out.put("totalCount", totalCount);
+        out.put("complete", complete);
+        out.put("items", items);
+        return out;
+    }
+
+    /**
+     * @return the end of [offset, offset + limit) clamped to the queue, without overflowing
+     */
+    private int end(int offset, int limit) {
+        return (int) Math.min((long) offset + limit, queue.getItemCount());
+    }
+
+    /**
+     * Copies the top level so the cached object never carries a position.
+     */
+    private static JSONObject withOrderId(JSONObject cached, int index) {
+        JSObject out = new JSObject();
+        Iterator<String> keys = cached.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            out.put(key, cached.opt(key));
+        }
+        out.put("orderId", index);
+        return out;
+    }
+
+    /**
+     * Asks the MediaQueue to fetch the given range if it doesn't have it.
+     */
+    private void prefetch(int offset, int limit) {
+        int end = end(offset, limit);
+        for (int i = offset; i < end; i++) {
+            if (!decoded.containsKey(queue.itemIdAtIndex(i))) {
+                queue.getItemAtIndex(i, true);
+            }
+        }
+    }
+
+    /**
+     * Completes the pending reads whose items are now all available.
+     */
+    private void retryPendingReads() {
+        // A completed read may start another one, so iterate over a copy
+        for (PendingRead read : new ArrayList<>(pendingReads)) {
+            if (pendingReads.contains(read) && read.isReady()) {
+                pendingReads.remove(read);
+                handler.removeCallbacks(read);
+                read.complete(true);
+            }
+        }
+    }
+
+    @Override
+    public void itemsReloaded() {
+        decoded.clear();
+        contentIds.clear();
+        retryPendingReads();
+    }
+
+    @Override
+    public void itemsUpdatedAtIndexes(int[] indexes) {
+        // Called both for changed items and for items that were just fetched, either way
+        // the MediaQueue now holds the version to use
+        for (int index : indexes) {
+            int itemId = queue.itemIdAtIndex(index);
+            decoded.remove(itemId);
+            MediaQueueItem item = queue.getItemAtIndex(index, false);
+            if (item != null) {
+                remember(item);
+            } else {
+                contentIds.remove(itemId);
+            }
+        }
+        retryPendingReads();
+    }
+
+    @Override
+    public void itemsInsertedInRange(int startIndex, int insertCount) {
+        // Existing items keep their IDs, only the pending pages shifted
+        retryPendingReads();
+    }
+
+    @Override
+    public void itemsRemovedAtIndexes(int[] indexes) {
+        // The removed IDs can't be looked up by index anymore, so keep the IDs still queued
+        Set<Integer> remaining = new HashSet<>();
+        for (int itemId : queue.getItemIds()) {
+            remaining.add(itemId);
+        }
+        decoded.keySet().retainAll(remaining);
+        contentIds.keySet().retainAll(remaining);
+        retryPendingReads();
+    }
+
+    @Override
+    public void itemsReorderedAtIndexes(List<Integer> indexes, int insertBeforeIndex) {
+        retryPendingReads();
+    }
+}
@@ -0,0 +1,127 @@
+package com.gameleap.plugins.chromecast;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.cast.MediaQueueItem;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the receiver queue in line with the app's queue with as few edits as possible.
+ *
+ * Items are matched by their media contentId: the content IDs of the receiver queue are read
+ * through {@link QueuePager}, diffed against the desired items with {@link QueueDiff}, and the
+ * resulting remove / move / insert edits are sent through {@link QueueEditBatcher}.
+ *
+ * Must be used on the main thread.
+ */
+final class QueueReconciler {
+    private QueueReconciler() {
+        //not called
+    }
+
+    /**
+     * @param desiredItems chrome.cast.media.QueueItem[] in the desired order
+     * @param pager reads the current receiver queue
+     * @param batcher sends the edits
+     * @param listener notified once all edits are applied, with the first error if any
+     */
+    static void reconcile(final JSONArray desiredItems, @NonNull QueuePager pager,
+                          @NonNull final QueueEditBatcher batcher, @NonNull final QueueEditBatcher.ResultListener listener) {
+        final List<String> desired;
+        try {
+            desired = contentIds(desiredItems);
+        } catch (JSONException e) {
+            listener.onResult("invalid_parameter: " + e.getMessage());
+            return;
+        }
+        pager.getContentIds(new QueuePager.ContentIdsListener() {
+            @Override
+            public void onContentIds(int[] itemIds, List<String> current) {
+                try {
+                    apply(QueueDiff.compute(current, desired), itemIds, desiredItems, batcher, listener);
+                } catch (JSONException e) {
+                    listener.onResult("invalid_parameter: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public void onError(String error) {
+                listener.onResult(error);
+            }
+        });
+    }
+
+    private static void apply(QueueDiff diff, int[] itemIds, JSONArray desiredItems,
+                              QueueEditBatcher batcher, QueueEditBatcher.ResultListener listener) throws JSONException {
+        if (diff.isEmpty()) {
+            listener.onResult(null);
+            return;
+        }
+        // Build everything first so a bad item doesn't leave the queue half edited
+        List<List<MediaQueueItem>> inserts = new ArrayList<>(diff.inserts.size());
+        for (QueueDiff.Insert insert : diff.inserts) {
+            List<MediaQueueItem> items = new ArrayList<>(insert.desiredIndexes.length);
+            for (int index : insert.desiredIndexes) {
+                items.add(ChromecastUtilities.createMediaQueueItem(desiredItems.getJSONObject(index)));
+            }
+            inserts.add(items);
+        }
+
+        int edits = (diff.removedIndexes.length > 0 ? 1 : 0) + diff.moves.size() + diff.inserts.size();
+        QueueEditBatcher.ResultListener joined = join(edits, listener);
+        if (diff.removedIndexes.length > 0) {
+            batcher.remove(toItemIds(diff.removedIndexes, itemIds), joined);
+        }
+        for (QueueDiff.Move move : diff.moves) {
+            batcher.reorder(toItemIds(move.currentIndexes, itemIds), toItemId(move.beforeCurrentIndex, itemIds), joined);
+        }
+        for (int i = 0; i < inserts.size(); i++) {
+            batcher.insert(inserts.get(i), toItemId(diff.inserts.get(i).beforeCurrentIndex, itemIds), joined);
+        }
+    }
+
+    private static List<String> contentIds(JSONArray items) throws JSONException {
+        List<String> out = new ArrayList<>(items.length());
+        for (int i = 0; i < items.length(); i++) {
+            out.add(items.getJSONObject(i).getJSONObject("media").getString("contentId"));
+        }
+        return out;
+    }
+
+    private static int[] toItemIds(int[] indexes, int[] itemIds) {
+        int[] out = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            out[i] = itemIds[indexes[i]];
+        }
+        return out;
+    }
+
+    private static int toItemId(int index, int[] itemIds) {
+        return index == QueueDiff.END ? MediaQueueItem.INVALID_ITEM_ID : itemIds[index];
+    }
+
+    /**
+     * @return a listener that notifies the given one after count results, with the first error
+     */
+    private static QueueEditBatcher.ResultListener join(final int count, final QueueEditBatcher.ResultListener listener) {
+        return new QueueEditBatcher.ResultListener() {
+            private int remaining = count;
+            private String firstError;
+
+            @Override
+            public void onResult(String error) {
+                if (firstError == null) {
+                    firstError = error;
+                }
+                if (--remaining == 0) {
+                    listener.onResult(firstError);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,159 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.mediarouter.media.MediaRouter.RouteInfo;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns the route lists of a client route scan into added / removed / changed diffs, keyed by
+ * deviceId.
+ *
+ * The scan starts with the devices of the {@link DeviceCache}, flagged {@code cached: true}, so
+ * the picker fills instantly. The active scan is only needed until those devices are confirmed
+ * (seen again) or {@link #CONFIRM_TIMEOUT_MS} passed; cached devices that were not confirmed by
+ * then are removed. Without cached devices the active scan runs for the whole timeout. After
+ * that the listener is told it can fall back to passive discovery.
+ *
+ * All methods must be called on the main thread.
+ */
+final class RouteTracker {
+    /** How long route events are collected before the route list is diffed. */
+    static final long DEBOUNCE_MS = 250;
+    /** How long the active scan may take to confirm the cached devices. */
+    static final long CONFIRM_TIMEOUT_MS = 10_000;
+
+    /** Receives the route changes. */
+    interface Listener {
+        /**
+         * @param added routes that appeared
+         * @param removed routes that disappeared
+         * @param changed routes whose details changed (eg. a cached device was confirmed)
+         */
+        void onRoutesChanged(JSArray added, JSArray removed, JSArray changed);
+
+        /**
+         * The cached devices are confirmed or timed out, an active scan is not needed anymore.
+         */
+        void onActiveScanDone();
+    }
+
+    private final DeviceCache cache;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** deviceId -> route object last sent to the client. */
+    private final Map<String, JSObject> routes = new HashMap<>();
+    /** Cached devices that were not seen yet. */
+    private final Set<String> unconfirmed = new HashSet<>();
+    private final Runnable confirmTimeout = new Runnable() {
+        @Override
+        public void run() {
+            JSArray removed = new JSArray();
+            for (String deviceId : unconfirmed) {
+                removed.put(routes.remove(deviceId));
+            }
+            unconfirmed.clear();
+            if (removed.length() > 0) {
+                listener.onRoutesChanged(new JSArray(), removed, new JSArray());
+            }
+            finishActiveScan();
+        }
+    };
+    /** Whether there were cached devices to confirm, otherwise the scan runs until the timeout. */
+    private boolean hasCachedDevices = false;
+    private boolean activeScanDone = false;
+
+    RouteTracker(@NonNull DeviceCache cache, @NonNull Listener listener) {
+        this.cache = cache;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts tracking, call before the scan starts.
+     * @return the cached routes to show right away
+     */
+    JSArray start() {
+        JSArray out = new JSArray();
+        for (JSObject route : cache.getDevices()) {
+            route.put("cached", true);
+            String deviceId = route.optString("deviceId");
+            routes.put(deviceId, route);
+            unconfirmed.add(deviceId);
+            out.put(route);
+        }
+        hasCachedDevices = !unconfirmed.isEmpty();
+        handler.postDelayed(confirmTimeout, CONFIRM_TIMEOUT_MS);
+        return out;
+    }
+
+    /**
+     * @param current the currently known routes
+     */
+    void update(List<RouteInfo> current) {
+        JSArray added = new JSArray();
+        JSArray changed = new JSArray();
+        Set<String> seen = new HashSet<>();
+        for (RouteInfo info : current) {
+            JSObject route = ChromecastUtilities.createRouteObject(info);
+            String deviceId = route.optString("deviceId");
+            if (!seen.add(deviceId)) {
+                continue;
+            }
+            cache.seen(deviceId, route);
+            unconfirmed.remove(deviceId);
+            JSObject previous = routes.put(deviceId, route);
+            if (previous == null) {
+                added.put(route);
+            } else if (!previous.toString().equals(route.toString())) {
+                changed.put(route);
+            }
+        }
+
+        JSArray removed = new JSArray();
+        Iterator<Map.Entry<String, JSObject>> it = routes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, JSObject> entry = it.next();
+            // Cached devices get until the confirm timeout to show up
+            if (!seen.contains(entry.getKey()) && !unconfirmed.contains(entry.getKey())) {
+                removed.put(entry.getValue());
+                it.remove();
+            }
+        }
+
+        if (added.length() > 0 || removed.length() > 0 || changed.length() > 0) {
+            listener.onRoutesChanged(added, removed, changed);
+        }
+        if (hasCachedDevices && unconfirmed.isEmpty()) {
+            finishActiveScan();
+        }
+    }
+
+    /**
+     * Stops tracking and saves the devices seen.
+     */
+    void stop() {
+        handler.removeCallbacks(confirmTimeout);
+        cache.save();
+    }
+
+    private void finishActiveScan() {
+        if (activeScanDone) {
+            return;
+        }
+        activeScanDone = true;
+        handler.removeCallbacks(confirmTimeout);
+        cache.save();
+        listener.onActiveScanDone();
+    }
+}
@@ -0,0 +1,84 @@
+package com.gameleap.plugins.chromecast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The listeners registered for one session, registered and unregistered together.
+ *
+ * Every listener is added as a {@link Registration} that knows how to undo itself. They are
+ * attached in the order they were added and detached in the reverse order. Attaching or
+ * detaching twice does nothing, so a session never has more than one of each listener, and
+ * once detached none of them is called again.
+ *
+ * All methods must be called on the main thread.
+ */
+final class SessionListeners {
+    /** A listener (or other per session resource) and how to release it. */
+    interface Registration {
+        void attach();
+        void detach();
+    }
+
+    private final List<Registration> registrations = new ArrayList<>();
+    private boolean attached = false;
+    private boolean released = false;
+
+    /**
+     * Adds a registration, attached right away if the others are.
+     * @param registration the registration
+     * @return this
+     * @throws IllegalStateException if the listeners were detached already
+     */
+    SessionListeners add(Registration registration) {
+        if (released) {
+            throw new IllegalStateException("Session listeners were detached");
+        }
+        registrations.add(registration);
+        if (attached) {
+            registration.attach();
+        }
+        return this;
+    }
+
+    /**
+     * Registers all listeners.
+     */
+    void attach() {
+        if (attached || released) {
+            return;
+        }
+        attached = true;
+        for (Registration registration : registrations) {
+            registration.attach();
+        }
+    }
+
+    /**
+     * Unregisters all listeners, for good.
+     */
+    void detach() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (!attached) {
+            return;
+        }
+        attached = false;
+        for (int i = registrations.size() - 1; i >= 0; i--) {
+            registrations.get(i).detach();
+        }
+    }
+
+    boolean isAttached() {
+        return attached;
+    }
+
+    /**
+     * @return the number of registrations
+     */
+    int size() {
+        return registrations.size();
+    }
+}
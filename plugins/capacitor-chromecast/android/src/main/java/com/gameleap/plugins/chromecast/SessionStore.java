@@ -0,0 +1,227 @@
+package com.gameleap.plugins.chromecast;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Persisted identity and last known state of the current session, so that after an app restart
+ * the client can show the session right away and the session can be resumed without waiting
+ * for the framework to rediscover it.
+ *
+ * The session and media objects are the ones last sent to the client. Updates are written at
+ * most every {@link #WRITE_DELAY_MS}, {@link #flush()} writes right away (eg. when the app goes
+ * to the background). A session not updated for {@link #MAX_AGE_MS} is not restored, the
+ * receiver has most likely closed it by then.
+ *
+ * Safe to use from any thread. The objects are written on the {@link CastEventThread}, where
+ * the client's objects are created (and the last media object is updated in place).
+ */
+final class SessionStore {
+    /** Sessions not updated for this long are not restored. */
+    static final long MAX_AGE_MS = 30L * 60 * 1000;
+    /** How long updates are collected before they are written. */
+    static final long WRITE_DELAY_MS = 5000;
+    private static final String KEY_SESSION = "lastSession";
+
+    /** A persisted session. */
+    static final class Saved {
+        final String appId;
+        final String sessionId;
+        final String routeId;
+        /** The session object, with the media it was playing. */
+        final JSONObject session;
+        /** The media object, null if nothing was loaded. */
+        final JSONObject media;
+        final long savedAt;
+
+        private Saved(String appId, String sessionId, String routeId, JSONObject session, JSONObject media, long savedAt) {
+            this.appId = appId;
+            this.sessionId = sessionId;
+            this.routeId = routeId;
+            this.session = session;
+            this.media = media;
+            this.savedAt = savedAt;
+        }
+    }
+
+    private final SharedPreferences settings;
+    /** Writes are done on the event thread, where the session and media objects are written. */
+    private final Handler handler = CastEventThread.handler();
+    private final Runnable write = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    private String appId;
+    private String sessionId;
+    private String routeId;
+    private JSONObject session;
+    private JSONObject media;
+    /** When the media object was received, its position is from then. */
+    private long mediaAt;
+    private boolean dirty = false;
+
+    /**
+     * @param settings the preferences of the connection
+     */
+    SessionStore(SharedPreferences settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Starts tracking a joined session.
+     * @param applicationId the receiver application
+     * @param id the session id
+     * @param route the id of the route the session runs on
+     * @param jsonSession the session object
+     */
+    synchronized void onJoined(String applicationId, String id, String route, JSONObject jsonSession) {
+        appId = applicationId;
+        sessionId = id;
+        routeId = route;
+        session = jsonSession;
+        media = firstMedia(jsonSession);
+        mediaAt = System.currentTimeMillis();
+        // A new session is worth writing right away
+        dirty = true;
+        handler.removeCallbacks(write);
+        handler.post(write);
+    }
+
+    /**
+     * @param jsonSession the latest session object sent to the client
+     */
+    synchronized void setSession(JSONObject jsonSession) {
+        if (sessionId == null || jsonSession == null || !sessionId.equals(jsonSession.optString("sessionId"))) {
+            return;
+        }
+        session = jsonSession;
+        scheduleWrite();
+    }
+
+    /**
+     * @param jsonMedia the latest media object sent to the client
+     */
+    synchronized void setMedia(JSONObject jsonMedia) {
+        if (sessionId == null || jsonMedia == null || !sessionId.equals(jsonMedia.optString("sessionId"))) {
+            return;
+        }
+        media = jsonMedia;
+        mediaAt = System.currentTimeMillis();
+        scheduleWrite();
+    }
+
+    /**
+     * Forgets the session, it ended.
+     */
+    synchronized void clear() {
+        handler.removeCallbacks(write);
+        boolean stored = sessionId != null || settings.contains(KEY_SESSION);
+        appId = null;
+        sessionId = null;
+        mediaAt = 0;
+        routeId = null;
+        session = null;
+        media = null;
+        dirty = false;
+        if (stored) {
+            settings.edit().remove(KEY_SESSION).apply();
+        }
+    }
+
+    /**
+     * Writes pending updates without waiting for {@link #WRITE_DELAY_MS}.
+     */
+    void flush() {
+        handler.removeCallbacks(write);
+        CastEventThread.execute(write);
+    }
+
+    private synchronized void write() {
+        if (!dirty || sessionId == null) {
+            return;
+        }
+        try {
+            JSONObject out = new JSONObject()
+                    .put("appId", appId)
+                    .put("sessionId", sessionId)
+                    .put("routeId", routeId)
+                    .put("session", session)
+                    .put("media", media)
+                    .put("mediaAt", mediaAt)
+                    .put("savedAt", System.currentTimeMillis());
+            settings.edit().putString(KEY_SESSION, out.toString()).apply();
+            dirty = false;
+        } catch (JSONException e) {
+        }
+    }
+
+    /**
+     * @param applicationId the receiver application that is initialized
+     * @return the session persisted for the application, null if there is none or it is too old
+     */
+    synchronized Saved load(String applicationId) {
+        String stored = settings.getString(KEY_SESSION, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            JSONObject in = new JSONObject(stored);
+            long savedAt = in.getLong("savedAt");
+            long age = System.currentTimeMillis() - savedAt;
+            if (!in.getString("appId").equals(applicationId) || age < 0 || age > MAX_AGE_MS) {
+                return null;
+            }
+            JSONObject savedMedia = in.optJSONObject("media");
+            if (savedMedia != null) {
+                savedMedia = advance(savedMedia, System.currentTimeMillis() - in.optLong("mediaAt", savedAt));
+            }
+            JSONObject savedSession = in.getJSONObject("session");
+            savedSession.put("media", savedMedia != null ? new JSONArray().put(savedMedia) : new JSONArray());
+            return new Saved(in.getString("appId"), in.getString("sessionId"), in.getString("routeId"),
+                    savedSession, savedMedia, savedAt);
+        } catch (JSONException e) {
+            // Unreadable, start over
+            clear();
+            return null;
+        }
+    }
+
+    private void scheduleWrite() {
+        if (!dirty) {
+            dirty = true;
+            handler.postDelayed(write, WRITE_DELAY_MS);
+        }
+    }
+
+    /**
+     * @return the media object of a session object, or null
+     */
+    private static JSONObject firstMedia(JSONObject jsonSession) {
+        JSONArray media = jsonSession != null ? jsonSession.optJSONArray("media") : null;
+        return media != null ? media.optJSONObject(0) : null;
+    }
+
+    /**
+     * Moves the position of playing media on by the time that passed since it was saved.
+     */
+    private static JSONObject advance(JSONObject jsonMedia, long elapsedMs) throws JSONException {
+        if (elapsedMs <= 0 || !"PLAYING".equals(jsonMedia.optString("playerState"))) {
+            return jsonMedia;
+        }
+        double position = jsonMedia.optDouble("currentTime", 0)
+                + elapsedMs / 1000.0 * jsonMedia.optDouble("playbackRate", 1);
+        JSONObject mediaInfo = jsonMedia.optJSONObject("media");
+        double duration = mediaInfo != null ? mediaInfo.optDouble("duration", Double.NaN) : Double.NaN;
+        if (!Double.isNaN(duration) && duration > 0) {
+            position = Math.min(position, duration);
+        }
+        return jsonMedia.put("currentTime", position);
+    }
+}
@@ -0,0 +1,208 @@
+package com.gameleap.plugins.chromecast;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * Turns a stream of full state objects (media or session JSON) into a stream of patches.
+ *
+ * Only top-level fields that changed since the last emitted state are sent, with removed
+ * fields sent as null. The first emission after {@link #reset()} is the full object. Every
+ * emitted object carries {@code isPatch} so the client knows whether to merge or replace.
+ *
+ * Emission is limited to {@link #setMaxRate(double)} per second with latest-wins semantics:
+ * states submitted while throttled replace each other and only the newest is emitted when
+ * the window opens. States for which {@link ImmediatePredicate} returns true (player state or
+ * item changes) bypass the throttle.
+ */
+final class ThrottledStateEmitter {
+    /** Receives the patches. */
+    interface Sink {
+        void emit(JSONObject patch);
+    }
+
+    /** Decides whether a state change must be delivered without waiting for the throttle. */
+    interface ImmediatePredicate {
+        boolean isImmediate(JSONObject previous, JSONObject next);
+    }
+
+    /** Default maximum emissions per second. */
+    static final double DEFAULT_MAX_RATE = 4;
+
+    private final Sink sink;
+    private final ImmediatePredicate immediatePredicate;
+    /** Delayed patches are emitted on the event thread, like the states submitted there. */
+    private final Handler handler = CastEventThread.handler();
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushPending();
+        }
+    };
+
+    /** The last state that was emitted (merged with all patches). */
+    private JSONObject lastEmitted;
+    /** The newest state that is waiting for the throttle window. */
+    private JSONObject pending;
+    private long lastEmitTime = 0;
+    private long minIntervalMs;
+
+    ThrottledStateEmitter(Sink sink, ImmediatePredicate immediatePredicate) {
+        this.sink = sink;
+        this.immediatePredicate = immediatePredicate;
+        setMaxRate(DEFAULT_MAX_RATE);
+    }
+
+    /**
+     * @param maxPerSecond maximum emissions per second, 0 or less disables throttling
+     */
+    synchronized void setMaxRate(double maxPerSecond) {
+        minIntervalMs = maxPerSecond > 0 ? (long) (1000 / maxPerSecond) : 0;
+    }
+
+    /**
+     * Forgets the last emitted state, so the next submission is sent in full.
+     * Also drops any pending state.
+     */
+    synchronized void reset() {
+        lastEmitted = null;
+        pending = null;
+        handler.removeCallbacks(flush);
+    }
+
+    /**
+     * Records that a full state was sent through another channel (eg. MEDIA_LOAD), so
+     * following patches are computed against it.
+     * @param state the state the client now has
+     */
+    synchronized void setBaseline(JSONObject state) {
+        reset();
+        try {
+            lastEmitted = state != null ? shallowCopy(state) : null;
+        } catch (JSONException e) {
+            lastEmitted = null;
+        }
+        lastEmitTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Submits a new full state.
+     * @param state the state, ignored if null
+     */
+    void submit(JSONObject state) {
+        if (state == null) {
+            return;
+        }
+        JSONObject patch = null;
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            boolean immediate = lastEmitted == null
+                    || immediatePredicate.isImmediate(lastEmitted, state)
+                    || now - lastEmitTime >= minIntervalMs;
+            if (immediate) {
+                handler.removeCallbacks(flush);
+                pending = null;
+                patch = createPatch(state);
+            } else {
+                boolean scheduled = pending != null;
+                pending = state;
+                if (!scheduled) {
+                    handler.postAtTime(flush, lastEmitTime + minIntervalMs);
+                }
+            }
+        }
+        if (patch != null) {
+            sink.emit(patch);
+        }
+    }
+
+    private void flushPending() {
+        JSONObject patch;
+        synchronized (this) {
+            if (pending == null) {
+                return;
+            }
+            patch = createPatch(pending);
+            pending = null;
+        }
+        if (patch != null) {
+            sink.emit(patch);
+        }
+    }
+
+    /**
+     * Must hold the lock. Updates lastEmitted and lastEmitTime.
+     * @return the patch to emit, or null if nothing changed
+     */
+    private JSONObject createPatch(JSONObject state) {
+        // A JSObject so the sink can hand it to the bridge without copying it
+        JSONObject out = new JSObject();
+        try {
+            if (lastEmitted == null) {
+                Iterator<String> keys = state.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    out.put(key, state.opt(key));
+                }
+                out.put("isPatch", false);
+            } else {
+                Iterator<String> keys = state.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    Object value = state.opt(key);
+                    if (!sameValue(lastEmitted.opt(key), value)) {
+                        out.put(key, value);
+                    }
+                }
+                Iterator<String> previousKeys = lastEmitted.keys();
+                while (previousKeys.hasNext()) {
+                    String key = previousKeys.next();
+                    if (!state.has(key)) {
+                        out.put(key, JSONObject.NULL);
+                    }
+                }
+                if (out.length() == 0) {
+                    return null;
+                }
+                out.put("isPatch", true);
+            }
+            lastEmitted = shallowCopy(state);
+        } catch (JSONException e) {
+            return null;
+        }
+        lastEmitTime = SystemClock.uptimeMillis();
+        return out;
+    }
+
+    /**
+     * Callers may keep mutating the object they submitted (ChromecastSession does for idle
+     * states), so keep our own copy of the top-level fields.
+     */
+    private static JSONObject shallowCopy(JSONObject state) throws JSONException {
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = state.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            copy.put(key, state.opt(key));
+        }
+        return copy;
+    }
+
+    private static boolean sameValue(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        // Nested JSONObject/JSONArray don't implement equals, compare their serialized form
+        return a.equals(b) || a.toString().equals(b.toString());
+    }
+}
@@ -0,0 +1,138 @@
+package com.gameleap.plugins.chromecast;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Local unit tests for {@link CastPlayback}: which receiver states are reported, and how
+ * commands reach the controls.
+ */
+public class CastPlaybackTest {
+    private final List<CastPlayback.State> reported = new ArrayList<>();
+
+    /** Records the commands, like ChromecastSession with a client. */
+    private static final class FakeControls implements CastPlayback.Controls {
+        final List<String> commands = new ArrayList<>();
+
+        @Override
+        public boolean play() {
+            commands.add("play");
+            return true;
+        }
+
+        @Override
+        public boolean pause() {
+            commands.add("pause");
+            return true;
+        }
+
+        @Override
+        public boolean seekTo(long positionMs) {
+            commands.add("seek " + positionMs);
+            return true;
+        }
+
+        @Override
+        public boolean skipToIndex(int index) {
+            commands.add("skip " + index);
+            return true;
+        }
+
+        @Override
+        public void setLocalState(JSONArray items, int index, long positionMs, boolean playing, String repeatMode) {
+            commands.add("local " + (items != null ? items.length() : 0) + " " + index + " " + positionMs + " " + playing + " " + repeatMode);
+        }
+    }
+
+    private static CastPlayback.State playing(int index, long positionMs, long at) {
+        return new CastPlayback.State(true, index, positionMs, 180_000, true, at);
+    }
+
+    private void listen() {
+        CastPlayback.setListener(new CastPlayback.Listener() {
+            @Override
+            public void onCastPlaybackChanged(CastPlayback.State state) {
+                reported.add(state);
+            }
+        });
+    }
+
+    @After
+    public void reset() {
+        CastPlayback.setListener(null);
+        CastPlayback.update(CastPlayback.State.INACTIVE);
+        CastPlayback.setLocalState(null, -1, 0, false, "REPEAT_OFF");
+    }
+
+    @Test
+    public void progressAlongTheEstimateIsNotReported() {
+        listen();
+        CastPlayback.update(playing(0, 10_000, 1_000));
+        // Ticks a second apart, as the receiver plays
+        for (int i = 1; i <= 30; i++) {
+            CastPlayback.update(playing(0, 10_000 + i * 1000, 1_000 + i * 1000));
+        }
+        assertEquals(1, reported.size());
+    }
+
+    @Test
+    public void changesAreReported() {
+        listen();
+        CastPlayback.update(playing(0, 10_000, 1_000));
+        // Seek
+        CastPlayback.update(playing(0, 60_000, 2_000));
+        // Next item
+        CastPlayback.update(playing(1, 0, 3_000));
+        // Pause
+        CastPlayback.update(new CastPlayback.State(true, 1, 1_000, 180_000, false, 4_000));
+        // Still paused
+        CastPlayback.update(new CastPlayback.State(true, 1, 1_000, 180_000, false, 9_000));
+        CastPlayback.update(CastPlayback.State.INACTIVE);
+        CastPlayback.update(CastPlayback.State.INACTIVE);
+        assertEquals(5, reported.size());
+        assertEquals(60_000, reported.get(1).positionMs);
+        assertEquals(1, reported.get(2).index);
+        assertFalse(reported.get(3).playing);
+        assertFalse(reported.get(4).active);
+    }
+
+    @Test
+    public void positionIsEstimatedWithinTheItem() {
+        CastPlayback.State state = playing(0, 170_000, 1_000);
+        assertEquals(175_000, state.getEstimatedPosition(6_000));
+        assertEquals(180_000, state.getEstimatedPosition(60_000));
+        assertEquals(170_000, state.getEstimatedPosition(0));
+    }
+
+    @Test
+    public void commandsOnlyReachAnActiveReceiver() {
+        FakeControls controls = new FakeControls();
+        CastPlayback.attach(controls);
+        CastPlayback.setLocalState(new JSONArray().put("a").put("b").put("c").put("d"), 2, 0, true, "REPEAT_OFF");
+        controls.commands.clear();
+        assertFalse(CastPlayback.play());
+        CastPlayback.update(playing(2, 0, 1_000));
+        assertTrue(CastPlayback.pause());
+        assertTrue(CastPlayback.seekTo(5_000));
+        assertTrue(CastPlayback.skipToIndex(3));
+        // Not an item of the local queue
+        assertFalse(CastPlayback.skipToIndex(4));
+        assertEquals("[pause, seek 5000, skip 3]", controls.commands.toString());
+    }
+
+    @Test
+    public void localStateIsHandedToControlsAttachedLater() {
+        CastPlayback.setLocalState(new JSONArray().put("a").put("b"), 1, 42_000, true, "REPEAT_ALL");
+        FakeControls controls = new FakeControls();
+        CastPlayback.attach(controls);
+        assertEquals("[local 2 1 42000 true REPEAT_ALL]", controls.commands.toString());
+        CastPlayback.setLocalState(new JSONArray().put("a"), 0, 0, false, "REPEAT_OFF");
+        assertEquals("local 1 0 0 false REPEAT_OFF", controls.commands.get(1));
+    }
+}
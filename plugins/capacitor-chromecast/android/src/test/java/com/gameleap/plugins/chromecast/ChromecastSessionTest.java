@@ -0,0 +1,183 @@
+package com.gameleap.plugins.chromecast;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.cast.Cast;
+import com.google.android.gms.cast.framework.CastSession;
+import com.google.android.gms.cast.framework.media.MediaQueue;
+import com.google.android.gms.cast.framework.media.RemoteMediaClient;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Local unit tests for the listeners {@link ChromecastSession} registers on the SDK objects of
+ * a session, counted on fakes of the CastSession, its RemoteMediaClient and MediaQueue.
+ *
+ * The Android classes the session and its helpers use are mocked for each test: Handlers
+ * (which never run what is posted to them), the main Looper, SystemClock and Log. Any other
+ * Android call fails like in every local test.
+ */
+public class ChromecastSessionTest {
+    private static final int RECONNECT_CYCLES = 500;
+
+    /** Counts what is registered on a fake, like the SDK's callback lists. */
+    private static final class Registered {
+        final Set<Object> live = new LinkedHashSet<>();
+        int registrations = 0;
+
+        Answer<Object> add(final Object result) {
+            return new Answer<Object>() {
+                @Override
+                public Object answer(InvocationOnMock invocation) {
+                    registrations++;
+                    live.add(invocation.getArgument(0));
+                    return result;
+                }
+            };
+        }
+
+        Answer<Object> remove() {
+            return new Answer<Object>() {
+                @Override
+                public Object answer(InvocationOnMock invocation) {
+                    live.remove(invocation.getArgument(0));
+                    return null;
+                }
+            };
+        }
+    }
+
+    private final Registered statusCallbacks = new Registered();
+    private final Registered progressListeners = new Registered();
+    private final Registered queueCallbacks = new Registered();
+    private final Registered castListeners = new Registered();
+    /** Namespaces with a message callback. */
+    private final Registered messageNamespaces = new Registered();
+
+    private ChromecastSession chromecastSession;
+    private RemoteMediaClient client;
+
+    private MockedStatic<Looper> looper;
+    private MockedConstruction<Handler> handlers;
+    private MockedStatic<SystemClock> clock;
+    private MockedStatic<Log> log;
+
+    @Before
+    public void setUp() {
+        looper = mockStatic(Looper.class);
+        handlers = mockConstruction(Handler.class);
+        clock = mockStatic(SystemClock.class);
+        log = mockStatic(Log.class);
+
+        Activity activity = mock(Activity.class);
+        // The main thread is the test thread
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArgument(0)).run();
+                return null;
+            }
+        }).when(activity).runOnUiThread(any(Runnable.class));
+
+        // The client and queue of a device outlive the sessions on it
+        MediaQueue queue = mock(MediaQueue.class);
+        doAnswer(queueCallbacks.add(null)).when(queue).registerCallback(any(MediaQueue.Callback.class));
+        doAnswer(queueCallbacks.remove()).when(queue).unregisterCallback(any(MediaQueue.Callback.class));
+
+        client = mock(RemoteMediaClient.class);
+        when(client.getMediaQueue()).thenReturn(queue);
+        doAnswer(statusCallbacks.add(null)).when(client).registerCallback(any(RemoteMediaClient.Callback.class));
+        doAnswer(statusCallbacks.remove()).when(client).unregisterCallback(any(RemoteMediaClient.Callback.class));
+        doAnswer(progressListeners.add(true)).when(client).addProgressListener(any(RemoteMediaClient.ProgressListener.class), anyLong());
+        doAnswer(progressListeners.remove()).when(client).removeProgressListener(any(RemoteMediaClient.ProgressListener.class));
+
+        chromecastSession = new ChromecastSession(activity, mock(ChromecastSession.Listener.class), mock(SessionStore.class));
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+        clock.close();
+        handlers.close();
+        looper.close();
+    }
+
+    private CastSession newCastSession() throws Exception {
+        CastSession castSession = mock(CastSession.class);
+        when(castSession.getRemoteMediaClient()).thenReturn(client);
+        doAnswer(castListeners.add(null)).when(castSession).addCastListener(any(Cast.Listener.class));
+        doAnswer(castListeners.remove()).when(castSession).removeCastListener(any(Cast.Listener.class));
+        doAnswer(messageNamespaces.add(null)).when(castSession).setMessageReceivedCallbacks(anyString(), any(Cast.MessageReceivedCallback.class));
+        doAnswer(messageNamespaces.remove()).when(castSession).removeMessageReceivedCallbacks(anyString());
+        return castSession;
+    }
+
+    private int liveCount() {
+        return statusCallbacks.live.size() + progressListeners.live.size() + queueCallbacks.live.size()
+                + castListeners.live.size() + messageNamespaces.live.size();
+    }
+
+    private void assertOneListenerSet() {
+        assertEquals(1, statusCallbacks.live.size());
+        assertEquals(1, progressListeners.live.size());
+        // The queue controller and the queue pager
+        assertEquals(2, queueCallbacks.live.size());
+        assertEquals(1, castListeners.live.size());
+        assertEquals(1, messageNamespaces.live.size());
+    }
+
+    @Test
+    public void reconnectsKeepOneListenerSet() throws Exception {
+        for (int i = 0; i < RECONNECT_CYCLES; i++) {
+            CastSession castSession = newCastSession();
+            chromecastSession.setSession(castSession);
+            assertOneListenerSet();
+            // Set again for the same session, eg. by onSessionResumed
+            chromecastSession.setSession(castSession);
+            assertOneListenerSet();
+            chromecastSession.setSession(null);
+            assertEquals(0, liveCount());
+        }
+        // Registered once per session
+        assertEquals(RECONNECT_CYCLES, statusCallbacks.registrations);
+        assertEquals(2 * RECONNECT_CYCLES, queueCallbacks.registrations);
+        assertEquals(RECONNECT_CYCLES, castListeners.registrations);
+        assertEquals(RECONNECT_CYCLES, messageNamespaces.registrations);
+    }
+
+    @Test
+    public void switchingSessionsKeepsOneListenerSet() throws Exception {
+        // Sessions replaced without ending, eg. when joining another sender's session
+        for (int i = 0; i < RECONNECT_CYCLES; i++) {
+            chromecastSession.setSession(newCastSession());
+            assertOneListenerSet();
+        }
+        chromecastSession.setSession(null);
+        assertEquals(0, liveCount());
+        assertEquals(RECONNECT_CYCLES, statusCallbacks.registrations);
+        assertEquals(RECONNECT_CYCLES, castListeners.registrations);
+    }
+}
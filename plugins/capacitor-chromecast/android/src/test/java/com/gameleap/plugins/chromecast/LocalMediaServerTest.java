@@ -0,0 +1,198 @@
+package com.gameleap.plugins.chromecast;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Local unit tests for {@link LocalMediaServer}, talking HTTP to it on the loopback interface.
+ */
+public class LocalMediaServerTest {
+    private static final int FILE_SIZE = 256 * 1024 + 17;
+
+    private LocalMediaServer server;
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        file = File.createTempFile("track", ".mp3");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        server = new LocalMediaServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    @Test
+    public void servesTheWholeFile() throws IOException {
+        HttpURLConnection conn = open(server.getPath(file, null), "GET", null);
+        assertEquals(200, conn.getResponseCode());
+        assertEquals("audio/mpeg", conn.getContentType());
+        assertEquals("bytes", conn.getHeaderField("Accept-Ranges"));
+        assertEquals(FILE_SIZE, conn.getContentLengthLong());
+        assertTrue(java.util.Arrays.equals(content, read(conn)));
+    }
+
+    @Test
+    public void keepsTheGivenContentType() throws IOException {
+        HttpURLConnection conn = open(server.getPath(file, "video/mp4"), "GET", null);
+        assertEquals("video/mp4", conn.getContentType());
+        conn.disconnect();
+    }
+
+    @Test
+    public void servesRanges() throws IOException {
+        String path = server.getPath(file, null);
+        assertRange(path, "bytes=100-199", 100, 199);
+        assertRange(path, "bytes=1000-", 1000, FILE_SIZE - 1);
+        assertRange(path, "bytes=-500", FILE_SIZE - 500, FILE_SIZE - 1);
+        assertRange(path, "bytes=10-" + (FILE_SIZE * 2), 10, FILE_SIZE - 1);
+    }
+
+    @Test
+    public void rejectsUnsatisfiableRanges() throws IOException {
+        HttpURLConnection conn = open(server.getPath(file, null), "GET", "bytes=" + FILE_SIZE + "-");
+        assertEquals(416, conn.getResponseCode());
+        assertEquals("bytes */" + FILE_SIZE, conn.getHeaderField("Content-Range"));
+        conn.disconnect();
+    }
+
+    @Test
+    public void answersHeadWithoutBody() throws IOException {
+        HttpURLConnection conn = open(server.getPath(file, null), "HEAD", null);
+        assertEquals(200, conn.getResponseCode());
+        assertEquals(FILE_SIZE, conn.getContentLengthLong());
+        assertEquals(0, read(conn).length);
+    }
+
+    @Test
+    public void unknownPathsAreNotFound() throws IOException {
+        String path = server.getPath(file, null);
+        HttpURLConnection conn = open(path.replaceFirst("/[^/]+/", "/0123456789abcdef/"), "GET", null);
+        assertEquals(404, conn.getResponseCode());
+        conn.disconnect();
+        conn = open("/", "GET", null);
+        assertEquals(404, conn.getResponseCode());
+        conn.disconnect();
+    }
+
+    @Test
+    public void newSessionInvalidatesOldUrls() throws IOException {
+        String oldPath = server.getPath(file, null);
+        server.newSession();
+        HttpURLConnection conn = open(oldPath, "GET", null);
+        assertEquals(404, conn.getResponseCode());
+        conn.disconnect();
+        conn = open(server.getPath(file, null), "GET", null);
+        assertEquals(200, conn.getResponseCode());
+        conn.disconnect();
+    }
+
+    @Test
+    public void pathsAreStableWithinASession() {
+        assertEquals(server.getPath(file, null), server.getPath(file, null));
+    }
+
+    @Test
+    public void servesConcurrentRequests() throws Exception {
+        final String path = server.getPath(file, null);
+        ExecutorService executor = Executors.newFixedThreadPool(12);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                results.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        HttpURLConnection conn = open(path, "GET", null);
+                        assertEquals(200, conn.getResponseCode());
+                        return read(conn);
+                    }
+                }));
+            }
+            for (Future<byte[]> result : results) {
+                assertTrue(java.util.Arrays.equals(content, result.get()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void detectsLocalUrls() {
+        assertEquals(new File("/data/track.mp3"), LocalMediaServer.localFile("file:///data/track.mp3"));
+        assertEquals(new File("/data/my track.mp3"), LocalMediaServer.localFile("file:///data/my%20track.mp3"));
+        assertEquals(new File("/data/track.mp3"), LocalMediaServer.localFile("/data/track.mp3"));
+        assertEquals(new File("/data/user/0/app/files/a.m4a"),
+                LocalMediaServer.localFile("http://localhost/_capacitor_file_/data/user/0/app/files/a.m4a"));
+        assertNull(LocalMediaServer.localFile("https://example.com/track.mp3"));
+        assertNull(LocalMediaServer.localFile("http://localhost/assets/track.mp3"));
+        assertNull(LocalMediaServer.localFile(null));
+    }
+
+    private void assertRange(String path, String range, long start, long end) throws IOException {
+        HttpURLConnection conn = open(path, "GET", range);
+        assertEquals(206, conn.getResponseCode());
+        assertEquals("bytes " + start + "-" + end + "/" + FILE_SIZE, conn.getHeaderField("Content-Range"));
+        byte[] body = read(conn);
+        assertEquals(end - start + 1, body.length);
+        for (int i = 0; i < body.length; i++) {
+            assertEquals(content[(int) start + i], body[i]);
+        }
+    }
+
+    private HttpURLConnection open(String path, String method, String range) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + path);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        if (range != null) {
+            conn.setRequestProperty("Range", range);
+        }
+        return conn;
+    }
+
+    private static byte[] read(HttpURLConnection conn) throws IOException {
+        InputStream in = conn.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+            conn.disconnect();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.gameleap.plugins.chromecast;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Local unit tests for {@link MediaUrlResolver}, against a stand-in for the Wavlake redirect
+ * chain on the loopback interface: /track redirects to /hop1, /hop2, then /cdn/track.mp3.
+ */
+public class MediaUrlResolverTest {
+    private static final byte[] AUDIO = new byte[64 * 1024];
+
+    /** A response of the stand-in server. */
+    private static final class Response {
+        /** Status line and headers, without Content-Length. */
+        final String head;
+        final byte[] body;
+
+        Response(String head, byte[] body) {
+            this.head = head;
+            this.body = body;
+        }
+    }
+
+    /** Answers a request to the stand-in server. */
+    private interface Route {
+        Response respond(String method, String path) throws InterruptedException;
+    }
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    /** Holds the requests to /slow until counted down. */
+    private final CountDownLatch releaseSlow = new CountDownLatch(1);
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+    private String base;
+
+    @Before
+    public void setUp() throws IOException {
+        redirect("/track", "/hop1", 302, "max-age=600");
+        redirect("/hop1", "hop2", 307, null);
+        redirect("/hop2", "/cdn/track.mp3", 301, null);
+        redirect("/short", "/cdn/track.mp3", 302, "max-age=1");
+        redirect("/nostore", "/cdn/track.mp3", 302, "no-store");
+        redirect("/loop", "/loop", 302, null);
+        redirect("/signed", "/cdn/get-only.mp3", 302, null);
+        routes.put("/slow", new Route() {
+            @Override
+            public Response respond(String method, String path) throws InterruptedException {
+                releaseSlow.await();
+                return new Response("HTTP/1.1 302 Found\r\nLocation: /cdn/track.mp3\r\n", null);
+            }
+        });
+        routes.put("/cdn/", new Route() {
+            @Override
+            public Response respond(String method, String path) {
+                if ("HEAD".equals(method) && path.endsWith("get-only.mp3")) {
+                    // Like a URL signed for GET only
+                    return new Response("HTTP/1.1 403 Forbidden\r\n", null);
+                }
+                return new Response("HTTP/1.1 200 OK\r\nContent-Type: audio/mpeg\r\n", AUDIO);
+            }
+        });
+        routes.put("/missing", new Route() {
+            @Override
+            public Response respond(String method, String path) {
+                return new Response("HTTP/1.1 404 Not Found\r\n", null);
+            }
+        });
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        connections = Executors.newCachedThreadPool();
+        connections.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+        base = "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        releaseSlow.countDown();
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    @Test
+    public void followsTheRedirectChain() throws IOException {
+        MediaUrlResolver.Resolution resolution = MediaUrlResolver.follow(base + "/track");
+        assertEquals(base + "/cdn/track.mp3", resolution.url);
+        assertEquals(3, resolution.redirects);
+        // The 307 without caching headers limits the chain
+        assertEquals(MediaUrlResolver.DEFAULT_TTL_MS, resolution.ttlMs);
+    }
+
+    @Test
+    public void fallsBackToGetWhenHeadFails() throws IOException {
+        assertEquals(base + "/cdn/get-only.mp3", MediaUrlResolver.follow(base + "/signed").url);
+    }
+
+    @Test(expected = IOException.class)
+    public void redirectLoopsFail() throws IOException {
+        MediaUrlResolver.follow(base + "/loop");
+    }
+
+    @Test(expected = IOException.class)
+    public void errorsFail() throws IOException {
+        MediaUrlResolver.follow(base + "/missing");
+    }
+
+    @Test
+    public void ttlComesFromTheHeaders() {
+        long now = 1_700_000_000_000L;
+        assertEquals(600_000, MediaUrlResolver.ttlMs(302, "public, max-age=600", null, null, now));
+        assertEquals(60_000, MediaUrlResolver.ttlMs(302, "max-age=600, s-maxage=60", null, null, now));
+        assertEquals(0, MediaUrlResolver.ttlMs(302, "no-store", null, null, now));
+        assertEquals(0, MediaUrlResolver.ttlMs(302, "private, no-cache", null, null, now));
+        assertEquals(MediaUrlResolver.MAX_TTL_MS, MediaUrlResolver.ttlMs(302, "max-age=31536000", null, null, now));
+        assertEquals(120_000, MediaUrlResolver.ttlMs(302, null,
+                "Tue, 14 Nov 2023 22:15:20 GMT", "Tue, 14 Nov 2023 22:13:20 GMT", now));
+        assertEquals(0, MediaUrlResolver.ttlMs(302, null, "0", null, now));
+        assertEquals(MediaUrlResolver.DEFAULT_TTL_MS, MediaUrlResolver.ttlMs(302, null, null, null, now));
+        assertEquals(MediaUrlResolver.MAX_TTL_MS, MediaUrlResolver.ttlMs(301, null, null, null, now));
+        assertEquals(MediaUrlResolver.MAX_TTL_MS, MediaUrlResolver.ttlMs(308, null, null, null, now));
+    }
+
+    @Test
+    public void onlyRemoteHttpUrlsAreResolved() {
+        assertTrue(MediaUrlResolver.isResolvable("https://op3.dev/e/https://d12wklypp119aj.cloudfront.net/track/a.mp3"));
+        assertFalse(MediaUrlResolver.isResolvable("file:///data/track.mp3"));
+        assertFalse(MediaUrlResolver.isResolvable("http://localhost/_capacitor_file_/data/track.mp3"));
+        assertFalse(MediaUrlResolver.isResolvable("http://192.168.1.20:41234/abc/1/track.mp3"));
+        assertFalse(MediaUrlResolver.isResolvable(null));
+    }
+
+    @Test
+    public void resolvedUrlsAreCached() throws InterruptedException {
+        MediaUrlResolver resolver = new MediaUrlResolver(true);
+        List<String> urls = Arrays.asList(base + "/track", "file:///data/track.mp3", null);
+        assertEquals(Arrays.asList(base + "/cdn/track.mp3", "file:///data/track.mp3", null), resolve(resolver, urls, 5000));
+        int before = requests.get();
+        assertEquals(base + "/cdn/track.mp3", resolve(resolver, urls, 0).get(0));
+        assertEquals(before, requests.get());
+    }
+
+    @Test
+    public void expiredAndUncacheableUrlsAreResolvedAgain() throws InterruptedException {
+        MediaUrlResolver resolver = new MediaUrlResolver(true);
+        resolve(resolver, Arrays.asList(base + "/short", base + "/nostore"), 5000);
+        assertEquals(base + "/cdn/track.mp3", resolver.getCached(base + "/short"));
+        assertNull(resolver.getCached(base + "/nostore"));
+        Thread.sleep(1100);
+        assertNull(resolver.getCached(base + "/short"));
+    }
+
+    @Test
+    public void slowUrlsAreUsedAsTheyAre() throws InterruptedException {
+        MediaUrlResolver resolver = new MediaUrlResolver(true);
+        // The server holds the request until released
+        assertEquals(base + "/slow", resolve(resolver, Collections.singletonList(base + "/slow"), 20).get(0));
+        // ... but resolving continues in the background
+        releaseSlow.countDown();
+        assertEquals(base + "/cdn/track.mp3", awaitCached(resolver, base + "/slow"));
+    }
+
+    @Test
+    public void failedUrlsAreUsedAsTheyAre() throws InterruptedException {
+        MediaUrlResolver resolver = new MediaUrlResolver(true);
+        assertEquals(base + "/missing", resolve(resolver, Collections.singletonList(base + "/missing"), 5000).get(0));
+        assertEquals(base + "/missing", resolver.getCached(base + "/missing"));
+    }
+
+    @Test
+    public void preResolvedUrlsSkipTheRedirectHops() throws Exception {
+        MediaUrlResolver resolver = new MediaUrlResolver(true);
+        String resolvedUrl = resolve(resolver, Collections.singletonList(base + "/track"), 5000).get(0);
+        // Loading the audio as the receiver and the local player do
+        int before = requests.get();
+        load(base + "/track");
+        assertEquals(4, requests.get() - before);
+        before = requests.get();
+        load(resolvedUrl);
+        assertEquals(1, requests.get() - before);
+    }
+
+    private void redirect(String path, final String location, final int status, final String cacheControl) {
+        routes.put(path, new Route() {
+            @Override
+            public Response respond(String method, String path) {
+                String head = "HTTP/1.1 " + status + " Redirect\r\nLocation: " + location + "\r\n";
+                if (cacheControl != null) {
+                    head += "Cache-Control: " + cacheControl + "\r\n";
+                }
+                return new Response(head, null);
+            }
+        });
+    }
+
+    /** Accepts connections until the server socket is closed, one request per connection. */
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException | InterruptedException e) {
+                        // The test is over
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+        String[] requestLine = in.readLine().split(" ");
+        String line;
+        do {
+            line = in.readLine();
+        } while (line != null && !line.isEmpty());
+        requests.incrementAndGet();
+        String method = requestLine[0];
+        String path = requestLine[1];
+        Route route = routes.get(path.startsWith("/cdn/") ? "/cdn/" : path);
+        Response response = route != null
+                ? route.respond(method, path)
+                : new Response("HTTP/1.1 404 Not Found\r\n", null);
+        byte[] body = response.body;
+        int length = body != null ? body.length : 0;
+        OutputStream out = socket.getOutputStream();
+        out.write((response.head + "Content-Length: " + length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null && !"HEAD".equals(method)) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private static List<String> resolve(MediaUrlResolver resolver, List<String> urls, long maxWaitMs) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<List<String>> out = new AtomicReference<>();
+        resolver.resolveAll(urls, maxWaitMs, new MediaUrlResolver.Callback() {
+            @Override
+            public void onResolved(List<String> resolved) {
+                out.set(resolved);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        return out.get();
+    }
+
+    /**
+     * @return the cached URL, once resolving in the background cached one
+     */
+    private static String awaitCached(MediaUrlResolver resolver, String url) throws InterruptedException {
+        for (int i = 0; i < 1000 && resolver.getCached(url) == null; i++) {
+            Thread.sleep(10);
+        }
+        return resolver.getCached(url);
+    }
+
+    /** Reads the first audio byte, following redirects. */
+    private static void load(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setUseCaches(false);
+        try {
+            assertTrue(connection.getInputStream().read() != -1);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
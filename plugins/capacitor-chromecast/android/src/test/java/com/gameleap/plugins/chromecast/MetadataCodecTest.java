@@ -0,0 +1,367 @@
+package com.gameleap.plugins.chromecast;
+
+import static org.junit.Assert.*;
+
+import com.google.android.gms.cast.MediaMetadata;
+
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Local unit tests for {@link MetadataCodec}, against a stand-in for MediaMetadata that
+ * checks the types of well known keys, stores dates with a precision of seconds, and can drop
+ * the keys the receiver doesn't keep for the media type.
+ */
+public class MetadataCodecTest {
+    private static final int QUEUE_SIZE = 1000;
+
+    /** Stores values like MediaMetadata does. */
+    private static final class FakeMetadata implements MetadataCodec.Target, MetadataCodec.Source {
+        final int mediaType;
+        final Map<String, Object> values = new LinkedHashMap<>();
+        final JSONArray images = new JSONArray();
+        int writes = 0;
+
+        FakeMetadata(int mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        /**
+         * @return the metadata as the receiver sends it back
+         */
+        FakeMetadata viaReceiver() {
+            FakeMetadata out = new FakeMetadata(mediaType);
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                MetadataKeys.Key key = MetadataKeys.fromAndroidName(entry.getKey());
+                if (key == null || key.isCarriedBy(mediaType)) {
+                    out.values.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (int i = 0; i < images.length(); i++) {
+                out.images.put(images.opt(i));
+            }
+            return out;
+        }
+
+        private void put(String key, int type, Object value) {
+            MetadataKeys.Key known = MetadataKeys.fromAndroidName(key);
+            if (known != null && known.type != type) {
+                throw new IllegalArgumentException("Value of " + key + " has the wrong type");
+            }
+            writes++;
+            values.put(key, value);
+        }
+
+        private Object get(String key, int type) {
+            MetadataKeys.Key known = MetadataKeys.fromAndroidName(key);
+            if (known != null && known.type != type) {
+                throw new IllegalArgumentException("Value of " + key + " has the wrong type");
+            }
+            return values.get(key);
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            put(key, MetadataKeys.TYPE_STRING, value);
+        }
+
+        @Override
+        public void putInt(String key, int value) {
+            put(key, MetadataKeys.TYPE_INT, value);
+        }
+
+        @Override
+        public void putDouble(String key, double value) {
+            put(key, MetadataKeys.TYPE_DOUBLE, value);
+        }
+
+        @Override
+        public void putDate(String key, Calendar value) {
+            // Stored as an ISO-8601 string without milliseconds
+            put(key, MetadataKeys.TYPE_DATE, value.getTimeInMillis() / 1000 * 1000);
+        }
+
+        @Override
+        public void putTimeMillis(String key, long value) {
+            put(key, MetadataKeys.TYPE_MS, value);
+        }
+
+        @Override
+        public void addImage(String url, int width, int height) {
+            JSONObject image = new JSONObject();
+            try {
+                image.put("url", url);
+                if (width > 0 && height > 0) {
+                    image.put("width", width).put("height", height);
+                }
+            } catch (JSONException e) {
+                throw new AssertionError(e);
+            }
+            images.put(image);
+        }
+
+        @Override
+        public int getMediaType() {
+            return mediaType;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return values.keySet();
+        }
+
+        @Override
+        public String getString(String key) {
+            Object value = get(key, MetadataKeys.TYPE_STRING);
+            return value instanceof String ? (String) value : null;
+        }
+
+        @Override
+        public int getInt(String key) {
+            return (Integer) get(key, MetadataKeys.TYPE_INT);
+        }
+
+        @Override
+        public double getDouble(String key) {
+            return (Double) get(key, MetadataKeys.TYPE_DOUBLE);
+        }
+
+        @Override
+        public Calendar getDate(String key) {
+            Calendar date = Calendar.getInstance();
+            date.setTimeInMillis((Long) get(key, MetadataKeys.TYPE_DATE));
+            return date;
+        }
+
+        @Override
+        public long getTimeMillis(String key) {
+            return (Long) get(key, MetadataKeys.TYPE_MS);
+        }
+
+        @Override
+        public JSONArray getImages() {
+            return images;
+        }
+    }
+
+    private static JSONObject musicTrack(int i) throws JSONException {
+        return new JSONObject()
+                .put("metadataType", MediaMetadata.MEDIA_TYPE_MUSIC_TRACK)
+                .put("title", "Track " + i)
+                .put("artist", "Artist " + (i % 50))
+                .put("albumName", "Album " + (i % 100))
+                .put("albumArtist", "Artist " + (i % 50))
+                .put("trackNumber", i % 12 + 1)
+                .put("discNumber", 1)
+                .put("releaseDate", 1_700_000_000_000L + i * 1000L)
+                .put("images", new JSONArray().put(new JSONObject()
+                        .put("url", "https://example.com/art/" + i + ".jpg")
+                        .put("width", 512)
+                        .put("height", 512)))
+                .put("trackId", "track-" + i);
+    }
+
+    private static FakeMetadata decode(JSONObject metadata) {
+        FakeMetadata out = new FakeMetadata(MetadataCodec.mediaType(metadata));
+        MetadataCodec.decode(metadata, out.mediaType, out);
+        return out;
+    }
+
+    private static JSONObject encode(FakeMetadata metadata) {
+        JSONObject out = new JSONObject();
+        MetadataCodec.encode(metadata, out);
+        return out;
+    }
+
+    /**
+     * Asserts that the client gets back what it sent, plus the type field it always gets.
+     */
+    private static void assertRoundTrip(JSONObject sent, JSONObject received) throws JSONException {
+        JSONObject expected = new JSONObject(sent.toString())
+                .put("type", MetadataCodec.mediaType(sent));
+        if (!expected.has("images")) {
+            expected.put("images", new JSONArray());
+        }
+        assertSameValue("metadata", expected, received);
+    }
+
+    private static void assertSameValue(String path, Object expected, Object actual) throws JSONException {
+        if (expected instanceof Number && actual instanceof Number) {
+            // A number is a number on the JS side
+            assertEquals(path, ((Number) expected).doubleValue(), ((Number) actual).doubleValue(), 0);
+        } else if (expected instanceof JSONObject && actual instanceof JSONObject) {
+            JSONObject e = (JSONObject) expected;
+            JSONObject a = (JSONObject) actual;
+            assertEquals(path + " keys", keys(e), keys(a));
+            for (String key : keys(e)) {
+                assertSameValue(path + "." + key, e.get(key), a.get(key));
+            }
+        } else if (expected instanceof JSONArray && actual instanceof JSONArray) {
+            JSONArray e = (JSONArray) expected;
+            JSONArray a = (JSONArray) actual;
+            assertEquals(path + " length", e.length(), a.length());
+            for (int i = 0; i < e.length(); i++) {
+                assertSameValue(path + "[" + i + "]", e.get(i), a.get(i));
+            }
+        } else {
+            assertEquals(path, expected, actual);
+        }
+    }
+
+    private static Set<String> keys(JSONObject object) {
+        Set<String> keys = new java.util.TreeSet<>();
+        Iterator<String> it = object.keys();
+        while (it.hasNext()) {
+            keys.add(it.next());
+        }
+        return keys;
+    }
+
+    @Test
+    public void musicTracksRoundTrip() throws JSONException {
+        JSONObject sent = musicTrack(7);
+        assertRoundTrip(sent, encode(decode(sent)));
+        assertRoundTrip(sent, encode(decode(sent).viaReceiver()));
+    }
+
+    @Test
+    public void carriedKeysAreStoredOnce() throws JSONException {
+        JSONObject sent = musicTrack(7);
+        FakeMetadata metadata = decode(sent);
+        // Every key except metadataType and images
+        assertEquals(sent.length() - 2, metadata.writes);
+        assertEquals("Track 7", metadata.values.get(MediaMetadata.KEY_TITLE));
+        assertEquals(8, metadata.values.get(MediaMetadata.KEY_TRACK_NUMBER));
+    }
+
+    @Test
+    public void keysTheReceiverDropsSurvive() throws JSONException {
+        JSONObject sent = new JSONObject()
+                .put("metadataType", MediaMetadata.MEDIA_TYPE_TV_SHOW)
+                .put("title", "Pilot")
+                .put("seriesTitle", "Show")
+                .put("season", 1)
+                .put("episode", 1)
+                .put("subtitle", "Not kept for TV shows")
+                .put("trackNumber", 4)
+                .put("sectionDuration", 90_000L)
+                .put("rating", 4.5);
+        FakeMetadata received = decode(sent).viaReceiver();
+        assertFalse(received.values.containsKey(MediaMetadata.KEY_SUBTITLE));
+        assertRoundTrip(sent, encode(received));
+    }
+
+    @Test
+    public void valuesThatDontFitTheirKeyAreKept() throws JSONException {
+        // The stand-in throws for values of the wrong type, the codec must not store any
+        JSONObject sent = new JSONObject()
+                .put("metadataType", MediaMetadata.MEDIA_TYPE_MUSIC_TRACK)
+                .put("title", 42)
+                .put("trackNumber", "4a")
+                .put("discNumber", 1.5)
+                .put("releaseDate", 1_700_000_000_123L)
+                .put("composer", new JSONObject().put("name", "Someone"))
+                .put("explicit", true)
+                .put("tags", new JSONArray().put("a").put("b"))
+                .put("com.google.android.gms.cast.metadata.UNKNOWN", 3);
+        assertRoundTrip(sent, encode(decode(sent)));
+        assertRoundTrip(sent, encode(decode(sent).viaReceiver()));
+    }
+
+    @Test
+    public void aliasesAreKept() throws JSONException {
+        JSONObject sent = new JSONObject()
+                .put("metadataType", MediaMetadata.MEDIA_TYPE_TV_SHOW)
+                .put("originalAirDate", 1_600_000_000_000L);
+        JSONObject received = encode(decode(sent).viaReceiver());
+        assertEquals(1_600_000_000_000L, received.getLong("broadcastDate"));
+        received.remove("broadcastDate");
+        assertRoundTrip(sent, received);
+    }
+
+    @Test
+    public void stringCopiesOfOtherSendersAreRead() throws JSONException {
+        // Stored by versions that copied every value as a string
+        FakeMetadata metadata = new FakeMetadata(MediaMetadata.MEDIA_TYPE_TV_SHOW);
+        metadata.putString(MediaMetadata.KEY_TITLE, "Pilot");
+        metadata.putString(MetadataCodec.CLIENT_KEY_PREFIX + "title", "Pilot");
+        metadata.putString(MetadataCodec.CLIENT_KEY_PREFIX + "subtitle", "Dropped by the receiver");
+        metadata.putString("custom", "value");
+        JSONObject received = encode(metadata);
+        assertEquals("Pilot", received.getString("title"));
+        assertEquals("Dropped by the receiver", received.getString("subtitle"));
+        assertEquals("value", received.getString("custom"));
+        assertEquals(MediaMetadata.MEDIA_TYPE_TV_SHOW, received.getInt("metadataType"));
+    }
+
+    @Test
+    public void missingMetadataIsGeneric() throws JSONException {
+        assertEquals(MediaMetadata.MEDIA_TYPE_GENERIC, MetadataCodec.mediaType(null));
+        assertEquals(MediaMetadata.MEDIA_TYPE_GENERIC, MetadataCodec.mediaType(new JSONObject()));
+        assertEquals(MediaMetadata.MEDIA_TYPE_MOVIE, MetadataCodec.mediaType(new JSONObject().put("metadataType", "1")));
+    }
+
+    /**
+     * Converts the metadata of a 1,000 item queue to MediaMetadata and back, the way a queue
+     * load and the following status updates do.
+     */
+    @Test
+    public void queueConversionStoresEachValueOnce() throws JSONException {
+        JSONObject[] queue = new JSONObject[QUEUE_SIZE];
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            queue[i] = musicTrack(i);
+        }
+        FakeMetadata[] decoded = new FakeMetadata[QUEUE_SIZE];
+        int writes = 0;
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            decoded[i] = decode(queue[i]);
+            writes += decoded[i].writes;
+        }
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            assertRoundTrip(queue[i], encode(decoded[i]));
+        }
+        // One value per key, no copies
+        assertEquals(QUEUE_SIZE * (queue[0].length() - 2), writes);
+    }
+
+    /**
+     * Times the conversion of a 1,000 item queue's metadata both ways. Not part of the unit
+     * run, remove the {@code @Ignore} to run it.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void queueConversionBenchmark() throws JSONException {
+        JSONObject[] queue = new JSONObject[QUEUE_SIZE];
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            queue[i] = musicTrack(i);
+        }
+        // Warm up
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            encode(decode(queue[i]));
+        }
+        long start = System.nanoTime();
+        FakeMetadata[] decoded = new FakeMetadata[QUEUE_SIZE];
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            decoded[i] = decode(queue[i]);
+        }
+        long decodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            encode(decoded[i]);
+        }
+        long encodeNanos = System.nanoTime() - start;
+        System.out.println("Metadata of " + QUEUE_SIZE + " items: "
+                + TimeUnit.NANOSECONDS.toMicros(decodeNanos) + "us to MediaMetadata, "
+                + TimeUnit.NANOSECONDS.toMicros(encodeNanos) + "us back");
+    }
+}
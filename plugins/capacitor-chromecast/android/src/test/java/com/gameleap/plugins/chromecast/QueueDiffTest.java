@@ -0,0 +1,256 @@
+package com.gameleap.plugins.chromecast;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Local unit tests for {@link QueueDiff}.
+ *
+ * Each diff is applied to a simulated receiver queue, the same way QueueReconciler sends it
+ * (remove, then moves, then inserts, anchored on item IDs), and the result is compared with
+ * the desired queue.
+ */
+public class QueueDiffTest {
+
+    /** A simulated receiver item. */
+    private static final class Item {
+        final int itemId;
+        final String key;
+
+        Item(int itemId, String key) {
+            this.itemId = itemId;
+            this.key = key;
+        }
+    }
+
+    @Test
+    public void equalQueuesNeedNoEdits() {
+        QueueDiff diff = QueueDiff.compute(keys("a", "b", "c"), keys("a", "b", "c"));
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void emptyToFullIsOneInsert() {
+        QueueDiff diff = assertReconciles(keys(), keys("a", "b", "c"));
+        assertEquals(1, diff.inserts.size());
+        assertEquals(QueueDiff.END, diff.inserts.get(0).beforeCurrentIndex);
+        assertTrue(diff.moves.isEmpty());
+    }
+
+    @Test
+    public void fullToEmptyIsOneRemove() {
+        QueueDiff diff = assertReconciles(keys("a", "b", "c"), keys());
+        assertArrayEquals(new int[] {0, 1, 2}, diff.removedIndexes);
+        assertTrue(diff.moves.isEmpty());
+        assertTrue(diff.inserts.isEmpty());
+    }
+
+    @Test
+    public void appendIsOneInsertAtTheEnd() {
+        QueueDiff diff = assertReconciles(keys("a", "b"), keys("a", "b", "c", "d"));
+        assertEquals(1, diff.inserts.size());
+        assertArrayEquals(new int[] {2, 3}, diff.inserts.get(0).desiredIndexes);
+        assertEquals(QueueDiff.END, diff.inserts.get(0).beforeCurrentIndex);
+    }
+
+    @Test
+    public void singleMoveIsOneReorder() {
+        QueueDiff diff = assertReconciles(keys("a", "b", "c", "d", "e"), keys("a", "d", "b", "c", "e"));
+        assertEquals(0, diff.removedIndexes.length);
+        assertTrue(diff.inserts.isEmpty());
+        assertEquals(1, diff.moves.size());
+        assertArrayEquals(new int[] {3}, diff.moves.get(0).currentIndexes);
+    }
+
+    @Test
+    public void removesInsertsAndMovesTogether() {
+        assertReconciles(keys("a", "b", "c", "d", "e", "f"), keys("f", "x", "b", "y", "d", "a", "z"));
+    }
+
+    @Test
+    public void reversedQueue() {
+        assertReconciles(keys("a", "b", "c", "d", "e"), keys("e", "d", "c", "b", "a"));
+    }
+
+    @Test
+    public void duplicateKeys() {
+        assertReconciles(keys("a", "a", "b", "a", "c"), keys("a", "c", "a", "b", "b"));
+        assertReconciles(keys("a", "a", "a"), keys("a"));
+        assertReconciles(keys("a"), keys("a", "a", "a"));
+    }
+
+    @Test
+    public void randomEdits() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            List<String> current = randomKeys(random, random.nextInt(30), 20);
+            List<String> desired = new ArrayList<>(current);
+            int edits = random.nextInt(10);
+            for (int e = 0; e < edits; e++) {
+                int op = random.nextInt(3);
+                if (op == 0 || desired.isEmpty()) {
+                    desired.add(random.nextInt(desired.size() + 1), "k" + random.nextInt(40));
+                } else if (op == 1) {
+                    desired.remove(random.nextInt(desired.size()));
+                } else {
+                    String moved = desired.remove(random.nextInt(desired.size()));
+                    desired.add(random.nextInt(desired.size() + 1), moved);
+                }
+            }
+            assertReconciles(current, desired);
+        }
+    }
+
+    @Test
+    public void largeQueueWithFewChanges() {
+        List<String> current = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            current.add("track-" + i);
+        }
+        List<String> desired = new ArrayList<>(current);
+        Random random = new Random(7);
+        for (int e = 0; e < 50; e++) {
+            String moved = desired.remove(random.nextInt(desired.size()));
+            desired.add(random.nextInt(desired.size() + 1), moved);
+            desired.remove(random.nextInt(desired.size()));
+            desired.add(random.nextInt(desired.size() + 1), "new-" + e);
+        }
+
+        QueueDiff diff = assertReconciles(current, desired);
+        // Only the edited items are touched
+        int touched = diff.removedIndexes.length;
+        for (QueueDiff.Move move : diff.moves) {
+            touched += move.currentIndexes.length;
+        }
+        for (QueueDiff.Insert insert : diff.inserts) {
+            touched += insert.desiredIndexes.length;
+        }
+        assertTrue("Touched " + touched + " items", touched <= 150);
+    }
+
+    @Test
+    public void largeShuffledQueueReconciles() {
+        Random random = new Random(11);
+        List<String> current = randomKeys(random, 5000, 1_000_000);
+        List<String> desired = new ArrayList<>(current);
+        // The worst case, every item moves
+        Collections.shuffle(desired, random);
+
+        assertReconciles(current, desired);
+    }
+
+    /**
+     * Times diffs of a fully shuffled 5,000 item queue. Not part of the unit run, remove the
+     * {@code @Ignore} to run it.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void largeQueueBenchmark() {
+        Random random = new Random(11);
+        List<String> current = randomKeys(random, 5000, 1_000_000);
+        List<String> desired = new ArrayList<>(current);
+        Collections.shuffle(desired, random);
+
+        // Warm up, then time the fully shuffled worst case
+        for (int i = 0; i < 5; i++) {
+            QueueDiff.compute(current, desired);
+        }
+        int runs = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            QueueDiff.compute(current, desired);
+        }
+        long averageMicros = (System.nanoTime() - start) / runs / 1000;
+        System.out.println("QueueDiff 5000 shuffled items: " + averageMicros + "us per diff");
+    }
+
+    /**
+     * Applies the diff to a simulated receiver queue and checks it produces the desired keys.
+     */
+    private static QueueDiff assertReconciles(List<String> current, List<String> desired) {
+        QueueDiff diff = QueueDiff.compute(current, desired);
+
+        List<Item> queue = new ArrayList<>();
+        for (int i = 0; i < current.size(); i++) {
+            queue.add(new Item(i + 1, current.get(i)));
+        }
+        int nextItemId = current.size() + 1;
+
+        // Remove
+        List<Integer> removedIds = new ArrayList<>();
+        for (int index : diff.removedIndexes) {
+            removedIds.add(index + 1);
+        }
+        for (int i = queue.size() - 1; i >= 0; i--) {
+            if (removedIds.contains(queue.get(i).itemId)) {
+                queue.remove(i);
+            }
+        }
+
+        // Moves, anchored on item IDs
+        for (QueueDiff.Move move : diff.moves) {
+            List<Item> moved = new ArrayList<>();
+            for (int index : move.currentIndexes) {
+                Item item = find(queue, index + 1);
+                assertNotNull("Moved item was removed", item);
+                queue.remove(item);
+                moved.add(item);
+            }
+            queue.addAll(insertPosition(queue, move.beforeCurrentIndex), moved);
+        }
+
+        // Inserts, anchored on existing item IDs
+        for (QueueDiff.Insert insert : diff.inserts) {
+            List<Item> inserted = new ArrayList<>();
+            for (int index : insert.desiredIndexes) {
+                inserted.add(new Item(nextItemId++, desired.get(index)));
+            }
+            queue.addAll(insertPosition(queue, insert.beforeCurrentIndex), inserted);
+        }
+
+        List<String> result = new ArrayList<>();
+        for (Item item : queue) {
+            result.add(item.key);
+        }
+        assertEquals(desired, result);
+        return diff;
+    }
+
+    private static int insertPosition(List<Item> queue, int beforeCurrentIndex) {
+        if (beforeCurrentIndex == QueueDiff.END) {
+            return queue.size();
+        }
+        Item anchor = find(queue, beforeCurrentIndex + 1);
+        assertNotNull("Anchor is not in the queue", anchor);
+        return queue.indexOf(anchor);
+    }
+
+    private static Item find(List<Item> queue, int itemId) {
+        for (Item item : queue) {
+            if (item.itemId == itemId) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> keys(String... keys) {
+        return Arrays.asList(keys);
+    }
+
+    private static List<String> randomKeys(Random random, int count, int range) {
+        List<String> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            out.add("k" + random.nextInt(range));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,100 @@
+package com.gameleap.plugins.chromecast;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for {@link SessionListeners}, with a stand-in for the SDK objects listeners
+ * are registered on that counts the callbacks registered on it. What ChromecastSession
+ * registers is counted in {@link ChromecastSessionTest}.
+ */
+public class SessionListenersTest {
+    /** Counts the callbacks registered on it, like RemoteMediaClient.registerCallback. */
+    private static final class Source {
+        final Set<Object> callbacks = new LinkedHashSet<>();
+        int registrations = 0;
+
+        void register(Object callback) {
+            registrations++;
+            callbacks.add(callback);
+        }
+
+        void unregister(Object callback) {
+            callbacks.remove(callback);
+        }
+    }
+
+    private static SessionListeners.Registration registration(final Source source, final List<String> log, final String name) {
+        final Object callback = new Object();
+        return new SessionListeners.Registration() {
+            @Override
+            public void attach() {
+                source.register(callback);
+                log.add("attach " + name);
+            }
+
+            @Override
+            public void detach() {
+                source.unregister(callback);
+                log.add("detach " + name);
+            }
+        };
+    }
+
+    @Test
+    public void attachingAndDetachingTwiceDoesNothing() {
+        Source source = new Source();
+        List<String> log = new ArrayList<>();
+        SessionListeners listeners = new SessionListeners().add(registration(source, log, "a"));
+        listeners.attach();
+        listeners.attach();
+        assertEquals(1, source.registrations);
+        assertTrue(listeners.isAttached());
+        listeners.detach();
+        listeners.detach();
+        assertFalse(listeners.isAttached());
+        assertEquals(0, source.callbacks.size());
+        // Detached for good
+        listeners.attach();
+        assertEquals(1, source.registrations);
+    }
+
+    @Test
+    public void detachesInReverseOrder() {
+        Source source = new Source();
+        List<String> log = new ArrayList<>();
+        SessionListeners listeners = new SessionListeners()
+                .add(registration(source, log, "a"))
+                .add(registration(source, log, "b"));
+        listeners.attach();
+        // Added while attached: attached right away
+        listeners.add(registration(source, log, "c"));
+        assertEquals(3, source.callbacks.size());
+        listeners.detach();
+        assertEquals(3, listeners.size());
+        assertEquals("[attach a, attach b, attach c, detach c, detach b, detach a]", log.toString());
+    }
+
+    @Test
+    public void detachingUnattachedListenersUnregistersNothing() {
+        Source source = new Source();
+        List<String> log = new ArrayList<>();
+        SessionListeners listeners = new SessionListeners().add(registration(source, log, "a"));
+        listeners.detach();
+        assertTrue(log.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addingAfterDetachFails() {
+        SessionListeners listeners = new SessionListeners();
+        listeners.attach();
+        listeners.detach();
+        listeners.add(registration(new Source(), new ArrayList<String>(), "a"));
+    }
+}
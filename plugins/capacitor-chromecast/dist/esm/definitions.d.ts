@@ -1,7 +1,59 @@
-import { ListenerCallback, PluginListenerHandle } from '@capacitor/core';
+import { PluginListenerHandle } from '@capacitor/core';
+/**
+ * A MEDIA_UPDATE or SESSION_UPDATE event. The first event after a load, join or session end
+ * is the full state (isPatch false); later ones only hold the top-level fields that changed,
+ * with removed fields set to null.
+ */
+export declare type StatePatch<T> = Partial<{
+    [K in keyof T]: T[K] | null;
+}> & {
+    isPatch: boolean;
+};
+/** The fields of the media state that are delivered without waiting for the throttle */
+export interface MediaState {
+    playerState?: string;
+    idleReason?: string;
+    currentItemId?: number;
+    [field: string]: unknown;
+}
+/** The fields of the session state that are delivered without waiting for the throttle */
+export interface SessionState {
+    sessionId?: string;
+    status?: string;
+    [field: string]: unknown;
+}
 export interface ChromecastPlugin {
-    initialize(): Promise<void>;
+    initialize(options?: {
+        appId?: string;
+    }): Promise<void>;
     requestSession(): Promise<void>;
-    launchMedia(mediaUrl: string): Promise<boolean>;
-    addListener(eventName: string, listenerFunc: ListenerCallback): Promise<PluginListenerHandle> & PluginListenerHandle;
+    launchMedia(options: {
+        mediaUrl: string;
+    }): Promise<void>;
+    castPlay(): Promise<void>;
+    castPause(): Promise<void>;
+    castStop(): Promise<void>;
+    endSession(): Promise<void>;
+    /**
+     * Plays an item of the local queue on the receiver, from the receiver's queue if it has
+     * the item. skipped is false if the receiver plays nothing or the local queue has no
+     * such item.
+     */
+    skipToIndex(options: {
+        index: number;
+    }): Promise<{
+        skipped: boolean;
+    }>;
+    /**
+     * Sets the maximum rate of MEDIA_UPDATE and SESSION_UPDATE events, 4 per second by
+     * default. Player state, idle reason, item and session status changes are always
+     * delivered immediately.
+     */
+    setEventThrottle(options: {
+        /** 0 disables throttling */
+        maxUpdatesPerSecond?: number;
+    }): Promise<void>;
+    addListener(eventName: 'MEDIA_UPDATE', listenerFunc: (patch: StatePatch<MediaState>) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
+    addListener(eventName: 'SESSION_UPDATE', listenerFunc: (patch: StatePatch<SessionState>) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
+    addListener(eventName: string, listenerFunc: (data: unknown) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
 }
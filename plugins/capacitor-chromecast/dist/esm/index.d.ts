@@ -1,12 +1,3 @@
-export interface ChromecastPlugin {
-  initialize(options?: { appId?: string }): Promise<void>;
-  requestSession(): Promise<void>;
-  launchMedia(options: { mediaUrl: string }): Promise<void>;
-  castPlay(): Promise<void>;
-  castPause(): Promise<void>;
-  castStop(): Promise<void>;
-  endSession(): Promise<void>;
-  addListener(event: string, callback: (data: unknown) => void): Promise<{ remove: () => void }>;
-}
-
+import type { ChromecastPlugin } from './definitions';
+export * from './definitions';
 export declare const Chromecast: ChromecastPlugin;
@@ -1,5 +1,6 @@
 import React, { useState, useEffect, useRef } from 'react';
 import { Link, useLocation } from 'react-router-dom';
+import { Capacitor } from '@capacitor/core';
 import { nip19 } from 'nostr-tools';
 import { Card, CardContent } from '@/components/ui/card';
 import { Button } from '@/components/ui/button';
@@ -26,7 +27,9 @@ import { CommentDialog } from './CommentDialog';
 import { ZapDialog } from './ZapDialog';
 import { AddToPlaylistDialog } from './AddToPlaylistDialog';
 import { parseRSSEpisodeValueBlock } from '@/lib/rssParser';
-import { useChromecast } from '@/hooks/useChromecast';
+import { directMediaUrl } from '@/lib/mediaUrlResolver';
+import { useChromecast, type HandoffEvent } from '@/hooks/useChromecast';
+import { skipToQueueIndex } from '@/hooks/useAndroidAuto';
 import type { ValueBlock } from '@/lib/podcastindex';
 
 export function MusicPlayer() {
@@ -38,12 +41,64 @@ export function MusicPlayer() {
     nextTrack,
     previousTrack,
     playTrackByIndex,
-    setCasting
+    setCasting,
+    dispatch,
+    audioRef
   } = useMusicPlayer();
   const { user } = useCurrentUser();
   const { mutate: likeTrack, isPending: likePending } = useLikeTrack();
   const { data: likedSongs } = useLikedSongs();
-  const { isNative, isAvailable: castAvailable, isCasting, castMedia, castPlay, castPause, stopCasting } = useChromecast();
+  const [localHandoff, setLocalHandoff] = useState<{ event: HandoffEvent; trackChanged: boolean } | null>(null);
+  const {
+    isNative,
+    isAvailable: castAvailable,
+    isCasting,
+    requestSession,
+    castMedia,
+    castPlay,
+    castPause,
+    stopCasting,
+    setProgressInterval,
+    handoffToLocal,
+    completeHandoff,
+  } = useChromecast({
+    onProgress: ({ currentTime, duration }) => {
+      dispatch({ type: 'SET_CURRENT_TIME', payload: currentTime });
+      if (duration > 0) {
+        dispatch({ type: 'SET_DURATION', payload: duration });
+      }
+    },
+    onHandoff: (event) => {
+      if (event.direction === 'toCast') {
+        if (event.state === 'complete') {
+          // The receiver plays from where local audio was, stop local audio now
+          setCasting(true);
+        } else if (event.state === 'failed') {
+          console.warn('[MusicPlayer] Handoff to the receiver failed:', event.error);
+        }
+        return;
+      }
+      if (event.state === 'started') {
+        // Resume locally where the receiver is, it stops once local audio plays
+        const trackChanged = event.index >= 0 && event.index !== state.currentIndex;
+        if (trackChanged) {
+          playTrackByIndex(event.index);
+        } else if (audioRef.current) {
+          audioRef.current.currentTime = event.position;
+        }
+        dispatch({ type: 'SET_CURRENT_TIME', payload: event.position });
+        dispatch({ type: event.playing ? 'PLAY' : 'PAUSE' });
+        setCasting(false);
+        setLocalHandoff({ event, trackChanged });
+      } else if (event.state === 'failed') {
+        setLocalHandoff(null);
+        if (isCasting) {
+          // The receiver keeps playing
+          setCasting(true);
+        }
+      }
+    },
+  });
   const location = useLocation();
   const prevPathnameRef = useRef(location.pathname);
   const [isExpanded, setIsExpanded] = useState(false);
@@ -100,6 +155,12 @@ export function MusicPlayer() {
     };
   }, [isExpanded]);
 
+  // The expanded player's seek bar needs finer cast progress than the mini player's bar
+  useEffect(() => {
+    if (!isCasting) return;
+    setProgressInterval(isExpanded ? 250 : 1000);
+  }, [isCasting, isExpanded, setProgressInterval]);
+
   // Clear optimistic state when real data updates to match
   useEffect(() => {
     if (likedSongs && optimisticLikes.size > 0) {
@@ -161,6 +222,33 @@ export function MusicPlayer() {
     fetchValueBlock();
   }, [state.currentTrack]);
 
+  // Finish a handoff to local playback: seek the new track, then stop the receiver once local audio plays
+  useEffect(() => {
+    const audio = audioRef.current;
+    if (!localHandoff || !audio) return;
+    const { event, trackChanged } = localHandoff;
+    const finish = () => {
+      setLocalHandoff(null);
+      completeHandoff();
+    };
+    const seek = () => {
+      audio.currentTime = event.position;
+      if (!event.playing) finish();
+    };
+    if (trackChanged) {
+      audio.addEventListener('loadedmetadata', seek, { once: true });
+    } else if (!event.playing) {
+      finish();
+    }
+    if (event.playing) {
+      audio.addEventListener('playing', finish, { once: true });
+    }
+    return () => {
+      audio.removeEventListener('loadedmetadata', seek);
+      audio.removeEventListener('playing', finish);
+    };
+  }, [localHandoff, audioRef, completeHandoff]);
+
   if (!state.currentTrack) {
     return null;
   }
@@ -273,19 +361,6 @@ export function MusicPlayer() {
 
   const canZap = supportsZap();
 
-  // Helper to extract actual media URL (handles op3.dev wrapper URLs)
-  const getDirectMediaUrl = (mediaUrl: string | undefined): string => {
-    if (!mediaUrl) return '';
-    // If the mediaUrl contains op3.dev, extract the direct CloudFront URL
-    if (mediaUrl.includes('op3.dev')) {
-      const urlMatch = mediaUrl.match(/https:\/\/op3\.dev\/[^/]+\/(https:\/\/.*)/);
-      if (urlMatch) {
-        return urlMatch[1];
-      }
-    }
-    return mediaUrl;
-  };
-
   const handleAddToPlaylist = () => {
     setAddToPlaylistOpen(true);
   };
@@ -294,14 +369,19 @@ export function MusicPlayer() {
     if (!currentTrack) return;
 
     if (isCasting) {
-      // Stop casting and resume local playback
+      // Hand the receiver's position back to local playback (see onHandoff)
+      if (await handoffToLocal()) return;
+      // Nothing to hand back, stop casting and resume local playback
       setCasting(false);
       await stopCasting();
+    } else if (isNative && Capacitor.getPlatform() === 'android' && state.queue.length > 0) {
+      // The new session continues the queue reported to native code by useAndroidAuto (see onHandoff)
+      await requestSession();
     } else {
       // Start casting - this will pause local audio
       setCasting(true);
       // Cast the current track with direct URL
-      const directUrl = getDirectMediaUrl(currentTrack.mediaUrl);
+      const directUrl = directMediaUrl(currentTrack.mediaUrl);
       const success = await castMedia(directUrl);
       if (!success) {
         // If casting failed, revert
@@ -324,35 +404,40 @@ export function MusicPlayer() {
     togglePlayPause();
   };
 
-  // Handle next track - if casting, load the new track on Chromecast
+  // Play a queue track on Chromecast: native code routes it like the car's skips, so the
+  // receiver jumps to it in the queue it was loaded with. Only a receiver without that queue
+  // is sent the single track.
+  const castQueueTrack = async (index: number) => {
+    if (await skipToQueueIndex(index)) {
+      return;
+    }
+    const track = state.queue[index];
+    if (track) {
+      await castMedia(directMediaUrl(track.mediaUrl));
+    }
+  };
+
+  // Handle next track - if casting, play the new track on Chromecast
   const handleNextTrack = async () => {
     // Calculate the next index BEFORE updating state
     const nextIndex = state.currentIndex + 1;
 
     if (state.isCasting && nextIndex < state.queue.length) {
       // When casting, cast the next track first, then update UI state
-      const nextTrackItem = state.queue[nextIndex];
-      if (nextTrackItem) {
-        const directUrl = getDirectMediaUrl(nextTrackItem.mediaUrl);
-        await castMedia(directUrl);
-      }
+      await castQueueTrack(nextIndex);
     }
     // Update the UI state (this won't play locally because isCasting is true)
     nextTrack();
   };
 
-  // Handle previous track - if casting, load the previous track on Chromecast
+  // Handle previous track - if casting, play the previous track on Chromecast
   const handlePreviousTrack = async () => {
     // Calculate the previous index BEFORE updating state
     const prevIndex = state.currentIndex - 1;
 
     if (state.isCasting && prevIndex >= 0) {
       // When casting, cast the previous track first, then update UI state
-      const prevTrackItem = state.queue[prevIndex];
-      if (prevTrackItem) {
-        const directUrl = getDirectMediaUrl(prevTrackItem.mediaUrl);
-        await castMedia(directUrl);
-      }
+      await castQueueTrack(prevIndex);
     }
     // Update the UI state (this won't play locally because isCasting is true)
     previousTrack();
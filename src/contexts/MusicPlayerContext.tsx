@@ -5,6 +5,12 @@ import type { UnifiedTrack } from '@/lib/unifiedTrack';
 import { wavlakeToUnified } from '@/lib/unifiedTrack';
 import { useUpdateNowPlaying } from '@/hooks/useNostrMusic';
 import { useCurrentUser } from '@/hooks/useCurrentUser';
+import { canResolveMediaUrls, directMediaUrl, resolveMediaUrls } from '@/lib/mediaUrlResolver';
+
+/** How long a track change waits for its URL's redirects to be resolved natively */
+const RESOLVE_WAIT_MS = 1500;
+/** Number of upcoming tracks whose URLs are resolved ahead of time */
+const PREFETCH_AHEAD = 2;
 
 interface MusicPlayerState {
   currentTrack: UnifiedTrack | null;
@@ -266,23 +272,48 @@ export function MusicPlayerProvider({ children }: { children: React.ReactNode })
     const audio = audioRef.current;
     if (!audio || !state.currentTrack) return;
 
-    let mediaUrl = state.currentTrack.mediaUrl;
-    if (!mediaUrl) return; // Ensure mediaUrl is defined
-
-    // If the mediaUrl contains op3.dev, extract the direct CloudFront URL
-    if (mediaUrl.includes('op3.dev')) {
-      const urlMatch = mediaUrl.match(/https:\/\/op3\.dev\/[^/]+\/(https:\/\/.*)/);
-      if (urlMatch) {
-        mediaUrl = urlMatch[1];
-      }
-    }
-    audio.src = mediaUrl;
-    audio.load();
+    if (!state.currentTrack.mediaUrl) return; // Ensure mediaUrl is defined
+    const mediaUrl = directMediaUrl(state.currentTrack.mediaUrl);
 
     // Clear any previous error when a new track is set
     dispatch({ type: 'CLEAR_ERROR' });
+
+    if (!canResolveMediaUrls()) {
+      audio.src = mediaUrl;
+      audio.load();
+      return;
+    }
+
+    // The previous track must not keep playing while the new URL resolves,
+    // canplay starts the new one
+    audio.pause();
+    dispatch({ type: 'SET_LOADING', payload: true });
+
+    // Skip the redirect hops (usually prefetched while the previous track played)
+    let cancelled = false;
+    resolveMediaUrls([mediaUrl], RESOLVE_WAIT_MS).then(([resolvedUrl]) => {
+      if (cancelled) return;
+      audio.src = resolvedUrl;
+      audio.load();
+    });
+    return () => {
+      cancelled = true;
+    };
   }, [state.currentTrack]); // Removed state.isPlaying dependency
 
+  // Resolve the redirects of the upcoming tracks ahead of time
+  useEffect(() => {
+    if (!canResolveMediaUrls()) return;
+    const upcoming = state.queue
+      .slice(state.currentIndex + 1, state.currentIndex + 1 + PREFETCH_AHEAD)
+      .map((track) => track.mediaUrl)
+      .filter((mediaUrl) => !!mediaUrl)
+      .map(directMediaUrl);
+    if (upcoming.length > 0) {
+      resolveMediaUrls(upcoming);
+    }
+  }, [state.queue, state.currentIndex]);
+
   // Handle play/pause based on isPlaying state
   useEffect(() => {
     const audio = audioRef.current;
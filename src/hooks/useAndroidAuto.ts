@@ -1,6 +1,7 @@
 import { useEffect, useRef } from 'react';
 import { Capacitor, registerPlugin } from '@capacitor/core';
 import { useMusicPlayer } from '@/contexts/MusicPlayerContext';
+import { toCastQueueItem, type CastQueueItem } from '@/lib/castQueue';
 
 interface AndroidAutoPlugin {
   updateMetadata(options: {
@@ -23,24 +24,107 @@ interface AndroidAutoPlugin {
       album: string;
       artworkUrl: string;
       duration: number;
+      /** The track for the receiver's queue, a new cast session continues the queue */
+      cast: CastQueueItem;
     }>;
     currentIndex: number;
+    /** chrome.cast.media.RepeatMode the receiver plays the queue with, REPEAT_OFF if not given */
+    repeatMode?: 'REPEAT_OFF' | 'REPEAT_ALL' | 'REPEAT_SINGLE' | 'REPEAT_ALL_AND_SHUFFLE';
   }): Promise<void>;
-  isAvailable(): Promise<{ available: boolean }>;
+  updateQueueIndex(options: { currentIndex: number }): Promise<void>;
+  /** Plays a queue track on the active output, skipped is false if the local player should play it */
+  skipToIndex(options: { index: number }): Promise<{ skipped: boolean }>;
+  /**
+   * available: Play Services are present and the media browser service is declared.
+   * running / initialized: the service exists / its media session is active.
+   */
+  isAvailable(): Promise<{ available: boolean; playServices: boolean; running: boolean; initialized: boolean }>;
 }
 
 // Register the plugin
 const AndroidAuto = registerPlugin<AndroidAutoPlugin>('AndroidAuto');
 
+/**
+ * Plays a queue track on the receiver if it is the active output, routed like the car's skips
+ * by the native PlaybackCoordinator. Resolves false if the local player should play it.
+ */
+export async function skipToQueueIndex(index: number): Promise<boolean> {
+  if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
+    return false;
+  }
+  try {
+    const { skipped } = await AndroidAuto.skipToIndex({ index });
+    return skipped;
+  } catch (error) {
+    console.error('[AndroidAuto] skipToIndex failed:', error);
+    return false;
+  }
+}
+
+/** How far (in seconds) the position may drift from the last reported one before it is reported again */
+const POSITION_DRIFT_S = 1;
+
 /**
  * Hook that integrates the music player with Android Auto.
  * This enables playback control from car head units.
+ *
+ * The native PlaybackCoordinator owns what the media session shows: it gets the queue when
+ * it changes (with the receiver's version of each track), the index when only that changes,
+ * and the local player's state on play, pause and seeks, and extrapolates the position in
+ * between. While a receiver plays, the
+ * coordinator follows the receiver instead and reports it back as 'nativePlaybackState'.
  */
 export function useAndroidAuto() {
-  const { state, togglePlayPause, nextTrack, previousTrack, seekTo, playTrackByIndex } = useMusicPlayer();
+  const { state, dispatch, togglePlayPause, nextTrack, previousTrack, seekTo, playTrackByIndex } = useMusicPlayer();
   const lastTrackIdRef = useRef<string | null>(null);
-  const lastPlayingRef = useRef<boolean | null>(null);
-  const updateIntervalRef = useRef<ReturnType<typeof setInterval> | null>(null);
+  const lastReportRef = useRef<{ position: number; playing: boolean; at: number } | null>(null);
+  const lastQueueRef = useRef<typeof state.queue | null>(null);
+
+  // Follow the receiver while it plays. Native skips these events while the app is in the
+  // background, the snapshot sent when it comes back has the receiver's latest state.
+  useEffect(() => {
+    if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
+      return;
+    }
+
+    const applyNativeState = (index: number, position: number, playing: boolean) => {
+      if (index >= 0 && index !== state.currentIndex) {
+        dispatch({ type: 'PLAY_TRACK_BY_INDEX', payload: index });
+      }
+      dispatch({ type: playing ? 'PLAY' : 'PAUSE' });
+      dispatch({ type: 'SET_CURRENT_TIME', payload: position });
+    };
+
+    const handleNativePlaybackState = (event: CustomEvent<{
+      output: 'cast';
+      index: number;
+      position: number;
+      playing: boolean;
+    }>) => {
+      const { index, position, playing } = event.detail;
+      applyNativeState(index, position, playing);
+    };
+
+    const handleBackgroundMode = (event: CustomEvent<{
+      active: boolean;
+      snapshot?: { output: 'cast' | 'local'; playing: boolean; position: number; title: string; queueIndex: number };
+    }>) => {
+      const { active, snapshot } = event.detail;
+      console.log('[AndroidAuto] Background mode:', active, snapshot);
+      // The local player is the source of its own state, only the receiver's is applied
+      if (!active && snapshot?.output === 'cast') {
+        applyNativeState(snapshot.queueIndex, snapshot.position, snapshot.playing);
+      }
+    };
+
+    window.addEventListener('nativePlaybackState', handleNativePlaybackState as EventListener);
+    window.addEventListener('nativeBackgroundMode', handleBackgroundMode as EventListener);
+
+    return () => {
+      window.removeEventListener('nativePlaybackState', handleNativePlaybackState as EventListener);
+      window.removeEventListener('nativeBackgroundMode', handleBackgroundMode as EventListener);
+    };
+  }, [state.currentIndex, dispatch]);
 
   // Handle Android Auto commands
   useEffect(() => {
@@ -105,13 +189,13 @@ export function useAndroidAuto() {
     };
   }, [state.isPlaying, togglePlayPause, nextTrack, previousTrack, seekTo, playTrackByIndex]);
 
-  // Update metadata when track changes
+  // Update metadata when a track outside the queue plays, native publishes the queue's own
   useEffect(() => {
     if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
       return;
     }
 
-    if (!state.currentTrack) return;
+    if (!state.currentTrack || state.queue.length > 0) return;
 
     const trackId = state.currentTrack.id;
     if (lastTrackIdRef.current === trackId) return;
@@ -133,17 +217,26 @@ export function useAndroidAuto() {
     };
 
     updateMetadata();
-  }, [state.currentTrack, state.duration]);
+  }, [state.currentTrack, state.queue.length, state.duration]);
 
-  // Update playback state when playing/paused
+  // Report play, pause and seeks; native advances the position in between
   useEffect(() => {
     if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
       return;
     }
 
-    // Only update if state actually changed
-    if (lastPlayingRef.current === state.isPlaying) return;
-    lastPlayingRef.current = state.isPlaying;
+    // The receiver's state reaches native directly
+    if (state.isCasting) {
+      lastReportRef.current = null;
+      return;
+    }
+
+    const last = lastReportRef.current;
+    if (last && last.playing === state.isPlaying) {
+      const expected = last.position + (last.playing ? (Date.now() - last.at) / 1000 : 0);
+      if (Math.abs(state.currentTime - expected) < POSITION_DRIFT_S) return;
+    }
+    lastReportRef.current = { position: state.currentTime, playing: state.isPlaying, at: Date.now() };
 
     const updatePlaybackState = async () => {
       try {
@@ -159,53 +252,25 @@ export function useAndroidAuto() {
     };
 
     updatePlaybackState();
-  }, [state.isPlaying, state.currentTime]);
+  }, [state.isPlaying, state.currentTime, state.isCasting]);
 
-  // Update position periodically during playback
+  // Send the queue when it changes, and only the index when just the index changes
   useEffect(() => {
     if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
       return;
     }
 
-    // Clear existing interval
-    if (updateIntervalRef.current) {
-      clearInterval(updateIntervalRef.current);
-      updateIntervalRef.current = null;
-    }
-
-    if (!state.isPlaying) return;
-
-    const updatePosition = async () => {
-      try {
-        await AndroidAuto.updatePlaybackState({
-          playing: state.isPlaying,
-          position: state.currentTime,
-          speed: 1.0,
-        });
-      } catch {
-        // Silently fail position updates
-      }
-    };
-
-    // Update every 5 seconds
-    updateIntervalRef.current = setInterval(updatePosition, 5000);
-
-    return () => {
-      if (updateIntervalRef.current) {
-        clearInterval(updateIntervalRef.current);
-        updateIntervalRef.current = null;
-      }
-    };
-  }, [state.isPlaying, state.currentTime]);
-
-  // Update queue when it changes
-  useEffect(() => {
-    if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== 'android') {
+    if (lastQueueRef.current === state.queue) {
+      // While casting the index follows the receiver, which native already knows
+      if (state.isCasting) return;
+      AndroidAuto.updateQueueIndex({ currentIndex: state.currentIndex }).catch((error) => {
+        console.error('[AndroidAuto] Failed to update queue index:', error);
+      });
       return;
     }
+    lastQueueRef.current = state.queue;
 
-    if (state.queue.length === 0) return;
-
+    // An empty queue clears the one native holds
     const updateQueue = async () => {
       try {
         const tracks = state.queue.map((track) => ({
@@ -215,6 +280,7 @@ export function useAndroidAuto() {
           album: track.albumTitle || '',
           artworkUrl: track.albumArtUrl || '',
           duration: track.duration || 0,
+          cast: toCastQueueItem(track),
         }));
 
         await AndroidAuto.updateQueue({
@@ -228,5 +294,5 @@ export function useAndroidAuto() {
     };
 
     updateQueue();
-  }, [state.queue, state.currentIndex]);
+  }, [state.queue, state.currentIndex, state.isCasting]);
 }
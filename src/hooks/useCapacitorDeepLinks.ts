@@ -1,19 +1,52 @@
 import { useEffect } from 'react';
 import { useNavigate } from 'react-router-dom';
-import { Capacitor } from '@capacitor/core';
+import { useQueryClient } from '@tanstack/react-query';
+import { Capacitor, registerPlugin } from '@capacitor/core';
 import { App, URLOpenListenerEvent } from '@capacitor/app';
 
+interface DeepLinkPrefetchPlugin {
+  consume(options: { url: string }): Promise<{
+    found: boolean;
+    type?: 'album' | 'artist';
+    id?: string;
+    data?: unknown;
+  }>;
+}
+
+// Native side starts fetching deep-linked Wavlake content while the WebView boots
+const DeepLinkPrefetch = registerPlugin<DeepLinkPrefetchPlugin>('DeepLinkPrefetch');
+
+// Don't hold up navigation for long if the native prefetch is slow
+const PREFETCH_WAIT_MS = 1500;
+
 /**
  * Hook that handles deep links from Capacitor App plugin.
  * This enables the app to open when users click links to zaptrax.app
  */
 export function useCapacitorDeepLinks() {
   const navigate = useNavigate();
+  const queryClient = useQueryClient();
 
   useEffect(() => {
     if (!Capacitor.isNativePlatform()) return;
 
-    const handleAppUrlOpen = (event: URLOpenListenerEvent) => {
+    const seedPrefetchedContent = async (url: string) => {
+      if (Capacitor.getPlatform() !== 'android') return;
+      try {
+        const result = await Promise.race([
+          DeepLinkPrefetch.consume({ url }),
+          new Promise<null>((resolve) => setTimeout(() => resolve(null), PREFETCH_WAIT_MS)),
+        ]);
+        if (result?.found && result.id && result.data) {
+          queryClient.setQueryData([`wavlake-${result.type}`, result.id], result.data);
+          console.log('[DeepLink] Using prefetched', result.type, result.id);
+        }
+      } catch (error) {
+        console.warn('[DeepLink] Prefetch unavailable:', error);
+      }
+    };
+
+    const handleAppUrlOpen = async (event: URLOpenListenerEvent) => {
       console.log('[DeepLink] URL opened:', event.url);
 
       try {
@@ -23,6 +56,7 @@ export function useCapacitorDeepLinks() {
         if (url.hostname === 'zaptrax.app') {
           // Navigate to the path from the URL
           const path = url.pathname + url.search + url.hash;
+          await seedPrefetchedContent(event.url);
           console.log('[DeepLink] Navigating to:', path);
           navigate(path);
         }
@@ -45,5 +79,5 @@ export function useCapacitorDeepLinks() {
     return () => {
       App.removeAllListeners();
     };
-  }, [navigate]);
+  }, [navigate, queryClient]);
 }
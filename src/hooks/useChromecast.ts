@@ -1,4 +1,4 @@
-import { useState, useEffect, useCallback } from 'react';
+import { useState, useEffect, useCallback, useRef } from 'react';
 import { Capacitor } from '@capacitor/core';
 
 // Only import on native platforms
@@ -10,6 +10,9 @@ let Chromecast: {
   castPause: () => Promise<void>;
   castStop: () => Promise<void>;
   endSession: () => Promise<void>;
+  setProgressInterval: (options: { intervalMs: number }) => Promise<void>;
+  handoffToLocal: () => Promise<HandoffEvent>;
+  completeHandoff: () => Promise<void>;
   addListener: (event: string, callback: (data: unknown) => void) => Promise<{ remove: () => void }>;
 } | null = null;
 
@@ -28,7 +31,45 @@ interface ChromecastState {
   error: string | null;
 }
 
-export function useChromecast() {
+interface CastProgress {
+  currentTime: number;
+  duration: number;
+}
+
+/** Progress of a handoff between the local player and the receiver */
+export interface HandoffEvent {
+  direction: 'toCast' | 'toLocal';
+  state: 'started' | 'complete' | 'failed';
+  /** Index of the item in the local queue, -1 if the receiver plays something else */
+  index: number;
+  /** Position in seconds */
+  position: number;
+  playing: boolean;
+  contentId: string | null;
+  error?: string;
+}
+
+/** The fields of SESSION_LISTENER (full) and SESSION_UPDATE (patch) events used here */
+interface CastSessionEvent {
+  sessionId?: string;
+  status?: 'connected' | 'disconnected' | 'stopped';
+  /** Whether this is the state saved before the app restarted, not yet confirmed by the receiver */
+  cached?: boolean | null;
+  media?: { playerState?: string }[];
+}
+
+interface UseChromecastOptions {
+  /** Called with the receiver's playback position (in seconds) while casting */
+  onProgress?: (progress: CastProgress) => void;
+  /**
+   * Called as playback is handed over. The local player keeps playing until a toCast
+   * handoff completes, and resumes at the event's index and position when a toLocal
+   * handoff starts (then calls completeHandoff).
+   */
+  onHandoff?: (event: HandoffEvent) => void;
+}
+
+export function useChromecast(options: UseChromecastOptions = {}) {
   const [state, setState] = useState<ChromecastState>({
     isAvailable: false,
     isConnected: false,
@@ -36,6 +77,10 @@ export function useChromecast() {
     error: null,
   });
   const [initialized, setInitialized] = useState(false);
+  const onProgressRef = useRef(options.onProgress);
+  onProgressRef.current = options.onProgress;
+  const onHandoffRef = useRef(options.onHandoff);
+  onHandoffRef.current = options.onHandoff;
 
   // Initialize Chromecast
   useEffect(() => {
@@ -70,6 +115,121 @@ export function useChromecast() {
     init();
   }, []);
 
+  // Receive native progress ticks while casting instead of polling the receiver
+  useEffect(() => {
+    if (!Chromecast || !state.isCasting) return;
+
+    let handle: { remove: () => void } | null = null;
+    let cancelled = false;
+    Chromecast.addListener('MEDIA_PROGRESS', (data) => {
+      onProgressRef.current?.(data as CastProgress);
+    }).then((h) => {
+      if (cancelled) {
+        h.remove();
+      } else {
+        handle = h;
+      }
+    });
+
+    return () => {
+      cancelled = true;
+      handle?.remove();
+    };
+  }, [state.isCasting]);
+
+  // Follow handoffs between the local player and the receiver
+  useEffect(() => {
+    if (!Chromecast || !initialized) return;
+
+    let handle: { remove: () => void } | null = null;
+    let cancelled = false;
+    Chromecast.addListener('HANDOFF', (data) => {
+      const event = data as HandoffEvent;
+      if (event.direction === 'toCast' && event.state === 'complete') {
+        setState((prev) => ({ ...prev, isCasting: true, isConnected: true, error: null }));
+      } else if (event.direction === 'toLocal' && event.state === 'complete') {
+        setState((prev) => ({ ...prev, isCasting: false, isConnected: false }));
+      }
+      onHandoffRef.current?.(event);
+    }).then((h) => {
+      if (cancelled) {
+        h.remove();
+      } else {
+        handle = h;
+      }
+    });
+
+    return () => {
+      cancelled = true;
+      handle?.remove();
+    };
+  }, [initialized]);
+
+  // Follow the session: one from before the app restarted is reported right away (cached: true),
+  // then updated from the live session, or reported stopped if it is gone
+  useEffect(() => {
+    if (!Chromecast || !initialized) return;
+
+    const handles: { remove: () => void }[] = [];
+    let cancelled = false;
+    const keep = (h: { remove: () => void }) => {
+      if (cancelled) {
+        h.remove();
+      } else {
+        handles.push(h);
+      }
+    };
+    Chromecast.addListener('SESSION_LISTENER', (data) => {
+      const session = data as CastSessionEvent;
+      const playing = (session.media ?? []).some((media) => media.playerState !== 'IDLE');
+      setState((prev) => ({ ...prev, isConnected: true, isCasting: playing, error: null }));
+    }).then(keep);
+    Chromecast.addListener('SESSION_UPDATE', (data) => {
+      const status = (data as CastSessionEvent).status;
+      if (status === 'stopped' || status === 'disconnected') {
+        setState((prev) => ({ ...prev, isConnected: false, isCasting: false }));
+      }
+    }).then(keep);
+
+    return () => {
+      cancelled = true;
+      handles.forEach((h) => h.remove());
+    };
+  }, [initialized]);
+
+  // Start handing the receiver's item over to the local player; false if there is nothing to hand over
+  const handoffToLocal = useCallback(async () => {
+    if (!Chromecast || !state.isCasting) return false;
+    try {
+      await Chromecast.handoffToLocal();
+      return true;
+    } catch (error) {
+      console.error('[Chromecast] handoffToLocal failed:', error);
+      return false;
+    }
+  }, [state.isCasting]);
+
+  // The local player took over, stop the receiver
+  const completeHandoff = useCallback(async () => {
+    if (!Chromecast) return;
+    try {
+      await Chromecast.completeHandoff();
+    } catch (error) {
+      console.error('[Chromecast] completeHandoff failed:', error);
+    }
+    setState((prev) => ({ ...prev, isCasting: false, isConnected: false }));
+  }, []);
+
+  // Change how often progress ticks are sent (e.g. faster while a seek bar is visible)
+  const setProgressInterval = useCallback(async (intervalMs: number) => {
+    if (!Chromecast || !initialized) return;
+    try {
+      await Chromecast.setProgressInterval({ intervalMs });
+    } catch (error) {
+      console.error('[Chromecast] setProgressInterval failed:', error);
+    }
+  }, [initialized]);
+
   // Request a Chromecast session (show device picker)
   const requestSession = useCallback(async () => {
     console.log('[Chromecast] requestSession called, initialized:', initialized);
@@ -181,6 +341,9 @@ export function useChromecast() {
     castPlay,
     castPause,
     stopCasting,
+    setProgressInterval,
+    handoffToLocal,
+    completeHandoff,
     isNative: Capacitor.isNativePlatform(),
   };
 }
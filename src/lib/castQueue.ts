@@ -0,0 +1,35 @@
+import type { UnifiedTrack } from '@/lib/unifiedTrack';
+import { directMediaUrl } from '@/lib/mediaUrlResolver';
+
+/** A chrome.cast.media.QueueItem, as the Chromecast plugin loads it */
+export interface CastQueueItem {
+  media: {
+    contentId: string;
+    contentType: string;
+    streamType: 'buffered';
+    metadata?: Record<string, unknown>;
+  };
+  autoplay?: boolean;
+}
+
+/** chrome.cast.media.MetadataType.MUSIC_TRACK */
+const MUSIC_TRACK = 3;
+
+/** Describes a track for the receiver's queue */
+export function toCastQueueItem(track: UnifiedTrack): CastQueueItem {
+  return {
+    media: {
+      contentId: directMediaUrl(track.mediaUrl),
+      contentType: 'audio/mpeg',
+      streamType: 'buffered',
+      metadata: {
+        metadataType: MUSIC_TRACK,
+        title: track.title,
+        artist: track.artist,
+        albumName: track.albumTitle,
+        images: track.albumArtUrl ? [{ url: track.albumArtUrl }] : [],
+      },
+    },
+    autoplay: true,
+  };
+}
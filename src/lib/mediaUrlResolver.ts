@@ -0,0 +1,53 @@
+import { Capacitor } from '@capacitor/core';
+
+interface MediaUrlResolverPlugin {
+  resolveMediaUrls: (options: { urls: string[]; waitMs?: number }) => Promise<{ urls: string[] }>;
+}
+
+let plugin: Promise<MediaUrlResolverPlugin | null> | null = null;
+
+function getPlugin(): Promise<MediaUrlResolverPlugin | null> {
+  if (!plugin) {
+    plugin = Capacitor.getPlatform() === 'android'
+      ? import('@gameleap/capacitor-chromecast')
+        .then((module) => module.Chromecast as unknown as MediaUrlResolverPlugin)
+        .catch(() => null)
+      : Promise.resolve(null);
+  }
+  return plugin;
+}
+
+/**
+ * The URL a track's media is played and cast from: op3.dev analytics prefixes are stripped,
+ * leaving the direct (CloudFront) URL.
+ */
+export function directMediaUrl(mediaUrl: string): string {
+  const urlMatch = mediaUrl.match(/https:\/\/op3\.dev\/[^/]+\/(https:\/\/.*)/);
+  return urlMatch ? urlMatch[1] : mediaUrl;
+}
+
+/** Whether media URL redirects can be resolved natively on this platform */
+export function canResolveMediaUrls(): boolean {
+  return Capacitor.getPlatform() === 'android';
+}
+
+/**
+ * Follows the redirects of media URLs natively, so the player loads the final (CDN) URLs
+ * directly. Final URLs are cached on the native side and shared with casting.
+ *
+ * URLs not resolved within waitMs are returned as they are (and resolved in the background,
+ * so waitMs 0 prefetches them). Never rejects.
+ */
+export async function resolveMediaUrls(urls: string[], waitMs = 0): Promise<string[]> {
+  const resolver = await getPlugin();
+  if (!resolver || urls.length === 0) {
+    return urls;
+  }
+  try {
+    const result = await resolver.resolveMediaUrls({ urls, waitMs });
+    return result.urls.map((url, i) => url || urls[i]);
+  } catch (error) {
+    console.warn('[mediaUrlResolver] resolveMediaUrls failed:', error);
+    return urls;
+  }
+}